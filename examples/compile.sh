@@ -3,6 +3,7 @@ cd `dirname "$0"`
 
 if [ -z "$1" -o "$1" = "-h" -o "$1" = "--help" ]; then
     echo "Usage: $0 program.mini"
+    echo "Compiler options like -O2 can be given in MINICOMPILER_FLAGS."
     exit 0
 fi
 
@@ -16,7 +17,7 @@ for SRC in "$@"; do
     EXECUTABLE="executable-$BASENAME"
 
     echo "Compiling $SRC"
-    java -jar ../target/minicompiler-dev.jar "$SRC" > "$BASENAME.s"
+    java -jar ../target/minicompiler-dev.jar $MINICOMPILER_FLAGS "$SRC" > "$BASENAME.s"
     echo "Assembling $BASENAME.s"
     as --32 -march=i686 -o "$BASENAME.o" "$BASENAME.s"
     echo "Linking $BASENAME.o"
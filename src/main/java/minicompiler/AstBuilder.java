@@ -0,0 +1,91 @@
+package minicompiler;
+
+import java.util.List;
+import minicompiler.ast.*;
+import minicompiler.misc.Symbols;
+import minicompiler.types.Type;
+
+/** Parser actions that build an AST. */
+class AstBuilder implements ParseActions<Statement, Expr> {
+    private final Symbols symbols;
+
+    public AstBuilder(Symbols symbols) {
+        this.symbols = symbols;
+    }
+
+    public Expr intConst(int value) {
+        return new IntConst(value);
+    }
+
+    public Expr boolConst(boolean value) {
+        return new BoolConst(value);
+    }
+
+    public Expr var(int name) {
+        return new Var(symbols.name(name));
+    }
+
+    public Expr call(int function, List<Expr> arguments) {
+        return new FunctionCall(symbols.name(function), arguments);
+    }
+
+    public Expr unaryOp(int op, Expr operand) {
+        return new UnaryOp(symbols.name(op), operand);
+    }
+
+    public Expr binaryOp(Expr left, int op, Expr right) {
+        return new BinaryOp(left, symbols.name(op), right);
+    }
+
+    public Statement expressionStatement(Expr expr) {
+        return expr;
+    }
+
+    public void declarationStarted(int varName, Type type) {
+    }
+
+    public Statement declaration(int varName, Type type, Expr expr) {
+        return new Declaration(symbols.name(varName), type, expr);
+    }
+
+    public void assignmentStarted(int varName) {
+    }
+
+    public Statement assignment(int varName, Expr expr) {
+        return new Assignment(symbols.name(varName), expr);
+    }
+
+    public void blockStarted() {
+    }
+
+    public Statement block(List<Statement> statements) {
+        return new Block(statements);
+    }
+
+    public void whileStarted() {
+    }
+
+    public void whileHeadParsed(Expr head) {
+    }
+
+    public Statement whileLoop(Expr head, Statement body) {
+        return new WhileLoop(head, body);
+    }
+
+    public void ifStarted() {
+    }
+
+    public void ifConditionParsed(Expr condition) {
+    }
+
+    public void thenClauseParsed(Statement thenClause, boolean hasElseClause) {
+    }
+
+    public Statement ifStatement(Expr condition, Statement thenClause, Statement elseClause) {
+        if (elseClause == null) {
+            return new IfStatement(condition, thenClause);
+        } else {
+            return new IfStatement(condition, thenClause, elseClause);
+        }
+    }
+}
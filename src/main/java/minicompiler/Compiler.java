@@ -1,27 +1,154 @@
 package minicompiler;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import minicompiler.ast.FlatAst;
 import minicompiler.ast.Statement;
 import minicompiler.backend.ia32.IA32CodeGen;
-import minicompiler.ir.IrCommand;
+import minicompiler.ir.IrFile;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.pass.OptimizationLevel;
+import minicompiler.ir.pass.PassManager;
 import minicompiler.misc.StreamUtils;
+import minicompiler.misc.Symbols;
 import minicompiler.types.StdlibTypes;
 
 /**
  * Invokes the compiler's stages in the correct order to produce assembly code from source code.
  */
 public class Compiler {
+    /** How the source is turned into IR. */
+    public static enum FrontEnd {
+        /** Parse into an AST, then type check it and generate IR from it. */
+        SEPARATE_PASSES,
+        /**
+         * Type check and generate IR while parsing, without building an AST.
+         * See {@link SinglePassFrontEnd}.
+         */
+        SINGLE_PASS
+    }
+    
     public static void compile(Reader sourceCodeReader, Writer asmOutput) throws IOException {
-        String sourceCode = StreamUtils.readAll(sourceCodeReader);
-        ArrayList<Token> tokens = Tokenizer.tokenize(sourceCode);
-        Statement stmt = Parser.parseStatement(tokens);
-        TypeChecker.checkTypes(stmt, StdlibTypes.getTypes());
-        List<IrCommand> irCommands = IrGenerator.generate(stmt);
-        List<String> asmLines = IA32CodeGen.generateAsmProgram(irCommands);
+        compile(sourceCodeReader, asmOutput, FrontEnd.SEPARATE_PASSES);
+    }
+    
+    public static void compile(Reader sourceCodeReader, Writer asmOutput, FrontEnd frontEnd) throws IOException {
+        generateAsm(compileToIr(sourceCodeReader, frontEnd), asmOutput);
+    }
+    
+    /** Compiles with the given front end and runs the passes of the pass manager on the IR. */
+    public static void compile(Reader sourceCodeReader, Writer asmOutput, FrontEnd frontEnd, PassManager passes) throws IOException {
+        generateAsm(passes.run(compileToIr(sourceCodeReader, frontEnd, passes.getLevel())), asmOutput);
+    }
+    
+    /** Runs the front end on source code. */
+    public static PackedIr compileToIr(Reader sourceCodeReader, FrontEnd frontEnd) throws IOException {
+        return compileToIr(sourceCodeReader, frontEnd, OptimizationLevel.O0);
+    }
+    
+    /**
+     * Runs the front end on source code.
+     * From O1 up, the AST is simplified with {@link Simplifier} before generating IR.
+     * The single-pass front end has no AST, so it ignores the level.
+     */
+    public static PackedIr compileToIr(Reader sourceCodeReader, FrontEnd frontEnd, OptimizationLevel level) throws IOException {
+        Symbols symbols = new Symbols();
+        try {
+            TokenStream tokens = Tokenizer.stream(SourceText.fromReader(sourceCodeReader), symbols);
+            if (frontEnd == FrontEnd.SINGLE_PASS) {
+                return PackedIr.fromCommands(SinglePassFrontEnd.generate(tokens, StdlibTypes.getTypes()), symbols);
+            } else {
+                return compileToIr(Parser.parseStatement(tokens), symbols, level);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Compiles an ASCII source file, or an {@link IrFile} written earlier.
+     * 
+     * <p>
+     * The file is memory-mapped and tokenized straight from the mapped bytes
+     * into a {@link TokenBuffer}, so it is never decoded or copied into a String.
+     * Big files are tokenized and parsed on several threads.
+     */
+    public static void compile(File sourceFile, Writer asmOutput) throws IOException {
+        compile(sourceFile, asmOutput, FrontEnd.SEPARATE_PASSES);
+    }
+    
+    /**
+     * Compiles an ASCII source file with the given front end.
+     * The single-pass front end reads the tokens in one go, so it doesn't parse in parallel.
+     */
+    public static void compile(File sourceFile, Writer asmOutput, FrontEnd frontEnd) throws IOException {
+        generateAsm(compileToIr(sourceFile, frontEnd), asmOutput);
+    }
+    
+    /** Compiles a file with the given front end and runs the passes of the pass manager on the IR. */
+    public static void compile(File sourceFile, Writer asmOutput, FrontEnd frontEnd, PassManager passes) throws IOException {
+        generateAsm(passes.run(compileToIr(sourceFile, frontEnd, passes.getLevel())), asmOutput);
+    }
+    
+    /**
+     * Runs the front end on an ASCII source file.
+     * If the file is an {@link IrFile}, its code is used as it is.
+     */
+    public static PackedIr compileToIr(File sourceFile, FrontEnd frontEnd) throws IOException {
+        return compileToIr(sourceFile, frontEnd, OptimizationLevel.O0);
+    }
+    
+    /** Runs the front end on an ASCII source file, simplifying the AST from O1 up. */
+    public static PackedIr compileToIr(File sourceFile, FrontEnd frontEnd, OptimizationLevel level) throws IOException {
+        FileInputStream in = new FileInputStream(sourceFile);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                // Too big to map as one buffer
+                return compileToIr(new FileReader(sourceFile), frontEnd, level);
+            }
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (IrFile.isIrFile(bytes)) {
+                return IrFile.read(bytes);
+            }
+            Symbols symbols = new Symbols();
+            TokenBuffer tokens = Tokenizer.tokenizeInParallel(SourceText.fromAsciiBytes(bytes), symbols);
+            if (frontEnd == FrontEnd.SINGLE_PASS) {
+                return PackedIr.fromCommands(SinglePassFrontEnd.generate(tokens.stream(), StdlibTypes.getTypes()), symbols);
+            } else {
+                return compileToIr(ParallelParser.parse(tokens), symbols, level);
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Type checks a parsed program and generates its IR.
+     * All stages share one symbol table, so each name is hashed once
+     * and later stages refer to variables by id.
+     * The program is converted to a {@link FlatAst} once
+     * for the type checker and the IR generator to share.
+     */
+    private static PackedIr compileToIr(Statement stmt, Symbols symbols, OptimizationLevel level) {
+        FlatAst ast = FlatAst.fromStatement(stmt, symbols);
+        TypeChecker.checkTypes(ast, StdlibTypes.getTypes());
+        if (level != OptimizationLevel.O0) {
+            ast = Simplifier.simplify(ast);
+        }
+        return PackedIr.fromCommands(IrGenerator.generate(ast), symbols);
+    }
+    
+    private static void generateAsm(PackedIr ir, Writer asmOutput) throws IOException {
+        List<String> asmLines = IA32CodeGen.generateAsmProgram(ir);
         StreamUtils.writeLines(asmLines, asmOutput);
     }
 }
@@ -0,0 +1,402 @@
+package minicompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import static minicompiler.Token.Type.*;
+import minicompiler.ast.*;
+import minicompiler.misc.Symbols;
+
+/**
+ * Keeps the tokens and AST of a program up to date as its source is edited.
+ *
+ * <p>
+ * We remember the source span of every statement in a table beside the AST,
+ * since AST nodes are immutable and are reused from one edit to the next.
+ * A span is stored relative to what comes before it: the number of characters
+ * from the end of the previous statement in the same parent (or from the start
+ * of the parent) to the start of the statement, and the length of the statement.
+ * An edit then only changes the lengths of the statements that contain it.
+ * Statements after it keep their spans as they are.
+ *
+ * <p>
+ * After an edit, we find the smallest statement that contains it and parse
+ * just that statement again. If that statement is a block, we only parse its
+ * statements from the first one the edit touches until a new statement ends
+ * where an old one did. If the new statement doesn't end where the old one did,
+ * the edit changed the structure around it, and we try again with its parent.
+ * The statements containing the edited one are rebuilt around the new one.
+ * All other statements are the same objects as before the edit.
+ *
+ * <p>
+ * Parse errors are the same as when parsing the whole program,
+ * since the parser is in the same state where we begin as it would be
+ * after parsing everything before that point.
+ */
+public class IncrementalParser {
+    private SourceText source;
+    private Symbols symbols;
+    private TokenBuffer tokens; // null if the source could not be tokenized
+    private Statement tree; // null if the tokens could not be parsed
+    private IdentityHashMap<Statement, Span> spans = new IdentityHashMap<Statement, Span>();
+
+    public IncrementalParser(String source) {
+        this.source = SourceText.fromString(source);
+        this.symbols = new Symbols();
+        this.tokens = Tokenizer.tokenizeToBuffer(this.source, symbols);
+        parseAll();
+    }
+
+    public Statement getTree() {
+        return tree;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Applies an edit to the source and returns the new AST.
+     *
+     * <p>
+     * If the edited source has an error, the error is thrown and the next
+     * edit tokenizes and parses everything again.
+     */
+    public Statement edit(SourceEdit edit) {
+        TokenBuffer oldTokens = tokens;
+        Statement oldTree = tree;
+        source = source.edit(edit);
+        tokens = null;
+        tree = null;
+
+        if (oldTokens != null) {
+            tokens = Tokenizer.retokenize(oldTokens, edit);
+        } else {
+            tokens = Tokenizer.tokenizeToBuffer(source, symbols);
+        }
+
+        if (oldTree != null) {
+            reparse(oldTree, oldTokens, edit);
+        } else {
+            parseAll();
+        }
+        return tree;
+    }
+
+    /** The smallest statement that contains the character at the given offset, or null if none does. */
+    public Statement statementAt(int offset) {
+        if (tree == null) {
+            return null;
+        }
+        Span rootSpan = spans.get(tree);
+        if (offset < rootSpan.leading || offset >= rootSpan.leading + rootSpan.width) {
+            return null;
+        }
+
+        Statement stmt = tree;
+        int start = rootSpan.leading;
+        while (true) {
+            Statement containing = null;
+            int pos = start;
+            for (Statement child : children(stmt)) {
+                Span span = spans.get(child);
+                int childStart = pos + span.leading;
+                int childEnd = childStart + span.width;
+                if (childStart <= offset && offset < childEnd) {
+                    containing = child;
+                    start = childStart;
+                    break;
+                }
+                pos = childEnd;
+            }
+            if (containing == null) {
+                return stmt;
+            }
+            stmt = containing;
+        }
+    }
+
+    private void parseAll() {
+        spans.clear();
+        ParsedSpans parsed = new ParsedSpans();
+        Parser<Statement, Expr> parser = Parser.astParser(tokens.stream(), 0, parsed);
+        Statement stmt = parser.parseStatement();
+        parser.consume(EOF);
+        remember(stmt, 0, parsed);
+        tree = stmt;
+    }
+
+    private void reparse(Statement oldTree, TokenBuffer oldTokens, SourceEdit edit) {
+        Span rootSpan = spans.get(oldTree);
+        int rootStart = rootSpan.leading;
+        int rootEnd = rootStart + rootSpan.width;
+        if (!isInside(edit, rootStart, rootEnd)) {
+            parseAll();
+            return;
+        }
+
+        // Find the statements containing the edit, outermost first
+        ArrayList<Frame> path = new ArrayList<Frame>();
+        path.add(new Frame(oldTree, rootStart, rootEnd, -1));
+        while (true) {
+            Frame frame = path.get(path.size() - 1);
+            Frame next = null;
+            int pos = frame.start;
+            List<Statement> children = children(frame.stmt);
+            for (int i = 0; i < children.size() && pos < edit.offset; ++i) {
+                Span span = spans.get(children.get(i));
+                int childStart = pos + span.leading;
+                int childEnd = childStart + span.width;
+                if (isInside(edit, childStart, childEnd)) {
+                    next = new Frame(children.get(i), childStart, childEnd, i);
+                    break;
+                }
+                pos = childEnd;
+            }
+            if (next == null) {
+                break;
+            }
+            path.add(next);
+        }
+
+        for (int level = path.size() - 1; level >= 0; --level) {
+            Frame frame = path.get(level);
+            Statement replacement;
+            if (frame.stmt instanceof Block) {
+                replacement = reparseBlock(frame, oldTokens, edit);
+            } else {
+                replacement = reparseStatement(frame, edit);
+            }
+
+            if (replacement != null) {
+                for (int i = level; i > 0; --i) {
+                    Frame parent = path.get(i - 1);
+                    Statement newParent = withChild(parent.stmt, path.get(i).childIndex, replacement);
+                    resized(parent.stmt, newParent, edit.delta());
+                    replacement = newParent;
+                }
+                tree = replacement;
+                return;
+            }
+        }
+        parseAll();
+    }
+
+    /** Parses a statement again, or returns null if it doesn't end where it used to. */
+    private Statement reparseStatement(Frame frame, SourceEdit edit) {
+        int first = tokens.indexAtOffset(frame.start);
+        ParsedSpans parsed = new ParsedSpans();
+        Parser<Statement, Expr> parser = Parser.astParser(tokens.stream(first), first, parsed);
+        Statement stmt = parser.parseStatement();
+        if (tokens.end(parser.position() - 1) != frame.end + edit.delta()) {
+            return null;
+        }
+
+        int reference = frame.start - spans.get(frame.stmt).leading;
+        forget(frame.stmt);
+        remember(stmt, reference, parsed);
+        return stmt;
+    }
+
+    /**
+     * Parses the statements of a block again, starting from the first one
+     * touched by the edit, until a new statement ends where an old one did.
+     * Returns null if the block's closing brace isn't where it used to be.
+     *
+     * <p>
+     * An 'if' without an 'else' looks at the token after it,
+     * so a statement is touched by an edit that could change the following token.
+     */
+    private Statement reparseBlock(Frame frame, TokenBuffer oldTokens, SourceEdit edit) {
+        List<Statement> children = ((Block)frame.stmt).statements;
+        int count = children.size();
+
+        // The statements are visited in order until we find the first one touched.
+        int firstTouched = 0;
+        int reference = frame.start; // The end of the statement before the first touched one
+        while (firstTouched < count) {
+            int end = endAfter(reference, children.get(firstTouched));
+            int followingEnd = frame.end; // The end of the closing brace
+            if (firstTouched + 1 < count) {
+                int followingStart = end + spans.get(children.get(firstTouched + 1)).leading;
+                followingEnd = oldTokens.end(oldTokens.indexAtOffset(followingStart));
+            }
+            if (followingEnd >= edit.offset) {
+                break;
+            }
+            reference = end;
+            firstTouched++;
+        }
+
+        int first = tokens.indexAtOffset((firstTouched > 0) ? reference : frame.start + 1);
+        ParsedSpans parsed = new ParsedSpans();
+        Parser<Statement, Expr> parser = Parser.astParser(tokens.stream(first), first, parsed);
+
+        ArrayList<Statement> newChildren = new ArrayList<Statement>(children.subList(0, firstTouched));
+        int oldIndex = firstTouched;
+        int oldIndexEnd = (firstTouched < count) ? endAfter(reference, children.get(firstTouched)) : 0;
+        int resumeIndex = count; // The first old statement after the ones we parsed again
+        while (true) {
+            if (parser.peek() == RBRACE) {
+                int brace = parser.position();
+                parser.consume(RBRACE);
+                if (tokens.end(brace) != frame.end + edit.delta()) {
+                    return null;
+                }
+                break;
+            }
+
+            newChildren.add(parser.parseStatement());
+            int oldEnd = tokens.end(parser.position() - 1) - edit.delta();
+            if (oldEnd >= edit.removedEnd()) {
+                while (oldIndex < count && oldIndexEnd < oldEnd) {
+                    oldIndex++;
+                    if (oldIndex < count) {
+                        oldIndexEnd = endAfter(oldIndexEnd, children.get(oldIndex));
+                    }
+                }
+                if (oldIndex < count && oldIndexEnd == oldEnd) {
+                    resumeIndex = oldIndex + 1;
+                    break;
+                }
+            }
+        }
+
+        for (int i = firstTouched; i < resumeIndex; ++i) {
+            forget(children.get(i));
+        }
+        for (int i = firstTouched; i < newChildren.size(); ++i) {
+            Statement child = newChildren.get(i);
+            remember(child, reference, parsed);
+            reference = parsed.end(child);
+        }
+        newChildren.addAll(children.subList(resumeIndex, count));
+
+        Block block = new Block(newChildren);
+        resized(frame.stmt, block, edit.delta());
+        return block;
+    }
+
+    /** Where a statement ends, given where the statement before it ended. */
+    private int endAfter(int reference, Statement stmt) {
+        Span span = spans.get(stmt);
+        return reference + span.leading + span.width;
+    }
+
+    private static boolean isInside(SourceEdit edit, int start, int end) {
+        return start < edit.offset && edit.removedEnd() < end;
+    }
+
+    /** Records the spans of a newly parsed statement and the statements in it. */
+    private void remember(Statement stmt, int reference, ParsedSpans parsed) {
+        // Statements can be nested deeply, so we use our own stack instead of recursion
+        ArrayList<Statement> stack = new ArrayList<Statement>();
+        spans.put(stmt, new Span(parsed.start(stmt) - reference, parsed.end(stmt) - parsed.start(stmt)));
+        stack.add(stmt);
+        while (!stack.isEmpty()) {
+            Statement parent = stack.remove(stack.size() - 1);
+            int childReference = parsed.start(parent);
+            for (Statement child : children(parent)) {
+                int start = parsed.start(child);
+                int end = parsed.end(child);
+                spans.put(child, new Span(start - childReference, end - start));
+                stack.add(child);
+                childReference = end;
+            }
+        }
+    }
+
+    private void forget(Statement stmt) {
+        ArrayList<Statement> stack = new ArrayList<Statement>();
+        stack.add(stmt);
+        while (!stack.isEmpty()) {
+            Statement s = stack.remove(stack.size() - 1);
+            spans.remove(s);
+            stack.addAll(children(s));
+        }
+    }
+
+    private void resized(Statement oldStmt, Statement newStmt, int delta) {
+        Span span = spans.remove(oldStmt);
+        spans.put(newStmt, new Span(span.leading, span.width + delta));
+    }
+
+    /** The statements directly inside a statement, in source order. */
+    private static List<Statement> children(Statement stmt) {
+        if (stmt instanceof Block) {
+            return ((Block)stmt).statements;
+        } else if (stmt instanceof IfStatement) {
+            IfStatement ifStmt = (IfStatement)stmt;
+            if (ifStmt.hasElseClause()) {
+                return Arrays.asList(ifStmt.thenClause, ifStmt.elseClause);
+            } else {
+                return Collections.singletonList(ifStmt.thenClause);
+            }
+        } else if (stmt instanceof WhileLoop) {
+            return Collections.singletonList(((WhileLoop)stmt).body);
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    private static Statement withChild(Statement stmt, int index, Statement child) {
+        if (stmt instanceof Block) {
+            ArrayList<Statement> statements = new ArrayList<Statement>(((Block)stmt).statements);
+            statements.set(index, child);
+            return new Block(statements);
+        } else if (stmt instanceof IfStatement) {
+            IfStatement ifStmt = (IfStatement)stmt;
+            if (index == 0) {
+                return new IfStatement(ifStmt.condition, child, ifStmt.elseClause);
+            } else {
+                return new IfStatement(ifStmt.condition, ifStmt.thenClause, child);
+            }
+        } else {
+            return new WhileLoop(((WhileLoop)stmt).head, child);
+        }
+    }
+
+    private static class Span {
+        public final int leading;
+        public final int width;
+
+        public Span(int leading, int width) {
+            this.leading = leading;
+            this.width = width;
+        }
+    }
+
+    /** A statement containing the edit, with its position in the source before the edit. */
+    private static class Frame {
+        public final Statement stmt;
+        public final int start;
+        public final int end;
+        public final int childIndex; // Among the children of the previous frame
+
+        public Frame(Statement stmt, int start, int end, int childIndex) {
+            this.stmt = stmt;
+            this.start = start;
+            this.end = end;
+            this.childIndex = childIndex;
+        }
+    }
+
+    /** Collects the source offsets of the statements made by a parser. */
+    private class ParsedSpans implements Parser.SpanListener<Statement> {
+        private IdentityHashMap<Statement, int[]> tokenSpans = new IdentityHashMap<Statement, int[]>();
+
+        public void statementParsed(Statement stmt, int first, int end) {
+            tokenSpans.put(stmt, new int[] { first, end });
+        }
+
+        public int start(Statement stmt) {
+            return tokens.start(tokenSpans.get(stmt)[0]);
+        }
+
+        public int end(Statement stmt) {
+            return tokens.end(tokenSpans.get(stmt)[1] - 1);
+        }
+    }
+}
@@ -1,141 +1,318 @@
 package minicompiler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import minicompiler.ast.*;
 import minicompiler.ir.*;
 import minicompiler.misc.NameMaker;
+import minicompiler.misc.Symbols;
 
 /**
  * Converts an AST into IR code.
+ *
+ * <p>
+ * Like the {@link TypeChecker}, this walks a {@link FlatAst} with a cursor
+ * instead of recursing. The values of subexpressions wait on a stack
+ * until the expression using them is generated.
  */
 public class IrGenerator {
     public static List<IrCommand> generate(Statement stmt) {
-        IrGeneratorAstVisitor visitor = new IrGeneratorAstVisitor();
-        stmt.accept(visitor);
-        return visitor.getOutput();
+        return generate(stmt, new Symbols());
     }
     
-    private static class IrGeneratorAstVisitor extends AstVisitor {
+    /**
+     * Generates IR whose variables are symbols in the given table.
+     * Temporary variables are added to the table.
+     */
+    public static List<IrCommand> generate(Statement stmt, Symbols symbols) {
+        return generate(FlatAst.fromStatement(stmt, symbols));
+    }
+    
+    /** Generates IR whose variables are symbols in the AST's symbol table. */
+    public static List<IrCommand> generate(FlatAst ast) {
+        Generator generator = new Generator(ast);
+        generator.run();
+        return generator.getOutput();
+    }
+    
+    /**
+     * Appends IR commands to the output and makes the labels and temporaries they need.
+     * Besides the {@link Generator}, the {@link SinglePassFrontEnd} emits through this
+     * while parsing, so both name labels and temporaries the same way.
+     */
+    static class Emitter {
         private List<IrCommand> output = new ArrayList<IrCommand>();
-        private NameMaker nameMaker = new NameMaker();
-        private IrRValue lastRValue;
-
+        private Symbols symbols;
+        private NameMaker nameMaker;
+        private String[] resultPrefixes = new String[16]; // By function symbol
+        
+        public Emitter(Symbols symbols) {
+            this.symbols = symbols;
+            this.nameMaker = new NameMaker(symbols);
+        }
+        
         public List<IrCommand> getOutput() {
             return output;
         }
-
-        @Override
-        public void visit(Block block) {
-            for (Statement s : block.statements) {
-                s.accept(this);
+        
+        public String makeLabel(String prefix) {
+            return nameMaker.makeName(prefix);
+        }
+        
+        public void emit(IrCommand command) {
+            output.add(command);
+        }
+        
+        /** The number of commands emitted so far. */
+        public int size() {
+            return output.size();
+        }
+        
+        /** Replaces an emitted command, e.g. a jump whose target wasn't known yet. */
+        public void replace(int index, IrCommand command) {
+            output.set(index, command);
+        }
+        
+        public IrVar variable(int var) {
+            return new IrVar(symbols, var);
+        }
+        
+        /** Emits a call to a function or operator and returns the temporary holding its result. */
+        public IrVar call(int function, List<IrRValue> args) {
+            IrCall call = new IrCall(resultVariable(function), symbols.name(function), args);
+            output.add(call);
+            return call.assignedVar;
+        }
+        
+        /** A new temporary for the result of a call. */
+        private IrVar resultVariable(int function) {
+            if (function >= resultPrefixes.length) {
+                resultPrefixes = Arrays.copyOf(resultPrefixes, Math.max(function + 1, resultPrefixes.length * 2));
+            }
+            String prefix = resultPrefixes[function];
+            if (prefix == null) {
+                prefix = "$resultOf_" + symbols.name(function) + "_";
+                resultPrefixes[function] = prefix;
             }
+            return new IrVar(symbols, nameMaker.makeSymbol(prefix));
         }
+    }
+    
+    private static class Generator {
+        private FlatAst ast;
+        private Emitter emitter;
+        private FlatAst.Cursor work = new FlatAst.Cursor();
+        private ArrayList<IrRValue> values = new ArrayList<IrRValue>(); // Of the expressions generated so far
+        private ArrayList<String> labels = new ArrayList<String>(); // Of the ifs and whiles we're in
+        private NodeMemo<IrRValue> leafValues = new NodeMemo<IrRValue>(); // Of constants and variables
 
-        @Override
-        public void visit(Declaration decl) {
-            decl.expr.accept(this);
-            emit(new IrCopy(decl.varName, lastRValue));
+        public Generator(FlatAst ast) {
+            this.ast = ast;
+            this.emitter = new Emitter(ast.getSymbols());
         }
 
-        @Override
-        public void visit(Assignment assignment) {
-            assignment.expr.accept(this);
-            emit(new IrCopy(assignment.varName, lastRValue));
+        public List<IrCommand> getOutput() {
+            return emitter.getOutput();
+        }
+        
+        public void run() {
+            work.push(ast.getRoot());
+            while (work.next()) {
+                int node = work.node();
+                switch (ast.kind(node)) {
+                    case BLOCK: generateBlock(node); break;
+                    case DECLARATION:
+                    case ASSIGNMENT: generateAssignment(node); break;
+                    case EMPTY: break;
+                    case IF: generateIf(node); break;
+                    case WHILE: generateWhile(node); break;
+                    case BINARY_OP: generateBinaryOp(node); break;
+                    case UNARY_OP: generateUnaryOp(node); break;
+                    case CALL: generateCall(node); break;
+                    case INT_CONST:
+                    case BOOL_CONST:
+                    case VAR: values.add(leafValue(node)); break;
+                }
+            }
+        }
+        
+        /** Shared leaves get one IR value, since IR values can't be modified. */
+        private IrRValue leafValue(int node) {
+            IrRValue value = leafValues.get(node, 0);
+            if (value == null) {
+                switch (ast.kind(node)) {
+                    case INT_CONST: value = new IrIntConst(ast.intValue(node)); break;
+                    case BOOL_CONST: value = new IrIntConst(ast.boolValue(node) ? 1 : 0); break;
+                    default: value = variable(node);
+                }
+                leafValues.put(node, 0, value);
+            }
+            return value;
         }
 
-        @Override
-        public void visit(IfStatement ifStmt) {
-            String elseLabel = nameMaker.makeName("else");
-            String endLabel = nameMaker.makeName("ifEnd");
+        private void generateBlock(int block) {
+            // The stage is the index of the statement to generate next
+            int index = work.stage();
+            if (index > 0) {
+                statementGenerated(ast.child(block, index - 1));
+            }
+            if (index < ast.childCount(block)) {
+                work.push(block, index + 1);
+                work.push(ast.child(block, index));
+            }
+        }
 
-            ifStmt.condition.accept(this);
-            if (ifStmt.hasElseClause()) {
-                emit(new IrGotoIfNot(elseLabel, lastRValue));
+        /** Generates a declaration or an assignment. */
+        private void generateAssignment(int assignment) {
+            if (work.stage() == 0) {
+                work.push(assignment, 1);
+                work.push(ast.expr(assignment));
             } else {
-                emit(new IrGotoIfNot(endLabel, lastRValue));
+                emit(new IrCopy(variable(assignment), popValue()));
             }
+        }
 
-            ifStmt.thenClause.accept(this);
-            if (ifStmt.hasElseClause()) {
-                emit(new IrGoto(endLabel));
+        private void generateIf(int ifStmt) {
+            switch (work.stage()) {
+                case 0:
+                    labels.add(emitter.makeLabel("else"));
+                    labels.add(emitter.makeLabel("ifEnd"));
+                    work.push(ifStmt, 1);
+                    work.push(ast.condition(ifStmt));
+                    break;
+                case 1:
+                    if (ast.hasElseClause(ifStmt)) {
+                        emit(new IrGotoIfNot(elseLabel(), popValue()));
+                    } else {
+                        emit(new IrGotoIfNot(endLabel(), popValue()));
+                    }
+                    work.push(ifStmt, 2);
+                    work.push(ast.thenClause(ifStmt));
+                    break;
+                case 2:
+                    statementGenerated(ast.thenClause(ifStmt));
+                    if (ast.hasElseClause(ifStmt)) {
+                        emit(new IrGoto(endLabel()));
 
-                emit(new IrLabel(elseLabel));
-                ifStmt.elseClause.accept(this);
+                        emit(new IrLabel(elseLabel()));
+                        work.push(ifStmt, 3);
+                        work.push(ast.elseClause(ifStmt));
+                    } else {
+                        endIf();
+                    }
+                    break;
+                default:
+                    statementGenerated(ast.elseClause(ifStmt));
+                    endIf();
             }
-
-            emit(new IrLabel(endLabel));
         }
-
-        @Override
-        public void visit(WhileLoop whileLoop) {
-            String headLabel = nameMaker.makeName("whileHead");
-            String endLabel = nameMaker.makeName("whileEnd");
-
-            emit(new IrLabel(headLabel));
-
-            whileLoop.head.accept(this);
-            emit(new IrGotoIfNot(endLabel, lastRValue));
-
-            whileLoop.body.accept(this);
-            emit(new IrGoto(headLabel));
-
-            emit(new IrLabel(endLabel));
+        
+        private void endIf() {
+            emit(new IrLabel(endLabel()));
+            popLabels();
         }
 
-        @Override
-        public void visit(BinaryOp binop) {
-            binop.left.accept(this);
-            IrRValue leftVal = lastRValue;
+        private void generateWhile(int whileLoop) {
+            switch (work.stage()) {
+                case 0:
+                    String headLabel = emitter.makeLabel("whileHead");
+                    labels.add(headLabel);
+                    labels.add(emitter.makeLabel("whileEnd"));
 
-            binop.right.accept(this);
-            IrRValue rightVal = lastRValue;
+                    emit(new IrLabel(headLabel));
+                    work.push(whileLoop, 1);
+                    work.push(ast.condition(whileLoop));
+                    break;
+                case 1:
+                    emit(new IrGotoIfNot(endLabel(), popValue()));
+                    work.push(whileLoop, 2);
+                    work.push(ast.body(whileLoop));
+                    break;
+                default:
+                    statementGenerated(ast.body(whileLoop));
+                    emit(new IrGoto(labels.get(labels.size() - 2)));
 
-            String assignedVar = nameMaker.makeName("$resultOf_" + binop.opName + "_");
-            emit(new IrCall(assignedVar, binop.opName, leftVal, rightVal));
+                    emit(new IrLabel(endLabel()));
+                    popLabels();
+            }
         }
 
-        @Override
-        public void visit(UnaryOp unop) {
-            unop.operand.accept(this);
-            IrRValue operandVal = lastRValue;
-
-            String assignedVar = nameMaker.makeName("$resultOf_" + unop.opName + "_");
-            emit(new IrCall(assignedVar, unop.opName, operandVal));
+        private void generateBinaryOp(int binop) {
+            if (work.stage() == 0) {
+                work.push(binop, 1);
+                work.push(ast.right(binop));
+                work.push(ast.left(binop));
+            } else {
+                IrRValue rightVal = popValue();
+                IrRValue leftVal = popValue();
+                emitCall(binop, Arrays.asList(leftVal, rightVal));
+            }
         }
 
-        @Override
-        public void visit(FunctionCall call) {
-            ArrayList<IrRValue> argRValues = new ArrayList<IrRValue>(call.arguments.size());
-            for (Expr arg : call.arguments) {
-                arg.accept(this);
-                argRValues.add(lastRValue);
+        private void generateUnaryOp(int unop) {
+            if (work.stage() == 0) {
+                work.push(unop, 1);
+                work.push(ast.operand(unop));
+            } else {
+                IrRValue operandVal = popValue();
+                emitCall(unop, Arrays.asList(operandVal));
             }
-
-            String assignedVar = nameMaker.makeName("$resultOf_" + call.functionName + "_");
-            emit(new IrCall(assignedVar, call.functionName, argRValues));
         }
 
-        @Override
-        public void visit(IntConst intConst) {
-            lastRValue = new IrIntConst(intConst.value);
+        private void generateCall(int call) {
+            int argCount = ast.childCount(call);
+            if (work.stage() == 0) {
+                work.push(call, 1);
+                for (int i = argCount - 1; i >= 0; --i) {
+                    work.push(ast.child(call, i));
+                }
+            } else {
+                List<IrRValue> argValues = values.subList(values.size() - argCount, values.size());
+                ArrayList<IrRValue> argRValues = new ArrayList<IrRValue>(argValues);
+                argValues.clear();
+                emitCall(call, argRValues);
+            }
         }
-
-        @Override
-        public void visit(BoolConst boolConst) {
-            lastRValue = new IrIntConst(boolConst.value ? 1 : 0);
+        
+        private IrVar variable(int node) {
+            return emitter.variable(ast.symbol(node));
         }
-
-        @Override
-        public void visit(Var var) {
-            lastRValue = new IrVar(var.name);
+        
+        private IrRValue popValue() {
+            return values.remove(values.size() - 1);
+        }
+        
+        /** An expression used as a statement leaves a value that nobody needs. */
+        private void statementGenerated(int stmt) {
+            if (ast.isExpr(stmt)) {
+                popValue();
+            }
+        }
+        
+        // The innermost 'if' or 'while' has pushed two labels:
+        // 'else' and 'ifEnd' or 'whileHead' and 'whileEnd'.
+        
+        private String elseLabel() {
+            return labels.get(labels.size() - 2);
+        }
+        
+        private String endLabel() {
+            return labels.get(labels.size() - 1);
+        }
+        
+        private void popLabels() {
+            labels.remove(labels.size() - 1);
+            labels.remove(labels.size() - 1);
         }
 
         private void emit(IrCommand command) {
-            output.add(command);
-            if (command.getAssignedVar() != null) {
-                lastRValue = new IrVar(command.getAssignedVar());
-            }
+            emitter.emit(command);
+        }
+        
+        /** Emits a call, unary operator or binary operator node. */
+        private void emitCall(int node, List<IrRValue> args) {
+            values.add(emitter.call(ast.symbol(node), args));
         }
-    };
+    }
 }
@@ -1,47 +1,105 @@
 package minicompiler;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
+import minicompiler.ir.IrFile;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.pass.Budget;
+import minicompiler.ir.pass.OptimizationLevel;
+import minicompiler.ir.pass.PassManager;
 
 public class Main {
     private static final String usage =
-            "Usage: java -jar minicompiler-dev.jar input-file output-file\n" +
-            "   or  java -jar minicompiler-dev.jar < input-file > output-file";
+            "Usage: java -jar minicompiler-dev.jar [options] input-file output-file\n" +
+            "   or  java -jar minicompiler-dev.jar [options] < input-file > output-file\n" +
+            "   or  java -jar minicompiler-dev.jar [options] --emit-ir input-file ir-file\n" +
+            "\n" +
+            "The input file may also be an IR file written with --emit-ir.\n" +
+            "\n" +
+            "Options:\n" +
+            "  -O0, -O1, -O2    Optimization level (default -O0)\n" +
+            "  --time-passes    Print the time, allocation and IR size of each pass to stderr\n" +
+            "  --no-budget      Let optimization passes take as long as they need\n" +
+            "\n" +
+            "Passes that would take too long for the size of the program are skipped,\n" +
+            "and a note about it is printed to stderr.";
     
     public static void main(String[] args) throws IOException {
-        List<String> argList = Arrays.asList(args);
-        Reader reader = null;
+        OptimizationLevel level = OptimizationLevel.O0;
+        boolean timePasses = false;
+        Budget budget = Budget.DEFAULT;
+        List<String> argList = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("-h") || arg.equals("--help")) {
+                System.out.println(usage);
+                System.exit(0);
+            } else if (OptimizationLevel.fromFlag(arg) != null) {
+                level = OptimizationLevel.fromFlag(arg);
+            } else if (arg.equals("--time-passes")) {
+                timePasses = true;
+            } else if (arg.equals("--no-budget")) {
+                budget = Budget.UNLIMITED;
+            } else {
+                argList.add(arg);
+            }
+        }
+        args = argList.toArray(new String[argList.size()]);
+        PassManager passes = PassManager.forLevel(level).setBudget(budget);
+        File inputFile = null;
         Writer writer = null;
         
-        if (argList.contains("-h") || argList.contains("--help")) {
-            System.out.println(usage);
-            System.exit(0);
+        if (argList.contains("--emit-ir")) {
+            if (args.length != 3 || !args[0].equals("--emit-ir")) {
+                System.err.println(usage);
+                System.exit(1);
+            }
+            PackedIr ir = Compiler.compileToIr(new File(args[1]), Compiler.FrontEnd.SEPARATE_PASSES, level);
+            IrFile.write(passes.run(ir), new File(args[2]));
+            printReport(passes, timePasses);
+            return;
         }
         
         if (args.length == 0) {
-            reader = new InputStreamReader(System.in, "UTF-8");
             writer = new OutputStreamWriter(System.out, "UTF-8");
         } else if (args.length == 1) {
-            reader = new FileReader(args[0]);
+            inputFile = new File(args[0]);
             writer = new OutputStreamWriter(System.out, "UTF-8");
         } else if (args.length == 2) {
-            reader = new FileReader(args[0]);
+            inputFile = new File(args[0]);
             writer = new FileWriter(args[1]);
         } else {
             System.err.println(usage);
             System.exit(1);
         }
         
-        Compiler.compile(reader, writer);
+        if (inputFile != null) {
+            Compiler.compile(inputFile, writer, Compiler.FrontEnd.SEPARATE_PASSES, passes);
+        } else {
+            Reader reader = new InputStreamReader(System.in, "UTF-8");
+            Compiler.compile(reader, writer, Compiler.FrontEnd.SEPARATE_PASSES, passes);
+            reader.close();
+        }
         
         writer.close();
-        reader.close();
+        printReport(passes, timePasses);
+    }
+    
+    private static void printReport(PassManager passes, boolean timePasses) {
+        if (timePasses) {
+            for (String line : passes.report()) {
+                System.err.println(line);
+            }
+        } else {
+            for (String line : passes.budgetDecisions()) {
+                System.err.println("Note: " + line);
+            }
+        }
     }
 }
@@ -0,0 +1,204 @@
+package minicompiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import static minicompiler.Token.Type.*;
+import minicompiler.ast.Block;
+import minicompiler.ast.Expr;
+import minicompiler.ast.Statement;
+import minicompiler.errors.ParseError;
+import minicompiler.misc.IntStack;
+
+/**
+ * Parses a program that is one big block by parsing its statements in parallel.
+ *
+ * <p>
+ * A statement directly in the top-level block ends with a ';' or a '}'
+ * that brings the brace depth back to 1, unless an 'else' follows.
+ * We find these ends with a parallel prefix scan over the tokens:
+ * each piece of the token array first counts how much it changes the brace depth,
+ * a running sum over the pieces gives the depth each piece starts at,
+ * and then each piece finds the ends inside it.
+ *
+ * <p>
+ * The statements are then split into slices of about equal size that are
+ * parsed on separate threads and put together into a block in order.
+ * The parser never looks more than one token past the end of a statement,
+ * and only to see whether an 'else' follows, so a statement parses the same
+ * whether or not the tokens after its slice are there.
+ *
+ * <p>
+ * If the program doesn't look like one block or a slice doesn't parse,
+ * the whole program is parsed again sequentially, so errors are reported
+ * exactly as {@link Parser} reports them.
+ */
+public class ParallelParser {
+    /** Programs are split into slices of at least this many tokens. */
+    private static final int MIN_SLICE_TOKENS = 16 * 1024;
+
+    public static Statement parse(TokenBuffer tokens) {
+        return parse(tokens, ForkJoinPool.commonPool());
+    }
+
+    public static Statement parse(TokenBuffer tokens, ForkJoinPool pool) {
+        int size = tokens.size();
+        int sliceCount = Math.min(pool.getParallelism() * 4, size / MIN_SLICE_TOKENS);
+        if (sliceCount <= 1 || tokens.type(0) != LBRACE || tokens.type(size - 1) != RBRACE) {
+            return Parser.parseStatement(tokens.stream());
+        }
+
+        IntStack starts = statementStarts(tokens, sliceCount, pool);
+        if (starts == null) {
+            return Parser.parseStatement(tokens.stream());
+        }
+
+        // The slices share the symbol table, so intern the operators before they start
+        int[] operators = Parser.operatorSymbols(tokens.getSymbols());
+        ArrayList<Callable<List<Statement>>> tasks = new ArrayList<Callable<List<Statement>>>();
+        int sliceStart = 1;
+        for (int i = 0; i < starts.size(); ++i) {
+            int start = starts.get(i);
+            if ((long)(start - 1) * sliceCount >= (long)(size - 2) * (tasks.size() + 1)) {
+                tasks.add(new Slice(tokens, operators, sliceStart, start));
+                sliceStart = start;
+            }
+        }
+        tasks.add(new Slice(tokens, operators, sliceStart, size - 1));
+
+        ArrayList<Statement> statements = new ArrayList<Statement>();
+        for (List<Statement> slice : runAll(pool, tasks)) {
+            if (slice == null) {
+                return Parser.parseStatement(tokens.stream());
+            }
+            statements.addAll(slice);
+        }
+        return new Block(statements);
+    }
+
+    /**
+     * The indices of the first tokens of the statements in the top-level block,
+     * except the first statement, which starts at index 1.
+     * Returns null if the top-level block is closed before the last token.
+     */
+    private static IntStack statementStarts(final TokenBuffer tokens, int pieceCount, ForkJoinPool pool) {
+        final int size = tokens.size();
+        final int[] bounds = new int[pieceCount + 1];
+        for (int i = 0; i <= pieceCount; ++i) {
+            bounds[i] = (int)((long)size * i / pieceCount);
+        }
+
+        ArrayList<Callable<Integer>> deltaTasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < pieceCount; ++i) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            deltaTasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    int delta = 0;
+                    for (int j = from; j < to; ++j) {
+                        delta += braceDelta(tokens.type(j));
+                    }
+                    return delta;
+                }
+            });
+        }
+
+        ArrayList<Callable<IntStack>> startTasks = new ArrayList<Callable<IntStack>>();
+        int depth = 0;
+        for (Integer delta : runAll(pool, deltaTasks)) {
+            final int from = bounds[startTasks.size()];
+            final int to = bounds[startTasks.size() + 1];
+            final int startDepth = depth;
+            startTasks.add(new Callable<IntStack>() {
+                public IntStack call() {
+                    IntStack starts = new IntStack();
+                    int depth = startDepth;
+                    for (int j = from; j < to && j < size - 1; ++j) {
+                        Token.Type type = tokens.type(j);
+                        depth += braceDelta(type);
+                        if (depth <= 0) {
+                            return null;
+                        }
+                        if (depth == 1 && (type == SEMICOLON || type == RBRACE)
+                                && j + 1 < size - 1 && tokens.type(j + 1) != ELSE) {
+                            starts.push(j + 1);
+                        }
+                    }
+                    return starts;
+                }
+            });
+            depth += delta;
+        }
+
+        IntStack result = new IntStack();
+        for (IntStack starts : runAll(pool, startTasks)) {
+            if (starts == null) {
+                return null;
+            }
+            for (int i = 0; i < starts.size(); ++i) {
+                result.push(starts.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static int braceDelta(Token.Type type) {
+        if (type == LBRACE) {
+            return 1;
+        } else if (type == RBRACE) {
+            return -1;
+        } else {
+            return 0;
+        }
+    }
+
+    /** Parses the statements between two statement starts, or returns null if they don't parse. */
+    private static class Slice implements Callable<List<Statement>> {
+        private final TokenBuffer tokens;
+        private final int[] operators;
+        private final int from;
+        private final int to;
+
+        public Slice(TokenBuffer tokens, int[] operators, int from, int to) {
+            this.tokens = tokens;
+            this.operators = operators;
+            this.from = from;
+            this.to = to;
+        }
+
+        public List<Statement> call() {
+            Parser<Statement, Expr> parser = Parser.astParser(tokens.stream(from, to), from, null, operators);
+            ArrayList<Statement> statements = new ArrayList<Statement>();
+            try {
+                while (parser.position() < to) {
+                    statements.add(parser.parseStatement());
+                }
+            } catch (ParseError e) {
+                return null;
+            }
+            return statements;
+        }
+    }
+
+    private static <T> List<T> runAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+        ArrayList<T> results = new ArrayList<T>();
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                } else {
+                    throw new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,51 @@
+package minicompiler;
+
+import java.util.List;
+import minicompiler.types.Type;
+
+/**
+ * What a {@link Parser} does with the parts of the program it recognizes.
+ *
+ * <p>
+ * The parser calls these in the order the parts appear in the source,
+ * and gives each action the results of the actions for the part's children.
+ * {@link AstBuilder} makes AST nodes. Actions that don't build a tree
+ * can return null for statements, and the parser then doesn't collect them.
+ *
+ * <p>
+ * Variables, functions and operators are given as their ids in the
+ * symbol table of the parser's token stream.
+ *
+ * <p>
+ * The 'started' methods are called when a compound statement has been
+ * recognized but before its parts are parsed.
+ */
+interface ParseActions<S, E> {
+    E intConst(int value);
+    E boolConst(boolean value);
+    E var(int name);
+    E call(int function, List<E> arguments);
+    E unaryOp(int op, E operand);
+    E binaryOp(E left, int op, E right);
+
+    S expressionStatement(E expr);
+
+    void declarationStarted(int varName, Type type);
+    S declaration(int varName, Type type, E expr);
+
+    void assignmentStarted(int varName);
+    S assignment(int varName, E expr);
+
+    void blockStarted();
+    S block(List<S> statements);
+
+    void whileStarted();
+    void whileHeadParsed(E head);
+    S whileLoop(E head, S body);
+
+    void ifStarted();
+    void ifConditionParsed(E condition);
+    void thenClauseParsed(S thenClause, boolean hasElseClause);
+    /** Makes an 'if'. The else clause is null if there is none. */
+    S ifStatement(E condition, S thenClause, S elseClause);
+}
@@ -1,304 +1,568 @@
 package minicompiler;
 
 import java.util.ArrayList;
-import java.util.List;
 import minicompiler.ast.*;
 import static minicompiler.Token.Type.*;
 import minicompiler.errors.ParseError;
+import minicompiler.misc.Symbols;
 import minicompiler.types.BoolType;
 import minicompiler.types.IntType;
 import minicompiler.types.Type;
 
 /**
- * Converts a list of tokens into an abstract syntax tree (AST).
+ * Converts a stream of tokens into an abstract syntax tree (AST).
  * 
  * <p>
- * This parser is a hand-written recursive descent parser.
- * It parses statements by looking at the first few tokens.
- * For instance, if the first token is a 'while' then it knows that what
- * follows must be 'while [some-expression] do [some-statement]'.
- * It consumes the 'while' token, calls 'parseExpr', consumes the 'do'
- * token and then calls 'parseStatement'.
+ * This parser is hand-written. It parses statements by looking at the first
+ * few tokens. For instance, if the first token is a 'while' then it knows that
+ * what follows must be 'while [some-expression] do [some-statement]'.
+ * It consumes the 'while' token, parses an expression, consumes the 'do'
+ * token and then parses the body statement.
+ * 
+ * <p>
+ * Statements can be nested inside each other as deeply as the programmer likes.
+ * The natural way to write this is a recursive function, but then a program
+ * with a few thousand nested 'if's would overflow the call stack.
+ * Instead we keep our own stack of the statements we're in the middle of.
+ * When the body of the 'while' has been parsed, we take the 'while' off the
+ * stack and make a WhileLoop out of it and the body.
  * 
  * <p>
  * Parsing math expressions is a little trickier because of operator precedence.
  * Let's see how parsing '3 + 4 * 5 + 6' works.
  * 
  * <p>
- * Let's define 'mathexpr', 'term' and 'factor' (recall polynomials).
- * <ul>
- *   <li>A <em>factor</em>
- *       can be (among other things) an integer constant.
- *   <li>A <em>term</em>
- *       can be a factor,
- *       or a smaller term followed by a '*' or '/', and then a factor.
- *   <li>A <em>mathexpr</em>
- *       can be either a term,
- *       or a smaller mathexpr followed by a '+' or '-', and then a term.
- * </ul>
+ * We give each binary operator a precedence:
+ * '*', '/' and '%' bind tightest, then '+' and '-', then the comparisons.
+ * We read operands and operators from left to right, keeping two stacks:
+ * one of operands and one of operators that are still waiting for their
+ * right operand.
  * 
  * <p>
- * We can say the same thing with the following notation:<br>
- * <pre>
- *   factor ::= [0-9]+
- *   term ::= factor | term '*' factor | term '/' factor
- *   mathexpr ::= term | mathexpr '+' term | mathexpr '-' term
- * </pre>
+ * Before pushing an operator, we first apply every operator on the stack
+ * whose precedence is at least as high, taking their operands from the operand stack.
+ * In our example:
+ * <ul>
+ *   <li>We push 3, then '+', then 4.
+ *   <li>At '*', the '+' binds less tightly so it stays. We push '*' and 5.
+ *   <li>At the second '+', first '*' and then '+' bind at least as tightly,
+ *       so we apply them to get '3 + (4 * 5)'. Then we push '+' and 6.
+ *   <li>At the end we apply the remaining '+' to get '(3 + (4 * 5)) + 6'.
+ * </ul>
  * 
  * <p>
- * To parse a mathexpr we first recursively parse its left term.
- * Then we check to see if the next token is + or -.
- * If it's not, we return just the left term.
- * If it is + or -, we parse the right side as a factor to get the
- * AST 'left +/- right'.
+ * Prefix operators like '-' apply to the next operand as soon as it has been read.
+ * An opening parenthesis or function call starts a new level on the operator stack
+ * that ends at the closing parenthesis. Only one comparison is allowed
+ * per level, so 'a < b < c' is an error.
  * 
  * <p>
- * Parsing a term works the same way,
- * except with * and /, and it recursively parses factors.
+ * What the parser makes of the program is up to its {@link ParseActions}.
+ * Usually they build an AST, but they can also do the later stages' work
+ * on the spot, see {@link SinglePassFrontEnd}. The parser's types
+ * S and E are what the actions make of statements and expressions.
+ * Names and operators are given to the actions as ids in the token stream's
+ * symbol table.
  */
-public class Parser {
+public class Parser<S, E> {
     public static Statement parseStatement(ArrayList<Token> input) {
-        Parser parser = new Parser(input);
-        Statement stmt = parser.parseStatement();
+        return parseStatement(new ListTokenStream(input));
+    }
+    
+    public static Statement parseStatement(TokenStream input) {
+        return parse(input, new AstBuilder(input.getSymbols()));
+    }
+    
+    public static Expr parseExpr(ArrayList<Token> input) {
+        Parser<Statement, Expr> parser = astParser(new ListTokenStream(input), 0, null);
+        Expr stmt = parser.parseExpr();
         parser.consume(EOF);
         return stmt;
     }
     
-     public static Expr parseExpr(ArrayList<Token> input) {
-        Parser parser = new Parser(input);
-        Expr stmt = parser.parseExpr();
+    /** Parses a whole program with the given actions and returns what they made of it. */
+    static <S, E> S parse(TokenStream input, ParseActions<S, E> actions) {
+        Parser<S, E> parser = new Parser<S, E>(input, 0, null, actions, operatorSymbols(input.getSymbols()));
+        S stmt = parser.parseStatement();
         parser.consume(EOF);
         return stmt;
     }
     
-    private ArrayList<Token> input;
-    private int inputIndex;
-    private Token eof;
+    /**
+     * Makes a parser that builds an AST, starting at the given token index
+     * of the input and reporting the token spans of the statements it parses.
+     */
+    static Parser<Statement, Expr> astParser(TokenStream input, int position, SpanListener<Statement> spanListener) {
+        return astParser(input, position, spanListener, operatorSymbols(input.getSymbols()));
+    }
+    
+    /**
+     * Like {@link #astParser(TokenStream, int, SpanListener)}, but with operator ids
+     * that have already been interned, so the parser doesn't add to the symbol table.
+     */
+    static Parser<Statement, Expr> astParser(TokenStream input, int position, SpanListener<Statement> spanListener, int[] operators) {
+        AstBuilder builder = new AstBuilder(input.getSymbols());
+        return new Parser<Statement, Expr>(input, position, spanListener, builder, operators);
+    }
+    
+    /**
+     * Interns the text of every operator token.
+     * Returns their ids indexed by token type ordinal, and -1 for other token types.
+     */
+    static int[] operatorSymbols(Symbols symbols) {
+        Token.Type[] types = Token.Type.values();
+        int[] operators = new int[types.length];
+        for (Token.Type type : types) {
+            boolean isOperator = (type == MINUS || type == NOT || binaryPrecedence(type) > 0);
+            operators[type.ordinal()] = isOperator ? symbols.intern(type.text) : -1;
+        }
+        return operators;
+    }
+    
+    /** Told where each statement the parser makes begins and ends. */
+    interface SpanListener<S> {
+        /** The statement is made of the tokens from 'first' up to but not including 'end'. */
+        public void statementParsed(S stmt, int first, int end);
+    }
+    
+    private TokenStream input;
+    private S finishedStmt; // Set by beginStatement
+    private int position; // Index of the current token, counting from the first token we were given
+    private SpanListener<S> spanListener;
+    private ParseActions<S, E> actions;
+    private int[] operators; // See operatorSymbols
 
-    private Parser(ArrayList<Token> input) {
+    Parser(TokenStream input, int position, SpanListener<S> spanListener, ParseActions<S, E> actions, int[] operators) {
         this.input = input;
-        this.inputIndex = 0;
-        if (input.isEmpty()) {
-            this.eof = new Token(EOF, "<EOF>", 0, 0);
-        } else {
-            Token last = input.get(input.size() - 1);
-            this.eof = new Token(EOF, "<EOF>", last.line, last.endCol);
-        }
+        this.position = position;
+        this.spanListener = spanListener;
+        this.actions = actions;
+        this.operators = operators;
     }
     
-    private Statement parseStatement() {
-        Token first = peek();
-        Token second = peekSecond();
-        if (first.type == LBRACE) {
-            return parseBlock();
-        } else if (first.type == WHILE) {
-            return parseWhile();
-        } else if (first.type == IF) {
-            return parseIf();
-        } else if (first.type == IDENTIFIER && second.type == COLON) {
-            return parseDeclaration();
-        } else if (first.type == IDENTIFIER && second.type == ASSIGN) {
-            return parseAssignment();
-        } else {
-            Expr expr = parseExpr();
-            consume(SEMICOLON);
-            return expr;
-        }
+    /** The index of the next token to be consumed. */
+    int position() {
+        return position;
     }
     
-    private Block parseBlock() {
-        consume(LBRACE);
-        ArrayList<Statement> statements = new ArrayList<Statement>();
+    S parseStatement() {
+        ArrayList<StatementFrame<S, E>> stack = new ArrayList<StatementFrame<S, E>>();
+        boolean done = beginStatement(stack);
+        S stmt = done ? finishedStmt : null;
         while (true) {
-            Token t = peek();
-            if (t.type == RBRACE) {
-                break;
+            if (!done) {
+                // The innermost unfinished statement wants its next inner statement
+                StatementFrame<S, E> frame = stack.get(stack.size() - 1);
+                if (frame.kind == StatementKind.BLOCK && peek() == RBRACE) {
+                    consume(RBRACE);
+                    stack.remove(stack.size() - 1);
+                    stmt = finished(actions.block(frame.statements), frame.first);
+                    done = true;
+                } else {
+                    done = beginStatement(stack);
+                    stmt = done ? finishedStmt : null;
+                }
+            } else if (stack.isEmpty()) {
+                return stmt;
             } else {
-                statements.add(parseStatement());
+                // Give the statement we just finished to the one it's in
+                StatementFrame<S, E> frame = stack.get(stack.size() - 1);
+                switch (frame.kind) {
+                    case BLOCK:
+                        if (stmt != null) {
+                            frame.statements.add(stmt);
+                        }
+                        done = false;
+                        break;
+                    case WHILE:
+                        stack.remove(stack.size() - 1);
+                        stmt = finished(actions.whileLoop(frame.expr, stmt), frame.first);
+                        break;
+                    case IF:
+                        if (!frame.hasThenClause) {
+                            frame.hasThenClause = true;
+                            frame.thenClause = stmt;
+                            boolean hasElseClause = (peek() == ELSE);
+                            actions.thenClauseParsed(stmt, hasElseClause);
+                            if (hasElseClause) {
+                                consume(ELSE);
+                                done = false;
+                            } else {
+                                stack.remove(stack.size() - 1);
+                                stmt = finished(actions.ifStatement(frame.expr, frame.thenClause, null), frame.first);
+                            }
+                        } else {
+                            stack.remove(stack.size() - 1);
+                            stmt = finished(actions.ifStatement(frame.expr, frame.thenClause, stmt), frame.first);
+                        }
+                        break;
+                }
             }
         }
-        consume(RBRACE);
-        return new Block(statements);
     }
     
-    private WhileLoop parseWhile() {
-        consume(WHILE);
-        Expr head = parseExpr();
-        consume(DO);
-        Statement body = parseStatement();
-        return new WhileLoop(head, body);
+    /**
+     * Parses a simple statement, leaves it in finishedStmt and returns true,
+     * or parses the beginning of a compound statement, pushes it on the stack
+     * and returns false.
+     */
+    private boolean beginStatement(ArrayList<StatementFrame<S, E>> stack) {
+        int firstToken = position;
+        Token.Type first = peek();
+        Token.Type second = peekSecond();
+        if (first == LBRACE) {
+            consume(LBRACE);
+            actions.blockStarted();
+            stack.add(new StatementFrame<S, E>(StatementKind.BLOCK, firstToken, null));
+            return false;
+        } else if (first == WHILE) {
+            consume(WHILE);
+            actions.whileStarted();
+            E head = parseExpr();
+            consume(DO);
+            actions.whileHeadParsed(head);
+            stack.add(new StatementFrame<S, E>(StatementKind.WHILE, firstToken, head));
+            return false;
+        } else if (first == IF) {
+            consume(IF);
+            actions.ifStarted();
+            E condition = parseExpr();
+            consume(THEN);
+            actions.ifConditionParsed(condition);
+            stack.add(new StatementFrame<S, E>(StatementKind.IF, firstToken, condition));
+            return false;
+        } else if (first == IDENTIFIER && second == COLON) {
+            finishedStmt = finished(parseDeclaration(), firstToken);
+            return true;
+        } else if (first == IDENTIFIER && second == ASSIGN) {
+            finishedStmt = finished(parseAssignment(), firstToken);
+            return true;
+        } else {
+            E expr = parseExpr();
+            consume(SEMICOLON);
+            finishedStmt = finished(actions.expressionStatement(expr), firstToken);
+            return true;
+        }
     }
     
-    private IfStatement parseIf() {
-        consume(IF);
-        Expr condition = parseExpr();
-        consume(THEN);
-        Statement thenClause = parseStatement();
-        if (peek().type == ELSE) {
-            consume(ELSE);
-            Statement elseClause = parseStatement();
-            return new IfStatement(condition, thenClause, elseClause);
-        } else {
-            return new IfStatement(condition, thenClause);
+    private S finished(S stmt, int firstToken) {
+        if (spanListener != null) {
+            spanListener.statementParsed(stmt, firstToken, position);
         }
+        return stmt;
     }
     
-    private Statement parseDeclaration() {
-        String varName = consume(IDENTIFIER).text;
+    private S parseDeclaration() {
+        int varName = consumeIdentifier();
         consume(COLON);
         Type type = parseType();
         consume(ASSIGN);
-        Expr expr = parseExpr();
-        Statement decl = new Declaration(varName, type, expr);
+        actions.declarationStarted(varName, type);
+        E expr = parseExpr();
+        S decl = actions.declaration(varName, type, expr);
         consume(SEMICOLON);
         return decl;
     }
 
-    private Statement parseAssignment() {
-        String varName = consume(IDENTIFIER).text;
+    private S parseAssignment() {
+        int varName = consumeIdentifier();
         consume(ASSIGN);
-        Expr expr = parseExpr();
-        Statement assignment = new Assignment(varName, expr);
+        actions.assignmentStarted(varName);
+        E expr = parseExpr();
+        S assignment = actions.assignment(varName, expr);
         consume(SEMICOLON);
         return assignment;
     }
     
-    private Expr parseExpr() {
-        Expr left = parseMathexpr();
-        Token op = peek();
-        switch (op.type) {
+    private E parseExpr() {
+        ArrayList<E> operands = new ArrayList<E>();
+        ArrayList<Operator<E>> operators = new ArrayList<Operator<E>>();
+        Operator<E> level = Operator.level(OperatorKind.TOP, -1);
+        operators.add(level);
+        
+        while (true) {
+            // Read prefix operators and opening parentheses until we get an operand
+            Token.Type type = peek();
+            int symbol = input.symbol(0);
+            String text = consume();
+            switch (type) {
+                case LPAREN:
+                    level = Operator.level(OperatorKind.PAREN, -1);
+                    operators.add(level);
+                    continue;
+                case MINUS:
+                case NOT:
+                    operators.add(Operator.<E>prefix(this.operators[type.ordinal()]));
+                    continue;
+                case INTCONST:
+                    operands.add(actions.intConst(Integer.parseInt(text)));
+                    break;
+                case BOOLCONST:
+                    operands.add(actions.boolConst(Boolean.parseBoolean(text)));
+                    break;
+                case IDENTIFIER:
+                    if (peek() == LPAREN) {
+                        consume(LPAREN);
+                        if (peek() != RPAREN) {
+                            level = Operator.level(OperatorKind.CALL, symbol);
+                            operators.add(level);
+                            continue;
+                        }
+                        consume(RPAREN);
+                        operands.add(actions.call(symbol, new ArrayList<E>()));
+                    } else {
+                        operands.add(actions.var(symbol));
+                    }
+                    break;
+                default:
+                    return fail("integer or boolean or variable expected instead of '" + text + "'");
+            }
+            
+            // We have an operand. Now see what comes after it.
+            while (true) {
+                applyPrefixOperators(operands, operators);
+                
+                int precedence = binaryPrecedence(peek());
+                if (precedence == COMPARISON_PRECEDENCE && level.hasComparison) {
+                    precedence = 0; // A second comparison ends the expression
+                }
+                if (precedence > 0) {
+                    applyBinaryOperators(operands, operators, precedence);
+                    if (precedence == COMPARISON_PRECEDENCE) {
+                        level.hasComparison = true;
+                    }
+                    operators.add(Operator.<E>binary(this.operators[peek().ordinal()], precedence));
+                    consume();
+                    break;
+                }
+                
+                // The expression at this level ends here
+                applyBinaryOperators(operands, operators, 1);
+                if (level.kind == OperatorKind.TOP) {
+                    return operands.get(0);
+                } else if (level.kind == OperatorKind.PAREN) {
+                    consume(RPAREN);
+                } else {
+                    level.arguments.add(operands.remove(operands.size() - 1));
+                    if (peek() == COMMA) {
+                        consume(COMMA);
+                    }
+                    if (peek() != RPAREN) {
+                        level.hasComparison = false;
+                        break; // Read the next argument
+                    }
+                    consume(RPAREN);
+                    operands.add(actions.call(level.symbol, level.arguments));
+                }
+                
+                operators.remove(operators.size() - 1);
+                level = innermostLevel(operators);
+            }
+        }
+    }
+    
+    private static final int COMPARISON_PRECEDENCE = 1;
+    
+    private static int binaryPrecedence(Token.Type type) {
+        switch (type) {
+            case TIMES:
+            case DIV:
+            case MOD:
+                return 3;
+            case PLUS:
+            case MINUS:
+                return 2;
             case EQ:
             case NEQ:
             case LT:
             case GT:
             case LTE:
             case GTE:
-                consume();
-                Expr right = parseMathexpr();
-                return new BinaryOp(left, op.text, right);
+                return COMPARISON_PRECEDENCE;
             default:
-                return left;
+                return 0;
         }
     }
     
-    private Expr parseMathexpr() {
-        Expr left = parseTerm();
-        while (true) {
-            Token op = peek();
-            switch (op.type) {
-                case PLUS:
-                case MINUS:
-                    consume();
-                    Expr right = parseTerm();
-                    left = new BinaryOp(left, op.text, right);
-                    break;
-                default:
-                    return left;
-            }
+    private void applyPrefixOperators(ArrayList<E> operands, ArrayList<Operator<E>> operators) {
+        while (operators.get(operators.size() - 1).kind == OperatorKind.PREFIX) {
+            Operator<E> op = operators.remove(operators.size() - 1);
+            E operand = operands.remove(operands.size() - 1);
+            operands.add(actions.unaryOp(op.symbol, operand));
         }
     }
     
-    private Expr parseTerm() {
-        Expr left = parseFactor();
+    private void applyBinaryOperators(ArrayList<E> operands, ArrayList<Operator<E>> operators, int minPrecedence) {
         while (true) {
-            Token op = peek();
-            switch (op.type) {
-                case TIMES:
-                case DIV:
-                case MOD:
-                    consume();
-                    Expr right = parseFactor();
-                    left = new BinaryOp(left, op.text, right);
-                    break;
-                default:
-                    return left;
-            }
-        }
-    }
-    
-    private Expr parseFactor() {
-        Token t = consume();
-        if (t.type == LPAREN) {
-            Expr e = parseExpr();
-            consume(RPAREN);
-            return e;
-        } else {
-            switch (t.type) {
-                case MINUS: return new UnaryOp("-", parseFactor());
-                case NOT: return new UnaryOp("!", parseFactor());
-                case INTCONST: return new IntConst(Integer.parseInt(t.text));
-                case BOOLCONST: return new BoolConst(Boolean.parseBoolean(t.text));
-                case IDENTIFIER:
-                    if (peek().type == LPAREN) {
-                        String functionName = t.text;
-                        consume(LPAREN);
-                        List<Expr> args = parseArguments();
-                        consume(RPAREN);
-                        return new FunctionCall(functionName, args);
-                    } else {
-                        return new Var(t.text);
-                    }
-                default: return fail("integer or boolean or variable expected instead of '" + t.text + "'");
+            Operator<E> op = operators.get(operators.size() - 1);
+            if (op.kind != OperatorKind.BINARY || op.precedence < minPrecedence) {
+                return;
             }
+            operators.remove(operators.size() - 1);
+            E right = operands.remove(operands.size() - 1);
+            E left = operands.remove(operands.size() - 1);
+            operands.add(actions.binaryOp(left, op.symbol, right));
         }
     }
     
-    private List<Expr> parseArguments() {
-        ArrayList<Expr> result = new ArrayList<Expr>();
-        while (peek().type != RPAREN) {
-            result.add(parseExpr());
-            if (peek().type == COMMA) {
-                consume(COMMA);
+    private static <E> Operator<E> innermostLevel(ArrayList<Operator<E>> operators) {
+        for (int i = operators.size() - 1; ; --i) {
+            Operator<E> op = operators.get(i);
+            if (op.kind == OperatorKind.TOP || op.kind == OperatorKind.PAREN || op.kind == OperatorKind.CALL) {
+                return op;
             }
         }
-        return result;
     }
     
     private Type parseType() {
-        Token t = consume(IDENTIFIER);
-        if (t.text.equals("int")) {
+        String name = consume(IDENTIFIER);
+        if (name.equals("int")) {
             return IntType.instance;
-        } else if (t.text.equals("bool")) {
+        } else if (name.equals("bool")) {
             return BoolType.instance;
         } else {
-            return fail(t.text + " is not a known type");
+            return fail(name + " is not a known type");
         }
     }
     
-    private Token peek() {
-        return peekAtOffset(0);
+    Token.Type peek() {
+        return input.type(0);
     }
     
-    private Token peekSecond() {
-        return peekAtOffset(1);
+    private Token.Type peekSecond() {
+        return input.type(1);
     }
     
-    private Token peekAtOffset(int offset) {
-        if (inputIndex + offset < input.size()) {
-            return input.get(inputIndex + offset);
+    String consume(Token.Type expected) {
+        if (peek() == expected) {
+            return consume();
         } else {
-            return eof;
+            return fail(expected + " expected");
         }
     }
     
-    private Token consume(Token.Type expected) {
-        Token actual = peek();
-        if (actual.type == expected) {
-            inputIndex++;
-            return actual;
-        } else {
-            return fail(expected + " expected");
-        }
+    /** Consumes an identifier and returns its symbol id. */
+    private int consumeIdentifier() {
+        int symbol = input.symbol(0);
+        consume(IDENTIFIER);
+        return symbol;
     }
     
-    private Token consume() {
-        Token tok = peek();
-        inputIndex++;
-        return tok;
+    private String consume() {
+        String text = input.text(0);
+        input.advance();
+        position++;
+        return text;
     }
     
     private <T> T fail(String error) {
-        Token t = peek();
-        throw new ParseError("Parse error near line " + t.line + " col " + t.col + ": " + error);
+        throw new ParseError("Parse error near line " + input.line(0) + " col " + input.col(0) + ": " + error);
+    }
+    
+    private static enum StatementKind { BLOCK, WHILE, IF }
+    
+    /** A compound statement whose inner statements are still being parsed. */
+    private static class StatementFrame<S, E> {
+        public final StatementKind kind;
+        public final int first;
+        public final E expr; // The condition of an 'if' or 'while'
+        public final ArrayList<S> statements = new ArrayList<S>(); // Of a block
+        public boolean hasThenClause;
+        public S thenClause;
+        
+        public StatementFrame(StatementKind kind, int first, E expr) {
+            this.kind = kind;
+            this.first = first;
+            this.expr = expr;
+        }
+    }
+    
+    private static enum OperatorKind { TOP, PAREN, CALL, PREFIX, BINARY }
+    
+    /**
+     * An entry on the operator stack.
+     * TOP, PAREN and CALL entries begin a level of nesting in an expression.
+     */
+    private static class Operator<E> {
+        public final OperatorKind kind;
+        public final int symbol; // The operator or the name of the called function
+        public final int precedence;
+        public final ArrayList<E> arguments; // Of a function call
+        public boolean hasComparison;
+        
+        private Operator(OperatorKind kind, int symbol, int precedence, ArrayList<E> arguments) {
+            this.kind = kind;
+            this.symbol = symbol;
+            this.precedence = precedence;
+            this.arguments = arguments;
+        }
+        
+        public static <E> Operator<E> level(OperatorKind kind, int function) {
+            ArrayList<E> arguments = (kind == OperatorKind.CALL) ? new ArrayList<E>() : null;
+            return new Operator<E>(kind, function, 0, arguments);
+        }
+        
+        public static <E> Operator<E> prefix(int op) {
+            return new Operator<E>(OperatorKind.PREFIX, op, 0, null);
+        }
+        
+        public static <E> Operator<E> binary(int op, int precedence) {
+            return new Operator<E>(OperatorKind.BINARY, op, precedence, null);
+        }
+    }
+    
+    private static class ListTokenStream implements TokenStream {
+        private ArrayList<Token> tokens;
+        private int index;
+        private Token eof;
+        private Symbols symbols = new Symbols(); // Identifiers are interned as they're read
+
+        public ListTokenStream(ArrayList<Token> tokens) {
+            this.tokens = tokens;
+            this.index = 0;
+            if (tokens.isEmpty()) {
+                this.eof = new Token(EOF, EOF.text, 0, 0);
+            } else {
+                Token last = tokens.get(tokens.size() - 1);
+                this.eof = new Token(EOF, EOF.text, last.line, last.endCol);
+            }
+        }
+
+        public Token.Type type(int lookahead) {
+            return token(lookahead).type;
+        }
+
+        public String text(int lookahead) {
+            return token(lookahead).text;
+        }
+
+        public int symbol(int lookahead) {
+            Token token = token(lookahead);
+            return (token.type == IDENTIFIER) ? symbols.intern(token.text) : -1;
+        }
+
+        public Symbols getSymbols() {
+            return symbols;
+        }
+
+        public int line(int lookahead) {
+            return token(lookahead).line;
+        }
+
+        public int col(int lookahead) {
+            return token(lookahead).col;
+        }
+
+        public void advance() {
+            index++;
+        }
+
+        private Token token(int lookahead) {
+            if (index + lookahead < tokens.size()) {
+                return tokens.get(index + lookahead);
+            } else {
+                return eof;
+            }
+        }
     }
 }
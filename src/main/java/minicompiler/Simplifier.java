@@ -0,0 +1,307 @@
+package minicompiler;
+
+import java.util.Arrays;
+import minicompiler.ast.FlatAst;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+
+/**
+ * Folds constants and simplifies arithmetic in a type checked AST,
+ * before the {@link IrGenerator} makes IR of it.
+ *
+ * <p>
+ * Operators on constants are computed as the IA32 backend would at runtime:
+ * with 32-bit wraparound, and with division truncating towards zero like
+ * idivl. Divisions that would trap (by zero, or MIN_VALUE by -1) are left for
+ * the program to do. Identities like 'x * 1', 'x + 0', 'x - x', '!!b' and '-(-x)'
+ * are removed, and chains like '(x + 1) + 2' become 'x + 3'. Expressions that
+ * call functions or might trap are never dropped, so 'readInt() * 0' still reads
+ * an int and '(x / y) * 0' still traps when y is 0.
+ *
+ * <p>
+ * The simplified program is built into a new {@link FlatAst}, walking the old one
+ * children first with a cursor. An expression node shared by several parents
+ * is simplified once, since its simplified form doesn't depend on where it is.
+ */
+public class Simplifier {
+    public static FlatAst simplify(FlatAst ast) {
+        Walker walker = new Walker(ast);
+        walker.run();
+        return walker.out;
+    }
+
+    private static class Walker {
+        private final FlatAst in;
+        private final FlatAst out;
+        private final Symbols symbols;
+        private final FlatAst.Cursor work = new FlatAst.Cursor();
+        private final IntStack results = new IntStack();
+        private final int[] simplified;  // Old expression node -> new node, or -1
+        private boolean[] mayTrap = new boolean[64];  // By new node
+
+        // Operator symbols, or -1 if the program doesn't use them
+        private int plus;
+        private final int minus;
+        private final int times;
+        private final int divide;
+        private final int modulo;
+        private final int not;
+
+        public Walker(FlatAst ast) {
+            this.in = ast;
+            this.symbols = ast.getSymbols();
+            this.out = new FlatAst(symbols);
+            this.simplified = new int[ast.size()];
+            Arrays.fill(simplified, -1);
+            this.plus = symbols.lookup("+");
+            this.minus = symbols.lookup("-");
+            this.times = symbols.lookup("*");
+            this.divide = symbols.lookup("/");
+            this.modulo = symbols.lookup("%");
+            this.not = symbols.lookup("!");
+        }
+
+        public void run() {
+            work.push(in.getRoot());
+            while (work.next()) {
+                int node = work.node();
+                if (work.stage() == 0) {
+                    if (in.isExpr(node) && simplified[node] != -1) {
+                        results.push(simplified[node]);
+                    } else {
+                        work.push(node, 1);
+                        in.pushChildren(work, node);
+                    }
+                } else {
+                    int result = rebuild(node);
+                    if (in.isExpr(node)) {
+                        simplified[node] = result;
+                    }
+                    results.push(result);
+                }
+            }
+            out.setRoot(results.pop());
+        }
+
+        /** Makes the new node once the new children are on the results stack. */
+        private int rebuild(int node) {
+            switch (in.kind(node)) {
+                case BLOCK:
+                case CALL: {
+                    int count = in.childCount(node);
+                    int from = results.size() - count;
+                    int result = (in.kind(node) == FlatAst.Kind.BLOCK)
+                            ? out.addBlock(results, from, count)
+                            : call(in.symbol(node), from, count);
+                    results.truncate(from);
+                    return result;
+                }
+                case DECLARATION:
+                    return out.addDeclaration(in.symbol(node), in.declaredType(node), results.pop());
+                case ASSIGNMENT:
+                    return out.addAssignment(in.symbol(node), results.pop());
+                case EMPTY:
+                    return out.addEmpty();
+                case IF: {
+                    int elseClause = in.hasElseClause(node) ? results.pop() : -1;
+                    int thenClause = results.pop();
+                    return out.addIf(results.pop(), thenClause, elseClause);
+                }
+                case WHILE: {
+                    int body = results.pop();
+                    return out.addWhile(results.pop(), body);
+                }
+                case BINARY_OP: {
+                    int right = results.pop();
+                    return binaryOp(in.symbol(node), results.pop(), right);
+                }
+                case UNARY_OP:
+                    return unaryOp(in.symbol(node), results.pop());
+                case INT_CONST:
+                    return out.addIntConst(in.intValue(node));
+                case BOOL_CONST:
+                    return out.addBoolConst(in.boolValue(node));
+                case VAR:
+                    return out.addVar(in.symbol(node));
+                default:
+                    throw new IllegalStateException("Unknown node kind: " + in.kind(node));
+            }
+        }
+
+        private int binaryOp(int op, int left, int right) {
+            if (isInt(left) && isInt(right)) {
+                int folded = fold(op, out.intValue(left), out.intValue(right));
+                if (folded != -1) {
+                    return folded;
+                }
+                return newBinaryOp(op, left, right);
+            }
+
+            // Constants go on the right of '+' and '*', so there are fewer cases below
+            if ((op == plus || op == times) && isInt(left)) {
+                int tmp = left;
+                left = right;
+                right = tmp;
+            }
+
+            if (isInt(right)) {
+                int c = out.intValue(right);
+                if (op == plus || op == minus) {
+                    return addConstant(left, (op == plus) ? c : -c);
+                }
+                if (op == times) {
+                    if (c == 1) {
+                        return left;
+                    }
+                    if (c == 0 && canDrop(left)) {
+                        return right;
+                    }
+                    if (isOp(left, times) && isInt(out.right(left))) {
+                        return binaryOp(times, out.left(left), out.addIntConst(out.intValue(out.right(left)) * c));
+                    }
+                }
+                if (op == divide && c == 1) {
+                    return left;
+                }
+                if (op == modulo && c == 1 && canDrop(left)) {
+                    return out.addIntConst(0);
+                }
+            }
+
+            if (op == minus && isInt(left) && out.intValue(left) == 0) {
+                return unaryOp(minus, right);
+            }
+
+            // Both sides are the same expression, and evaluating it does nothing else
+            if (left == right && canDrop(left)) {
+                String name = symbols.name(op);
+                if (op == minus) {
+                    return out.addIntConst(0);
+                } else if (name.equals("==") || name.equals("<=") || name.equals(">=")) {
+                    return out.addBoolConst(true);
+                } else if (name.equals("<>") || name.equals("<") || name.equals(">")) {
+                    return out.addBoolConst(false);
+                }
+            }
+
+            return newBinaryOp(op, left, right);
+        }
+
+        /** Makes 'expr + c', merging c into a constant that expr already adds or subtracts. */
+        private int addConstant(int expr, int c) {
+            if ((isOp(expr, plus) || isOp(expr, minus)) && isInt(out.right(expr))) {
+                int inner = out.intValue(out.right(expr));
+                c += isOp(expr, plus) ? inner : -inner;
+                expr = out.left(expr);
+            }
+            if (c == 0) {
+                return expr;
+            } else if (c < 0 && c != Integer.MIN_VALUE && minus != -1) {
+                return newBinaryOp(minus, expr, out.addIntConst(-c));
+            } else {
+                return newBinaryOp(plus(), expr, out.addIntConst(c));
+            }
+        }
+
+        /** The value of an operator on two constants, or -1 if it must be left for runtime. */
+        private int fold(int op, int a, int b) {
+            String name = symbols.name(op);
+            if (name.equals("+")) {
+                return out.addIntConst(a + b);
+            } else if (name.equals("-")) {
+                return out.addIntConst(a - b);
+            } else if (name.equals("*")) {
+                return out.addIntConst(a * b);
+            } else if (name.equals("/") || name.equals("%")) {
+                if (b == 0 || (a == Integer.MIN_VALUE && b == -1)) {
+                    // idivl traps on these
+                    return -1;
+                }
+                // Java's division truncates towards zero like idivl
+                return out.addIntConst(name.equals("/") ? a / b : a % b);
+            } else if (name.equals("<")) {
+                return out.addBoolConst(a < b);
+            } else if (name.equals(">")) {
+                return out.addBoolConst(a > b);
+            } else if (name.equals("<=")) {
+                return out.addBoolConst(a <= b);
+            } else if (name.equals(">=")) {
+                return out.addBoolConst(a >= b);
+            } else if (name.equals("==")) {
+                return out.addBoolConst(a == b);
+            } else if (name.equals("<>")) {
+                return out.addBoolConst(a != b);
+            }
+            return -1;
+        }
+
+        private int unaryOp(int op, int operand) {
+            if (op == minus) {
+                if (isInt(operand)) {
+                    // negl wraps MIN_VALUE around to itself, as does Java
+                    return out.addIntConst(-out.intValue(operand));
+                }
+                if (out.kind(operand) == FlatAst.Kind.UNARY_OP && out.symbol(operand) == minus) {
+                    return out.operand(operand);
+                }
+            } else if (op == not) {
+                if (out.kind(operand) == FlatAst.Kind.BOOL_CONST) {
+                    return out.addBoolConst(!out.boolValue(operand));
+                }
+                if (out.kind(operand) == FlatAst.Kind.UNARY_OP && out.symbol(operand) == not) {
+                    return out.operand(operand);
+                }
+            }
+            return record(out.addUnaryOp(op, operand), mayTrap(operand));
+        }
+
+        private int call(int function, int from, int count) {
+            boolean trap = false;
+            for (int i = 0; i < count; ++i) {
+                trap |= mayTrap(results.get(from + i));
+            }
+            return record(out.addCall(function, results, from, count), trap);
+        }
+
+        private int newBinaryOp(int op, int left, int right) {
+            boolean trap = mayTrap(left) || mayTrap(right);
+            if (op == divide || op == modulo) {
+                trap |= !isInt(right) || out.intValue(right) == 0 || out.intValue(right) == -1;
+            }
+            return record(out.addBinaryOp(op, left, right), trap);
+        }
+
+        private int record(int node, boolean trap) {
+            if (node >= mayTrap.length) {
+                mayTrap = Arrays.copyOf(mayTrap, Math.max(node + 1, mayTrap.length * 2));
+            }
+            mayTrap[node] = trap;
+            return node;
+        }
+
+        private boolean mayTrap(int node) {
+            return node < mayTrap.length && mayTrap[node];
+        }
+
+        /** Whether leaving the expression unevaluated makes no difference. */
+        private boolean canDrop(int node) {
+            return !out.hasCalls(node) && !mayTrap(node);
+        }
+
+        private boolean isInt(int node) {
+            return out.kind(node) == FlatAst.Kind.INT_CONST;
+        }
+
+        private boolean isOp(int node, int op) {
+            return op != -1 && out.kind(node) == FlatAst.Kind.BINARY_OP && out.symbol(node) == op;
+        }
+
+        /** '+' may not be in the program yet if it only had 'x - 1 - -2'. */
+        private int plus() {
+            if (plus == -1) {
+                plus = symbols.intern("+");
+            }
+            return plus;
+        }
+    }
+}
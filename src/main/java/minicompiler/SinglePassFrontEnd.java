@@ -0,0 +1,317 @@
+package minicompiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import minicompiler.errors.TypeError;
+import minicompiler.ir.*;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+import minicompiler.types.BoolType;
+import minicompiler.types.IntType;
+import minicompiler.types.Type;
+
+/**
+ * Parses, type checks and generates IR in one pass over the tokens,
+ * without building an AST.
+ *
+ * <p>
+ * The {@link Parser} calls back here as it recognizes each part of the program.
+ * Each expression is checked and its IR emitted as soon as it's parsed,
+ * using the same {@link TypeChecker.Rules} and {@link IrGenerator.Emitter}
+ * as the separate passes, in the same order. The IR and the errors
+ * are the same as from parsing, type checking and generating separately.
+ *
+ * <p>
+ * Separately, a parse error anywhere in the program is reported before
+ * any type error. So when a check fails, we remember the error,
+ * stop checking and emitting, and throw it only once the whole program has parsed.
+ *
+ * <p>
+ * An 'if' jumps past its then-clause to its else-clause, or to its end if it
+ * has no else-clause. Which one isn't known until the then-clause
+ * has been parsed, so the jump is emitted with the end label and
+ * replaced once we see whether an 'else' follows.
+ */
+public class SinglePassFrontEnd {
+    /**
+     * Compiles a whole program to IR whose variables are symbols in the tokens' table.
+     * Throws the same errors as parsing, type checking and generating IR separately.
+     */
+    public static List<IrCommand> generate(TokenStream tokens, Map<String, Type> knownTypes) {
+        Actions actions = new Actions(tokens.getSymbols(), knownTypes);
+        Parser.parse(tokens, actions);
+        if (actions.error != null) {
+            throw actions.error;
+        }
+        return actions.emitter.getOutput();
+    }
+
+    /** The type and the IR value of an expression. */
+    private static class Value {
+        public final Type type;
+        public final IrRValue value;
+
+        public Value(Type type, IrRValue value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private static class Actions implements ParseActions<Void, Value> {
+        private TypeChecker.Rules rules;
+        private IrGenerator.Emitter emitter;
+        private TypeError error; // The first one, if any
+        private ArrayList<String> labels = new ArrayList<String>(); // Of the ifs and whiles we're in
+        private IntStack conditionJumps = new IntStack(); // Indices of the ifs' jumps past their then-clauses
+        private IntStack hasElseClauses = new IntStack(); // 1 for each if whose else-clause we're in
+
+        public Actions(Symbols symbols, Map<String, Type> knownTypes) {
+            this.rules = new TypeChecker.Rules(symbols, knownTypes);
+            this.emitter = new IrGenerator.Emitter(symbols);
+        }
+
+        private boolean failed() {
+            return error != null;
+        }
+
+        public Value intConst(int value) {
+            if (failed()) {
+                return null;
+            }
+            return new Value(IntType.instance, new IrIntConst(value));
+        }
+
+        public Value boolConst(boolean value) {
+            if (failed()) {
+                return null;
+            }
+            return new Value(BoolType.instance, new IrIntConst(value ? 1 : 0));
+        }
+
+        public Value var(int name) {
+            if (failed()) {
+                return null;
+            }
+            try {
+                return new Value(rules.variable(name), emitter.variable(name));
+            } catch (TypeError e) {
+                return fail(e);
+            }
+        }
+
+        public Value call(int function, List<Value> arguments) {
+            if (failed()) {
+                return null;
+            }
+            ArrayList<Type> argTypes = new ArrayList<Type>(arguments.size());
+            ArrayList<IrRValue> argValues = new ArrayList<IrRValue>(arguments.size());
+            for (Value arg : arguments) {
+                argTypes.add(arg.type);
+                argValues.add(arg.value);
+            }
+            return emitCall(function, argTypes, argValues);
+        }
+
+        public Value unaryOp(int op, Value operand) {
+            if (failed()) {
+                return null;
+            }
+            try {
+                Type type = rules.unaryOp(op, operand.type);
+                return new Value(type, emitter.call(op, Arrays.asList(operand.value)));
+            } catch (TypeError e) {
+                return fail(e);
+            }
+        }
+
+        public Value binaryOp(Value left, int op, Value right) {
+            if (failed()) {
+                return null;
+            }
+            return emitCall(op, Arrays.asList(left.type, right.type), Arrays.asList(left.value, right.value));
+        }
+
+        private Value emitCall(int function, List<Type> argTypes, List<IrRValue> argValues) {
+            try {
+                Type type = rules.call(function, argTypes);
+                return new Value(type, emitter.call(function, argValues));
+            } catch (TypeError e) {
+                return fail(e);
+            }
+        }
+
+        public Void expressionStatement(Value expr) {
+            return null;
+        }
+
+        public void declarationStarted(int varName, Type type) {
+            if (failed()) {
+                return;
+            }
+            try {
+                rules.declare(varName, type);
+            } catch (TypeError e) {
+                fail(e);
+            }
+        }
+
+        public Void declaration(int varName, Type type, Value expr) {
+            if (failed()) {
+                return null;
+            }
+            try {
+                rules.checkInitializer(varName, type, expr.type);
+                emitter.emit(new IrCopy(emitter.variable(varName), expr.value));
+            } catch (TypeError e) {
+                fail(e);
+            }
+            return null;
+        }
+
+        public void assignmentStarted(int varName) {
+            if (failed()) {
+                return;
+            }
+            try {
+                rules.assignee(varName);
+            } catch (TypeError e) {
+                fail(e);
+            }
+        }
+
+        public Void assignment(int varName, Value expr) {
+            if (failed()) {
+                return null;
+            }
+            try {
+                rules.checkAssignment(varName, rules.assignee(varName), expr.type);
+                emitter.emit(new IrCopy(emitter.variable(varName), expr.value));
+            } catch (TypeError e) {
+                fail(e);
+            }
+            return null;
+        }
+
+        public void blockStarted() {
+            if (failed()) {
+                return;
+            }
+            rules.pushScope();
+        }
+
+        public Void block(List<Void> statements) {
+            if (failed()) {
+                return null;
+            }
+            rules.popScope();
+            return null;
+        }
+
+        public void whileStarted() {
+            if (failed()) {
+                return;
+            }
+            String headLabel = emitter.makeLabel("whileHead");
+            labels.add(headLabel);
+            labels.add(emitter.makeLabel("whileEnd"));
+            emitter.emit(new IrLabel(headLabel));
+        }
+
+        public void whileHeadParsed(Value head) {
+            if (failed()) {
+                return;
+            }
+            try {
+                rules.checkWhileCondition(head.type);
+                rules.pushScope();
+                emitter.emit(new IrGotoIfNot(endLabel(), head.value));
+            } catch (TypeError e) {
+                fail(e);
+            }
+        }
+
+        public Void whileLoop(Value head, Void body) {
+            if (failed()) {
+                return null;
+            }
+            rules.popScope();
+            emitter.emit(new IrGoto(labels.get(labels.size() - 2)));
+            emitter.emit(new IrLabel(endLabel()));
+            popLabels();
+            return null;
+        }
+
+        public void ifStarted() {
+            if (failed()) {
+                return;
+            }
+            labels.add(emitter.makeLabel("else"));
+            labels.add(emitter.makeLabel("ifEnd"));
+        }
+
+        public void ifConditionParsed(Value condition) {
+            if (failed()) {
+                return;
+            }
+            try {
+                rules.checkIfCondition(condition.type);
+                rules.pushScope();
+                conditionJumps.push(emitter.size());
+                emitter.emit(new IrGotoIfNot(endLabel(), condition.value));
+            } catch (TypeError e) {
+                fail(e);
+            }
+        }
+
+        public void thenClauseParsed(Void thenClause, boolean hasElseClause) {
+            if (failed()) {
+                return;
+            }
+            rules.popScope();
+            int jump = conditionJumps.pop();
+            hasElseClauses.push(hasElseClause ? 1 : 0);
+            if (hasElseClause) {
+                IrRValue condition = ((IrGotoIfNot)emitter.getOutput().get(jump)).condition;
+                emitter.replace(jump, new IrGotoIfNot(elseLabel(), condition));
+                emitter.emit(new IrGoto(endLabel()));
+                emitter.emit(new IrLabel(elseLabel()));
+                rules.pushScope();
+            }
+        }
+
+        public Void ifStatement(Value condition, Void thenClause, Void elseClause) {
+            if (failed()) {
+                return null;
+            }
+            if (hasElseClauses.pop() != 0) {
+                rules.popScope();
+            }
+            emitter.emit(new IrLabel(endLabel()));
+            popLabels();
+            return null;
+        }
+
+        // The innermost 'if' or 'while' has pushed two labels:
+        // 'else' and 'ifEnd' or 'whileHead' and 'whileEnd'.
+
+        private String elseLabel() {
+            return labels.get(labels.size() - 2);
+        }
+
+        private String endLabel() {
+            return labels.get(labels.size() - 1);
+        }
+
+        private void popLabels() {
+            labels.remove(labels.size() - 1);
+            labels.remove(labels.size() - 1);
+        }
+
+        private Value fail(TypeError e) {
+            error = e;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package minicompiler;
+
+/**
+ * A change to source code: some characters starting at an offset
+ * are replaced by new text.
+ *
+ * <p>
+ * Either part may be empty, so an edit can also be a plain insertion or deletion.
+ */
+public class SourceEdit {
+    public final int offset;
+    public final int removedLength;
+    public final String insertedText;
+
+    public SourceEdit(int offset, int removedLength, String insertedText) {
+        if (offset < 0 || removedLength < 0) {
+            throw new IllegalArgumentException("Invalid edit at " + offset + " removing " + removedLength);
+        }
+        this.offset = offset;
+        this.removedLength = removedLength;
+        this.insertedText = insertedText;
+    }
+
+    /** The offset just after the removed text in the old source. */
+    public int removedEnd() {
+        return offset + removedLength;
+    }
+
+    /** The offset just after the inserted text in the new source. */
+    public int insertedEnd() {
+        return offset + insertedText.length();
+    }
+
+    /** How far text after the edit moves. */
+    public int delta() {
+        return insertedText.length() - removedLength;
+    }
+
+    public String apply(String text) {
+        return text.substring(0, offset) + insertedText + text.substring(removedEnd());
+    }
+
+    @Override
+    public String toString() {
+        return "SourceEdit(" + offset + ", " + removedLength + ", \"" + insertedText + "\")";
+    }
+}
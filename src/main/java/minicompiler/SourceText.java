@@ -0,0 +1,238 @@
+package minicompiler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Source code as seen by the tokenizer: characters addressed by their
+ * offset from the start of the input.
+ *
+ * <p>
+ * Sources that are read incrementally only keep the characters that
+ * have not yet been discarded with {@link #discardBefore(int)}.
+ */
+public abstract class SourceText {
+    public static SourceText fromString(String text) {
+        return new StringSource(text);
+    }
+
+    public static SourceText fromReader(Reader reader) {
+        return new ReaderSource(reader);
+    }
+
+    /**
+     * Reads ASCII text directly from the bytes of a buffer, such as a memory-mapped file.
+     * Bytes outside the ASCII range are not valid in any token or whitespace.
+     */
+    public static SourceText fromAsciiBytes(ByteBuffer bytes) {
+        return new AsciiBufferSource(bytes);
+    }
+
+    /** The character at the given offset, or -1 if the input ends before it. */
+    public abstract int charAt(int offset);
+
+    /** The text between the given offsets. */
+    public abstract String substring(int start, int end);
+
+    /**
+     * The number of characters in the source, or -1 if it's not known
+     * without reading to the end.
+     */
+    public int length() {
+        return -1;
+    }
+
+    /** Tells the source that characters before the given offset won't be asked for again. */
+    public void discardBefore(int offset) {
+    }
+
+    /**
+     * Whether {@link #edit} can be used. Sources read from a Reader can't be
+     * edited, since they don't keep what they have read.
+     */
+    public boolean isEditable() {
+        return false;
+    }
+
+    /**
+     * The source as it is after the given edit.
+     * Throws UnsupportedOperationException unless {@link #isEditable}.
+     */
+    public SourceText edit(SourceEdit edit) {
+        throw new UnsupportedOperationException("This source cannot be edited");
+    }
+
+    /** Whether the text starting at the given offset begins with the given string. */
+    public boolean startsWith(String s, int offset) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (charAt(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class StringSource extends SourceText {
+        private final String text;
+
+        public StringSource(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int charAt(int offset) {
+            return offset < text.length() ? text.charAt(offset) : -1;
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            return text.substring(start, end);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public boolean startsWith(String s, int offset) {
+            return text.startsWith(s, offset);
+        }
+
+        @Override
+        public boolean isEditable() {
+            return true;
+        }
+
+        @Override
+        public SourceText edit(SourceEdit edit) {
+            return new StringSource(edit.apply(text));
+        }
+    }
+
+    private static class AsciiBufferSource extends SourceText {
+        private final ByteBuffer bytes;
+        private final int length;
+
+        public AsciiBufferSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.length = bytes.limit();
+        }
+
+        @Override
+        public int charAt(int offset) {
+            return offset < length ? (bytes.get(offset) & 0xff) : -1;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; ++i) {
+                chars[i] = (char)(bytes.get(start + i) & 0xff);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public boolean isEditable() {
+            return true;
+        }
+
+        /** The edited text is kept as a string, since the buffer may be a read-only mapping. */
+        @Override
+        public SourceText edit(SourceEdit edit) {
+            return new StringSource(edit.apply(substring(0, length)));
+        }
+    }
+
+    /**
+     * Reads from a Reader into a ring buffer.
+     *
+     * <p>
+     * The buffer holds the characters from 'start' to 'end'.
+     * The character at offset i is kept at index i mod the buffer size.
+     * The buffer only grows if a single token is longer than it.
+     */
+    private static class ReaderSource extends SourceText {
+        private final Reader reader;
+        private char[] buf = new char[4096];
+        private int start = 0;
+        private int end = 0;
+        private boolean eof = false;
+
+        public ReaderSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int charAt(int offset) {
+            while (offset >= end) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            return buf[offset & (buf.length - 1)];
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            int mask = buf.length - 1;
+            int from = start & mask;
+            int to = from + (end - start);
+            if (to <= buf.length) {
+                return new String(buf, from, end - start);
+            } else {
+                StringBuilder sb = new StringBuilder(end - start);
+                sb.append(buf, from, buf.length - from);
+                sb.append(buf, 0, to - buf.length);
+                return sb.toString();
+            }
+        }
+
+        @Override
+        public void discardBefore(int offset) {
+            start = Math.max(start, offset);
+        }
+
+        private boolean fill() {
+            if (eof) {
+                return false;
+            }
+            if (end - start == buf.length) {
+                grow();
+            }
+
+            int writeIndex = end & (buf.length - 1);
+            int free = buf.length - (end - start);
+            int amount = Math.min(free, buf.length - writeIndex);
+            int amtRead;
+            try {
+                amtRead = reader.read(buf, writeIndex, amount);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (amtRead == -1) {
+                eof = true;
+                return false;
+            }
+            end += amtRead;
+            return true;
+        }
+
+        private void grow() {
+            char[] newBuf = new char[buf.length * 2];
+            for (int i = start; i < end; ++i) {
+                newBuf[i & (newBuf.length - 1)] = buf[i & (buf.length - 1)];
+            }
+            buf = newBuf;
+        }
+    }
+}
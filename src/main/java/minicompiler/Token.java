@@ -2,20 +2,27 @@ package minicompiler;
 
 public class Token {
     public static enum Type {
-        LPAREN, RPAREN,
-        LBRACE, RBRACE,
-        SEMICOLON,
-        COMMA,
-        PLUS, MINUS, TIMES, DIV, MOD,
-        NOT,
-        ASSIGN,
-        COLON,
-        EQ, NEQ, // ==, <>
-        LT, GT, LTE, GTE, // <, >, <=, >=
-        IF, THEN, ELSE, WHILE, DO,
-        INTCONST, BOOLCONST,
-        IDENTIFIER,
-        EOF
+        LPAREN("("), RPAREN(")"),
+        LBRACE("{"), RBRACE("}"),
+        SEMICOLON(";"),
+        COMMA(","),
+        PLUS("+"), MINUS("-"), TIMES("*"), DIV("/"), MOD("%"),
+        NOT("!"),
+        ASSIGN(":="),
+        COLON(":"),
+        EQ("=="), NEQ("<>"),
+        LT("<"), GT(">"), LTE("<="), GTE(">="),
+        IF("if"), THEN("then"), ELSE("else"), WHILE("while"), DO("do"),
+        INTCONST(null), BOOLCONST(null),
+        IDENTIFIER(null),
+        EOF("<EOF>");
+        
+        /** The text of every token of this type, or null if it varies. */
+        public final String text;
+        
+        private Type(String text) {
+            this.text = text;
+        }
     }
     
     public final Type type;
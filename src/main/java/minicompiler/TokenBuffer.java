@@ -0,0 +1,262 @@
+package minicompiler;
+
+import java.util.Arrays;
+import static minicompiler.Token.Type.*;
+import minicompiler.misc.Symbols;
+
+/**
+ * A list of tokens stored in parallel arrays.
+ *
+ * <p>
+ * Instead of an object per token, a token is an index into arrays of
+ * types, source offsets, lengths, lines and columns.
+ * The text of an identifier or constant is only copied out of the source
+ * when it's asked for, and the text of other tokens is never copied,
+ * since it's always the same for the token's type.
+ * Identifiers also remember their id in a {@link Symbols} table.
+ */
+public class TokenBuffer {
+    private static final Token.Type[] typeValues = Token.Type.values();
+
+    private final SourceText source;
+    private final Symbols symbols;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] cols;
+    private int[] symbolIds;
+    private int size;
+
+    public TokenBuffer(SourceText source, Symbols symbols) {
+        this(source, symbols, 64);
+    }
+
+    public TokenBuffer(SourceText source, Symbols symbols, int initialCapacity) {
+        this.source = source;
+        this.symbols = symbols;
+        this.types = new byte[initialCapacity];
+        this.starts = new int[initialCapacity];
+        this.lengths = new int[initialCapacity];
+        this.lines = new int[initialCapacity];
+        this.cols = new int[initialCapacity];
+        this.symbolIds = new int[initialCapacity];
+        this.size = 0;
+    }
+
+    /** Adds a token. The symbol is the id of an identifier and ignored for other tokens. */
+    public void add(Token.Type type, int start, int length, int line, int col, int symbol) {
+        ensureCapacity(size + 1);
+        types[size] = (byte)type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        cols[size] = col;
+        symbolIds[size] = (type == IDENTIFIER) ? symbol : -1;
+        size++;
+    }
+
+    /**
+     * Adds the tokens of another buffer between the given indices,
+     * moving them by the given amounts.
+     *
+     * <p>
+     * The column delta only applies to tokens on the same line as the first copied token,
+     * since columns on later lines are counted from the start of their own line.
+     */
+    public void addShifted(TokenBuffer other, int from, int to, int startDelta, int lineDelta, int colDelta) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(other.types, from, types, size, count);
+        System.arraycopy(other.lengths, from, lengths, size, count);
+        System.arraycopy(other.symbolIds, from, symbolIds, size, count);
+
+        int firstLine = other.lines[from];
+        for (int i = 0; i < count; ++i) {
+            int line = other.lines[from + i];
+            starts[size + i] = other.starts[from + i] + startDelta;
+            lines[size + i] = line + lineDelta;
+            cols[size + i] = other.cols[from + i] + (line == firstLine ? colDelta : 0);
+        }
+        size += count;
+    }
+
+    /**
+     * Adds all tokens of a buffer made by tokenizing a piece of the source on its own.
+     *
+     * <p>
+     * The piece was tokenized starting from line 1 and column 1,
+     * so the line delta is added to every token and the column delta
+     * to the tokens on the piece's first line. The piece's identifiers
+     * were interned in its own symbol table, and the map gives their ids in ours.
+     */
+    void addPiece(TokenBuffer piece, int lineDelta, int colDelta, int[] symbolMap) {
+        int count = piece.size;
+        ensureCapacity(size + count);
+        System.arraycopy(piece.types, 0, types, size, count);
+        System.arraycopy(piece.starts, 0, starts, size, count);
+        System.arraycopy(piece.lengths, 0, lengths, size, count);
+        for (int i = 0; i < count; ++i) {
+            int line = piece.lines[i];
+            int symbol = piece.symbolIds[i];
+            lines[size + i] = line + lineDelta;
+            cols[size + i] = piece.cols[i] + (line == 1 ? colDelta : 0);
+            symbolIds[size + i] = (symbol == -1) ? -1 : symbolMap[symbol];
+        }
+        size += count;
+    }
+
+    public SourceText getSource() {
+        return source;
+    }
+
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type type(int i) {
+        return typeValues[types[i]];
+    }
+
+    /** The offset of the token's first character in the source. */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int col(int i) {
+        return cols[i];
+    }
+
+    /** The symbol id of an identifier, or -1 for other tokens. */
+    public int symbol(int i) {
+        return symbolIds[i];
+    }
+
+    public String text(int i) {
+        if (symbolIds[i] != -1) {
+            return symbols.name(symbolIds[i]);
+        }
+        String text = type(i).text;
+        if (text == null) {
+            text = source.substring(starts[i], starts[i] + lengths[i]);
+        }
+        return text;
+    }
+
+    public Token token(int i) {
+        return new Token(type(i), text(i), lines[i], cols[i]);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            int newCapacity = Math.max(Math.max(16, capacity), types.length * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+            lines = Arrays.copyOf(lines, newCapacity);
+            cols = Arrays.copyOf(cols, newCapacity);
+            symbolIds = Arrays.copyOf(symbolIds, newCapacity);
+        }
+    }
+
+    /** Reads the tokens from the start without making Token objects. */
+    public TokenStream stream() {
+        return new Cursor(0, size);
+    }
+
+    /** Reads the tokens starting from the given index. */
+    public TokenStream stream(int from) {
+        return new Cursor(from, size);
+    }
+
+    /** Reads the tokens between the given indices, as if the buffer ended at 'to'. */
+    public TokenStream stream(int from, int to) {
+        return new Cursor(from, to);
+    }
+
+    /** The index of the first token that starts at or after the given offset. */
+    public int indexAtOffset(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** The offset just after the last character of the token. */
+    public int end(int i) {
+        return starts[i] + lengths[i];
+    }
+
+    private class Cursor implements TokenStream {
+        private int index;
+        private final int end;
+
+        public Cursor(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        public Token.Type type(int lookahead) {
+            int i = index + lookahead;
+            return i < end ? typeValues[types[i]] : EOF;
+        }
+
+        public String text(int lookahead) {
+            int i = index + lookahead;
+            return i < end ? TokenBuffer.this.text(i) : EOF.text;
+        }
+
+        public int symbol(int lookahead) {
+            int i = index + lookahead;
+            return i < end ? symbolIds[i] : -1;
+        }
+
+        public Symbols getSymbols() {
+            return symbols;
+        }
+
+        public int line(int lookahead) {
+            int i = index + lookahead;
+            if (i < end) {
+                return lines[i];
+            } else {
+                return end > 0 ? lines[end - 1] : 0;
+            }
+        }
+
+        public int col(int lookahead) {
+            int i = index + lookahead;
+            if (i < end) {
+                return cols[i];
+            } else {
+                return end > 0 ? cols[end - 1] + lengths[end - 1] : 0;
+            }
+        }
+
+        public void advance() {
+            index++;
+        }
+    }
+}
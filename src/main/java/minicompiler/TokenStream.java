@@ -0,0 +1,36 @@
+package minicompiler;
+
+import minicompiler.misc.Symbols;
+
+/**
+ * A sequence of tokens that the parser reads from left to right.
+ *
+ * <p>
+ * The parser never looks more than two tokens ahead, so a token stream
+ * only needs to know the current token and the one after it.
+ * Past the end of input, a token stream returns EOF tokens positioned
+ * at the end of the last real token.
+ *
+ * <p>
+ * Identifiers come with their ids in the stream's symbol table,
+ * so the parser can pass them on without hashing their names again.
+ */
+public interface TokenStream {
+    /** The type of the current token (lookahead 0) or the one after it (lookahead 1). */
+    public Token.Type type(int lookahead);
+
+    public String text(int lookahead);
+
+    /** The symbol id of an identifier, or -1 for other tokens. */
+    public int symbol(int lookahead);
+
+    /** The table that {@link #symbol} ids are in. */
+    public Symbols getSymbols();
+
+    public int line(int lookahead);
+
+    public int col(int lookahead);
+
+    /** Moves past the current token. */
+    public void advance();
+}
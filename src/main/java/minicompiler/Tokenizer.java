@@ -1,139 +1,559 @@
 package minicompiler;
 
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import static minicompiler.Token.Type.*;
 import minicompiler.errors.TokenizerError;
+import minicompiler.misc.Symbols;
 
 /**
  * Converts source code into a list of tokens.
- * 
+ *
  * <p>
  * A token a single syntactical unit such as ':=', 'then', 'myVariable', '123', '(', etc.
- * 
+ *
  * <p>
- * This tokenizer works by repeatedly looking at the beginning of remaining input,
- * discarding any whitespace and then seeing if the input starts with any known token.
- * Most tokens are constant strings like 'then' or '(', but some tokens, such
- * as integer constants, are recognized by regular expressions.
+ * This tokenizer walks through the input once, keeping an index to the
+ * current position. It looks up the character at that position in a table
+ * of character classes to see what kind of token starts there:
+ * whitespace is skipped, digits start an integer constant,
+ * letters start a keyword or an identifier and punctuation starts an operator.
+ * The token then continues for as long as its characters are of the right class.
+ *
+ * <p>
+ * Some operators are prefixes of others, like ':' of ':='.
+ * We always take the longest operator that matches, so ':=' is one token
+ * and not ':' followed by '='.
+ *
+ * <p>
+ * Identifiers are interned in a {@link Symbols} table as they are scanned,
+ * so each distinct name is made into a String only once.
+ *
+ * <p>
+ * Big inputs can be cut into pieces that are tokenized in parallel,
+ * see {@link #tokenizeInParallel}.
+ *
+ * <p>
+ * After an edit to the source, {@link #retokenize} scans only the part
+ * of the source around the edit and reuses the other tokens.
+ *
+ * <p>
+ * The tokenizer can also be used as a {@link TokenStream} that produces
+ * tokens only as the parser asks for them. It then keeps just two tokens
+ * and the characters of the token being scanned in memory.
  */
-public class Tokenizer {
+public class Tokenizer implements TokenStream {
     public static ArrayList<Token> tokenize(String input) {
-        Tokenizer tokenizer = new Tokenizer(input);
-        tokenizer.tokenize();
-        return tokenizer.result;
+        Tokenizer tokenizer = new Tokenizer(SourceText.fromString(input), new Symbols());
+        ArrayList<Token> result = new ArrayList<Token>();
+        while (tokenizer.next()) {
+            result.add(tokenizer.makeToken());
+        }
+        return result;
+    }
+
+    public static TokenBuffer tokenizeToBuffer(String input) {
+        return tokenizeToBuffer(SourceText.fromString(input), new Symbols());
+    }
+
+    public static TokenBuffer tokenizeToBuffer(SourceText input, Symbols symbols) {
+        Tokenizer tokenizer = new Tokenizer(input, symbols);
+        TokenBuffer result = new TokenBuffer(input, symbols);
+        tokenizer.addTokensTo(result);
+        return result;
+    }
+
+    public static TokenBuffer tokenizeInParallel(SourceText input, Symbols symbols) {
+        return tokenizeInParallel(input, symbols, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tokenizes a big input on several threads.
+     * The result is the same as from {@link #tokenizeToBuffer(SourceText, Symbols)},
+     * down to the ids given to identifiers.
+     *
+     * <p>
+     * There are no comments or string literals, so tokens never contain whitespace,
+     * and scanning a token looks no further than the character after it.
+     * The input can therefore be cut at any whitespace and the pieces
+     * tokenized separately, each as if it started at line 1 col 1.
+     * When the pieces are joined in order, each piece's lines are moved down
+     * by the lines in the pieces before it, and columns on its first line
+     * by the column it starts at. Each piece interns its identifiers in a table
+     * of its own. Those are then interned into the shared table piece by piece,
+     * which is the order the sequential tokenizer would have seen them in.
+     *
+     * <p>
+     * If a piece can't be tokenized, the input is tokenized again sequentially
+     * so that the error is reported where the sequential tokenizer reports it.
+     * Inputs that are small or whose length isn't known are only tokenized sequentially.
+     */
+    public static TokenBuffer tokenizeInParallel(SourceText input, Symbols symbols, ForkJoinPool pool) {
+        int length = input.length();
+        int pieceCount = Math.min(pool.getParallelism() * 4, length / MIN_PIECE_LENGTH);
+        if (pieceCount <= 1) {
+            return tokenizeToBuffer(input, symbols);
+        }
+
+        ArrayList<Callable<Piece>> tasks = new ArrayList<Callable<Piece>>();
+        int start = 0;
+        for (int i = 1; i <= pieceCount && start < length; ++i) {
+            int end = length;
+            if (i < pieceCount) {
+                end = Math.max(start, (int)((long)length * i / pieceCount));
+                while (end < length && charClass(input.charAt(end)) != SPACE) {
+                    end++;
+                }
+            }
+            if (end > start) {
+                tasks.add(new Piece(input, start, end));
+                start = end;
+            }
+        }
+
+        ArrayList<Piece> pieces = new ArrayList<Piece>();
+        int tokenCount = 0;
+        for (Future<Piece> future : pool.invokeAll(tasks)) {
+            try {
+                Piece piece = future.get();
+                pieces.add(piece);
+                tokenCount += piece.tokens.size();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TokenizerError) {
+                    return tokenizeToBuffer(input, symbols);
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                } else {
+                    throw new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        TokenBuffer result = new TokenBuffer(input, symbols, tokenCount + 1);
+        int line = 1;
+        int col = 1;
+        for (Piece piece : pieces) {
+            Symbols pieceSymbols = piece.tokens.getSymbols();
+            int[] symbolMap = new int[pieceSymbols.size()];
+            for (int i = 0; i < symbolMap.length; ++i) {
+                symbolMap[i] = symbols.intern(pieceSymbols.name(i));
+            }
+            result.addPiece(piece.tokens, line - 1, col - 1, symbolMap);
+
+            if (piece.endLine > 1) {
+                line += piece.endLine - 1;
+                col = piece.endCol;
+            } else {
+                col += piece.endCol - 1;
+            }
+        }
+        return result;
+    }
+
+    /** A part of the input tokenized on its own, and where it ended relative to line 1 col 1. */
+    private static class Piece implements Callable<Piece> {
+        private final SourceText input;
+        private final int start;
+        private final int end;
+        private TokenBuffer tokens;
+        private int endLine;
+        private int endCol;
+
+        public Piece(SourceText input, int start, int end) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Piece call() {
+            Tokenizer tokenizer = new Tokenizer(input, new Symbols());
+            tokenizer.pos = start;
+            tokenizer.end = end;
+            tokens = new TokenBuffer(input, tokenizer.symbols, (end - start) / 4 + 16);
+            tokenizer.addTokensTo(tokens);
+            endLine = tokenizer.line;
+            endCol = tokenizer.col;
+            return this;
+        }
     }
-    
-    private static final Pattern rIntConst = Pattern.compile("[0-9]+");
-    private static final Pattern rBoolConst = Pattern.compile("true|false");
-    private static final Pattern rIdentifier = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
 
-    private static final HashMap<String, Token.Type> keywords = new HashMap<String, Token.Type>();
-    
+    /**
+     * Tokenizes the source of a token buffer again after an edit.
+     *
+     * <p>
+     * Scanning a token looks at most one character past its end,
+     * so tokens that end more than one character before the edit are kept as they are.
+     * We scan from there until we reach a token boundary after the edit
+     * where the old tokens also had a boundary. Since scanning only depends on
+     * the characters ahead, the old tokens from there on are still valid,
+     * and they are copied with their offsets, lines and columns shifted.
+     * The work done is proportional to the size of the edit
+     * plus a copy of the token arrays.
+     *
+     * <p>
+     * The buffer's source must be {@link SourceText#isEditable editable}.
+     */
+    public static TokenBuffer retokenize(TokenBuffer previous, SourceEdit edit) {
+        if (!previous.getSource().isEditable()) {
+            throw new IllegalArgumentException("The tokens' source can't be edited, so they can't be retokenized");
+        }
+        SourceText source = previous.getSource().edit(edit);
+        TokenBuffer result = new TokenBuffer(source, previous.getSymbols(), previous.size() + 16);
+
+        // Find the first token whose end or lookahead character is in the removed text
+        int low = 0;
+        int high = previous.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (previous.start(mid) + previous.length(mid) < edit.offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int firstChanged = low;
+        result.addShifted(previous, 0, firstChanged, 0, 0, 0);
+
+        Tokenizer tokenizer = new Tokenizer(source, previous.getSymbols());
+        if (firstChanged > 0) {
+            int last = firstChanged - 1;
+            tokenizer.pos = previous.start(last) + previous.length(last);
+            tokenizer.line = previous.line(last);
+            tokenizer.col = previous.col(last) + previous.length(last);
+        }
+
+        int old = firstChanged;
+        while (true) {
+            tokenizer.skipWhitespace();
+            if (tokenizer.pos >= edit.insertedEnd()) {
+                int oldPos = tokenizer.pos - edit.delta();
+                while (old < previous.size() && previous.start(old) < oldPos) {
+                    old++;
+                }
+                if (old < previous.size() && previous.start(old) == oldPos) {
+                    result.addShifted(
+                            previous,
+                            old,
+                            previous.size(),
+                            edit.delta(),
+                            tokenizer.line - previous.line(old),
+                            tokenizer.col - previous.col(old));
+                    break;
+                }
+            }
+
+            if (!tokenizer.next()) {
+                break;
+            }
+            result.add(
+                    tokenizer.tokType,
+                    tokenizer.tokStart,
+                    tokenizer.pos - tokenizer.tokStart,
+                    tokenizer.tokLine,
+                    tokenizer.tokCol,
+                    tokenizer.tokSymbol);
+        }
+        return result;
+    }
+
+    public static TokenStream stream(Reader input) {
+        return stream(SourceText.fromReader(input), new Symbols());
+    }
+
+    public static TokenStream stream(SourceText input, Symbols symbols) {
+        Tokenizer tokenizer = new Tokenizer(input, symbols);
+        tokenizer.current = tokenizer.read();
+        tokenizer.currentSymbol = tokenizer.readSymbol;
+        tokenizer.following = tokenizer.read();
+        tokenizer.followingSymbol = tokenizer.readSymbol;
+        return tokenizer;
+    }
+
+    /** Pieces of the input tokenized in parallel are at least this long. */
+    private static final int MIN_PIECE_LENGTH = 256 * 1024;
+
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    private static final byte PUNCT = 4;
+
+    private static final byte[] charClasses = new byte[128];
+    private static final Token.Type[] punctuation = new Token.Type[128];
+    private static final Token.Type[] keywords = { IF, THEN, ELSE, WHILE, DO };
+
     static {
-        keywords.put("if", IF);
-        keywords.put("then", THEN);
-        keywords.put("else", ELSE);
-        keywords.put("while", WHILE);
-        keywords.put("do", DO);
-    }
-    
-    private ArrayList<Token> result;
-    private String input;
+        for (char c = 0; c < 128; ++c) {
+            if (Character.isWhitespace(c)) {
+                charClasses[c] = SPACE;
+            } else if (c >= '0' && c <= '9') {
+                charClasses[c] = DIGIT;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_') {
+                charClasses[c] = LETTER;
+            }
+        }
+
+        for (Token.Type ty : new Token.Type[] {
+                LPAREN, RPAREN, LBRACE, RBRACE, SEMICOLON, COMMA,
+                PLUS, MINUS, TIMES, DIV, MOD, NOT, COLON, LT, GT }) {
+            charClasses[ty.text.charAt(0)] = PUNCT;
+            punctuation[ty.text.charAt(0)] = ty;
+        }
+        charClasses['='] = PUNCT; // Only valid as part of '=='
+    }
+
+    private SourceText input;
+    private Symbols symbols;
+    private char[] word = new char[32];
+    private int pos;
+    private int end = Integer.MAX_VALUE; // Of the piece being tokenized
     private int line;
     private int col;
 
-    private Tokenizer(String input) {
-        this.result = new ArrayList<Token>();
+    // The token found by the last call to next()
+    private Token.Type tokType;
+    private int tokStart;
+    private int tokLine;
+    private int tokCol;
+    private int tokSymbol; // For identifiers
+
+    // Lookahead when used as a TokenStream
+    private Token current;
+    private Token following;
+    private int currentSymbol;
+    private int followingSymbol;
+    private int readSymbol; // Of the token last returned by read()
+    private int lastLine = 0;
+    private int lastEndCol = 0;
+
+    private Tokenizer(SourceText input, Symbols symbols) {
         this.input = input;
+        this.symbols = symbols;
+        this.pos = 0;
         this.line = 1;
         this.col = 1;
     }
-    
-    private void tokenize() {
-        skipWhitespace();
-        while (!input.isEmpty()) {
-            boolean ok =
-                    tryTok("(", LPAREN) || tryTok(")", RPAREN) ||
-                    tryTok("{", LBRACE) || tryTok("}", RBRACE) ||
-                    tryTok(";", SEMICOLON) ||
-                    tryTok(",", COMMA) ||
-                    tryTok("+", PLUS) || tryTok("-", MINUS) ||
-                    tryTok("*", TIMES) || tryTok("/", DIV) || tryTok("%", MOD) ||
-                    tryTok("!", NOT) ||
-                    tryTok(":=", ASSIGN) ||
-                    tryTok(":", COLON) ||
-                    tryTok("==", EQ) || tryTok("<>", NEQ) ||
-                    tryTok("<=", LTE) || tryTok(">=", GTE) ||
-                    tryTok("<", LT) || tryTok(">", GT) ||
-                    tryRegex(rIntConst, INTCONST) ||
-                    tryRegex(rBoolConst, BOOLCONST) ||
-                    tryKeywordOrIdentifier();
-            if (!ok) {
-                throw new TokenizerError("Cannot tokenize at line " + line + " col " + col);
-            }
-            
-            skipWhitespace();
-        }
+
+    public Token.Type type(int lookahead) {
+        return token(lookahead).type;
     }
-    
-    private void skipWhitespace() {
-        int i = 0;
-        while (i < input.length() && Character.isWhitespace(input.charAt(i))) {
-            i++;
-        }
-        consumeInput(i);
-    }
-    
-    private boolean tryTok(String expected, Token.Type ty) {
-        if (input.startsWith(expected)) {
-            result.add(new Token(ty, expected, line, col));
-            consumeInput(expected.length());
-            return true;
+
+    public String text(int lookahead) {
+        return token(lookahead).text;
+    }
+
+    public int symbol(int lookahead) {
+        return (lookahead == 0) ? currentSymbol : followingSymbol;
+    }
+
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public int line(int lookahead) {
+        return token(lookahead).line;
+    }
+
+    public int col(int lookahead) {
+        return token(lookahead).col;
+    }
+
+    public void advance() {
+        current = following;
+        currentSymbol = followingSymbol;
+        following = read();
+        followingSymbol = readSymbol;
+    }
+
+    private Token token(int lookahead) {
+        return (lookahead == 0) ? current : following;
+    }
+
+    private Token read() {
+        if (next()) {
+            readSymbol = (tokType == IDENTIFIER) ? tokSymbol : -1;
+            Token tok = makeToken();
+            input.discardBefore(pos);
+            lastLine = tok.line;
+            lastEndCol = tok.endCol;
+            return tok;
         } else {
-            return false;
+            readSymbol = -1;
+            return new Token(EOF, EOF.text, lastLine, lastEndCol);
         }
     }
-    
-    private boolean tryRegex(Pattern p, Token.Type ty) {
-        Matcher m = p.matcher(input);
-        if (m.lookingAt()) {
-            result.add(new Token(ty, m.group(), line, col));
-            consumeInput(m.end());
-            return true;
-        } else {
-            return false;
+
+    private void addTokensTo(TokenBuffer result) {
+        while (next()) {
+            result.add(tokType, tokStart, pos - tokStart, tokLine, tokCol, tokSymbol);
         }
     }
-    
-    private boolean tryKeywordOrIdentifier() {
-        if (tryRegex(rIdentifier, IDENTIFIER)) {
-            Token tok = result.get(result.size() - 1);
-            Token.Type kwType = keywords.get(tok.text);
-            if (kwType != null) {
-                tok = new Token(kwType, tok.text, tok.line, tok.col);
-                result.set(result.size() - 1, tok);
-            }
-            return true;
-        } else {
+
+    private boolean next() {
+        skipWhitespace();
+        int c = charAtPos();
+        if (c == -1) {
             return false;
         }
+
+        tokStart = pos;
+        tokLine = line;
+        tokCol = col;
+        tokSymbol = -1;
+
+        switch (charClass(c)) {
+            case DIGIT:
+                pos++;
+                skipCharsOfClass(DIGIT);
+                tokType = INTCONST;
+                break;
+            case LETTER:
+                tokType = scanWord();
+                break;
+            case PUNCT:
+                tokType = scanOperator(c);
+                break;
+            default:
+                throw error();
+        }
+
+        col += pos - tokStart;
+        return true;
+    }
+
+    private Token makeToken() {
+        String text = tokType.text;
+        if (tokType == IDENTIFIER) {
+            text = symbols.name(tokSymbol);
+        } else if (text == null) {
+            text = input.substring(tokStart, pos);
+        }
+        return new Token(tokType, text, tokLine, tokCol);
     }
 
-    private void consumeInput(int amount) {
-        for (int i = 0; i < amount; ++i) {
-            char c = input.charAt(i);
+    private void skipWhitespace() {
+        while (true) {
+            int c = charAtPos();
             if (c == '\n') {
                 line++;
                 col = 1;
             } else if (c == '\r') {
                 // Ignore
-            } else {
+            } else if (c != -1 && charClass(c) == SPACE) {
                 col++;
+            } else {
+                break;
             }
+            pos++;
         }
-        input = input.substring(amount);
+    }
+
+    /** The character at the current position, or -1 at the end of the input or piece. */
+    private int charAtPos() {
+        return (pos < end) ? input.charAt(pos) : -1;
+    }
+
+    private void skipCharsOfClass(byte cls) {
+        int c;
+        while ((c = input.charAt(pos)) != -1 && charClass(c) == cls) {
+            pos++;
+        }
+    }
+
+    private Token.Type scanWord() {
+        // Boolean constants are recognized even at the start of a longer word,
+        // so 'trueish' is 'true' followed by 'ish'.
+        if (input.startsWith("true", pos)) {
+            pos += 4;
+            return BOOLCONST;
+        } else if (input.startsWith("false", pos)) {
+            pos += 5;
+            return BOOLCONST;
+        }
+
+        int length = 0;
+        int c;
+        while ((c = input.charAt(pos)) != -1) {
+            byte cls = charClass(c);
+            if (cls != LETTER && cls != DIGIT) {
+                break;
+            }
+            if (length == word.length) {
+                word = Arrays.copyOf(word, length * 2);
+            }
+            word[length++] = (char)c;
+            pos++;
+        }
+
+        for (Token.Type kw : keywords) {
+            if (wordEquals(kw.text, length)) {
+                return kw;
+            }
+        }
+        tokSymbol = symbols.intern(word, 0, length);
+        return IDENTIFIER;
+    }
+
+    private boolean wordEquals(String s, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (word[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Token.Type scanOperator(int c) {
+        pos++;
+        int next = input.charAt(pos);
+        Token.Type longer = null;
+        switch (c) {
+            case ':':
+                if (next == '=') longer = ASSIGN;
+                break;
+            case '=':
+                if (next == '=') longer = EQ;
+                break;
+            case '<':
+                if (next == '>') longer = NEQ;
+                else if (next == '=') longer = LTE;
+                break;
+            case '>':
+                if (next == '=') longer = GTE;
+                break;
+        }
+
+        if (longer != null) {
+            pos++;
+            return longer;
+        } else if (punctuation[c] != null) {
+            return punctuation[c];
+        } else {
+            pos--;
+            throw error();
+        }
+    }
+
+    private static byte charClass(int c) {
+        if (c < 128) {
+            return charClasses[c];
+        } else {
+            return Character.isWhitespace(c) ? SPACE : OTHER;
+        }
+    }
+
+    private TokenizerError error() {
+        return new TokenizerError("Cannot tokenize at line " + line + " col " + col);
     }
 }
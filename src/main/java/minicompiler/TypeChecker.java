@@ -6,13 +6,18 @@ import java.util.List;
 import java.util.Map;
 import minicompiler.ast.*;
 import minicompiler.errors.TypeError;
+import minicompiler.misc.Symbols;
 import minicompiler.types.*;
 
 /**
  * Checks the types of an AST.
  * 
  * <p>
- * It works by going through the AST recursively.
+ * It works by going through a {@link FlatAst} depth first.
+ * Instead of recursing, it keeps the nodes it's in the middle of
+ * on a {@link FlatAst.Cursor}, so deeply nested programs don't overflow
+ * the call stack. The types of expressions that have been checked
+ * are kept on another stack until the expression they're part of needs them.
  * 
  * <p>
  * Let's look how the following program is type-checked.
@@ -33,12 +38,12 @@ import minicompiler.types.*;
  * We check the left and right side of the '+'.
  * 
  * <p>
- * We see {@code 3} and return an 'int'.
- * Then we see {@code 5} and return and 'int'.
+ * We see {@code 3} and push an 'int'.
+ * Then we see {@code 5} and push an 'int'.
  * 
  * <p>
- * Back at {@code 3 + 5} we've verified that both sides are 'int'.
- * We know that '+' always results in an 'int' so we return an 'int'.
+ * Back at {@code 3 + 5} we pop the two types and verify that both are 'int'.
+ * We know that '+' always results in an 'int' so we push an 'int'.
  * 
  * <p>
  * Back at {@code x : int := 3 + 5;} we've verified that the right hand side
@@ -54,140 +59,132 @@ import minicompiler.types.*;
  * <p>
  * Back at {@code y : bool := x;} we see that the right hand side was not
  * a 'bool' so we raise a type error.
+ * 
+ * <p>
+ * Identical expressions share a node in the {@link FlatAst}.
+ * Once an operator or call has been checked, its type is remembered,
+ * and the next occurrence isn't checked again while the variables it uses are
+ * still in scope.
  */
 public class TypeChecker {
     public static void checkTypes(Statement statement, Map<String, Type> knownTypes) {
-        TypeCheckVisitor visitor = new TypeCheckVisitor(knownTypes);
-        statement.accept(visitor);
+        checkTypes(statement, knownTypes, new Symbols());
+    }
+    
+    /** Type checks using the given symbol table to give ids to names. */
+    public static void checkTypes(Statement statement, Map<String, Type> knownTypes, Symbols symbols) {
+        checkTypes(FlatAst.fromStatement(statement, symbols), knownTypes);
     }
     
-    private static class TypeCheckVisitor extends AstVisitor {
+    public static void checkTypes(FlatAst ast, Map<String, Type> knownTypes) {
+        new Checker(ast, knownTypes).run();
+    }
+    
+    /**
+     * The typing rules, applied one construct at a time.
+     *
+     * <p>
+     * Each check throws the {@link TypeError} the type checker reports.
+     * The caller walks the program and calls these in the type checker's order:
+     * a declared variable is in scope in its own initializer,
+     * and expressions are checked bottom up.
+     * Besides the {@link Checker}, the {@link SinglePassFrontEnd} uses these
+     * while parsing.
+     */
+    static class Rules {
+        private Symbols symbols;
         private TypeSymTab symTab = new TypeSymTab();
-        private Type lastType = VoidType.instance;
-
-        public TypeCheckVisitor(Map<String, Type> initialTypes) {
-            symTab.putAll(initialTypes);
-        }
+        private int scopeStamp = 1; // Changes when variables go out of scope
+        private int[] unaryOperatorTypes = new int[16]; // Operator -> symbol its type is under + 1, or 0 if not looked up yet
 
-        @Override
-        public void visit(Declaration decl) {
-            if (symTab.containsKey(decl.varName)) {
-                throw new TypeError("Variable " + decl.varName + " already declared.");
+        public Rules(Symbols symbols, Map<String, Type> initialTypes) {
+            this.symbols = symbols;
+            for (Map.Entry<String, Type> entry : initialTypes.entrySet()) {
+                symTab.put(symbols.intern(entry.getKey()), entry.getValue());
             }
-            symTab.put(decl.varName, decl.type);
-            
-            decl.expr.accept(this);
-            if (!canBeAssigned(lastType, decl.type)) {
-                throw new TypeError("Variable '" + decl.varName + "' cannot be initialized with a " + lastType);
-            }
-            
-            lastType = VoidType.instance;
         }
-
-        @Override
-        public void visit(Assignment assignment) {
-            Type varTy = symTab.get(assignment.varName);
-            if (varTy == null) {
-                throw new TypeError("Assignment to undeclared variable: " + assignment.varName);
-            }
-            
-            assignment.expr.accept(this);
-            if (!canBeAssigned(lastType, varTy)) {
-                throw new TypeError("Cannot assign " + lastType + " to '" + assignment.varName + "' (of type " + varTy + ")");
-            }
-            
-            lastType = VoidType.instance;
+        
+        public int getScopeStamp() {
+            return scopeStamp;
         }
-
-        @Override
-        public void visit(Block block) {
+        
+        public void pushScope() {
             symTab.pushState();
-            for (Statement stmt : block.statements) {
-                stmt.accept(this);
-            }
+        }
+        
+        public void popScope() {
             symTab.popState();
-            
-            lastType = VoidType.instance;
+            scopeStamp++;
         }
-
-        @Override
-        public void visit(IfStatement ifStmt) {
-            ifStmt.condition.accept(this);
-            if (!lastType.equals(BoolType.instance)) {
-                throw new TypeError("If condition was " + lastType + " instead of bool");
+        
+        /** Puts a declared variable in scope before its initializer is checked. */
+        public void declare(int var, Type declaredType) {
+            if (symTab.containsKey(var)) {
+                throw new TypeError("Variable " + symbols.name(var) + " already declared.");
             }
-            
-            symTab.pushState();
-            ifStmt.thenClause.accept(this);
-            symTab.popState();
-            symTab.pushState();
-            ifStmt.elseClause.accept(this);
-            symTab.popState();
-            
-            lastType = VoidType.instance;
+            symTab.put(var, declaredType);
         }
-
-        @Override
-        public void visit(WhileLoop whileLoop) {
-            whileLoop.head.accept(this);
-            if (!lastType.equals(BoolType.instance)) {
-                throw new TypeError("While loop condition was " + lastType + " instead of bool");
+        
+        public void checkInitializer(int var, Type declaredType, Type exprType) {
+            if (!canBeAssigned(exprType, declaredType)) {
+                throw new TypeError("Variable '" + symbols.name(var) + "' cannot be initialized with a " + exprType);
             }
-            
-            symTab.pushState();
-            whileLoop.body.accept(this);
-            symTab.popState();
-            
-            lastType = VoidType.instance;
         }
-
-        @Override
-        public void visit(FunctionCall call) {
-            ArrayList<Type> argTypes = new ArrayList<Type>(call.arguments.size());
-            for (Expr argExpr : call.arguments) {
-               argExpr.accept(this);
-               argTypes.add(lastType);
+        
+        /** The type of an assigned variable, looked up before the assigned value is checked. */
+        public Type assignee(int var) {
+            Type varTy = symTab.get(var);
+            if (varTy == null) {
+                throw new TypeError("Assignment to undeclared variable: " + symbols.name(var));
             }
-            
-            checkFunctionCall(call.functionName, argTypes);
+            return varTy;
         }
-
-        @Override
-        public void visit(UnaryOp unop) {
-            unop.operand.accept(this);
-            checkFunctionCall(unop.opName, lastType);
-        }
-        
-        @Override
-        public void visit(BinaryOp binop) {
-            binop.left.accept(this);
-            Type leftType = lastType;
-            binop.right.accept(this);
-            Type rightType = lastType;
-            
-            checkFunctionCall(binop.opName, leftType, rightType);
+        
+        public void checkAssignment(int var, Type varTy, Type exprType) {
+            if (!canBeAssigned(exprType, varTy)) {
+                throw new TypeError("Cannot assign " + exprType + " to '" + symbols.name(var) + "' (of type " + varTy + ")");
+            }
         }
         
-        @Override
-        public void visit(IntConst intConst) {
-            lastType = IntType.instance;
+        public void checkIfCondition(Type conditionType) {
+            if (!conditionType.equals(BoolType.instance)) {
+                throw new TypeError("If condition was " + conditionType + " instead of bool");
+            }
         }
-
-        @Override
-        public void visit(BoolConst boolConst) {
-            lastType = BoolType.instance;
+        
+        public void checkWhileCondition(Type headType) {
+            if (!headType.equals(BoolType.instance)) {
+                throw new TypeError("While loop condition was " + headType + " instead of bool");
+            }
+        }
+        
+        public Type variable(int var) {
+            Type type = symTab.get(var);
+            if (type == null) {
+                throw new TypeError("Unknown variable: " + symbols.name(var));
+            }
+            return type;
         }
         
-        @Override
-        public void visit(Var var) {
-            lastType = symTab.get(var.name);
-            if (lastType == null) {
-                throw new TypeError("Unknown variable: " + var.name);
+        /** Checks a unary operator and returns its type. */
+        public Type unaryOp(int op, Type operandType) {
+            if (op >= unaryOperatorTypes.length) {
+                unaryOperatorTypes = Arrays.copyOf(unaryOperatorTypes, Math.max(op + 1, unaryOperatorTypes.length * 2));
+            }
+            if (unaryOperatorTypes[op] == 0) {
+                int key = symbols.lookup(StdlibTypes.unaryOperatorKey(symbols.name(op)));
+                unaryOperatorTypes[op] = (key >= 0 ? key : op) + 1;
             }
+            return call(unaryOperatorTypes[op] - 1, symbols.name(op), Arrays.asList(operandType));
+        }
+        
+        /** Checks a call or binary operator and returns its type. */
+        public Type call(int function, List<Type> givenArgTypes) {
+            return call(function, symbols.name(function), givenArgTypes);
         }
         
-        private void checkFunctionCall(String funcName, List<Type> givenArgTypes) {
-            Type funcType = symTab.get(funcName);
+        private Type call(int function, String funcName, List<Type> givenArgTypes) {
+            Type funcType = symTab.get(function);
             
             if (funcType instanceof FunctionType) {
                 FunctionType ft = (FunctionType)funcType;
@@ -204,18 +201,212 @@ public class TypeChecker {
                     }
                 }
                 
-                lastType = ft.returnType;
+                return ft.returnType;
             } else {
                 throw new TypeError(funcName + " is not a known function or operator");
             }
         }
         
-        private void checkFunctionCall(String funcName, Type... givenArgTypes) {
-            checkFunctionCall(funcName, Arrays.asList(givenArgTypes));
-        }
-        
         private boolean canBeAssigned(Type from, Type to) {
             return from.equals(to); // If we had subtyping then we'd check that from is a subtype of to.
         }
     }
+    
+    private static class Checker {
+        private FlatAst ast;
+        private Rules rules;
+        private FlatAst.Cursor work = new FlatAst.Cursor();
+        private ArrayList<Type> types = new ArrayList<Type>(); // Of the expressions checked so far
+        private NodeMemo<Type> knownTypes = new NodeMemo<Type>();
+
+        public Checker(FlatAst ast, Map<String, Type> initialTypes) {
+            this.ast = ast;
+            this.rules = new Rules(ast.getSymbols(), initialTypes);
+        }
+        
+        public void run() {
+            work.push(ast.getRoot());
+            while (work.next()) {
+                int node = work.node();
+                if (work.stage() == 0 && ast.isExpr(node)) {
+                    Type known = knownTypes.get(node, stamp(node));
+                    if (known != null) {
+                        types.add(known);
+                        continue;
+                    }
+                }
+                switch (ast.kind(node)) {
+                    case BLOCK: checkBlock(node); break;
+                    case DECLARATION: checkDeclaration(node); break;
+                    case ASSIGNMENT: checkAssignment(node); break;
+                    case EMPTY: break;
+                    case IF: checkIf(node); break;
+                    case WHILE: checkWhile(node); break;
+                    case BINARY_OP: checkBinaryOp(node); break;
+                    case UNARY_OP: checkUnaryOp(node); break;
+                    case CALL: checkCall(node); break;
+                    case INT_CONST: types.add(IntType.instance); break;
+                    case BOOL_CONST: types.add(BoolType.instance); break;
+                    case VAR: checkVar(node); break;
+                }
+            }
+        }
+
+        private void checkDeclaration(int decl) {
+            Type declaredType = ast.declaredType(decl);
+            if (work.stage() == 0) {
+                rules.declare(ast.symbol(decl), declaredType);
+                work.push(decl, 1);
+                work.push(ast.expr(decl));
+            } else {
+                rules.checkInitializer(ast.symbol(decl), declaredType, popType());
+            }
+        }
+
+        private void checkAssignment(int assignment) {
+            Type varTy = rules.assignee(ast.symbol(assignment));
+            if (work.stage() == 0) {
+                work.push(assignment, 1);
+                work.push(ast.expr(assignment));
+            } else {
+                rules.checkAssignment(ast.symbol(assignment), varTy, popType());
+            }
+        }
+
+        private void checkBlock(int block) {
+            // The stage is the index of the statement to check next
+            int index = work.stage();
+            if (index == 0) {
+                rules.pushScope();
+            } else {
+                statementChecked(ast.child(block, index - 1));
+            }
+            
+            if (index < ast.childCount(block)) {
+                work.push(block, index + 1);
+                work.push(ast.child(block, index));
+            } else {
+                popScope();
+            }
+        }
+
+        private void checkIf(int ifStmt) {
+            switch (work.stage()) {
+                case 0:
+                    work.push(ifStmt, 1);
+                    work.push(ast.condition(ifStmt));
+                    break;
+                case 1:
+                    rules.checkIfCondition(popType());
+                    rules.pushScope();
+                    work.push(ifStmt, 2);
+                    work.push(ast.thenClause(ifStmt));
+                    break;
+                case 2:
+                    statementChecked(ast.thenClause(ifStmt));
+                    popScope();
+                    if (ast.hasElseClause(ifStmt)) {
+                        rules.pushScope();
+                        work.push(ifStmt, 3);
+                        work.push(ast.elseClause(ifStmt));
+                    }
+                    break;
+                default:
+                    statementChecked(ast.elseClause(ifStmt));
+                    popScope();
+            }
+        }
+
+        private void checkWhile(int whileLoop) {
+            switch (work.stage()) {
+                case 0:
+                    work.push(whileLoop, 1);
+                    work.push(ast.condition(whileLoop));
+                    break;
+                case 1:
+                    rules.checkWhileCondition(popType());
+                    rules.pushScope();
+                    work.push(whileLoop, 2);
+                    work.push(ast.body(whileLoop));
+                    break;
+                default:
+                    statementChecked(ast.body(whileLoop));
+                    popScope();
+            }
+        }
+
+        private void checkCall(int call) {
+            int argCount = ast.childCount(call);
+            if (work.stage() == 0) {
+                work.push(call, 1);
+                for (int i = argCount - 1; i >= 0; --i) {
+                    work.push(ast.child(call, i));
+                }
+            } else {
+                List<Type> argTypes = new ArrayList<Type>(types.subList(types.size() - argCount, types.size()));
+                for (int i = 0; i < argCount; ++i) {
+                    popType();
+                }
+                typeChecked(call, rules.call(ast.symbol(call), argTypes));
+            }
+        }
+
+        private void checkUnaryOp(int unop) {
+            if (work.stage() == 0) {
+                work.push(unop, 1);
+                work.push(ast.operand(unop));
+            } else {
+                typeChecked(unop, rules.unaryOp(ast.symbol(unop), popType()));
+            }
+        }
+        
+        private void checkBinaryOp(int binop) {
+            if (work.stage() == 0) {
+                work.push(binop, 1);
+                work.push(ast.right(binop));
+                work.push(ast.left(binop));
+            } else {
+                Type rightType = popType();
+                Type leftType = popType();
+                typeChecked(binop, rules.call(ast.symbol(binop), Arrays.asList(leftType, rightType)));
+            }
+        }
+        
+        private void checkVar(int var) {
+            types.add(rules.variable(ast.symbol(var)));
+        }
+        
+        /**
+         * The stamp under which the type of a shared expression is remembered.
+         *
+         * <p>
+         * A variable can't be redeclared while it's in scope, so an expression
+         * keeps its type until one of its variables goes out of scope.
+         * Expressions without variables keep their type for good.
+         */
+        private int stamp(int expr) {
+            return ast.hasVariables(expr) ? rules.getScopeStamp() : 0;
+        }
+        
+        private void popScope() {
+            rules.popScope();
+        }
+        
+        private Type popType() {
+            return types.remove(types.size() - 1);
+        }
+        
+        /** An expression used as a statement leaves a type that nobody needs. */
+        private void statementChecked(int stmt) {
+            if (ast.isExpr(stmt)) {
+                popType();
+            }
+        }
+        
+        /** Pushes and remembers the type of a call, unary operator or binary operator node. */
+        private void typeChecked(int node, Type type) {
+            types.add(type);
+            knownTypes.put(node, stamp(node), type);
+        }
+    }
 }
@@ -0,0 +1,686 @@
+package minicompiler.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+import minicompiler.types.Type;
+
+/**
+ * An AST kept in a few arrays instead of as a graph of objects.
+ *
+ * <p>
+ * A node is an index into parallel arrays holding its kind and three int fields.
+ * What the fields mean depends on the kind:
+ * <pre>
+ *   kind          a              b                c
+ *   BLOCK                        first in list    statement count
+ *   DECLARATION   variable       expr             type
+ *   ASSIGNMENT    variable       expr
+ *   EMPTY
+ *   IF            condition      then clause      else clause or -1
+ *   WHILE         head           body
+ *   BINARY_OP     operator       left             right
+ *   UNARY_OP      operator       operand
+ *   CALL          function       first in list    argument count
+ *   INT_CONST     value
+ *   BOOL_CONST    0 or 1
+ *   VAR           variable
+ * </pre>
+ * Variables, operators and functions are ids in a {@link Symbols} table,
+ * and declared types are indices into a small table of types.
+ * The statements of a block and the arguments of a call are stored
+ * one after another in a separate list array.
+ *
+ * <p>
+ * Children are added before their parents, so a finished AST has its root last.
+ * A {@link Cursor} walks the nodes depth first without recursion.
+ *
+ * <p>
+ * Expressions are hash-consed: adding an expression that is structurally
+ * identical to an existing one returns the existing node. Because children
+ * are already shared, two expressions are identical exactly when their kinds,
+ * fields and argument lists are equal, so the check doesn't descend into the tree.
+ * A node may therefore have several parents and be visited several times
+ * by a walk, and a {@link NodeMemo} can remember what was worked out
+ * for it the first time. Statements are never shared.
+ */
+public class FlatAst {
+    public static enum Kind {
+        BLOCK, DECLARATION, ASSIGNMENT, EMPTY, IF, WHILE,
+        BINARY_OP, UNARY_OP, CALL, INT_CONST, BOOL_CONST, VAR
+    }
+
+    private static final Kind[] kindValues = Kind.values();
+
+    private final Symbols symbols;
+    private byte[] kinds = new byte[64];
+    private int[] as = new int[64];
+    private int[] bs = new int[64];
+    private int[] cs = new int[64];
+    private int size = 0;
+    private int[] lists = new int[64];
+    private int listSize = 0;
+    private ArrayList<Type> types = new ArrayList<Type>();
+    private int root = -1;
+
+    // Open addressing hash table of expression node + 1, or 0 for empty slots.
+    private int[] exprTable = new int[128];
+    private int exprCount = 0;
+
+    private static final byte HAS_VARIABLES = 1;
+    private static final byte HAS_CALLS = 2;
+    private byte[] flags = new byte[64];
+
+    public FlatAst(Symbols symbols) {
+        this.symbols = symbols;
+    }
+
+    /** Converts an AST made of node objects. Names are interned in the given table. */
+    public static FlatAst fromStatement(Statement stmt, Symbols symbols) {
+        FlatAst ast = new FlatAst(symbols);
+        Flattener flattener = new Flattener(ast);
+        flattener.work.push(stmt);
+        flattener.work.run(flattener);
+        ast.setRoot(flattener.results.pop());
+        return ast;
+    }
+
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    public int addBlock(IntStack statements, int from, int count) {
+        int first = addList(statements, from, count);
+        return add(Kind.BLOCK, 0, first, count);
+    }
+
+    public int addDeclaration(int variable, Type type, int expr) {
+        int typeIndex = types.indexOf(type);
+        if (typeIndex == -1) {
+            typeIndex = types.size();
+            types.add(type);
+        }
+        return add(Kind.DECLARATION, variable, expr, typeIndex);
+    }
+
+    public int addAssignment(int variable, int expr) {
+        return add(Kind.ASSIGNMENT, variable, expr, 0);
+    }
+
+    public int addEmpty() {
+        return add(Kind.EMPTY, 0, 0, 0);
+    }
+
+    /** Adds an 'if'. The else clause is -1 if there is none. */
+    public int addIf(int condition, int thenClause, int elseClause) {
+        return add(Kind.IF, condition, thenClause, elseClause);
+    }
+
+    public int addWhile(int head, int body) {
+        return add(Kind.WHILE, head, body, 0);
+    }
+
+    public int addBinaryOp(int operator, int left, int right) {
+        return addExpr(Kind.BINARY_OP, operator, left, right, flags[left] | flags[right]);
+    }
+
+    public int addUnaryOp(int operator, int operand) {
+        return addExpr(Kind.UNARY_OP, operator, operand, 0, flags[operand]);
+    }
+
+    public int addCall(int function, IntStack arguments, int from, int count) {
+        int hash = hash(Kind.CALL.ordinal(), function, count);
+        for (int i = 0; i < count; ++i) {
+            hash = hash * 31 + arguments.get(from + i);
+        }
+        int slot = findCall(hash, function, arguments, from, count);
+        if (exprTable[slot] != 0) {
+            return exprTable[slot] - 1;
+        }
+
+        int argFlags = HAS_CALLS;
+        for (int i = 0; i < count; ++i) {
+            argFlags |= flags[arguments.get(from + i)];
+        }
+        int first = addList(arguments, from, count);
+        return insertExpr(slot, add(Kind.CALL, function, first, count, argFlags));
+    }
+
+    public int addIntConst(int value) {
+        return addExpr(Kind.INT_CONST, value, 0, 0, 0);
+    }
+
+    public int addBoolConst(boolean value) {
+        return addExpr(Kind.BOOL_CONST, value ? 1 : 0, 0, 0, 0);
+    }
+
+    public int addVar(int variable) {
+        return addExpr(Kind.VAR, variable, 0, 0, HAS_VARIABLES);
+    }
+
+    public Kind kind(int node) {
+        return kindValues[kinds[node]];
+    }
+
+    /** Whether the node is an expression, which leaves a value when used as a statement. */
+    public boolean isExpr(int node) {
+        return kinds[node] >= Kind.BINARY_OP.ordinal();
+    }
+
+    /** Whether the value of an expression depends on variables. */
+    public boolean hasVariables(int node) {
+        return (flags[node] & HAS_VARIABLES) != 0;
+    }
+
+    /** Whether evaluating an expression calls a function, which may have side effects. */
+    public boolean hasCalls(int node) {
+        return (flags[node] & HAS_CALLS) != 0;
+    }
+
+    /**
+     * Whether an expression is made of only constants and operators,
+     * so it has the same value wherever it appears.
+     */
+    public boolean isConstant(int node) {
+        return flags[node] == 0;
+    }
+
+    /** The variable, operator or function of the node. */
+    public int symbol(int node) {
+        return as[node];
+    }
+
+    public String name(int node) {
+        return symbols.name(as[node]);
+    }
+
+    public int intValue(int node) {
+        return as[node];
+    }
+
+    public boolean boolValue(int node) {
+        return as[node] != 0;
+    }
+
+    /** The expression of a declaration or assignment. */
+    public int expr(int node) {
+        return bs[node];
+    }
+
+    public Type declaredType(int node) {
+        return types.get(cs[node]);
+    }
+
+    /** The condition of an 'if' or the head of a 'while'. */
+    public int condition(int node) {
+        return as[node];
+    }
+
+    public int thenClause(int node) {
+        return bs[node];
+    }
+
+    public boolean hasElseClause(int node) {
+        return cs[node] != -1;
+    }
+
+    public int elseClause(int node) {
+        return cs[node];
+    }
+
+    /** The body of a 'while'. */
+    public int body(int node) {
+        return bs[node];
+    }
+
+    public int left(int node) {
+        return bs[node];
+    }
+
+    public int right(int node) {
+        return cs[node];
+    }
+
+    public int operand(int node) {
+        return bs[node];
+    }
+
+    /** The number of statements in a block or arguments in a call. */
+    public int childCount(int node) {
+        return cs[node];
+    }
+
+    public int child(int node, int index) {
+        return lists[bs[node] + index];
+    }
+
+    /**
+     * Converts the subtree at the given node back into node objects.
+     * Shared expression nodes become shared objects, so this also serves
+     * to intern the expressions of an AST made of node objects.
+     */
+    public Statement toStatement(int node) {
+        ArrayList<Statement> results = new ArrayList<Statement>();
+        Statement[] made = new Statement[size];
+        Cursor cursor = new Cursor();
+        cursor.push(node);
+        while (cursor.next()) {
+            int n = cursor.node();
+            if (cursor.stage() == 0) {
+                if (made[n] != null) {
+                    results.add(made[n]);
+                } else {
+                    cursor.push(n, 1);
+                    pushChildren(cursor, n);
+                }
+                continue;
+            }
+
+            switch (kind(n)) {
+                case BLOCK:
+                    results.add(new Block(popStatements(results, childCount(n))));
+                    break;
+                case DECLARATION:
+                    results.add(new Declaration(name(n), declaredType(n), popExpr(results)));
+                    break;
+                case ASSIGNMENT:
+                    results.add(new Assignment(name(n), popExpr(results)));
+                    break;
+                case EMPTY:
+                    results.add(new EmptyStatement());
+                    break;
+                case IF:
+                    Statement elseClause = hasElseClause(n) ? pop(results) : new EmptyStatement();
+                    Statement thenClause = pop(results);
+                    results.add(new IfStatement(popExpr(results), thenClause, elseClause));
+                    break;
+                case WHILE:
+                    Statement body = pop(results);
+                    results.add(new WhileLoop(popExpr(results), body));
+                    break;
+                case BINARY_OP:
+                    Expr right = popExpr(results);
+                    results.add(new BinaryOp(popExpr(results), name(n), right));
+                    break;
+                case UNARY_OP:
+                    results.add(new UnaryOp(name(n), popExpr(results)));
+                    break;
+                case CALL:
+                    ArrayList<Expr> args = new ArrayList<Expr>();
+                    for (Statement arg : popStatements(results, childCount(n))) {
+                        args.add((Expr)arg);
+                    }
+                    results.add(new FunctionCall(name(n), args));
+                    break;
+                case INT_CONST:
+                    results.add(new IntConst(intValue(n)));
+                    break;
+                case BOOL_CONST:
+                    results.add(new BoolConst(boolValue(n)));
+                    break;
+                case VAR:
+                    results.add(new Var(name(n)));
+                    break;
+            }
+            if (isExpr(n)) {
+                made[n] = results.get(results.size() - 1);
+            }
+        }
+        return results.get(0);
+    }
+
+    /** Pushes the children of a node on a cursor so that they are visited in source order. */
+    public void pushChildren(Cursor cursor, int node) {
+        switch (kind(node)) {
+            case BLOCK:
+            case CALL:
+                for (int i = childCount(node) - 1; i >= 0; --i) {
+                    cursor.push(child(node, i));
+                }
+                break;
+            case DECLARATION:
+            case ASSIGNMENT:
+                cursor.push(expr(node));
+                break;
+            case IF:
+                if (hasElseClause(node)) {
+                    cursor.push(elseClause(node));
+                }
+                cursor.push(thenClause(node));
+                cursor.push(condition(node));
+                break;
+            case WHILE:
+                cursor.push(body(node));
+                cursor.push(condition(node));
+                break;
+            case BINARY_OP:
+                cursor.push(right(node));
+                cursor.push(left(node));
+                break;
+            case UNARY_OP:
+                cursor.push(operand(node));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int add(Kind kind, int a, int b, int c) {
+        return add(kind, a, b, c, 0);
+    }
+
+    private int add(Kind kind, int a, int b, int c, int nodeFlags) {
+        if (size == kinds.length) {
+            int newCapacity = size * 2;
+            kinds = Arrays.copyOf(kinds, newCapacity);
+            as = Arrays.copyOf(as, newCapacity);
+            bs = Arrays.copyOf(bs, newCapacity);
+            cs = Arrays.copyOf(cs, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+        }
+        kinds[size] = (byte)kind.ordinal();
+        as[size] = a;
+        bs[size] = b;
+        cs[size] = c;
+        flags[size] = (byte)nodeFlags;
+        return size++;
+    }
+
+    /** Adds an expression other than a call, or finds an identical one. */
+    private int addExpr(Kind kind, int a, int b, int c, int nodeFlags) {
+        int mask = exprTable.length - 1;
+        int slot = hash(kind.ordinal(), a, b * 31 + c) & mask;
+        while (exprTable[slot] != 0) {
+            int node = exprTable[slot] - 1;
+            if (kinds[node] == kind.ordinal() && as[node] == a && bs[node] == b && cs[node] == c) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return insertExpr(slot, add(kind, a, b, c, nodeFlags));
+    }
+
+    /** The slot of an identical call, or the empty slot where it should go. */
+    private int findCall(int hash, int function, IntStack arguments, int from, int count) {
+        int mask = exprTable.length - 1;
+        int slot = hash & mask;
+        while (exprTable[slot] != 0) {
+            int node = exprTable[slot] - 1;
+            if (kinds[node] == Kind.CALL.ordinal() && as[node] == function && cs[node] == count
+                    && sameArguments(node, arguments, from)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean sameArguments(int call, IntStack arguments, int from) {
+        for (int i = 0; i < cs[call]; ++i) {
+            if (child(call, i) != arguments.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int insertExpr(int slot, int node) {
+        exprTable[slot] = node + 1;
+        exprCount++;
+        if (exprCount * 2 > exprTable.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        int[] newTable = new int[exprTable.length * 2];
+        int mask = newTable.length - 1;
+        for (int entry : exprTable) {
+            if (entry != 0) {
+                int slot = exprHash(entry - 1) & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = entry;
+            }
+        }
+        exprTable = newTable;
+    }
+
+    private int exprHash(int node) {
+        if (kinds[node] == Kind.CALL.ordinal()) {
+            int hash = hash(kinds[node], as[node], cs[node]);
+            for (int i = 0; i < cs[node]; ++i) {
+                hash = hash * 31 + child(node, i);
+            }
+            return hash;
+        } else {
+            return hash(kinds[node], as[node], bs[node] * 31 + cs[node]);
+        }
+    }
+
+    private static int hash(int kind, int a, int rest) {
+        int h = (kind * 31 + a) * 31 + rest;
+        return h ^ (h >>> 16);
+    }
+
+    private int addList(IntStack nodes, int from, int count) {
+        if (listSize + count > lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + count));
+        }
+        for (int i = 0; i < count; ++i) {
+            lists[listSize + i] = nodes.get(from + i);
+        }
+        int first = listSize;
+        listSize += count;
+        return first;
+    }
+
+    private static Statement pop(ArrayList<Statement> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+
+    private static Expr popExpr(ArrayList<Statement> stack) {
+        return (Expr)stack.remove(stack.size() - 1);
+    }
+
+    private static List<Statement> popStatements(ArrayList<Statement> stack, int count) {
+        List<Statement> top = stack.subList(stack.size() - count, stack.size());
+        ArrayList<Statement> result = new ArrayList<Statement>(top);
+        top.clear();
+        return result;
+    }
+
+    /**
+     * Walks nodes depth first.
+     *
+     * <p>
+     * Like {@link NodeStack}, the cursor holds the nodes still to be visited
+     * along with a stage telling how far each has got. A walker handling a node
+     * pushes it back with its next stage before pushing the children it
+     * needs visited first.
+     */
+    public static class Cursor {
+        private IntStack nodes = new IntStack();
+        private IntStack stages = new IntStack();
+        private int node = -1;
+        private int stage = 0;
+
+        public void push(int node) {
+            push(node, 0);
+        }
+
+        public void push(int node, int stage) {
+            nodes.push(node);
+            stages.push(stage);
+        }
+
+        /** Moves to the next node to visit, or returns false if there are none left. */
+        public boolean next() {
+            if (nodes.isEmpty()) {
+                return false;
+            }
+            node = nodes.pop();
+            stage = stages.pop();
+            return true;
+        }
+
+        public int node() {
+            return node;
+        }
+
+        public int stage() {
+            return stage;
+        }
+    }
+
+    /** Converts node objects to flat nodes, children first. */
+    private static class Flattener extends AstVisitor {
+        private FlatAst ast;
+        private Symbols symbols;
+        private NodeStack work = new NodeStack();
+        private IntStack results = new IntStack();
+
+        public Flattener(FlatAst ast) {
+            this.ast = ast;
+            this.symbols = ast.symbols;
+        }
+
+        @Override
+        public void visit(Block block) {
+            int count = block.statements.size();
+            if (work.stage() == 0) {
+                work.push(block, 1);
+                for (int i = count - 1; i >= 0; --i) {
+                    work.push(block.statements.get(i));
+                }
+            } else {
+                int from = results.size() - count;
+                int node = ast.addBlock(results, from, count);
+                results.truncate(from);
+                results.push(node);
+            }
+        }
+
+        @Override
+        public void visit(Declaration decl) {
+            if (work.stage() == 0) {
+                work.push(decl, 1);
+                work.push(decl.expr);
+            } else {
+                results.push(ast.addDeclaration(symbols.intern(decl.varName), decl.type, results.pop()));
+            }
+        }
+
+        @Override
+        public void visit(Assignment assignment) {
+            if (work.stage() == 0) {
+                work.push(assignment, 1);
+                work.push(assignment.expr);
+            } else {
+                results.push(ast.addAssignment(symbols.intern(assignment.varName), results.pop()));
+            }
+        }
+
+        @Override
+        public void visit(EmptyStatement empty) {
+            results.push(ast.addEmpty());
+        }
+
+        @Override
+        public void visit(IfStatement ifStmt) {
+            if (work.stage() == 0) {
+                work.push(ifStmt, 1);
+                if (ifStmt.hasElseClause()) {
+                    work.push(ifStmt.elseClause);
+                }
+                work.push(ifStmt.thenClause);
+                work.push(ifStmt.condition);
+            } else {
+                int elseClause = ifStmt.hasElseClause() ? results.pop() : -1;
+                int thenClause = results.pop();
+                results.push(ast.addIf(results.pop(), thenClause, elseClause));
+            }
+        }
+
+        @Override
+        public void visit(WhileLoop whileLoop) {
+            if (work.stage() == 0) {
+                work.push(whileLoop, 1);
+                work.push(whileLoop.body);
+                work.push(whileLoop.head);
+            } else {
+                int body = results.pop();
+                results.push(ast.addWhile(results.pop(), body));
+            }
+        }
+
+        @Override
+        public void visit(BinaryOp binop) {
+            if (work.stage() == 0) {
+                work.push(binop, 1);
+                work.push(binop.right);
+                work.push(binop.left);
+            } else {
+                int right = results.pop();
+                results.push(ast.addBinaryOp(symbols.intern(binop.opName), results.pop(), right));
+            }
+        }
+
+        @Override
+        public void visit(UnaryOp unop) {
+            if (work.stage() == 0) {
+                work.push(unop, 1);
+                work.push(unop.operand);
+            } else {
+                results.push(ast.addUnaryOp(symbols.intern(unop.opName), results.pop()));
+            }
+        }
+
+        @Override
+        public void visit(FunctionCall call) {
+            int count = call.arguments.size();
+            if (work.stage() == 0) {
+                work.push(call, 1);
+                for (int i = count - 1; i >= 0; --i) {
+                    work.push(call.arguments.get(i));
+                }
+            } else {
+                int from = results.size() - count;
+                int node = ast.addCall(symbols.intern(call.functionName), results, from, count);
+                results.truncate(from);
+                results.push(node);
+            }
+        }
+
+        @Override
+        public void visit(IntConst intConst) {
+            results.push(ast.addIntConst(intConst.value));
+        }
+
+        @Override
+        public void visit(BoolConst boolConst) {
+            results.push(ast.addBoolConst(boolConst.value));
+        }
+
+        @Override
+        public void visit(Var var) {
+            results.push(ast.addVar(symbols.intern(var.name)));
+        }
+    }
+}
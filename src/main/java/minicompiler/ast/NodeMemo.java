@@ -0,0 +1,37 @@
+package minicompiler.ast;
+
+import java.util.Arrays;
+
+/**
+ * Remembers a result for each node of a {@link FlatAst},
+ * so that a walk meeting a shared expression again can reuse what it worked out.
+ *
+ * <p>
+ * Some results only hold while the surroundings stay the same,
+ * like the type of an expression that uses variables. Each result is stored
+ * with a stamp, and is only returned when asked for with the same stamp.
+ * A walker changes its stamp when something the results depend on changes.
+ */
+public class NodeMemo<T> {
+    private Object[] values = new Object[64];
+    private int[] stamps = new int[64];
+
+    /** The result stored for the node with the given stamp, or null. */
+    @SuppressWarnings("unchecked")
+    public T get(int node, int stamp) {
+        if (node < values.length && stamps[node] == stamp) {
+            return (T)values[node];
+        }
+        return null;
+    }
+
+    public void put(int node, int stamp, T value) {
+        if (node >= values.length) {
+            int newCapacity = Math.max(node + 1, values.length * 2);
+            values = Arrays.copyOf(values, newCapacity);
+            stamps = Arrays.copyOf(stamps, newCapacity);
+        }
+        values[node] = value;
+        stamps[node] = stamp;
+    }
+}
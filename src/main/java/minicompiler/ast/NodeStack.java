@@ -0,0 +1,54 @@
+package minicompiler.ast;
+
+import java.util.Arrays;
+
+/**
+ * The nodes an {@link AstVisitor} still has to visit, for walking an AST
+ * without recursion.
+ *
+ * <p>
+ * A recursive visitor calls {@code accept} on a child and carries on where
+ * it left off when the call returns. Here the visitor instead pushes the node
+ * it's visiting back on the stack, along with a number saying where to carry on,
+ * and then pushes the child. The child is visited next, and after it
+ * the node is visited again with the new stage.
+ * Nesting depth is then limited only by the heap.
+ */
+public class NodeStack {
+    private Node[] nodes = new Node[16];
+    private int[] stages = new int[16];
+    private int size = 0;
+    private int stage = 0;
+
+    /** Pushes a node to be visited from the beginning. */
+    public void push(Node node) {
+        push(node, 0);
+    }
+
+    /** Pushes a node to be visited again at the given stage. */
+    public void push(Node node, int stage) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            stages = Arrays.copyOf(stages, size * 2);
+        }
+        nodes[size] = node;
+        stages[size] = stage;
+        size++;
+    }
+
+    /** The stage of the node being visited. */
+    public int stage() {
+        return stage;
+    }
+
+    /** Visits nodes until there are none left. */
+    public void run(AstVisitor visitor) {
+        while (size > 0) {
+            size--;
+            Node node = nodes[size];
+            nodes[size] = null;
+            stage = stages[size];
+            node.accept(visitor);
+        }
+    }
+}
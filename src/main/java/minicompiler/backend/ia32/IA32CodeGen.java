@@ -3,6 +3,8 @@ package minicompiler.backend.ia32;
 import java.util.ArrayList;
 import java.util.List;
 import minicompiler.ir.IrCommand;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.Symbols;
 
 /**
  * Generates GNU assembly output from IR code.
@@ -15,6 +17,10 @@ import minicompiler.ir.IrCommand;
  */
 public class IA32CodeGen {
     public static List<String> generateAsmProgram(List<IrCommand> mainFunctionBody) {
+        return generateAsmProgram(PackedIr.fromCommands(mainFunctionBody, new Symbols()));
+    }
+    
+    public static List<String> generateAsmProgram(PackedIr mainFunctionBody) {
         List<String> asmLines = new ArrayList<String>();
         
         // Add program entry point, call to main and exit with exit code 0.
@@ -35,6 +41,10 @@ public class IA32CodeGen {
     }
     
     public static List<String> generateAsmFunctionBody(List<IrCommand> functionBody) {
+        return generateAsmFunctionBody(PackedIr.fromCommands(functionBody, new Symbols()));
+    }
+    
+    public static List<String> generateAsmFunctionBody(PackedIr functionBody) {
         return new IA32FuncVisitor(functionBody).generate();
     }
 }
@@ -2,121 +2,170 @@ package minicompiler.backend.ia32;
 
 import java.util.ArrayList;
 import java.util.List;
-import minicompiler.errors.CompilerError;
-import minicompiler.ir.*;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
 
-class IA32FuncVisitor extends IrVisitor {
-    private List<IrCommand> input;
+/**
+ * Generates the asm for a function body by going through its {@link PackedIr}
+ * and switching on each instruction's opcode.
+ */
+class IA32FuncVisitor {
+    private PackedIr input;
+    private PackedIr.Cursor cursor;
     private List<String> output;
-    
+
     private IA32SymbolTable symTab;
 
-    public IA32FuncVisitor(List<IrCommand> input) {
+    public IA32FuncVisitor(PackedIr input) {
         this.input = input;
+        this.cursor = input.cursor();
         this.output = new ArrayList<String>();
-        
-        this.symTab = new IA32SymbolTable();
-        
-        for (IrCommand cmd : input) {
-            String var = cmd.getAssignedVar();
-            if (var != null && !symTab.hasLocalVar(var)) {
-                symTab.reserveSpaceForLocalVar(var);
+
+        this.symTab = new IA32SymbolTable(input);
+
+        while (cursor.next()) {
+            if (cursor.opcode().hasTarget() && !symTab.hasLocalVar(cursor.target())) {
+                symTab.reserveSpaceForLocalVar(cursor.target());
             }
         }
     }
-    
+
     public List<String> generate() {
         output.clear();
         generateFunctionStart();
-        for (IrCommand cmd : input) {
-            cmd.accept(this);
+        cursor.reset();
+        while (cursor.next()) {
+            generateInstruction();
         }
         generateFunctionEnd();
         return output;
     }
-    
+
     private void generateFunctionStart() {
         emit("pushl %ebp");      // Save old base pointer used by caller
         emit("movl %esp, %ebp"); // Set new base pointer
         emit("subl $" + symTab.getStackSpaceForLocals() + ", %esp"); // Reserve stack space.
     }
-    
+
     private void generateFunctionEnd() {
         emit("movl %ebp, %esp"); // Discard local stack frame
         emit("popl %ebp");       // Retrieve old base pointer
         emit("ret");             // Return to return address
     }
 
-    @Override
-    public void visit(IrCopy copy) {
-        emit("movl " + symTab.rvalueToAsm(copy.rvalue) + ", %eax");
-        emit("movl %eax, " + symTab.localVarToAsm(copy.assignedVar));
+    private void generateInstruction() {
+        Opcode op = cursor.opcode();
+        switch (op) {
+            case COPY:
+                emit("movl " + arg(0) + ", %eax");
+                emit("movl %eax, " + target());
+                return;
+            case CALL:
+                compileCallToFunction();
+                return;
+            case LABEL:
+                emit(labelName() + ":");
+                return;
+            case GOTO:
+                emit("jmp " + labelName());
+                return;
+            case GOTO_IF:
+                emit("movl " + arg(0) + ", %eax");
+                emit("cmpl $0, %eax");
+                emit("jne " + labelName());
+                return;
+            case GOTO_IF_NOT:
+                emit("movl " + arg(0) + ", %eax");
+                emit("cmpl $0, %eax");
+                emit("je " + labelName());
+                return;
+            default:
+                compileBuiltin(op);
+                emit("movl %eax, " + target());
+        }
     }
 
-    @Override
-    public void visit(IrCall call) {
-        String func = call.functionName;
-        if (IA32Builtins.isBuiltin(func)) {
-            compileBuiltin(call);
-        } else {
-            compileCallToFunction(call);
+    /** Leaves the result of a builtin operator in %eax. */
+    private void compileBuiltin(Opcode op) {
+        switch (op) {
+            case ADD: binaryArithmetic("addl"); break;
+            case SUB: binaryArithmetic("subl"); break;
+            case MUL: binaryArithmetic("imull"); break;
+            case DIV:
+                division();
+                break;
+            case MOD:
+                division();
+                emit("movl %edx, %eax");
+                break;
+            case NEG:
+                emit("movl " + arg(0) + ", %eax");
+                emit("negl %eax");
+                break;
+            case CMP_LT: binaryComparison("cmovl"); break;
+            case CMP_GT: binaryComparison("cmovg"); break;
+            case CMP_LE: binaryComparison("cmovle"); break;
+            case CMP_GE: binaryComparison("cmovge"); break;
+            case CMP_EQ: binaryComparison("cmove"); break;
+            case CMP_NE: binaryComparison("cmovne"); break;
+            case NOT:
+                emit("movl " + arg(0) + ", %eax");
+                emit("xorl $1, %eax");
+                break;
+            default:
+                throw new IllegalStateException("Not a builtin: " + op);
         }
     }
-    
-    private void compileBuiltin(IrCall call) {
-        String func = call.functionName;
-        IA32Builtin builtin = IA32Builtins.getBuiltin(func);
-        if (builtin.argCount != call.args.size()) {
-            throw new CompilerError("Call to builtin " + func + " takes " + builtin.argCount + " args but " + call.args.size() + " given.");
-        }
-        
-        String[] lines = builtin.generate(symTab, call.args.toArray(new IrRValue[call.args.size()]));
-        for (String line : lines) {
-            emit(line);
-        }
-        
-        emit("movl %eax, " + symTab.localVarToAsm(call.assignedVar));
+
+    private void binaryArithmetic(String asmOp) {
+        emit("movl " + arg(0) + ", %eax");
+        emit(asmOp + " " + arg(1) + ", %eax");
+    }
+
+    private void binaryComparison(String cmovOp) {
+        // Probably more inefficient than cmp+jump, but keeps the compiler simple
+        emit("movl $0, %eax");
+        emit("movl $1, %ebx");
+        emit("movl " + arg(0) + ", %ecx");
+        emit("cmpl " + arg(1) + ", %ecx");
+        emit(cmovOp + " %ebx, %eax");
+    }
+
+    /** Leaves the quotient in %eax and the remainder in %edx. */
+    private void division() {
+        emit("movl " + arg(0) + ", %eax");
+        emit("movl " + arg(1) + ", %ebx");
+        emit("cltd");
+        emit("idivl %ebx");
     }
-    
-    private void compileCallToFunction(IrCall call) {
-        symTab.addExternalSymbol(call.functionName);
-        
+
+    private void compileCallToFunction() {
+        String functionName = input.getSymbols().name(cursor.function());
+        symTab.addExternalSymbol(functionName);
+
         int stackSpaceForArgs = 0;
-        for (int i = call.args.size() - 1; i >= 0; i--) {
-            IrRValue arg = call.args.get(i);
-            emit("pushl " + symTab.rvalueToAsm(arg));
+        for (int i = cursor.argCount() - 1; i >= 0; i--) {
+            emit("pushl " + arg(i));
             stackSpaceForArgs += 4;
         }
-        
-        emit("call " + call.functionName);
+
+        emit("call " + functionName);
         emit("addl $" + stackSpaceForArgs + ", %esp"); // Discard arguments from stack
-        emit("movl %eax, " + symTab.localVarToAsm(call.assignedVar));
+        emit("movl %eax, " + target());
     }
 
-    @Override
-    public void visit(IrGoto g) {
-        emit("jmp " + g.labelName);
+    private String arg(int i) {
+        return symTab.rvalueToAsm(cursor.arg(i));
     }
 
-    @Override
-    public void visit(IrGotoIf g) {
-        emit("movl " + symTab.rvalueToAsm(g.condition) + ", %eax");
-        emit("cmpl $0, %eax");
-        emit("jne " + g.labelName);
+    private String target() {
+        return symTab.localVarToAsm(cursor.target());
     }
 
-    @Override
-    public void visit(IrGotoIfNot g) {
-        emit("movl " + symTab.rvalueToAsm(g.condition) + ", %eax");
-        emit("cmpl $0, %eax");
-        emit("je " + g.labelName);
+    private String labelName() {
+        return input.getSymbols().name(cursor.label());
     }
 
-    @Override
-    public void visit(IrLabel g) {
-        emit(g.name + ":");
-    }
-    
     private void emit(String line) {
         if (!line.endsWith(":") && !line.startsWith(".")) {
             output.add("    " + line);
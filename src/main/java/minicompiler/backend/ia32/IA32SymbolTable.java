@@ -1,30 +1,34 @@
 package minicompiler.backend.ia32;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.TreeSet;
 import minicompiler.errors.CompilerError;
-import minicompiler.ir.IrIntConst;
-import minicompiler.ir.IrRValue;
-import minicompiler.ir.IrVar;
-import minicompiler.misc.NameMaker;
+import minicompiler.ir.PackedIr;
 
 class IA32SymbolTable {
-    public final NameMaker nameMaker = new NameMaker();
+    private final PackedIr ir;
     
     public TreeSet<String> externalSymbols = new TreeSet<String>();
     
-    private HashMap<String, Integer> localVars = new HashMap<String, Integer>(); // Name -> stack offset
+    private int[] localVarOffsets = new int[0]; // Symbol id -> stack offset + 1, or 0 if not a local
     private int stackSpaceForLocals = 0;
     
-    public void reserveSpaceForLocalVar(String var) {
-        if (localVars.containsKey(var)) {
-            throw new CompilerError("Local variable already in symtab: " + var);
+    public IA32SymbolTable(PackedIr ir) {
+        this.ir = ir;
+    }
+    
+    public void reserveSpaceForLocalVar(int register) {
+        if (hasLocalVar(register)) {
+            throw new CompilerError("Local variable already in symtab: " + ir.getSymbols().name(register));
+        }
+        if (register >= localVarOffsets.length) {
+            localVarOffsets = Arrays.copyOf(localVarOffsets, Math.max(register + 1, localVarOffsets.length * 2));
         }
         int size = 4;
         int addr = stackSpaceForLocals;
-        localVars.put(var, addr);
+        localVarOffsets[register] = addr + 1;
         stackSpaceForLocals += size;
     }
 
@@ -32,27 +36,24 @@ class IA32SymbolTable {
         return stackSpaceForLocals;
     }
     
-    public boolean hasLocalVar(String var) {
-        return localVars.containsKey(var);
+    public boolean hasLocalVar(int register) {
+        return register < localVarOffsets.length && localVarOffsets[register] != 0;
     }
     
-    public String rvalueToAsm(IrRValue rv) {
-        if (rv instanceof IrIntConst) {
-            return "$" + ((IrIntConst)rv).value;
-        } else if (rv instanceof IrVar) {
-            String varName = ((IrVar)rv).name;
-            return localVarToAsm(varName);
+    /** A register or constant operand of a {@link PackedIr} instruction in asm. */
+    public String rvalueToAsm(int operand) {
+        if (PackedIr.isConstant(operand)) {
+            return "$" + ir.constantValue(operand);
         } else {
-            throw new IllegalArgumentException();
+            return localVarToAsm(operand);
         }
     }
     
-    public String localVarToAsm(String varName) {
-        Integer offset = localVars.get(varName);
-        if (offset == null) {
-            throw new CompilerError("Reading unknown variable: " + varName);
+    public String localVarToAsm(int register) {
+        if (!hasLocalVar(register)) {
+            throw new CompilerError("Reading unknown variable: " + ir.getSymbols().name(register));
         }
-        return "-" + offset + "(%ebp)";
+        return "-" + (localVarOffsets[register] - 1) + "(%ebp)";
     }
     
     public void addExternalSymbol(String symbol) {
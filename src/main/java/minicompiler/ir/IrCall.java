@@ -5,27 +5,31 @@ import java.util.List;
 import minicompiler.misc.StringUtils;
 
 public class IrCall extends IrCommand {
-    public final String assignedVar;
+    public final IrVar assignedVar;
     public final String functionName;
     public final List<IrRValue> args;
 
-    public IrCall(String returnVar, String functionName, List<IrRValue> args) {
+    public IrCall(IrVar returnVar, String functionName, List<IrRValue> args) {
         this.assignedVar = returnVar;
         this.functionName = functionName;
         this.args = args;
     }
     
-    public IrCall(String returnVar, String functionName, IrRValue... args) {
+    public IrCall(IrVar returnVar, String functionName, IrRValue... args) {
         this(returnVar, functionName, Arrays.asList(args));
     }
     
+    public IrCall(String returnVar, String functionName, IrRValue... args) {
+        this(new IrVar(returnVar), functionName, Arrays.asList(args));
+    }
+    
     @Override
     public void accept(IrVisitor visitor) {
         visitor.visit(this);
     }
     
     @Override
-    public String getAssignedVar() {
+    public IrVar getAssignedVar() {
         return assignedVar;
     }
 
@@ -1,7 +1,7 @@
 package minicompiler.ir;
 
 public abstract class IrCommand {
-    public abstract String getAssignedVar(); // Null if the command doesn't assign to anything.
+    public abstract IrVar getAssignedVar(); // Null if the command doesn't assign to anything.
     
     public abstract void accept(IrVisitor visitor);
 }
@@ -1,21 +1,25 @@
 package minicompiler.ir;
 
 public class IrCopy extends IrCommand {
-    public final String assignedVar;
+    public final IrVar assignedVar;
     public final IrRValue rvalue;
 
-    public IrCopy(String assignedVar, IrRValue rvalue) {
+    public IrCopy(IrVar assignedVar, IrRValue rvalue) {
         this.assignedVar = assignedVar;
         this.rvalue = rvalue;
     }
     
+    public IrCopy(String assignedVar, IrRValue rvalue) {
+        this(new IrVar(assignedVar), rvalue);
+    }
+    
     @Override
     public void accept(IrVisitor visitor) {
         visitor.visit(this);
     }
 
     @Override
-    public String getAssignedVar() {
+    public IrVar getAssignedVar() {
         return assignedVar;
     }
 
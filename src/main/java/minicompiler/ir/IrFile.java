@@ -0,0 +1,229 @@
+package minicompiler.ir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import minicompiler.errors.CompilerError;
+import minicompiler.misc.Symbols;
+
+/**
+ * Stores a {@link PackedIr} program in a binary file and reads it back.
+ *
+ * <p>
+ * The file is a sequence of little-endian ints:
+ * <pre>
+ *   header:    magic ("MIR" and a zero byte), version,
+ *              symbol count, prefix count, string bytes,
+ *              code words, constant count, instruction count
+ *   symbols:   two ints per symbol, in id order
+ *   prefixes:  two ints per prefix of a generated symbol
+ *   strings:   the names and prefixes in UTF-8, padded to a multiple of 4 bytes
+ *   code:      the instructions as in {@link PackedIr}
+ *   constants: the constant pool
+ * </pre>
+ *
+ * <p>
+ * A symbol that was interned is stored as the offset and length of its name
+ * in the strings. A symbol that was generated is stored as -1 minus the index
+ * of its prefix, and its number. Labels and functions are symbols like variables.
+ * Reading the symbols back in order gives every symbol its old id,
+ * so the code can be used as it is.
+ *
+ * <p>
+ * Reading maps the file and decodes only the symbols up front.
+ * The code and constants stay in the mapped file, and each instruction
+ * is decoded from it when a cursor gets to it.
+ *
+ * <p>
+ * Files of other versions are rejected; the version changes whenever
+ * the layout or the {@link Opcode}s change.
+ */
+public class IrFile {
+    public static final int MAGIC = 'M' | ('I' << 8) | ('R' << 16);
+    public static final int VERSION = 1;
+
+    private static final int HEADER_INTS = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void write(PackedIr ir, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            ByteBuffer bytes = toBytes(ir);
+            FileChannel channel = out.getChannel();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The file contents for the program. */
+    public static ByteBuffer toBytes(PackedIr ir) {
+        Symbols symbols = ir.getSymbols();
+        int symbolCount = symbols.size();
+
+        // Each distinct prefix is stored once
+        Symbols prefixes = new Symbols();
+        int[] symbolEntries = new int[symbolCount * 2];
+        StringBytes strings = new StringBytes();
+        for (int id = 0; id < symbolCount; ++id) {
+            if (symbols.isGenerated(id)) {
+                symbolEntries[2 * id] = -1 - prefixes.intern(symbols.prefix(id));
+                symbolEntries[2 * id + 1] = symbols.number(id);
+            } else {
+                symbolEntries[2 * id] = strings.size();
+                symbolEntries[2 * id + 1] = strings.add(symbols.name(id));
+            }
+        }
+        int[] prefixEntries = new int[prefixes.size() * 2];
+        for (int i = 0; i < prefixes.size(); ++i) {
+            prefixEntries[2 * i] = strings.size();
+            prefixEntries[2 * i + 1] = strings.add(prefixes.name(i));
+        }
+        int paddedStringBytes = (strings.size() + 3) & ~3;
+
+        int ints = HEADER_INTS + symbolEntries.length + prefixEntries.length
+                + ir.codeSize() + ir.constantCount();
+        ByteBuffer bytes = ByteBuffer.allocate(ints * 4 + paddedStringBytes).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(MAGIC);
+        bytes.putInt(VERSION);
+        bytes.putInt(symbolCount);
+        bytes.putInt(prefixes.size());
+        bytes.putInt(strings.size());
+        bytes.putInt(ir.codeSize());
+        bytes.putInt(ir.constantCount());
+        bytes.putInt(ir.instructionCount());
+        for (int entry : symbolEntries) {
+            bytes.putInt(entry);
+        }
+        for (int entry : prefixEntries) {
+            bytes.putInt(entry);
+        }
+        bytes.put(strings.bytes, 0, strings.size());
+        bytes.position(bytes.position() + paddedStringBytes - strings.size());
+        for (int i = 0; i < ir.codeSize(); ++i) {
+            bytes.putInt(ir.codeWord(i));
+        }
+        for (int i = 0; i < ir.constantCount(); ++i) {
+            bytes.putInt(ir.constantAt(i));
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Maps a file and reads the program in it.
+     * The mapping is read-only; rewriting instructions copies them to the heap first.
+     */
+    public static PackedIr read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Whether the bytes start like an IR file. */
+    public static boolean isIrFile(ByteBuffer bytes) {
+        return bytes.limit() >= 4 && bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+    }
+
+    /** Reads a program whose code stays in the given buffer. */
+    public static PackedIr read(ByteBuffer bytes) {
+        bytes = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.limit() < HEADER_INTS * 4 || !isIrFile(bytes)) {
+            throw new CompilerError("Not an IR file");
+        }
+        int version = bytes.getInt(4);
+        if (version != VERSION) {
+            throw new CompilerError("IR file version " + version + " is not supported (expected " + VERSION + ")");
+        }
+        int symbolCount = bytes.getInt(8);
+        int prefixCount = bytes.getInt(12);
+        int stringBytes = bytes.getInt(16);
+        int codeWords = bytes.getInt(20);
+        int constantCount = bytes.getInt(24);
+        int instructionCount = bytes.getInt(28);
+
+        if (symbolCount < 0 || prefixCount < 0 || stringBytes < 0 || codeWords < 0 || constantCount < 0
+                || HEADER_INTS * 4L + ((long)symbolCount + prefixCount) * 8L + ((stringBytes + 3L) & ~3L)
+                        + (codeWords + (long)constantCount) * 4L > bytes.limit()) {
+            throw new CompilerError("IR file is truncated");
+        }
+        int symbolsAt = HEADER_INTS * 4;
+        int prefixesAt = symbolsAt + symbolCount * 8;
+        int stringsAt = prefixesAt + prefixCount * 8;
+        int codeAt = stringsAt + ((stringBytes + 3) & ~3);
+        int constantsAt = codeAt + codeWords * 4;
+
+        String[] prefixes = new String[prefixCount];
+        for (int i = 0; i < prefixCount; ++i) {
+            prefixes[i] = string(bytes, stringsAt, bytes.getInt(prefixesAt + 8 * i), bytes.getInt(prefixesAt + 8 * i + 4));
+        }
+        Symbols symbols = new Symbols();
+        for (int id = 0; id < symbolCount; ++id) {
+            int first = bytes.getInt(symbolsAt + 8 * id);
+            int second = bytes.getInt(symbolsAt + 8 * id + 4);
+            if (first < 0) {
+                symbols.generate(prefixes[-1 - first], second);
+            } else {
+                String name = string(bytes, stringsAt, first, second);
+                if (symbols.intern(name) != id) {
+                    throw new CompilerError("IR file has a symbol twice: " + name);
+                }
+            }
+        }
+
+        return new PackedIr(symbols,
+                ints(bytes, codeAt, codeWords), codeWords,
+                ints(bytes, constantsAt, constantCount), constantCount,
+                instructionCount);
+    }
+
+    private static String string(ByteBuffer bytes, int stringsAt, int offset, int length) {
+        byte[] utf8 = new byte[length];
+        ByteBuffer source = bytes.duplicate();
+        source.position(stringsAt + offset);
+        source.get(utf8);
+        return new String(utf8, UTF_8);
+    }
+
+    /** A view of the given number of ints starting at the given byte offset. */
+    private static IntBuffer ints(ByteBuffer bytes, int offset, int count) {
+        ByteBuffer view = bytes.duplicate();
+        view.position(offset);
+        view.limit(offset + count * 4);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /** Collects UTF-8 strings back to back. */
+    private static class StringBytes {
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        public int size() {
+            return size;
+        }
+
+        /** Appends the string and returns its length in bytes. */
+        public int add(String s) {
+            byte[] utf8 = s.getBytes(UTF_8);
+            if (size + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+            return utf8.length;
+        }
+    }
+}
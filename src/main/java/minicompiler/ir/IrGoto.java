@@ -13,7 +13,7 @@ public class IrGoto extends IrCommand {
     }
     
     @Override
-    public String getAssignedVar() {
+    public IrVar getAssignedVar() {
         return null;
     }
 
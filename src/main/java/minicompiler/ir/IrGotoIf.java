@@ -15,7 +15,7 @@ public class IrGotoIf extends IrCommand {
     }
 
     @Override
-    public String getAssignedVar() {
+    public IrVar getAssignedVar() {
         return null;
     }
 
@@ -15,7 +15,7 @@ public class IrGotoIfNot extends IrCommand {
     }
     
     @Override
-    public String getAssignedVar() {
+    public IrVar getAssignedVar() {
         return null;
     }
 
@@ -1,17 +1,50 @@
 package minicompiler.ir;
 
+import minicompiler.misc.Symbols;
+
 public class IrVar extends IrRValue {
-    public final String name;
+    /**
+     * The variable's id in the compilation's symbol table,
+     * or -1 if the variable was made from just a name.
+     * Code generation needs the id.
+     */
+    public final int id;
+    private final Symbols symbols;
+    private String name;
 
     public IrVar(String name) {
+        this.id = -1;
+        this.symbols = null;
         this.name = name;
     }
+
+    public IrVar(Symbols symbols, int id) {
+        this.id = id;
+        this.symbols = symbols;
+        this.name = null;
+    }
+
+    /** The variable's id in the given symbol table, interning its name if it's from another table. */
+    int idIn(Symbols table) {
+        return (table == symbols) ? id : table.intern(getName());
+    }
+
+    public String getName() {
+        if (name == null) {
+            name = symbols.name(id);
+        }
+        return name;
+    }
     
+    /** Compares ids if both are in the same table, so generated names aren't built. */
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof IrVar) {
             IrVar that = (IrVar)obj;
-            return this.name.equals(that.name);
+            if (this.symbols != null && this.symbols == that.symbols) {
+                return this.id == that.id;
+            }
+            return this.getName().equals(that.getName());
         } else {
             return false;
         }
@@ -19,11 +52,11 @@ public class IrVar extends IrRValue {
 
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return (name == null) ? symbols.nameHash(id) : name.hashCode();
     }
 
     @Override
     public String toString() {
-        return name;
+        return getName();
     }
 }
@@ -0,0 +1,72 @@
+package minicompiler.ir;
+
+/**
+ * The kinds of instruction in {@link PackedIr}.
+ *
+ * <p>
+ * Calls to the builtin operators get an opcode of their own,
+ * so later stages can switch on it instead of looking the name up.
+ * Calls to anything else are CALLs.
+ */
+public enum Opcode {
+    COPY(null, 1),
+
+    ADD("+", 2),
+    SUB("-", 2),
+    MUL("*", 2),
+    DIV("/", 2),
+    MOD("%", 2),
+    NEG("-", 1),
+
+    CMP_LT("<", 2),
+    CMP_GT(">", 2),
+    CMP_LE("<=", 2),
+    CMP_GE(">=", 2),
+    CMP_EQ("==", 2),
+    CMP_NE("<>", 2),
+    NOT("!", 1),
+
+    CALL(null, -1),
+
+    LABEL(null, 0),
+    GOTO(null, 0),
+    GOTO_IF(null, 1),
+    GOTO_IF_NOT(null, 1);
+
+    private static final Opcode[] values = values();
+
+    /** The operator this is a call to, or null if it's not an operator. */
+    public final String operator;
+
+    /** How many values the instruction reads, or -1 if it varies (for CALL). */
+    public final int argCount;
+
+    private Opcode(String operator, int argCount) {
+        this.operator = operator;
+        this.argCount = argCount;
+    }
+
+    /** Whether the instruction assigns to a register. */
+    public boolean hasTarget() {
+        return this.compareTo(CALL) <= 0;
+    }
+
+    /** Whether the instruction is or refers to a label. */
+    public boolean hasLabel() {
+        return this.compareTo(LABEL) >= 0;
+    }
+
+    /** The opcode of a call to a builtin operator, or CALL if there's none. */
+    public static Opcode forCall(String functionName, int argCount) {
+        for (Opcode op : values) {
+            if (op.operator != null && op.argCount == argCount && op.operator.equals(functionName)) {
+                return op;
+            }
+        }
+        return CALL;
+    }
+
+    static Opcode fromOrdinal(int ordinal) {
+        return values[ordinal];
+    }
+}
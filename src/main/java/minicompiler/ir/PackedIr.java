@@ -0,0 +1,422 @@
+package minicompiler.ir;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import minicompiler.misc.Symbols;
+
+/**
+ * IR code packed into an int array.
+ *
+ * <p>
+ * Each instruction is a header word followed by its operands.
+ * The header holds the {@link Opcode} in its low 8 bits and the length
+ * of the instruction in words above them. The operands are, in order:
+ * the register the instruction assigns to, if any;
+ * the label it is or jumps to, if any;
+ * the function it calls, if it's a CALL;
+ * and the values it reads.
+ *
+ * <p>
+ * Registers, labels and functions are ids in the program's {@link Symbols} table,
+ * so a register is simply the id of the variable it holds.
+ * A value is either a register (a non-negative id) or a constant,
+ * which is a negative index into the constant pool that follows the code.
+ *
+ * <p>
+ * The code and the constants are kept in IntBuffers, so an {@link IrFile}
+ * can be read as a view of the mapped file. Such a program is copied
+ * to the heap only when it is changed.
+ *
+ * <p>
+ * A {@link Cursor} reads the instructions in order without allocating.
+ * {@link #fromCommands} and {@link #toCommands} convert from and to
+ * the {@link IrCommand} classes.
+ */
+public class PackedIr {
+    private final Symbols symbols;
+    private IntBuffer code;
+    private int size;
+    private IntBuffer constants;
+    private int constantCount;
+    private int instructionCount;
+
+    public PackedIr(Symbols symbols) {
+        this(symbols, IntBuffer.allocate(64), 0, IntBuffer.allocate(16), 0, 0);
+    }
+
+    /** Wraps code and constants that are already packed, e.g. in a mapped file. */
+    PackedIr(Symbols symbols, IntBuffer code, int size, IntBuffer constants, int constantCount, int instructionCount) {
+        this.symbols = symbols;
+        this.code = code;
+        this.size = size;
+        this.constants = constants;
+        this.constantCount = constantCount;
+        this.instructionCount = instructionCount;
+    }
+
+    public Symbols getSymbols() {
+        return symbols;
+    }
+
+    public int instructionCount() {
+        return instructionCount;
+    }
+
+    /** The length of the code in words. The next instruction added starts at this position. */
+    public int codeSize() {
+        return size;
+    }
+
+    int codeWord(int index) {
+        return code.get(index);
+    }
+
+    int constantCount() {
+        return constantCount;
+    }
+
+    int constantAt(int index) {
+        return constants.get(index);
+    }
+
+    /** Adds a constant to the pool and returns it as a value operand. */
+    public int constant(int value) {
+        if (constantCount == constants.capacity() || constants.isReadOnly()) {
+            constants = grow(constants, constantCount);
+        }
+        constants.put(constantCount, value);
+        return -1 - constantCount++;
+    }
+
+    public static boolean isConstant(int operand) {
+        return operand < 0;
+    }
+
+    public int constantValue(int operand) {
+        return constants.get(-1 - operand);
+    }
+
+    public void copy(int target, int value) {
+        begin(Opcode.COPY, 3);
+        append(target);
+        append(value);
+    }
+
+    /** Adds a unary operator. */
+    public void operation(Opcode op, int target, int arg) {
+        begin(op, 3);
+        append(target);
+        append(arg);
+    }
+
+    /** Adds a binary operator. */
+    public void operation(Opcode op, int target, int left, int right) {
+        begin(op, 4);
+        append(target);
+        append(left);
+        append(right);
+    }
+
+    /** Adds a call to a function that's not a builtin operator. */
+    public void call(int target, int function, int[] args, int argCount) {
+        begin(Opcode.CALL, 3 + argCount);
+        append(target);
+        append(function);
+        for (int i = 0; i < argCount; ++i) {
+            append(args[i]);
+        }
+    }
+
+    public void label(int label) {
+        begin(Opcode.LABEL, 2);
+        append(label);
+    }
+
+    public void jump(int label) {
+        begin(Opcode.GOTO, 2);
+        append(label);
+    }
+
+    /** Adds a GOTO_IF or a GOTO_IF_NOT. */
+    public void jump(Opcode op, int label, int condition) {
+        begin(op, 3);
+        append(label);
+        append(condition);
+    }
+
+    /**
+     * Adds a copy of the instruction the cursor is at.
+     * The cursor may be in another program with the same symbols.
+     */
+    public void append(Cursor instruction) {
+        PackedIr from = instruction.program();
+        int start = instruction.position();
+        int length = from.code.get(start) >>> 8;
+        int firstArg = instruction.firstArg() - start;
+        instructionCount++;
+        for (int i = 0; i < length; ++i) {
+            int word = from.code.get(start + i);
+            if (i >= firstArg && isConstant(word) && from != this) {
+                word = constant(from.constantValue(word));
+            }
+            append(word);
+        }
+    }
+
+    /** A copy on the heap that can be changed without changing this one. */
+    public PackedIr copy() {
+        return new PackedIr(symbols, grow(code, size), size, grow(constants, constantCount), constantCount, instructionCount);
+    }
+
+    private void begin(Opcode op, int length) {
+        append(op.ordinal() | (length << 8));
+        instructionCount++;
+    }
+
+    private void append(int word) {
+        if (size == code.capacity() || code.isReadOnly()) {
+            code = grow(code, size);
+        }
+        code.put(size++, word);
+    }
+
+    /** Copies the used part of a buffer into a heap buffer twice as big. */
+    private static IntBuffer grow(IntBuffer buffer, int used) {
+        IntBuffer bigger = IntBuffer.allocate(Math.max(16, used * 2));
+        IntBuffer source = buffer.duplicate();
+        source.clear();
+        source.limit(used);
+        bigger.put(source);
+        return bigger;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Points at one instruction at a time, starting before the first.
+     * The operands of the current instruction can be replaced in place.
+     */
+    public class Cursor {
+        private int pos = -1;
+        private int next = 0;
+
+        /** Moves to the next instruction, or returns false if there are no more. */
+        public boolean next() {
+            if (next >= size) {
+                return false;
+            }
+            pos = next;
+            next = pos + (code.get(pos) >>> 8);
+            return true;
+        }
+
+        /** Goes back to before the first instruction. */
+        public void reset() {
+            pos = -1;
+            next = 0;
+        }
+
+        /** The position of the current instruction in the code. */
+        public int position() {
+            return pos;
+        }
+
+        /**
+         * Moves to the instruction at the given position.
+         * {@link #next} then continues from the instruction after it.
+         */
+        public void seek(int position) {
+            pos = position;
+            next = pos + (code.get(pos) >>> 8);
+        }
+
+        public Opcode opcode() {
+            return Opcode.fromOrdinal(code.get(pos) & 0xFF);
+        }
+
+        /** The register the instruction assigns to. */
+        public int target() {
+            return code.get(pos + 1);
+        }
+
+        /** The label the instruction is or jumps to. */
+        public int label() {
+            return code.get(pos + 1);
+        }
+
+        /** The function a CALL calls. */
+        public int function() {
+            return code.get(pos + 2);
+        }
+
+        /** The number of values the instruction reads. */
+        public int argCount() {
+            return next - firstArg();
+        }
+
+        /** A value the instruction reads. See {@link PackedIr#isConstant}. */
+        public int arg(int i) {
+            return code.get(firstArg() + i);
+        }
+
+        public void setArg(int i, int operand) {
+            set(firstArg() + i, operand);
+        }
+
+        public void setTarget(int register) {
+            set(pos + 1, register);
+        }
+
+        public void setLabel(int label) {
+            set(pos + 1, label);
+        }
+
+        private void set(int index, int word) {
+            if (code.isReadOnly()) {
+                code = grow(code, size);
+            }
+            code.put(index, word);
+        }
+
+        private PackedIr program() {
+            return PackedIr.this;
+        }
+
+        private int firstArg() {
+            Opcode op = opcode();
+            if (op == Opcode.CALL) {
+                return pos + 3;
+            } else if (op.hasTarget() || op.hasLabel()) {
+                return pos + 2;
+            } else {
+                return pos + 1;
+            }
+        }
+    }
+
+    /**
+     * Packs IR commands into code whose registers and labels are symbols in the given table.
+     * Variables that are symbols in another table, or have only a name, are interned.
+     */
+    public static PackedIr fromCommands(List<IrCommand> commands, final Symbols symbols) {
+        final PackedIr ir = new PackedIr(symbols);
+        IrVisitor packer = new IrVisitor() {
+            private int[] args = new int[4];
+
+            @Override
+            public void visit(IrCall call) {
+                int argCount = call.args.size();
+                if (argCount > args.length) {
+                    args = new int[argCount];
+                }
+                for (int i = 0; i < argCount; ++i) {
+                    args[i] = value(call.args.get(i));
+                }
+                int target = register(call.assignedVar);
+                Opcode op = Opcode.forCall(call.functionName, argCount);
+                if (op == Opcode.CALL) {
+                    ir.call(target, symbols.intern(call.functionName), args, argCount);
+                } else if (argCount == 1) {
+                    ir.operation(op, target, args[0]);
+                } else {
+                    ir.operation(op, target, args[0], args[1]);
+                }
+            }
+
+            @Override
+            public void visit(IrCopy copy) {
+                ir.copy(register(copy.assignedVar), value(copy.rvalue));
+            }
+
+            @Override
+            public void visit(IrLabel label) {
+                ir.label(symbols.intern(label.name));
+            }
+
+            @Override
+            public void visit(IrGoto g) {
+                ir.jump(symbols.intern(g.labelName));
+            }
+
+            @Override
+            public void visit(IrGotoIf g) {
+                ir.jump(Opcode.GOTO_IF, symbols.intern(g.labelName), value(g.condition));
+            }
+
+            @Override
+            public void visit(IrGotoIfNot g) {
+                ir.jump(Opcode.GOTO_IF_NOT, symbols.intern(g.labelName), value(g.condition));
+            }
+
+            private int register(IrVar var) {
+                return var.idIn(symbols);
+            }
+
+            private int value(IrRValue value) {
+                if (value instanceof IrIntConst) {
+                    return ir.constant(((IrIntConst)value).value);
+                } else {
+                    return register((IrVar)value);
+                }
+            }
+        };
+        for (IrCommand command : commands) {
+            command.accept(packer);
+        }
+        return ir;
+    }
+
+    /** Unpacks the instructions into IR commands. */
+    public List<IrCommand> toCommands() {
+        ArrayList<IrCommand> commands = new ArrayList<IrCommand>(instructionCount);
+        Cursor c = cursor();
+        while (c.next()) {
+            Opcode op = c.opcode();
+            switch (op) {
+                case COPY:
+                    commands.add(new IrCopy(new IrVar(symbols, c.target()), value(c.arg(0))));
+                    break;
+                case LABEL:
+                    commands.add(new IrLabel(symbols.name(c.label())));
+                    break;
+                case GOTO:
+                    commands.add(new IrGoto(symbols.name(c.label())));
+                    break;
+                case GOTO_IF:
+                    commands.add(new IrGotoIf(symbols.name(c.label()), value(c.arg(0))));
+                    break;
+                case GOTO_IF_NOT:
+                    commands.add(new IrGotoIfNot(symbols.name(c.label()), value(c.arg(0))));
+                    break;
+                default:
+                    ArrayList<IrRValue> args = new ArrayList<IrRValue>(c.argCount());
+                    for (int i = 0; i < c.argCount(); ++i) {
+                        args.add(value(c.arg(i)));
+                    }
+                    String functionName = (op == Opcode.CALL) ? symbols.name(c.function()) : op.operator;
+                    commands.add(new IrCall(new IrVar(symbols, c.target()), functionName, args));
+            }
+        }
+        return commands;
+    }
+
+    private IrRValue value(int operand) {
+        if (isConstant(operand)) {
+            return new IrIntConst(constantValue(operand));
+        } else {
+            return new IrVar(symbols, operand);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (IrCommand command : toCommands()) {
+            sb.append(command).append('\n');
+        }
+        return sb.toString();
+    }
+}
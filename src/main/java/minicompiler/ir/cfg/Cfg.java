@@ -0,0 +1,399 @@
+package minicompiler.ir.cfg;
+
+import java.util.Arrays;
+import minicompiler.errors.CompilerError;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+
+/**
+ * The basic blocks of a {@link PackedIr} program and the edges between them.
+ *
+ * <p>
+ * Blocks are numbered from 0. Block 0 is the entry and never has a label,
+ * so nothing jumps back to it. The exit is an empty block that comes after
+ * everything else; falling into it returns from the program.
+ *
+ * <p>
+ * Each block has the positions of its instructions in {@link #getIr()},
+ * an optional label, and the block it falls through to when it doesn't
+ * end with a GOTO. The LABEL instructions themselves aren't in the blocks.
+ * The edges are derived from the jumps at the ends of the blocks and the
+ * fall-throughs by {@link #updateEdges}, which passes should call after
+ * changing those.
+ *
+ * <p>
+ * The Cfg works on its own copy of the program. Passes can change
+ * instructions in place through a cursor, leave them out of a block,
+ * or add new ones to the end of the copy and put their positions in a block.
+ * {@link #linearize} then puts the blocks back together in some order,
+ * adding jumps where a block no longer falls through to the next one.
+ *
+ * <p>
+ * Everything here is linear in the size of the program, and labels
+ * are looked up in an array indexed by symbol id.
+ */
+public class Cfg {
+    private static final String LABEL_PREFIX = "$block_";
+
+    private final PackedIr ir;
+    private final PackedIr.Cursor cursor;
+    private final Symbols symbols;
+    private int blockCount;
+    private int exit;
+    private int[] labels;
+    private int[] fallthroughs;
+    private IntStack[] instructions;
+    private boolean[] removed;
+    private int[] blockOfLabel;
+
+    // Edges, as filled in by updateEdges
+    private int[] successors;
+    private int[] successorCounts;
+    private int[] predecessorStarts;
+    private int[] predecessors;
+
+    private Cfg(PackedIr ir) {
+        this.ir = ir;
+        this.cursor = ir.cursor();
+        this.symbols = ir.getSymbols();
+        this.labels = new int[16];
+        this.fallthroughs = new int[16];
+        this.instructions = new IntStack[16];
+        this.removed = new boolean[16];
+        this.blockOfLabel = new int[0];
+    }
+
+    /** Splits a copy of the program into basic blocks. */
+    public static Cfg build(PackedIr program) {
+        Cfg cfg = new Cfg(program.copy());
+        PackedIr.Cursor c = cfg.ir.cursor();
+        int current = cfg.addBlock();
+        boolean endedByJump = false;
+        while (c.next()) {
+            Opcode op = c.opcode();
+            if (op == Opcode.LABEL) {
+                current = cfg.startBlock(current);
+                cfg.setLabel(current, c.label());
+                endedByJump = false;
+            } else {
+                if (endedByJump) {
+                    current = cfg.startBlock(current);
+                }
+                cfg.instructions[current].push(c.position());
+                endedByJump = op.hasLabel();
+            }
+        }
+        cfg.exit = cfg.startBlock(current);
+        cfg.updateEdges();
+        return cfg;
+    }
+
+    /** Adds a block after the current one and lets the current one fall through to it. */
+    private int startBlock(int current) {
+        int block = addBlock();
+        if (!endsWithGoto(current)) {
+            fallthroughs[current] = block;
+        }
+        return block;
+    }
+
+    /** Adds an empty block with no label that falls through to nothing. */
+    public int addBlock() {
+        if (blockCount == labels.length) {
+            int newCapacity = blockCount * 2;
+            labels = Arrays.copyOf(labels, newCapacity);
+            fallthroughs = Arrays.copyOf(fallthroughs, newCapacity);
+            instructions = Arrays.copyOf(instructions, newCapacity);
+            removed = Arrays.copyOf(removed, newCapacity);
+        }
+        int block = blockCount++;
+        labels[block] = -1;
+        fallthroughs[block] = -1;
+        instructions[block] = new IntStack();
+        removed[block] = false;
+        return block;
+    }
+
+    /** The program the instruction positions refer to. */
+    public PackedIr getIr() {
+        return ir;
+    }
+
+    /** The number of blocks, including removed ones. */
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public int entry() {
+        return 0;
+    }
+
+    public int exit() {
+        return exit;
+    }
+
+    /** The label of the block, or -1 if it has none. */
+    public int label(int block) {
+        return labels[block];
+    }
+
+    /** Gives the block a label, or removes its label if given -1. */
+    public void setLabel(int block, int label) {
+        if (labels[block] != -1) {
+            blockOfLabel[labels[block]] = -1;
+        }
+        labels[block] = label;
+        if (label != -1) {
+            if (label >= blockOfLabel.length) {
+                int oldLength = blockOfLabel.length;
+                blockOfLabel = Arrays.copyOf(blockOfLabel, Math.max(label + 1, symbols.size()));
+                Arrays.fill(blockOfLabel, oldLength, blockOfLabel.length, -1);
+            }
+            blockOfLabel[label] = block;
+        }
+    }
+
+    /** Gives the block a new label unless it already has one, and returns its label. */
+    public int ensureLabel(int block) {
+        if (labels[block] == -1) {
+            // The id makes the name unique, and no source name starts with '$'
+            setLabel(block, symbols.generate(LABEL_PREFIX, symbols.size()));
+        }
+        return labels[block];
+    }
+
+    /** The block with the given label, or -1 if there's none. */
+    public int blockOfLabel(int label) {
+        return (label < blockOfLabel.length) ? blockOfLabel[label] : -1;
+    }
+
+    /** The positions of the block's instructions, in order. */
+    public IntStack instructions(int block) {
+        return instructions[block];
+    }
+
+    /**
+     * The block that control goes to when this one doesn't jump,
+     * or -1 if it always jumps or is the exit.
+     */
+    public int fallthrough(int block) {
+        return fallthroughs[block];
+    }
+
+    public void setFallthrough(int block, int target) {
+        fallthroughs[block] = target;
+    }
+
+    /** The position of the jump the block ends with, or -1 if it doesn't end with one. */
+    public int terminator(int block) {
+        IntStack positions = instructions[block];
+        if (positions.isEmpty()) {
+            return -1;
+        }
+        int last = positions.peek();
+        cursor.seek(last);
+        return cursor.opcode().hasLabel() ? last : -1;
+    }
+
+    private boolean endsWithGoto(int block) {
+        int terminator = terminator(block);
+        if (terminator == -1) {
+            return false;
+        }
+        cursor.seek(terminator);
+        return cursor.opcode() == Opcode.GOTO;
+    }
+
+    /** Leaves the block out of the program. Its edges go away at the next {@link #updateEdges}. */
+    public void remove(int block) {
+        if (block == 0 || block == exit) {
+            throw new IllegalArgumentException("Can't remove the entry or the exit");
+        }
+        removed[block] = true;
+        setLabel(block, -1);
+    }
+
+    public boolean isRemoved(int block) {
+        return removed[block];
+    }
+
+    /** Recomputes the edges from the jumps and fall-throughs of the blocks that aren't removed. */
+    public void updateEdges() {
+        successors = new int[2 * blockCount];
+        successorCounts = new int[blockCount];
+        predecessorStarts = new int[blockCount + 1];
+        PackedIr.Cursor c = ir.cursor();
+
+        for (int b = 0; b < blockCount; ++b) {
+            if (removed[b]) {
+                continue;
+            }
+            int terminator = terminator(b);
+            Opcode op = null;
+            if (terminator != -1) {
+                c.seek(terminator);
+                op = c.opcode();
+            }
+            if (op != Opcode.GOTO && fallthroughs[b] != -1) {
+                addSuccessor(b, fallthroughs[b]);
+            }
+            if (op != null) {
+                int target = blockOfLabel(c.label());
+                if (target == -1) {
+                    throw new CompilerError("Jump to an unknown label: " + symbols.name(c.label()));
+                }
+                if (successorCounts[b] == 0 || successors[2 * b] != target) {
+                    addSuccessor(b, target);
+                }
+            }
+        }
+
+        // Predecessors are grouped by block, each group ordered by block number
+        for (int b = 0; b < blockCount; ++b) {
+            for (int i = 0; i < successorCounts[b]; ++i) {
+                predecessorStarts[successors[2 * b + i] + 1]++;
+            }
+        }
+        for (int b = 0; b < blockCount; ++b) {
+            predecessorStarts[b + 1] += predecessorStarts[b];
+        }
+        predecessors = new int[predecessorStarts[blockCount]];
+        int[] filled = new int[blockCount];
+        for (int b = 0; b < blockCount; ++b) {
+            for (int i = 0; i < successorCounts[b]; ++i) {
+                int s = successors[2 * b + i];
+                predecessors[predecessorStarts[s] + filled[s]++] = b;
+            }
+        }
+    }
+
+    private void addSuccessor(int block, int successor) {
+        successors[2 * block + successorCounts[block]++] = successor;
+    }
+
+    /**
+     * The number of blocks control can go to from the block.
+     * If it has two, the first is its fall-through.
+     */
+    public int successorCount(int block) {
+        return successorCounts[block];
+    }
+
+    public int successor(int block, int i) {
+        return successors[2 * block + i];
+    }
+
+    public int predecessorCount(int block) {
+        return predecessorStarts[block + 1] - predecessorStarts[block];
+    }
+
+    public int predecessor(int block, int i) {
+        return predecessors[predecessorStarts[block] + i];
+    }
+
+    /** The index of the block among the successor's predecessors, or -1 if there's no edge. */
+    public int predecessorIndex(int successor, int block) {
+        for (int i = 0; i < predecessorCount(successor); ++i) {
+            if (predecessor(successor, i) == block) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The blocks reachable from the entry, each before its successors
+     * except along back edges.
+     */
+    public int[] reversePostOrder() {
+        int[] postOrder = new int[blockCount];
+        int count = 0;
+        boolean[] visited = new boolean[blockCount];
+        // A stack of blocks and how many of their successors have been visited
+        IntStack stack = new IntStack();
+        visited[0] = true;
+        stack.push(0);
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            int b = stack.peek();
+            if (i < successorCounts[b]) {
+                stack.push(i + 1);
+                int s = successors[2 * b + i];
+                if (!visited[s]) {
+                    visited[s] = true;
+                    stack.push(s);
+                    stack.push(0);
+                }
+            } else {
+                stack.pop();
+                postOrder[count++] = b;
+            }
+        }
+        int[] order = new int[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = postOrder[count - 1 - i];
+        }
+        return order;
+    }
+
+    /** The blocks that aren't removed, in order of their numbers but with the exit last. */
+    public int[] layout() {
+        int[] order = new int[blockCount];
+        int count = 0;
+        for (int b = 0; b < blockCount; ++b) {
+            if (!removed[b] && b != exit) {
+                order[count++] = b;
+            }
+        }
+        order[count++] = exit;
+        return Arrays.copyOf(order, count);
+    }
+
+    /** Puts the blocks back together in the order of {@link #layout}. */
+    public PackedIr linearize() {
+        return linearize(layout());
+    }
+
+    /**
+     * Puts the given blocks together in the given order into a new program.
+     * The order must start with the entry and end with the exit.
+     * A GOTO is added after each block whose fall-through doesn't come right after it,
+     * and blocks that are jumped to but have no label are given one.
+     */
+    public PackedIr linearize(int[] order) {
+        if (order.length == 0 || order[0] != 0 || order[order.length - 1] != exit) {
+            throw new IllegalArgumentException("The order must start with the entry and end with the exit");
+        }
+        // Label the blocks that need it before any of them is written
+        boolean[] needsJump = new boolean[order.length];
+        for (int i = 0; i < order.length - 1; ++i) {
+            int b = order[i];
+            int fallthrough = fallthroughs[b];
+            if (fallthrough != -1 && fallthrough != order[i + 1] && !endsWithGoto(b)) {
+                needsJump[i] = true;
+                ensureLabel(fallthrough);
+            }
+        }
+
+        PackedIr out = new PackedIr(symbols);
+        PackedIr.Cursor c = ir.cursor();
+        for (int i = 0; i < order.length; ++i) {
+            int b = order[i];
+            if (labels[b] != -1) {
+                out.label(labels[b]);
+            }
+            IntStack positions = instructions[b];
+            for (int j = 0; j < positions.size(); ++j) {
+                c.seek(positions.get(j));
+                out.append(c);
+            }
+            if (needsJump[i]) {
+                out.jump(labels[fallthroughs[b]]);
+            }
+        }
+        return out;
+    }
+}
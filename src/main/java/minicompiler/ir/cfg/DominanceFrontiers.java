@@ -0,0 +1,84 @@
+package minicompiler.ir.cfg;
+
+import java.util.Arrays;
+import minicompiler.misc.WorkCounter;
+
+/**
+ * For each block, the blocks where its dominance ends: those it doesn't strictly
+ * dominate but that have a predecessor it dominates.
+ *
+ * <p>
+ * Computed as in Cooper, Harvey and Kennedy: from each predecessor of a join point,
+ * walk up the dominator tree to the join point's immediate dominator.
+ *
+ * <p>
+ * The frontiers can add up to the square of the number of blocks, as with
+ * deeply nested loops, so each step of the walks is charged to a {@link WorkCounter}
+ * before the frontiers are stored.
+ */
+public class DominanceFrontiers {
+    private final int[] starts;
+    private final int[] frontiers;
+
+    private DominanceFrontiers(int[] starts, int[] frontiers) {
+        this.starts = starts;
+        this.frontiers = frontiers;
+    }
+
+    public static DominanceFrontiers compute(Cfg cfg, Dominators dominators) {
+        return compute(cfg, dominators, WorkCounter.NONE);
+    }
+
+    public static DominanceFrontiers compute(Cfg cfg, Dominators dominators, WorkCounter counter) {
+        int blockCount = cfg.blockCount();
+        // Count first, then fill in the same order
+        int[] starts = new int[blockCount + 1];
+        walk(cfg, dominators, starts, null, counter);
+        for (int b = 0; b < blockCount; ++b) {
+            starts[b + 1] += starts[b];
+        }
+        int[] frontiers = new int[starts[blockCount]];
+        walk(cfg, dominators, starts, frontiers, counter);
+        return new DominanceFrontiers(starts, frontiers);
+    }
+
+    /** Counts the frontier of each block into starts[block + 1], or fills in the frontiers if given. */
+    private static void walk(Cfg cfg, Dominators dominators, int[] starts, int[] frontiers, WorkCounter counter) {
+        int blockCount = cfg.blockCount();
+        int[] filled = new int[blockCount];
+        // A join point is added to a block's frontier once, since all walks to it are done together
+        int[] lastAdded = new int[blockCount];
+        Arrays.fill(lastAdded, -1);
+        for (int b : dominators.reversePostOrder()) {
+            if (cfg.predecessorCount(b) < 2) {
+                continue;
+            }
+            int steps = 0;
+            for (int i = 0; i < cfg.predecessorCount(b); ++i) {
+                int runner = cfg.predecessor(b, i);
+                if (!dominators.isReachable(runner)) {
+                    continue;
+                }
+                while (runner != dominators.idom(b) && lastAdded[runner] != b) {
+                    lastAdded[runner] = b;
+                    if (frontiers == null) {
+                        starts[runner + 1]++;
+                    } else {
+                        frontiers[starts[runner] + filled[runner]++] = b;
+                    }
+                    runner = dominators.idom(runner);
+                    steps++;
+                }
+            }
+            counter.charge(steps + cfg.predecessorCount(b));
+        }
+    }
+
+    public int count(int block) {
+        return starts[block + 1] - starts[block];
+    }
+
+    public int get(int block, int i) {
+        return frontiers[starts[block] + i];
+    }
+}
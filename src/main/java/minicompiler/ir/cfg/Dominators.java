@@ -0,0 +1,167 @@
+package minicompiler.ir.cfg;
+
+import java.util.Arrays;
+
+/**
+ * The dominator tree of a {@link Cfg}.
+ *
+ * <p>
+ * Computed with the iterative algorithm of Cooper, Harvey and Kennedy
+ * ("A Simple, Fast Dominance Algorithm"), which goes over the blocks
+ * in reverse post-order until nothing changes. The CFGs of structured
+ * programs need two rounds, so this is linear in practice.
+ *
+ * <p>
+ * The tree is then numbered in pre- and post-order, so {@link #dominates}
+ * takes constant time.
+ *
+ * <p>
+ * Blocks that can't be reached from the entry aren't in the tree.
+ */
+public class Dominators {
+    private final int[] reversePostOrder;
+    private final int[] rpoIndex;
+    private final int[] idom;
+    private final int[] childStarts;
+    private final int[] children;
+    private final int[] preorder;
+    private final int[] postorder;
+
+    private Dominators(int blockCount, int[] reversePostOrder) {
+        this.reversePostOrder = reversePostOrder;
+        this.rpoIndex = new int[blockCount];
+        this.idom = new int[blockCount];
+        this.childStarts = new int[blockCount + 1];
+        this.children = new int[Math.max(0, reversePostOrder.length - 1)];
+        this.preorder = new int[blockCount];
+        this.postorder = new int[blockCount];
+    }
+
+    public static Dominators compute(Cfg cfg) {
+        int blockCount = cfg.blockCount();
+        Dominators d = new Dominators(blockCount, cfg.reversePostOrder());
+        int[] rpo = d.reversePostOrder;
+        int[] idom = d.idom;
+        Arrays.fill(d.rpoIndex, -1);
+        Arrays.fill(idom, -1);
+        for (int i = 0; i < rpo.length; ++i) {
+            d.rpoIndex[rpo[i]] = i;
+        }
+
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.length; ++i) {
+                int b = rpo[i];
+                int newIdom = -1;
+                for (int j = 0; j < cfg.predecessorCount(b); ++j) {
+                    int p = cfg.predecessor(b, j);
+                    if (idom[p] != -1) {
+                        newIdom = (newIdom == -1) ? p : d.intersect(p, newIdom);
+                    }
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        idom[0] = -1;
+
+        d.buildTree();
+        return d;
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (rpoIndex[a] > rpoIndex[b]) {
+                a = idom[a];
+            }
+            while (rpoIndex[b] > rpoIndex[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private void buildTree() {
+        int blockCount = idom.length;
+        for (int b = 0; b < blockCount; ++b) {
+            if (idom[b] != -1) {
+                childStarts[idom[b] + 1]++;
+            }
+        }
+        for (int b = 0; b < blockCount; ++b) {
+            childStarts[b + 1] += childStarts[b];
+        }
+        int[] filled = new int[blockCount];
+        for (int b = 0; b < blockCount; ++b) {
+            if (idom[b] != -1) {
+                children[childStarts[idom[b]] + filled[idom[b]]++] = b;
+            }
+        }
+
+        if (reversePostOrder.length == 0) {
+            return;
+        }
+        // Number the tree without recursion. The stack holds blocks and how many children are done.
+        int[] stack = new int[2 * reversePostOrder.length];
+        int top = 0;
+        int pre = 0;
+        int post = 0;
+        stack[top++] = 0;
+        stack[top++] = 0;
+        preorder[0] = pre++;
+        while (top > 0) {
+            int i = stack[top - 1];
+            int b = stack[top - 2];
+            if (i < childCount(b)) {
+                stack[top - 1] = i + 1;
+                int child = child(b, i);
+                preorder[child] = pre++;
+                stack[top++] = child;
+                stack[top++] = 0;
+            } else {
+                postorder[b] = post++;
+                top -= 2;
+            }
+        }
+    }
+
+    /** The reachable blocks in the reverse post-order the tree was computed in. */
+    public int[] reversePostOrder() {
+        return reversePostOrder;
+    }
+
+    /** The block's position in {@link #reversePostOrder}, or -1 if it's unreachable. */
+    public int rpoIndex(int block) {
+        return rpoIndex[block];
+    }
+
+    public boolean isReachable(int block) {
+        return rpoIndex[block] != -1;
+    }
+
+    /** The immediate dominator of the block, or -1 for the entry and unreachable blocks. */
+    public int idom(int block) {
+        return idom[block];
+    }
+
+    /** The number of blocks whose immediate dominator is the block. */
+    public int childCount(int block) {
+        return childStarts[block + 1] - childStarts[block];
+    }
+
+    public int child(int block, int i) {
+        return children[childStarts[block] + i];
+    }
+
+    /** Whether every path from the entry to b goes through a. A block dominates itself. */
+    public boolean dominates(int a, int b) {
+        if (!isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+        return preorder[a] <= preorder[b] && postorder[b] <= postorder[a];
+    }
+}
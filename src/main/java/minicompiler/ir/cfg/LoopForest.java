@@ -0,0 +1,154 @@
+package minicompiler.ir.cfg;
+
+import java.util.Arrays;
+import minicompiler.misc.IntStack;
+
+/**
+ * The natural loops of a {@link Cfg} and how they nest.
+ *
+ * <p>
+ * A loop is identified by its header, the block that its back edges jump to.
+ * A back edge is an edge to a block that dominates its source.
+ * Loops with the same header are the same loop.
+ *
+ * <p>
+ * The loops are found innermost first, going through the headers in
+ * reverse post-order backwards. Each loop's body is found by walking
+ * backwards from its back edges, and is then merged into its header
+ * with union-find, so an enclosing loop walks over each inner loop
+ * as a single block. That makes the whole thing nearly linear.
+ *
+ * <p>
+ * Cycles that are entered other than through a dominating header
+ * (which {@link minicompiler.IrGenerator} never makes) are not loops here.
+ */
+public class LoopForest {
+    private final int[] loopOf;
+    private final int[] parents;
+    private final int[] depths;
+    private final boolean[] headers;
+
+    private LoopForest(int blockCount) {
+        this.loopOf = new int[blockCount];
+        this.parents = new int[blockCount];
+        this.depths = new int[blockCount];
+        this.headers = new boolean[blockCount];
+        Arrays.fill(loopOf, -1);
+        Arrays.fill(parents, -1);
+    }
+
+    public static LoopForest compute(Cfg cfg, Dominators dominators) {
+        int blockCount = cfg.blockCount();
+        LoopForest forest = new LoopForest(blockCount);
+        int[] rpo = dominators.reversePostOrder();
+
+        int[] representatives = new int[blockCount];
+        for (int b = 0; b < blockCount; ++b) {
+            representatives[b] = b;
+        }
+        int[] visitedFor = new int[blockCount];
+        Arrays.fill(visitedFor, -1);
+        IntStack worklist = new IntStack();
+        IntStack body = new IntStack();
+
+        for (int i = rpo.length - 1; i >= 0; --i) {
+            int header = rpo[i];
+            worklist.truncate(0);
+            body.truncate(0);
+            visitedFor[header] = header;
+            for (int j = 0; j < cfg.predecessorCount(header); ++j) {
+                int p = cfg.predecessor(header, j);
+                if (dominators.dominates(header, p)) {
+                    forest.headers[header] = true;
+                    int r = find(representatives, p);
+                    if (visitedFor[r] != header) {
+                        visitedFor[r] = header;
+                        worklist.push(r);
+                    }
+                }
+            }
+            if (!forest.headers[header]) {
+                continue;
+            }
+            forest.loopOf[header] = header;
+
+            while (!worklist.isEmpty()) {
+                int x = worklist.pop();
+                body.push(x);
+                for (int j = 0; j < cfg.predecessorCount(x); ++j) {
+                    int p = cfg.predecessor(x, j);
+                    if (!dominators.dominates(header, p)) {
+                        continue;
+                    }
+                    int r = find(representatives, p);
+                    if (visitedFor[r] != header) {
+                        visitedFor[r] = header;
+                        worklist.push(r);
+                    }
+                }
+            }
+
+            for (int j = 0; j < body.size(); ++j) {
+                int x = body.get(j);
+                if (forest.headers[x]) {
+                    forest.parents[x] = header;
+                } else {
+                    forest.loopOf[x] = header;
+                }
+                representatives[x] = header;
+            }
+        }
+
+        // Outer headers come first in reverse post-order
+        for (int b : rpo) {
+            if (forest.headers[b]) {
+                int parent = forest.parents[b];
+                forest.depths[b] = (parent == -1) ? 1 : forest.depths[parent] + 1;
+            }
+        }
+        return forest;
+    }
+
+    private static int find(int[] representatives, int block) {
+        int root = block;
+        while (representatives[root] != root) {
+            root = representatives[root];
+        }
+        while (representatives[block] != root) {
+            int next = representatives[block];
+            representatives[block] = root;
+            block = next;
+        }
+        return root;
+    }
+
+    /** Whether the block is the header of a loop. */
+    public boolean isHeader(int block) {
+        return headers[block];
+    }
+
+    /** The header of the innermost loop the block is in, or -1 if it's in none. */
+    public int loopOf(int block) {
+        return loopOf[block];
+    }
+
+    /** The header of the loop that immediately encloses the loop with the given header, or -1. */
+    public int parent(int header) {
+        return parents[header];
+    }
+
+    /** How many loops the block is in. */
+    public int depth(int block) {
+        return (loopOf[block] == -1) ? 0 : depths[loopOf[block]];
+    }
+
+    /** Whether the block is in the loop with the given header, possibly in a loop nested in it. */
+    public boolean contains(int header, int block) {
+        for (int h = loopOf[block]; h != -1; h = parents[h]) {
+            if (h == header) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
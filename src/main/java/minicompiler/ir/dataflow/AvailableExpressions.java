@@ -0,0 +1,166 @@
+package minicompiler.ir.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+
+/**
+ * Which operator expressions have been computed on every path to the start
+ * and end of each block, with none of their variables assigned since.
+ *
+ * <p>
+ * An expression is an operator and its operands, so 'a := x + 1' and
+ * 'b := x + 1' compute the same one. Constants are compared by value.
+ * Copies and calls aren't expressions. The expressions are numbered
+ * in the order they first appear, and the bits are those numbers.
+ */
+public class AvailableExpressions extends DataflowAnalysis {
+    private final int[] expressionAt;  // By code position, or -1
+    private final Expression[] expressions;
+
+    private AvailableExpressions(Cfg cfg, int[] expressionAt, Expression[] expressions) {
+        super(cfg, expressions.length, Direction.FORWARD, Meet.INTERSECTION);
+        this.expressionAt = expressionAt;
+        this.expressions = expressions;
+    }
+
+    public static AvailableExpressions compute(Cfg cfg) {
+        PackedIr ir = cfg.getIr();
+        PackedIr.Cursor c = ir.cursor();
+        int symbolCount = ir.getSymbols().size();
+
+        int[] expressionAt = new int[ir.codeSize()];
+        Arrays.fill(expressionAt, -1);
+        HashMap<Expression, Integer> numbers = new HashMap<Expression, Integer>();
+        ArrayList<Expression> expressions = new ArrayList<Expression>();
+        IntStack uses = new IntStack();  // Pairs of variable and expression
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                if (!isExpression(c.opcode())) {
+                    continue;
+                }
+                Expression e = new Expression(c.opcode(), operand(ir, c.arg(0)),
+                        c.argCount() > 1 ? operand(ir, c.arg(1)) : 0);
+                Integer number = numbers.get(e);
+                if (number == null) {
+                    number = expressions.size();
+                    numbers.put(e, number);
+                    expressions.add(e);
+                    for (int j = 0; j < c.argCount(); ++j) {
+                        if (!PackedIr.isConstant(c.arg(j))) {
+                            uses.push(c.arg(j));
+                            uses.push(number);
+                        }
+                    }
+                }
+                expressionAt[c.position()] = number;
+            }
+        }
+
+        // The expressions that use each variable
+        int[] usesStarts = new int[symbolCount + 1];
+        for (int i = 0; i < uses.size(); i += 2) {
+            usesStarts[uses.get(i) + 1]++;
+        }
+        for (int v = 0; v < symbolCount; ++v) {
+            usesStarts[v + 1] += usesStarts[v];
+        }
+        int[] usesOf = new int[uses.size() / 2];
+        int[] filled = new int[symbolCount];
+        for (int i = 0; i < uses.size(); i += 2) {
+            int v = uses.get(i);
+            usesOf[usesStarts[v] + filled[v]++] = uses.get(i + 1);
+        }
+
+        AvailableExpressions ae = new AvailableExpressions(cfg, expressionAt,
+                expressions.toArray(new Expression[expressions.size()]));
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                // The expression is computed before its target is assigned
+                if (expressionAt[c.position()] != -1) {
+                    ae.gen.set(b, expressionAt[c.position()]);
+                }
+                if (c.opcode().hasTarget()) {
+                    int v = c.target();
+                    for (int j = usesStarts[v]; j < usesStarts[v + 1]; ++j) {
+                        ae.gen.clear(b, usesOf[j]);
+                        ae.kill.set(b, usesOf[j]);
+                    }
+                }
+            }
+        }
+        ae.solve();
+        return ae;
+    }
+
+    private static boolean isExpression(Opcode op) {
+        return op.hasTarget() && op != Opcode.COPY && op != Opcode.CALL;
+    }
+
+    /** Variables as themselves and constants by value, so they can't be mixed up. */
+    private static long operand(PackedIr ir, int operand) {
+        return PackedIr.isConstant(operand) ? ((1L << 32) | (ir.constantValue(operand) & 0xFFFFFFFFL)) : operand;
+    }
+
+    public int expressionCount() {
+        return expressions.length;
+    }
+
+    /** The expression the instruction at the code position computes, or -1 if it isn't one. */
+    public int expressionAt(int position) {
+        return (position < expressionAt.length) ? expressionAt[position] : -1;
+    }
+
+    public Opcode operator(int expression) {
+        return expressions[expression].op;
+    }
+
+    public boolean isAvailableIn(int block, int expression) {
+        return in.get(block, expression);
+    }
+
+    public boolean isAvailableOut(int block, int expression) {
+        return out.get(block, expression);
+    }
+
+    private static class Expression {
+        final Opcode op;
+        final long left;
+        final long right;
+
+        Expression(Opcode op, long left, long right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Expression) {
+                Expression that = (Expression)obj;
+                return this.op == that.op && this.left == that.left && this.right == that.right;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return (op.ordinal() * 31 + (int)(left ^ (left >>> 32))) * 31 + (int)(right ^ (right >>> 32));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package minicompiler.ir.dataflow;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of bit sets of the same size, e.g. one per basic block,
+ * stored back to back in a single long array.
+ */
+public class BitMatrix {
+    private final long[] words;
+    private final int rows;
+    private final int bits;
+    private final int wordsPerRow;
+
+    public BitMatrix(int rows, int bits) {
+        this.rows = rows;
+        this.bits = bits;
+        this.wordsPerRow = (bits + 63) >>> 6;
+        if ((long)rows * wordsPerRow > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bits: " + rows + " rows of " + bits);
+        }
+        this.words = new long[rows * wordsPerRow];
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    /** The number of bits in each row. */
+    public int bits() {
+        return bits;
+    }
+
+    public boolean get(int row, int bit) {
+        return (words[row * wordsPerRow + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    public void set(int row, int bit) {
+        words[row * wordsPerRow + (bit >>> 6)] |= 1L << bit;
+    }
+
+    public void clear(int row, int bit) {
+        words[row * wordsPerRow + (bit >>> 6)] &= ~(1L << bit);
+    }
+
+    /** Sets all the bits of the row. */
+    public void fill(int row) {
+        int start = row * wordsPerRow;
+        Arrays.fill(words, start, start + wordsPerRow, -1L);
+        if ((bits & 63) != 0 && wordsPerRow > 0) {
+            words[start + wordsPerRow - 1] = (1L << bits) - 1;
+        }
+    }
+
+    public void clearRow(int row) {
+        int start = row * wordsPerRow;
+        Arrays.fill(words, start, start + wordsPerRow, 0L);
+    }
+
+    /** Makes a row of this matrix equal to a row of another with as many bits. */
+    public void copyRow(int row, BitMatrix from, int fromRow) {
+        System.arraycopy(from.words, fromRow * from.wordsPerRow, words, row * wordsPerRow, wordsPerRow);
+    }
+
+    /** Adds the bits of a row of another matrix to a row of this one. */
+    public void or(int row, BitMatrix from, int fromRow) {
+        int to = row * wordsPerRow;
+        int start = fromRow * from.wordsPerRow;
+        for (int i = 0; i < wordsPerRow; ++i) {
+            words[to + i] |= from.words[start + i];
+        }
+    }
+
+    /** Keeps only the bits that are also in a row of another matrix. */
+    public void and(int row, BitMatrix from, int fromRow) {
+        int to = row * wordsPerRow;
+        int start = fromRow * from.wordsPerRow;
+        for (int i = 0; i < wordsPerRow; ++i) {
+            words[to + i] &= from.words[start + i];
+        }
+    }
+
+    /** Removes the bits that are in a row of another matrix. */
+    public void andNot(int row, BitMatrix from, int fromRow) {
+        int to = row * wordsPerRow;
+        int start = fromRow * from.wordsPerRow;
+        for (int i = 0; i < wordsPerRow; ++i) {
+            words[to + i] &= ~from.words[start + i];
+        }
+    }
+
+    /**
+     * Sets a row to gen | (input & ~kill), where gen and kill are rows of
+     * one matrix and input is a row of another, and returns whether it changed.
+     */
+    boolean transfer(int row, BitMatrix input, int inputRow, BitMatrix gen, BitMatrix kill, int genKillRow) {
+        int to = row * wordsPerRow;
+        int from = inputRow * wordsPerRow;
+        int gk = genKillRow * wordsPerRow;
+        boolean changed = false;
+        for (int i = 0; i < wordsPerRow; ++i) {
+            long word = gen.words[gk + i] | (input.words[from + i] & ~kill.words[gk + i]);
+            if (word != words[to + i]) {
+                words[to + i] = word;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** The first set bit in the row at or after the given one, or -1 if there's none. */
+    public int nextSetBit(int row, int from) {
+        if (from >= bits) {
+            return -1;
+        }
+        int start = row * wordsPerRow;
+        int i = from >>> 6;
+        long word = words[start + i] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int bit = (i << 6) + Long.numberOfTrailingZeros(word);
+                return (bit < bits) ? bit : -1;
+            }
+            if (++i == wordsPerRow) {
+                return -1;
+            }
+            word = words[start + i];
+        }
+    }
+
+    /** The number of set bits in the row. */
+    public int count(int row) {
+        int start = row * wordsPerRow;
+        int count = 0;
+        for (int i = 0; i < wordsPerRow; ++i) {
+            count += Long.bitCount(words[start + i]);
+        }
+        return count;
+    }
+}
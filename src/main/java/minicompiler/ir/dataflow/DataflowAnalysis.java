@@ -0,0 +1,141 @@
+package minicompiler.ir.dataflow;
+
+import java.util.Arrays;
+import minicompiler.ir.cfg.Cfg;
+
+/**
+ * A bit-vector dataflow problem over the blocks of a {@link Cfg},
+ * solved with a worklist.
+ *
+ * <p>
+ * Subclasses fill in the GEN and KILL set of each block and call {@link #solve}.
+ * A forward analysis computes OUT = GEN | (IN & ~KILL) of each block,
+ * where IN is the meet of the OUTs of its predecessors.
+ * A backward analysis does the same with IN and OUT swapped and
+ * successors instead of predecessors.
+ *
+ * <p>
+ * The worklist starts out with all reachable blocks, and blocks are always
+ * taken from it in reverse post-order for forward analyses and in post-order
+ * for backward ones. So an acyclic CFG is done after one sweep, and each
+ * level of loop nesting adds about one more. A block is put back on the
+ * list only when the set it depends on changes.
+ *
+ * <p>
+ * Blocks that can't be reached from the entry are left alone. Their sets
+ * stay empty for a union and full for an intersection.
+ */
+public abstract class DataflowAnalysis {
+    public static enum Direction { FORWARD, BACKWARD }
+
+    /** How the sets coming in from several blocks are combined. */
+    public static enum Meet { UNION, INTERSECTION }
+
+    protected final Cfg cfg;
+    private final Direction direction;
+    private final Meet meet;
+
+    protected final BitMatrix gen;
+    protected final BitMatrix kill;
+    protected final BitMatrix in;
+    protected final BitMatrix out;
+
+    private int visits;
+
+    protected DataflowAnalysis(Cfg cfg, int bits, Direction direction, Meet meet) {
+        this.cfg = cfg;
+        this.direction = direction;
+        this.meet = meet;
+        int blockCount = cfg.blockCount();
+        this.gen = new BitMatrix(blockCount, bits);
+        this.kill = new BitMatrix(blockCount, bits);
+        this.in = new BitMatrix(blockCount, bits);
+        this.out = new BitMatrix(blockCount, bits);
+    }
+
+    /**
+     * Iterates until nothing changes.
+     * The boundary set (IN of the entry or OUT of the exit) starts out empty.
+     */
+    protected void solve() {
+        int blockCount = cfg.blockCount();
+        boolean forward = (direction == Direction.FORWARD);
+        BitMatrix before = forward ? in : out;  // What the meet computes
+        BitMatrix after = forward ? out : in;   // What the transfer function computes
+        int boundary = forward ? cfg.entry() : cfg.exit();
+
+        if (meet == Meet.INTERSECTION) {
+            for (int b = 0; b < blockCount; ++b) {
+                before.fill(b);
+                after.fill(b);
+            }
+        }
+
+        int[] rpo = cfg.reversePostOrder();
+        int[] order = new int[rpo.length];
+        int[] indexInOrder = new int[blockCount];
+        Arrays.fill(indexInOrder, -1);
+        for (int i = 0; i < rpo.length; ++i) {
+            order[i] = forward ? rpo[i] : rpo[rpo.length - 1 - i];
+            indexInOrder[order[i]] = i;
+        }
+
+        // The worklist is a flag per position in the order, so blocks are always
+        // taken in that order. Blocks put back on it through a back edge wait for the next sweep.
+        boolean[] queued = new boolean[order.length];
+        Arrays.fill(queued, true);
+        int queuedCount = order.length;
+        visits = 0;
+        while (queuedCount > 0) {
+            for (int i = 0; i < order.length; ++i) {
+                if (!queued[i]) {
+                    continue;
+                }
+                queued[i] = false;
+                queuedCount--;
+                visits++;
+                int b = order[i];
+
+                int neighbours = forward ? cfg.predecessorCount(b) : cfg.successorCount(b);
+                if (b == boundary) {
+                    // The entry has no predecessors and the exit no successors
+                    before.clearRow(b);
+                } else if (neighbours > 0) {
+                    int first = forward ? cfg.predecessor(b, 0) : cfg.successor(b, 0);
+                    before.copyRow(b, after, first);
+                    for (int j = 1; j < neighbours; ++j) {
+                        int n = forward ? cfg.predecessor(b, j) : cfg.successor(b, j);
+                        if (meet == Meet.UNION) {
+                            before.or(b, after, n);
+                        } else {
+                            before.and(b, after, n);
+                        }
+                    }
+                }
+
+                if (after.transfer(b, before, b, gen, kill, b)) {
+                    int dependents = forward ? cfg.successorCount(b) : cfg.predecessorCount(b);
+                    for (int j = 0; j < dependents; ++j) {
+                        int d = indexInOrder[forward ? cfg.successor(b, j) : cfg.predecessor(b, j)];
+                        if (d != -1 && !queued[d]) {
+                            queued[d] = true;
+                            queuedCount++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * How many times blocks were taken off the worklist by the last {@link #solve}.
+     * At least the number of reachable blocks.
+     */
+    public int visits() {
+        return visits;
+    }
+
+    public Cfg getCfg() {
+        return cfg;
+    }
+}
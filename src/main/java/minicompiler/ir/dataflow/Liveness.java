@@ -0,0 +1,93 @@
+package minicompiler.ir.dataflow;
+
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+
+/**
+ * Which variables may be read before they're next assigned, at the start
+ * and end of each block. The bits are variable ids in the program's symbol table.
+ *
+ * <p>
+ * The sets take a bit per variable for each block, which gets big for big programs.
+ * {@link #conservative} is the cheap alternative that takes every variable to be live.
+ */
+public class Liveness extends DataflowAnalysis {
+    private final boolean conservative;
+
+    private Liveness(Cfg cfg, boolean conservative) {
+        super(cfg, conservative ? 0 : cfg.getIr().getSymbols().size(), Direction.BACKWARD, Meet.UNION);
+        this.conservative = conservative;
+    }
+
+    /** About how many words of memory and work {@link #compute} needs for the CFG. */
+    public static long estimateCost(Cfg cfg) {
+        long words = (cfg.getIr().getSymbols().size() + 63) / 64;
+        // Four sets per block, and at least two sweeps over them
+        return 6 * words * cfg.blockCount();
+    }
+
+    public static Liveness compute(Cfg cfg) {
+        Liveness liveness = new Liveness(cfg, false);
+        PackedIr.Cursor c = cfg.getIr().cursor();
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            // GEN is what's read before being assigned, so go backwards
+            IntStack positions = cfg.instructions(b);
+            for (int i = positions.size() - 1; i >= 0; --i) {
+                c.seek(positions.get(i));
+                if (c.opcode().hasTarget()) {
+                    liveness.kill.set(b, c.target());
+                }
+                stepBackward(c, liveness.gen, b);
+            }
+        }
+        liveness.solve();
+        return liveness;
+    }
+
+    /** Liveness that takes every variable to be live everywhere, without computing anything. */
+    public static Liveness conservative(Cfg cfg) {
+        return new Liveness(cfg, true);
+    }
+
+    /** Whether this is {@link #conservative} rather than computed. */
+    public boolean isConservative() {
+        return conservative;
+    }
+
+    public boolean isLiveIn(int block, int variable) {
+        return conservative || in.get(block, variable);
+    }
+
+    public boolean isLiveOut(int block, int variable) {
+        return conservative || out.get(block, variable);
+    }
+
+    /** Copies the variables live at the end of the block into a row of a matrix as wide as the symbol table was. */
+    public void liveOut(int block, BitMatrix into, int row) {
+        if (conservative) {
+            into.fill(row);
+        } else {
+            into.copyRow(row, out, block);
+        }
+    }
+
+    /**
+     * Changes a row of variables that are live after the instruction at the cursor
+     * to those live before it.
+     */
+    public static void stepBackward(PackedIr.Cursor instruction, BitMatrix live, int row) {
+        if (instruction.opcode().hasTarget()) {
+            live.clear(row, instruction.target());
+        }
+        for (int i = 0; i < instruction.argCount(); ++i) {
+            int arg = instruction.arg(i);
+            if (!PackedIr.isConstant(arg)) {
+                live.set(row, arg);
+            }
+        }
+    }
+}
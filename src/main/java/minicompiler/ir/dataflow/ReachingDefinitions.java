@@ -0,0 +1,143 @@
+package minicompiler.ir.dataflow;
+
+import java.util.Arrays;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+
+/**
+ * Which assignments may reach the start and end of each block
+ * without the variable being assigned again on the way.
+ *
+ * <p>
+ * The instructions that assign to a variable are numbered in block order,
+ * and the bits are those numbers.
+ */
+public class ReachingDefinitions extends DataflowAnalysis {
+    private final int[] positions;
+    private final int[] variables;
+    private final int[] blocks;
+    private final int[] definitionAt;  // By code position, or -1
+    private final int[] definitionsOfStarts;  // By variable
+    private final int[] definitionsOf;
+
+    private ReachingDefinitions(Cfg cfg, int count) {
+        super(cfg, count, Direction.FORWARD, Meet.UNION);
+        int symbolCount = cfg.getIr().getSymbols().size();
+        this.positions = new int[count];
+        this.variables = new int[count];
+        this.blocks = new int[count];
+        this.definitionAt = new int[cfg.getIr().codeSize()];
+        this.definitionsOfStarts = new int[symbolCount + 1];
+        this.definitionsOf = new int[count];
+    }
+
+    public static ReachingDefinitions compute(Cfg cfg) {
+        PackedIr.Cursor c = cfg.getIr().cursor();
+        int count = 0;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                if (c.opcode().hasTarget()) {
+                    count++;
+                }
+            }
+        }
+
+        ReachingDefinitions rd = new ReachingDefinitions(cfg, count);
+        Arrays.fill(rd.definitionAt, -1);
+        int d = 0;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                if (c.opcode().hasTarget()) {
+                    rd.positions[d] = c.position();
+                    rd.variables[d] = c.target();
+                    rd.blocks[d] = b;
+                    rd.definitionAt[c.position()] = d;
+                    rd.definitionsOfStarts[c.target() + 1]++;
+                    d++;
+                }
+            }
+        }
+        for (int v = 0; v + 1 < rd.definitionsOfStarts.length; ++v) {
+            rd.definitionsOfStarts[v + 1] += rd.definitionsOfStarts[v];
+        }
+        int[] filled = new int[rd.definitionsOfStarts.length];
+        for (d = 0; d < count; ++d) {
+            int v = rd.variables[d];
+            rd.definitionsOf[rd.definitionsOfStarts[v] + filled[v]++] = d;
+        }
+
+        // A definition kills every definition of its variable, and only the last one in a block gets out of it
+        int[] killedIn = new int[rd.definitionsOfStarts.length];
+        int[] previous = new int[rd.definitionsOfStarts.length];
+        Arrays.fill(killedIn, -1);
+        for (d = 0; d < count; ++d) {
+            int b = rd.blocks[d];
+            int v = rd.variables[d];
+            if (killedIn[v] != b) {
+                killedIn[v] = b;
+                for (int i = 0; i < rd.definitionCountOf(v); ++i) {
+                    rd.kill.set(b, rd.definitionOf(v, i));
+                }
+            } else {
+                rd.gen.clear(b, previous[v]);
+            }
+            previous[v] = d;
+            rd.gen.set(b, d);
+        }
+        rd.solve();
+        return rd;
+    }
+
+    public int definitionCount() {
+        return positions.length;
+    }
+
+    /** The code position of the instruction that makes the definition. */
+    public int position(int definition) {
+        return positions[definition];
+    }
+
+    /** The variable the definition assigns to. */
+    public int variable(int definition) {
+        return variables[definition];
+    }
+
+    public int block(int definition) {
+        return blocks[definition];
+    }
+
+    /** The definition made by the instruction at the code position, or -1 if it doesn't assign. */
+    public int definitionAt(int position) {
+        return (position < definitionAt.length) ? definitionAt[position] : -1;
+    }
+
+    public int definitionCountOf(int variable) {
+        if (variable + 1 >= definitionsOfStarts.length) {
+            return 0;
+        }
+        return definitionsOfStarts[variable + 1] - definitionsOfStarts[variable];
+    }
+
+    public int definitionOf(int variable, int i) {
+        return definitionsOf[definitionsOfStarts[variable] + i];
+    }
+
+    public boolean reachesIn(int block, int definition) {
+        return in.get(block, definition);
+    }
+
+    public boolean reachesOut(int block, int definition) {
+        return out.get(block, definition);
+    }
+}
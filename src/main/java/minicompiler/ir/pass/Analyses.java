@@ -0,0 +1,57 @@
+package minicompiler.ir.pass;
+
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.cfg.Dominators;
+import minicompiler.ir.cfg.LoopForest;
+import minicompiler.ir.dataflow.Liveness;
+
+/**
+ * The analyses passes can get from a {@link PassContext}.
+ * Each charges the current pass for its work.
+ */
+public class Analyses {
+    public static final Analysis<Cfg> CFG = new Analysis<Cfg>("cfg") {
+        @Override
+        protected Cfg compute(PassContext context) {
+            context.charge(context.getIr().codeSize());
+            return Cfg.build(context.getIr());
+        }
+    };
+
+    public static final Analysis<Dominators> DOMINATORS = new Analysis<Dominators>("dominators") {
+        @Override
+        protected Dominators compute(PassContext context) {
+            Cfg cfg = context.get(CFG);
+            context.charge(2 * cfg.blockCount());
+            return Dominators.compute(cfg);
+        }
+    };
+
+    public static final Analysis<LoopForest> LOOPS = new Analysis<LoopForest>("loops") {
+        @Override
+        protected LoopForest compute(PassContext context) {
+            Cfg cfg = context.get(CFG);
+            Dominators dominators = context.get(DOMINATORS);
+            context.charge(cfg.blockCount());
+            return LoopForest.compute(cfg, dominators);
+        }
+    };
+
+    /** Falls back to {@link Liveness#conservative} if the bit sets would cost too much. */
+    public static final Analysis<Liveness> LIVENESS = new Analysis<Liveness>("liveness") {
+        @Override
+        protected Liveness compute(PassContext context) {
+            Cfg cfg = context.get(CFG);
+            long cost = Liveness.estimateCost(cfg);
+            if (!context.canAfford(cost)) {
+                context.note("liveness would cost about " + cost + " work units, assuming everything is live");
+                return Liveness.conservative(cfg);
+            }
+            context.charge(cost);
+            return Liveness.compute(cfg);
+        }
+    };
+
+    private Analyses() {
+    }
+}
@@ -0,0 +1,28 @@
+package minicompiler.ir.pass;
+
+/**
+ * Something computed from the program that passes can share,
+ * like its CFG. See {@link Analyses} for the ones there are.
+ *
+ * <p>
+ * Analyses are identified by their instances, so each should be a constant.
+ */
+public abstract class Analysis<T> {
+    private final String name;
+
+    protected Analysis(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Computes the analysis of the context's program. It may get other analyses from the context. */
+    protected abstract T compute(PassContext context);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
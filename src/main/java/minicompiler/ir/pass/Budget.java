@@ -0,0 +1,65 @@
+package minicompiler.ir.pass;
+
+/**
+ * How much each pass may spend, in proportion to the size of the program it gets.
+ *
+ * <p>
+ * Work is counted in units of about one instruction visited or one word of
+ * a bit set touched, as passes and analyses report it with {@link PassContext#charge}.
+ * Counting work rather than time makes the result the same on every machine,
+ * so a time limit is optional.
+ *
+ * <p>
+ * A pass that goes over its budget is abandoned and its changes thrown away.
+ * Analyses that would cost more than what's left fall back to cheaper,
+ * more conservative answers instead, e.g. {@link minicompiler.ir.dataflow.Liveness#conservative}.
+ * Either way it's reported in the pass's {@link PassStatistics}.
+ */
+public class Budget {
+    /** Enough for anything linear with a reasonable constant, and quadratic bits for small programs. */
+    public static final Budget DEFAULT = new Budget(1000, 1000000, 0, 0);
+
+    public static final Budget UNLIMITED = new Budget(0, Long.MAX_VALUE, 0, 0);
+
+    private final long workPerInstruction;
+    private final long fixedWork;
+    private final long nanosPerInstruction;
+    private final long fixedNanos;
+
+    /**
+     * A pass on a program of n instructions may do fixedWork + n * workPerInstruction units of work,
+     * and if nanosPerInstruction isn't 0, it may take fixedNanos + n * nanosPerInstruction nanoseconds.
+     */
+    public Budget(long workPerInstruction, long fixedWork, long nanosPerInstruction, long fixedNanos) {
+        this.workPerInstruction = workPerInstruction;
+        this.fixedWork = fixedWork;
+        this.nanosPerInstruction = nanosPerInstruction;
+        this.fixedNanos = fixedNanos;
+    }
+
+    /** The same work limit, and a time limit too. */
+    public Budget withTimeLimit(long nanosPerInstruction, long fixedNanos) {
+        return new Budget(workPerInstruction, fixedWork, nanosPerInstruction, fixedNanos);
+    }
+
+    public long workLimit(int instructions) {
+        return saturatingAdd(fixedWork, saturatingMultiply(workPerInstruction, instructions));
+    }
+
+    /** The time limit in nanoseconds, or Long.MAX_VALUE if there's none. */
+    public long timeLimit(int instructions) {
+        if (nanosPerInstruction == 0) {
+            return Long.MAX_VALUE;
+        }
+        return saturatingAdd(fixedNanos, saturatingMultiply(nanosPerInstruction, instructions));
+    }
+
+    private static long saturatingAdd(long a, long b) {
+        long sum = a + b;
+        return (sum < a) ? Long.MAX_VALUE : sum;
+    }
+
+    private static long saturatingMultiply(long a, long b) {
+        return (b != 0 && a > Long.MAX_VALUE / b) ? Long.MAX_VALUE : a * b;
+    }
+}
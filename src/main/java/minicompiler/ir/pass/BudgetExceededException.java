@@ -0,0 +1,10 @@
+package minicompiler.ir.pass;
+
+/**
+ * Thrown by {@link PassContext#charge} to abandon a pass that went over its {@link Budget}.
+ */
+public class BudgetExceededException extends RuntimeException {
+    public BudgetExceededException(String message) {
+        super(message);
+    }
+}
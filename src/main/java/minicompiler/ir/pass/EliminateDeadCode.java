@@ -0,0 +1,121 @@
+package minicompiler.ir.pass;
+
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.cfg.Dominators;
+import minicompiler.ir.dataflow.BitMatrix;
+import minicompiler.ir.dataflow.Liveness;
+import minicompiler.misc.IntStack;
+
+/**
+ * Removes assignments to registers that nothing reads before they're
+ * assigned again, such as temporaries whose values went unused and stores
+ * that are overwritten, and blocks that can't be reached, such as code
+ * after a GOTO before the next label.
+ *
+ * <p>
+ * Each block is walked backwards from the registers live at its end.
+ * Removing an assignment can make the ones it read from dead too, which
+ * the walk sees within a block. Across blocks, liveness is computed again
+ * until nothing more goes, as long as the budget allows.
+ *
+ * <p>
+ * Calls are never removed, since printInt and readInt do something besides
+ * returning a value. Neither are divisions that might trap.
+ * The labels that nothing jumps to anymore are left for {@link SimplifyCfg}.
+ */
+public class EliminateDeadCode implements Pass {
+    @Override
+    public String getName() {
+        return "eliminate-dead-code";
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        Cfg cfg = context.get(Analyses.CFG);
+        Dominators dominators = context.get(Analyses.DOMINATORS);
+        boolean changed = false;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (!dominators.isReachable(b) && !cfg.isRemoved(b) && b != cfg.exit()) {
+                cfg.remove(b);
+                changed = true;
+            }
+        }
+        if (changed) {
+            cfg.updateEdges();
+        }
+
+        Liveness liveness = context.get(Analyses.LIVENESS);
+        PackedIr code = cfg.getIr();
+        PackedIr.Cursor c = code.cursor();
+        BitMatrix live = new BitMatrix(1, code.getSymbols().size());
+        while (true) {
+            boolean removedAny = false;
+            for (int b = 0; b < cfg.blockCount(); ++b) {
+                if (!cfg.isRemoved(b)) {
+                    context.charge(cfg.instructions(b).size());
+                    liveness.liveOut(b, live, 0);
+                    removedAny |= removeDeadAssignments(code, cfg.instructions(b), c, live);
+                }
+            }
+            changed |= removedAny;
+            if (!removedAny || liveness.isConservative()) {
+                break;
+            }
+            long cost = Liveness.estimateCost(cfg);
+            if (!context.canAfford(cost)) {
+                context.note("stopped before computing liveness again for about " + cost + " work units");
+                break;
+            }
+            context.charge(cost);
+            liveness = Liveness.compute(cfg);
+        }
+
+        if (changed) {
+            context.setIr(cfg.linearize());
+        }
+        return changed;
+    }
+
+    /** Walks the block backwards from the given live registers and leaves out dead assignments. */
+    private static boolean removeDeadAssignments(PackedIr code, IntStack instructions, PackedIr.Cursor c, BitMatrix live) {
+        int kept = instructions.size();
+        for (int i = instructions.size() - 1; i >= 0; --i) {
+            int position = instructions.get(i);
+            c.seek(position);
+            if (c.opcode().hasTarget() && !live.get(0, c.target()) && canRemove(code, c)) {
+                continue;
+            }
+            Liveness.stepBackward(c, live, 0);
+            instructions.set(--kept, position);
+        }
+        if (kept == 0) {
+            return false;
+        }
+        // Move the kept positions down to the start
+        int count = instructions.size() - kept;
+        for (int i = 0; i < count; ++i) {
+            instructions.set(i, instructions.get(kept + i));
+        }
+        instructions.truncate(count);
+        return true;
+    }
+
+    /** Whether the instruction at the cursor does nothing but assign its target. */
+    private static boolean canRemove(PackedIr code, PackedIr.Cursor c) {
+        switch (c.opcode()) {
+            case CALL:
+                return false;
+            case DIV:
+            case MOD:
+                // idivl traps on a zero divisor, and on MIN_VALUE / -1
+                if (!PackedIr.isConstant(c.arg(1))) {
+                    return false;
+                }
+                int divisor = code.constantValue(c.arg(1));
+                return divisor != 0 && divisor != -1;
+            default:
+                return true;
+        }
+    }
+}
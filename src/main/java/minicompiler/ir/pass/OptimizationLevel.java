@@ -0,0 +1,29 @@
+package minicompiler.ir.pass;
+
+/**
+ * How hard the compiler tries to make the code faster.
+ * See {@link PassManager#forLevel} for the passes of each level.
+ */
+public enum OptimizationLevel {
+    /** No optimization. The IR goes to the backend as the front end made it. */
+    O0,
+    /** Simplifying the AST, and passes that take about linear time. */
+    O1,
+    /** Everything. */
+    O2;
+
+    /** The command line flag, like "-O1". */
+    public String flag() {
+        return "-" + name();
+    }
+
+    /** The level of a command line flag like "-O1", or null if it isn't one. */
+    public static OptimizationLevel fromFlag(String flag) {
+        for (OptimizationLevel level : values()) {
+            if (level.flag().equals(flag)) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package minicompiler.ir.pass;
+
+/**
+ * A transformation from IR to IR, run by a {@link PassManager}.
+ */
+public interface Pass {
+    /** A short name for reports, like "simplify-cfg". */
+    String getName();
+
+    /**
+     * Runs the pass on the context's program and returns whether it changed anything.
+     *
+     * <p>
+     * A pass replaces the program with {@link PassContext#setIr}. It may change the
+     * analyses it gets from the context, e.g. edit the {@link minicompiler.ir.cfg.Cfg}
+     * and linearize it, but then it must report a change so they are thrown away.
+     */
+    boolean run(PassContext context);
+}
@@ -0,0 +1,117 @@
+package minicompiler.ir.pass;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.WorkCounter;
+
+/**
+ * The program being optimized and the analyses computed of it so far.
+ *
+ * <p>
+ * Analyses are computed when a pass first asks for them and kept until
+ * a pass changes the program, so passes that change nothing don't
+ * make the next ones compute them again.
+ *
+ * <p>
+ * The context also keeps track of the current pass's {@link Budget}.
+ * Passes and analyses report their work with {@link #charge} and may ask
+ * whether something fits with {@link #canAfford} before doing it.
+ * Analyses that aren't part of this package are given the context as their
+ * {@link WorkCounter}, so they stop as soon as they go over.
+ */
+public class PassContext implements WorkCounter {
+    private PackedIr ir;
+    private final HashMap<Analysis<?>, Object> analyses = new HashMap<Analysis<?>, Object>();
+    private int analysesComputed = 0;
+
+    private long workLimit = Long.MAX_VALUE;
+    private long workDone = 0;
+    private long deadline = Long.MAX_VALUE;
+    private final ArrayList<String> notes = new ArrayList<String>();
+
+    public PassContext(PackedIr ir) {
+        this.ir = ir;
+    }
+
+    public PackedIr getIr() {
+        return ir;
+    }
+
+    /** Replaces the program. The analyses of the old one are thrown away after the pass. */
+    public void setIr(PackedIr ir) {
+        this.ir = ir;
+    }
+
+    /** Gets an analysis of the program, computing it unless it's already there. */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Analysis<T> analysis) {
+        Object result = analyses.get(analysis);
+        if (result == null) {
+            result = analysis.compute(this);
+            analyses.put(analysis, result);
+            analysesComputed++;
+        }
+        return (T)result;
+    }
+
+    public boolean isComputed(Analysis<?> analysis) {
+        return analyses.containsKey(analysis);
+    }
+
+    /** Throws away all analyses. */
+    public void invalidate() {
+        analyses.clear();
+    }
+
+    /** How many analyses have been computed so far. */
+    public int analysesComputed() {
+        return analysesComputed;
+    }
+
+    /** Starts counting the work of a pass against the budget for the current program. */
+    void startPass(Budget budget) {
+        int instructions = ir.instructionCount();
+        workLimit = budget.workLimit(instructions);
+        workDone = 0;
+        long timeLimit = budget.timeLimit(instructions);
+        deadline = (timeLimit == Long.MAX_VALUE) ? Long.MAX_VALUE : System.nanoTime() + timeLimit;
+        notes.clear();
+    }
+
+    /**
+     * Counts work done by the current pass.
+     * Throws {@link BudgetExceededException} if the pass is over its work or time limit.
+     */
+    @Override
+    public void charge(long work) {
+        workDone += work;
+        if (workDone > workLimit) {
+            throw new BudgetExceededException("over the budget of " + workLimit + " work units");
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+            throw new BudgetExceededException("out of time after " + workDone + " work units");
+        }
+    }
+
+    /** Whether the current pass can still do this much work. */
+    public boolean canAfford(long work) {
+        return work <= workLimit - workDone && (deadline == Long.MAX_VALUE || System.nanoTime() <= deadline);
+    }
+
+    /** The work the current pass has reported so far. */
+    public long workDone() {
+        return workDone;
+    }
+
+    /** Records that the current pass or an analysis settled for less to stay in budget. */
+    public void note(String note) {
+        notes.add(note);
+    }
+
+    /** The notes of the current pass. */
+    List<String> notes() {
+        return new ArrayList<String>(notes);
+    }
+}
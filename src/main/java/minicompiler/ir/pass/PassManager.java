@@ -0,0 +1,182 @@
+package minicompiler.ir.pass;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import minicompiler.ir.PackedIr;
+
+/**
+ * Runs a pipeline of {@link Pass}es over a program and records
+ * how long each took, how much it allocated and how it changed the program's size.
+ *
+ * <p>
+ * The passes share a {@link PassContext}, so an analysis is computed
+ * at most once between two passes that change the program.
+ *
+ * <p>
+ * Each pass gets the same {@link Budget} relative to the size of the program
+ * it's given. A pass that goes over it is skipped: the program stays as it
+ * was before the pass, and the next pass goes on from there.
+ */
+public class PassManager {
+    private final ArrayList<Pass> passes = new ArrayList<Pass>();
+    private final ArrayList<PassStatistics> statistics = new ArrayList<PassStatistics>();
+    private Budget budget = Budget.DEFAULT;
+    private final OptimizationLevel level;
+
+    /** An empty pipeline for a custom set of passes, at level O0 otherwise. */
+    public PassManager() {
+        this(OptimizationLevel.O0);
+    }
+
+    /** An empty pipeline. The level matters to the front end, see {@link #getLevel}. */
+    public PassManager(OptimizationLevel level) {
+        this.level = level;
+    }
+
+    /** The pipeline of the given level. */
+    public static PassManager forLevel(OptimizationLevel level) {
+        PassManager pm = new PassManager(level);
+        switch (level) {
+            case O0:
+                break;
+            case O1:
+                pm.add(new PropagateCopies());
+                pm.add(new SimplifyCfg());
+                break;
+            case O2:
+                pm.add(new PropagateConstants());
+                pm.add(new PropagateCopies());
+                pm.add(new EliminateDeadCode());
+                pm.add(new SimplifyCfg());
+                break;
+        }
+        return pm;
+    }
+
+    /** Adds a pass to the end of the pipeline. */
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * The optimization level. From O1 up, {@link minicompiler.Compiler} also
+     * simplifies the AST before generating the IR the passes get.
+     */
+    public OptimizationLevel getLevel() {
+        return level;
+    }
+
+    public List<Pass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    public PassManager setBudget(Budget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /** Runs the passes in order and returns the resulting program. */
+    public PackedIr run(PackedIr ir) {
+        PassContext context = new PassContext(ir);
+        for (Pass pass : passes) {
+            PackedIr before = context.getIr();
+            int instructionsBefore = before.instructionCount();
+            int analysesBefore = context.analysesComputed();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            context.startPass(budget);
+
+            boolean changed;
+            boolean skipped = false;
+            List<String> notes;
+            try {
+                changed = pass.run(context) || context.getIr() != before;
+                notes = context.notes();
+            } catch (BudgetExceededException e) {
+                // The pass may have changed the analyses it got, so they go too
+                context.setIr(before);
+                changed = false;
+                skipped = true;
+                notes = context.notes();
+                notes.add("skipped: " + e.getMessage());
+            }
+
+            long nanos = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            if (changed || skipped) {
+                context.invalidate();
+            }
+            statistics.add(new PassStatistics(
+                    pass.getName(),
+                    nanos,
+                    (allocatedBefore >= 0 && allocatedAfter >= 0) ? allocatedAfter - allocatedBefore : -1,
+                    instructionsBefore,
+                    context.getIr().instructionCount(),
+                    context.analysesComputed() - analysesBefore,
+                    changed,
+                    context.workDone(),
+                    skipped,
+                    notes));
+        }
+        return context.getIr();
+    }
+
+    /** The statistics of the passes run so far, in the order they ran. */
+    public List<PassStatistics> getStatistics() {
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /** A table of the statistics, one line per pass and its notes, and a total. */
+    public List<String> report() {
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add(String.format("%-20s %10s %12s %22s %8s %12s", "Pass", "Time (ms)", "Alloc (KB)", "Instructions", "Analyses", "Work"));
+        long nanos = 0;
+        long allocated = 0;
+        int analyses = 0;
+        long work = 0;
+        for (PassStatistics s : statistics) {
+            lines.add(s.toString());
+            for (String note : s.getNotes()) {
+                lines.add("    " + note);
+            }
+            nanos += s.getNanos();
+            allocated = (allocated >= 0 && s.getAllocatedBytes() >= 0) ? allocated + s.getAllocatedBytes() : -1;
+            analyses += s.getAnalysesComputed();
+            work += s.getWork();
+        }
+        lines.add(String.format("%-20s %10.3f %12s %22s %8d %12d",
+                "Total", nanos / 1e6, allocated >= 0 ? String.valueOf(allocated / 1024) : "?", "", analyses, work));
+        return lines;
+    }
+
+    /** What passes skipped or left undone to stay in budget, like "simplify-cfg: skipped: ...". */
+    public List<String> budgetDecisions() {
+        ArrayList<String> lines = new ArrayList<String>();
+        for (PassStatistics s : statistics) {
+            for (String note : s.getNotes()) {
+                lines.add(s.getPassName() + ": " + note);
+            }
+        }
+        return lines;
+    }
+
+    /** Bytes allocated by this thread so far, or -1 if the JVM doesn't count them. */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
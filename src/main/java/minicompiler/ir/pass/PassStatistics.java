@@ -0,0 +1,94 @@
+package minicompiler.ir.pass;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What running one pass took and did.
+ */
+public class PassStatistics {
+    private final String passName;
+    private final long nanos;
+    private final long allocatedBytes;
+    private final int instructionsBefore;
+    private final int instructionsAfter;
+    private final int analysesComputed;
+    private final boolean changed;
+    private final long work;
+    private final boolean skipped;
+    private final List<String> notes;
+
+    public PassStatistics(String passName, long nanos, long allocatedBytes,
+            int instructionsBefore, int instructionsAfter, int analysesComputed, boolean changed,
+            long work, boolean skipped, List<String> notes) {
+        this.passName = passName;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.instructionsBefore = instructionsBefore;
+        this.instructionsAfter = instructionsAfter;
+        this.analysesComputed = analysesComputed;
+        this.changed = changed;
+        this.work = work;
+        this.skipped = skipped;
+        this.notes = Collections.unmodifiableList(notes);
+    }
+
+    public String getPassName() {
+        return passName;
+    }
+
+    /** Wall time, including the analyses the pass computed. */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** Bytes allocated by the compiling thread, or -1 if the JVM can't tell. */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public int getInstructionsBefore() {
+        return instructionsBefore;
+    }
+
+    public int getInstructionsAfter() {
+        return instructionsAfter;
+    }
+
+    /** How many analyses the pass had to compute, as opposed to reusing them. */
+    public int getAnalysesComputed() {
+        return analysesComputed;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /** The work units the pass and its analyses reported, see {@link Budget}. */
+    public long getWork() {
+        return work;
+    }
+
+    /** Whether the pass went over its budget and was abandoned. */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /** Why the pass was skipped, or what it left undone to stay in budget. */
+    public List<String> getNotes() {
+        return notes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s %10.3f %12s %9d -> %-9d %8d %12d%s",
+                passName,
+                nanos / 1e6,
+                allocatedBytes >= 0 ? String.valueOf(allocatedBytes / 1024) : "?",
+                instructionsBefore,
+                instructionsAfter,
+                analysesComputed,
+                work,
+                skipped ? "  (skipped)" : changed ? "" : "  (unchanged)");
+    }
+}
@@ -0,0 +1,400 @@
+package minicompiler.ir.pass;
+
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.ssa.SsaForm;
+import minicompiler.misc.IntStack;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck).
+ *
+ * <p>
+ * Each SSA value starts out unknown and can only go down to a constant
+ * and from there to varying. Only blocks reached by an edge found executable
+ * so far are looked at, so a condition that turns out constant keeps the
+ * branch it doesn't take from making anything varying.
+ *
+ * <p>
+ * The pass solves on an SSA copy of the program, and then changes
+ * the program itself rather than going out of SSA: reads of a value found
+ * constant become the constant, jumps on a constant condition become
+ * GOTOs or go away, and blocks that were never reached are removed.
+ * Assignments whose values nothing reads anymore are left for dead code
+ * elimination, and the labels and jumps left over for {@link SimplifyCfg}.
+ *
+ * <p>
+ * Operators that would trap, like dividing by zero, aren't folded,
+ * so the program still traps where it did.
+ */
+public class PropagateConstants implements Pass {
+    private static final byte UNKNOWN = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte VARYING = 2;
+
+    @Override
+    public String getName() {
+        return "propagate-constants";
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        PackedIr ir = context.getIr();
+        context.charge(3 * ir.codeSize());
+        SsaForm ssa = SsaForm.build(Cfg.build(ir), context);
+        Solver solver = new Solver(ssa, context);
+        solver.solve();
+
+        // The SSA copy was built from the same program, so its blocks and positions are the same
+        Cfg cfg = context.get(Analyses.CFG);
+        PackedIr code = cfg.getIr();
+        PackedIr.Cursor c = code.cursor();
+        PackedIr.Cursor s = ssa.getCfg().getIr().cursor();
+        boolean changed = false;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b) || b == cfg.exit()) {
+                continue;
+            }
+            if (!solver.isExecutable(b)) {
+                cfg.remove(b);
+                changed = true;
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                s.seek(instructions.get(i));
+                for (int j = 0; j < c.argCount(); ++j) {
+                    int arg = s.arg(j);
+                    if (!PackedIr.isConstant(c.arg(j)) && solver.isConstant(arg)) {
+                        c.setArg(j, code.constant(solver.value(arg)));
+                        changed = true;
+                    }
+                }
+            }
+            changed |= foldBranch(cfg, b);
+        }
+        context.charge(code.codeSize());
+
+        if (changed) {
+            cfg.updateEdges();
+            context.setIr(cfg.linearize());
+        }
+        return changed;
+    }
+
+    /** Turns a jump on a constant into a GOTO or nothing. */
+    private static boolean foldBranch(Cfg cfg, int block) {
+        int terminator = cfg.terminator(block);
+        if (terminator == -1) {
+            return false;
+        }
+        PackedIr code = cfg.getIr();
+        PackedIr.Cursor c = code.cursor();
+        c.seek(terminator);
+        if (c.opcode() == Opcode.GOTO || !PackedIr.isConstant(c.arg(0))) {
+            return false;
+        }
+        boolean taken = (code.constantValue(c.arg(0)) != 0) == (c.opcode() == Opcode.GOTO_IF);
+        IntStack instructions = cfg.instructions(block);
+        instructions.pop();
+        if (taken) {
+            instructions.push(code.codeSize());
+            code.jump(c.label());
+        }
+        return true;
+    }
+
+    private static class Solver {
+        private final Cfg cfg;
+        private final SsaForm ssa;
+        private final PackedIr ir;
+        private final PackedIr.Cursor cursor;
+        private final PassContext context;
+
+        private final byte[] states;  // By register
+        private final int[] values;
+        private final boolean[] executable;  // By block
+        private final boolean[] jumpTaken;
+        private final boolean[] fallthroughTaken;
+        private final int[] jumpTargets;  // The block the block's terminator goes to, or -1
+        private final int[] blockAt;  // By instruction position
+
+        // The users of each register, grouped by register. Phis are stored as -1 - phi.
+        private final int[] userStarts;
+        private final int[] users;
+
+        private final IntStack blockWorklist = new IntStack();
+        private final IntStack registerWorklist = new IntStack();
+
+        // The result of the last evaluate()
+        private byte resultState;
+        private int resultValue;
+
+        public Solver(SsaForm ssa, PassContext context) {
+            this.ssa = ssa;
+            this.cfg = ssa.getCfg();
+            this.ir = cfg.getIr();
+            this.cursor = ir.cursor();
+            this.context = context;
+            int registerCount = ssa.registerCount();
+            int blockCount = cfg.blockCount();
+            this.states = new byte[registerCount];
+            this.values = new int[registerCount];
+            this.executable = new boolean[blockCount];
+            this.jumpTaken = new boolean[blockCount];
+            this.fallthroughTaken = new boolean[blockCount];
+            this.jumpTargets = new int[blockCount];
+            this.blockAt = new int[ir.codeSize()];
+
+            this.userStarts = new int[registerCount + 1];
+            findUsers(null);
+            for (int r = 0; r < registerCount; ++r) {
+                userStarts[r + 1] += userStarts[r];
+            }
+            this.users = new int[userStarts[registerCount]];
+            findUsers(new int[registerCount]);
+        }
+
+        /** Counts the users of each register if not given where to fill them in. */
+        private void findUsers(int[] filled) {
+            for (int b = 0; b < cfg.blockCount(); ++b) {
+                jumpTargets[b] = -1;
+                if (cfg.isRemoved(b)) {
+                    continue;
+                }
+                IntStack instructions = cfg.instructions(b);
+                for (int i = 0; i < instructions.size(); ++i) {
+                    int position = instructions.get(i);
+                    cursor.seek(position);
+                    blockAt[position] = b;
+                    for (int j = 0; j < cursor.argCount(); ++j) {
+                        addUser(cursor.arg(j), position, filled);
+                    }
+                }
+                for (int i = 0; i < ssa.phiCountOf(b); ++i) {
+                    int phi = ssa.phiOf(b, i);
+                    for (int j = 0; j < ssa.phiArgCount(phi); ++j) {
+                        addUser(ssa.phiArg(phi, j), -1 - phi, filled);
+                    }
+                }
+                int terminator = cfg.terminator(b);
+                if (terminator != -1) {
+                    cursor.seek(terminator);
+                    jumpTargets[b] = cfg.blockOfLabel(cursor.label());
+                }
+            }
+        }
+
+        private void addUser(int register, int user, int[] filled) {
+            if (PackedIr.isConstant(register)) {
+                return;
+            }
+            if (filled == null) {
+                userStarts[register + 1]++;
+            } else {
+                users[userStarts[register] + filled[register]++] = user;
+            }
+        }
+
+        public void solve() {
+            blockWorklist.push(cfg.entry());
+            while (!blockWorklist.isEmpty() || !registerWorklist.isEmpty()) {
+                while (!blockWorklist.isEmpty()) {
+                    visitBlock(blockWorklist.pop());
+                }
+                while (!registerWorklist.isEmpty()) {
+                    int register = registerWorklist.pop();
+                    for (int i = userStarts[register]; i < userStarts[register + 1]; ++i) {
+                        int user = users[i];
+                        if (user < 0) {
+                            int phi = -1 - user;
+                            if (executable[ssa.phiBlock(phi)]) {
+                                visitPhi(phi);
+                            }
+                        } else if (executable[blockAt[user]]) {
+                            visitInstruction(user);
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Visits the phis of a block when an edge to it is found executable, and the rest the first time. */
+        private void visitBlock(int block) {
+            for (int i = 0; i < ssa.phiCountOf(block); ++i) {
+                visitPhi(ssa.phiOf(block, i));
+            }
+            if (executable[block]) {
+                return;
+            }
+            executable[block] = true;
+            IntStack instructions = cfg.instructions(block);
+            for (int i = 0; i < instructions.size(); ++i) {
+                visitInstruction(instructions.get(i));
+            }
+            if (cfg.terminator(block) == -1) {
+                takeFallthrough(block);
+            }
+        }
+
+        private void visitPhi(int phi) {
+            if (ssa.isPhiRemoved(phi)) {
+                return;
+            }
+            context.charge(1);
+            int block = ssa.phiBlock(phi);
+            resultState = UNKNOWN;
+            for (int i = 0; i < ssa.phiArgCount(phi) && resultState != VARYING; ++i) {
+                int from = ssa.phiArgBlock(phi, i);
+                boolean edgeTaken = (fallthroughTaken[from] && cfg.fallthrough(from) == block)
+                        || (jumpTaken[from] && jumpTargets[from] == block);
+                if (edgeTaken) {
+                    meet(ssa.phiArg(phi, i));
+                }
+            }
+            lower(ssa.phiTarget(phi), resultState, resultValue);
+        }
+
+        private void meet(int operand) {
+            byte state = state(operand);
+            if (state == UNKNOWN || resultState == VARYING) {
+                return;
+            }
+            if (state == VARYING || (resultState == CONSTANT && value(operand) != resultValue)) {
+                resultState = VARYING;
+            } else {
+                resultState = CONSTANT;
+                resultValue = value(operand);
+            }
+        }
+
+        private void visitInstruction(int position) {
+            context.charge(1);
+            cursor.seek(position);
+            Opcode op = cursor.opcode();
+            int block = blockAt[position];
+            switch (op) {
+                case LABEL:
+                    return;
+                case GOTO:
+                    takeJump(block);
+                    return;
+                case GOTO_IF:
+                case GOTO_IF_NOT: {
+                    int condition = cursor.arg(0);
+                    byte state = state(condition);
+                    if (state == VARYING) {
+                        takeJump(block);
+                        takeFallthrough(block);
+                    } else if (state == CONSTANT) {
+                        if ((value(condition) != 0) == (op == Opcode.GOTO_IF)) {
+                            takeJump(block);
+                        } else {
+                            takeFallthrough(block);
+                        }
+                    }
+                    return;
+                }
+                default:
+                    evaluate(op);
+                    lower(cursor.target(), resultState, resultValue);
+            }
+        }
+
+        /** Evaluates the operator the cursor is at into resultState and resultValue. */
+        private void evaluate(Opcode op) {
+            if (op == Opcode.CALL) {
+                resultState = VARYING;
+                return;
+            }
+            resultState = CONSTANT;
+            for (int i = 0; i < cursor.argCount(); ++i) {
+                byte state = state(cursor.arg(i));
+                if (state == VARYING) {
+                    resultState = VARYING;
+                    return;
+                } else if (state == UNKNOWN) {
+                    resultState = UNKNOWN;
+                }
+            }
+            if (resultState == UNKNOWN) {
+                return;
+            }
+            int a = value(cursor.arg(0));
+            int b = (cursor.argCount() > 1) ? value(cursor.arg(1)) : 0;
+            switch (op) {
+                case COPY: resultValue = a; break;
+                case ADD: resultValue = a + b; break;
+                case SUB: resultValue = a - b; break;
+                case MUL: resultValue = a * b; break;
+                case DIV:
+                case MOD:
+                    if (b == 0 || (a == Integer.MIN_VALUE && b == -1)) {
+                        // idivl traps, and the program should too
+                        resultState = VARYING;
+                    } else {
+                        resultValue = (op == Opcode.DIV) ? a / b : a % b;
+                    }
+                    break;
+                case NEG: resultValue = -a; break;
+                case CMP_LT: resultValue = (a < b) ? 1 : 0; break;
+                case CMP_GT: resultValue = (a > b) ? 1 : 0; break;
+                case CMP_LE: resultValue = (a <= b) ? 1 : 0; break;
+                case CMP_GE: resultValue = (a >= b) ? 1 : 0; break;
+                case CMP_EQ: resultValue = (a == b) ? 1 : 0; break;
+                case CMP_NE: resultValue = (a != b) ? 1 : 0; break;
+                case NOT: resultValue = a ^ 1; break;
+                default:
+                    throw new IllegalStateException("Not an operator: " + op);
+            }
+        }
+
+        /** Moves the register down to the given state, or to varying if it was another constant. */
+        private void lower(int register, byte state, int value) {
+            if (state == UNKNOWN || states[register] == VARYING) {
+                return;
+            }
+            if (states[register] == CONSTANT) {
+                if (state == CONSTANT && value == values[register]) {
+                    return;
+                }
+                state = VARYING;
+            }
+            states[register] = state;
+            values[register] = value;
+            registerWorklist.push(register);
+        }
+
+        private void takeJump(int block) {
+            if (!jumpTaken[block]) {
+                jumpTaken[block] = true;
+                blockWorklist.push(jumpTargets[block]);
+            }
+        }
+
+        private void takeFallthrough(int block) {
+            if (!fallthroughTaken[block] && cfg.fallthrough(block) != -1) {
+                fallthroughTaken[block] = true;
+                blockWorklist.push(cfg.fallthrough(block));
+            }
+        }
+
+        private byte state(int operand) {
+            return PackedIr.isConstant(operand) ? CONSTANT : states[operand];
+        }
+
+        public boolean isExecutable(int block) {
+            return executable[block];
+        }
+
+        /** Whether the operand is a register found to always have the same value. */
+        public boolean isConstant(int operand) {
+            return !PackedIr.isConstant(operand) && states[operand] == CONSTANT;
+        }
+
+        public int value(int operand) {
+            return PackedIr.isConstant(operand) ? ir.constantValue(operand) : values[operand];
+        }
+    }
+}
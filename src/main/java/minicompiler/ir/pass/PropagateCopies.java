@@ -0,0 +1,207 @@
+package minicompiler.ir.pass;
+
+import java.util.Arrays;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+
+/**
+ * Writes results straight into the variables they're copied to,
+ * and replaces reads of a copy with reads of what it was copied from.
+ *
+ * <p>
+ * The IR generator puts the result of every call and operator into a
+ * temporary of its own, so 'n := n + 1' becomes '$resultOf_+_1 := +(n, 1)'
+ * followed by 'n := $resultOf_+_1'. When the copy is the only read of the
+ * temporary anywhere, and nothing in between touches the variable,
+ * the operator is made to assign the variable and the copy goes away.
+ *
+ * <p>
+ * Then, within each block, a read of a register that was last assigned
+ * by a copy reads the copy's source instead, as long as the source hasn't
+ * been assigned since. The copies this leaves unread are removed by
+ * {@link EliminateDeadCode}.
+ *
+ * <p>
+ * Both work one block at a time and take linear time.
+ */
+public class PropagateCopies implements Pass {
+    @Override
+    public String getName() {
+        return "propagate-copies";
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        Cfg cfg = context.get(Analyses.CFG);
+        PackedIr code = cfg.getIr();
+        context.charge(2 * code.codeSize());
+        int registerCount = code.getSymbols().size();
+        int[] reads = countReads(cfg, registerCount);
+
+        Coalescer coalescer = new Coalescer(code, registerCount);
+        Propagator propagator = new Propagator(code, registerCount);
+        boolean changed = false;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (!cfg.isRemoved(b)) {
+                changed |= coalescer.run(b, cfg.instructions(b), reads);
+                changed |= propagator.run(b, cfg.instructions(b));
+            }
+        }
+
+        if (changed) {
+            context.setIr(cfg.linearize());
+        }
+        return changed;
+    }
+
+    private static int[] countReads(Cfg cfg, int registerCount) {
+        int[] reads = new int[registerCount];
+        PackedIr.Cursor c = cfg.getIr().cursor();
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                for (int j = 0; j < c.argCount(); ++j) {
+                    if (!PackedIr.isConstant(c.arg(j))) {
+                        reads[c.arg(j)]++;
+                    }
+                }
+            }
+        }
+        return reads;
+    }
+
+    /** Turns 't := op(...); x := t' into 'x := op(...)'. */
+    private static class Coalescer {
+        private final PackedIr.Cursor c;
+        private final PackedIr.Cursor definition;
+        // Indexes into the current block, valid where the stamp is the current block
+        private final int[] stamps;
+        private final int[] lastDefinitions;
+        private final int[] lastTouches;
+
+        public Coalescer(PackedIr code, int registerCount) {
+            this.c = code.cursor();
+            this.definition = code.cursor();
+            this.stamps = new int[registerCount];
+            this.lastDefinitions = new int[registerCount];
+            this.lastTouches = new int[registerCount];
+            Arrays.fill(stamps, -1);
+        }
+
+        public boolean run(int block, IntStack instructions, int[] reads) {
+            int kept = 0;
+            for (int i = 0; i < instructions.size(); ++i) {
+                int position = instructions.get(i);
+                c.seek(position);
+                if (c.opcode() == Opcode.COPY && canCoalesce(block, c.target(), c.arg(0), reads)) {
+                    int variable = c.target();
+                    int temporary = c.arg(0);
+                    int d = lastDefinitions[temporary];
+                    definition.seek(instructions.get(d));
+                    definition.setTarget(variable);
+                    lastDefinitions[temporary] = -1;
+                    touch(block, variable, kept);
+                    lastDefinitions[variable] = d;
+                    continue;
+                }
+                for (int j = 0; j < c.argCount(); ++j) {
+                    if (!PackedIr.isConstant(c.arg(j))) {
+                        touch(block, c.arg(j), kept);
+                    }
+                }
+                if (c.opcode().hasTarget()) {
+                    touch(block, c.target(), kept);
+                    lastDefinitions[c.target()] = kept;
+                }
+                instructions.set(kept++, position);
+            }
+            boolean changed = kept < instructions.size();
+            instructions.truncate(kept);
+            return changed;
+        }
+
+        /**
+         * Whether the copy is the only read of a temporary assigned earlier in the block,
+         * and the variable isn't read or assigned after that, except by the assignment itself.
+         */
+        private boolean canCoalesce(int block, int variable, int temporary, int[] reads) {
+            if (PackedIr.isConstant(temporary) || temporary == variable || reads[temporary] != 1) {
+                return false;
+            }
+            if (stamps[temporary] != block || lastDefinitions[temporary] == -1) {
+                return false;
+            }
+            return stamps[variable] != block || lastTouches[variable] <= lastDefinitions[temporary];
+        }
+
+        private void touch(int block, int register, int index) {
+            if (stamps[register] != block) {
+                stamps[register] = block;
+                lastDefinitions[register] = -1;
+            }
+            lastTouches[register] = index;
+        }
+    }
+
+    /** Replaces reads of registers last assigned by a copy with the copy's source. */
+    private static class Propagator {
+        private final PackedIr.Cursor c;
+        private final int[] stamps;  // The block where the register was copied to, or -1
+        private final int[] sources;
+        private final int[] sourceWrites;  // The writes of the source when it was copied
+        private final int[] writes;  // How many times each register has been assigned
+
+        public Propagator(PackedIr code, int registerCount) {
+            this.c = code.cursor();
+            this.stamps = new int[registerCount];
+            this.sources = new int[registerCount];
+            this.sourceWrites = new int[registerCount];
+            this.writes = new int[registerCount];
+            Arrays.fill(stamps, -1);
+        }
+
+        public boolean run(int block, IntStack instructions) {
+            boolean changed = false;
+            int kept = 0;
+            for (int i = 0; i < instructions.size(); ++i) {
+                int position = instructions.get(i);
+                c.seek(position);
+                for (int j = 0; j < c.argCount(); ++j) {
+                    int arg = c.arg(j);
+                    if (!PackedIr.isConstant(arg) && stamps[arg] == block) {
+                        int source = sources[arg];
+                        if (PackedIr.isConstant(source) || writes[source] == sourceWrites[arg]) {
+                            c.setArg(j, source);
+                            changed = true;
+                        }
+                    }
+                }
+                if (c.opcode() == Opcode.COPY && c.arg(0) == c.target()) {
+                    // Copies back to where the value came from, like 'y := x' after 'x := y'
+                    changed = true;
+                    continue;
+                }
+                instructions.set(kept++, position);
+                if (c.opcode().hasTarget()) {
+                    int target = c.target();
+                    writes[target]++;
+                    stamps[target] = -1;
+                    if (c.opcode() == Opcode.COPY) {
+                        int source = c.arg(0);
+                        stamps[target] = block;
+                        sources[target] = source;
+                        sourceWrites[target] = PackedIr.isConstant(source) ? 0 : writes[source];
+                    }
+                }
+            }
+            instructions.truncate(kept);
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package minicompiler.ir.pass;
+
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.cfg.Dominators;
+import minicompiler.misc.IntStack;
+
+/**
+ * Removes blocks that can't be reached, GOTOs to the very next block,
+ * conditional jumps to where the block would fall through anyway,
+ * and labels that nothing jumps to.
+ *
+ * <p>
+ * The IR generator leaves plenty of these, e.g. the label after an
+ * if statement without an else branch, and other passes make more
+ * by proving conditions constant.
+ */
+public class SimplifyCfg implements Pass {
+    @Override
+    public String getName() {
+        return "simplify-cfg";
+    }
+
+    @Override
+    public boolean run(PassContext context) {
+        Cfg cfg = context.get(Analyses.CFG);
+        Dominators dominators = context.get(Analyses.DOMINATORS);
+        PackedIr code = cfg.getIr();
+        PackedIr.Cursor c = code.cursor();
+        boolean changed = false;
+        context.charge(cfg.blockCount());
+
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (!dominators.isReachable(b) && !cfg.isRemoved(b) && b != cfg.exit()) {
+                cfg.remove(b);
+                changed = true;
+            }
+        }
+
+        int[] order = cfg.layout();
+        for (int i = 0; i + 1 < order.length; ++i) {
+            int b = order[i];
+            int terminator = cfg.terminator(b);
+            if (terminator == -1) {
+                continue;
+            }
+            c.seek(terminator);
+            int target = cfg.blockOfLabel(c.label());
+            if (c.opcode() == Opcode.GOTO && target == order[i + 1]) {
+                cfg.instructions(b).pop();
+                cfg.setFallthrough(b, target);
+                changed = true;
+            } else if (c.opcode() != Opcode.GOTO && target == cfg.fallthrough(b)) {
+                // Goes to the same block either way
+                cfg.instructions(b).pop();
+                changed = true;
+            }
+        }
+
+        boolean[] jumpedTo = new boolean[cfg.blockCount()];
+        for (int b : order) {
+            int terminator = cfg.terminator(b);
+            if (terminator != -1) {
+                c.seek(terminator);
+                jumpedTo[cfg.blockOfLabel(c.label())] = true;
+            }
+        }
+        for (int b : order) {
+            if (cfg.label(b) != -1 && !jumpedTo[b]) {
+                cfg.setLabel(b, -1);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            context.setIr(cfg.linearize(order));
+        }
+        return changed;
+    }
+}
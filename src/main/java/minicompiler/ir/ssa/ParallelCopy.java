@@ -0,0 +1,110 @@
+package minicompiler.ir.ssa;
+
+import java.util.Arrays;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.IntStack;
+
+/**
+ * Turns a parallel copy, which reads all of its sources before writing any of
+ * its targets, into ordinary copies one after another.
+ *
+ * <p>
+ * This is Algorithm 1 of Boissinot et al., "Revisiting Out-of-SSA Translation
+ * for Correctness, Code Quality, and Efficiency". A target is written as soon as
+ * its old value is no longer needed. What's left after that are cycles like
+ * 'a, b := b, a', and each of those is broken by saving one value in a temporary.
+ * The number of copies is the number of targets plus one per cycle.
+ *
+ * <p>
+ * The arrays are indexed by register and kept between calls,
+ * so one instance should be reused for a whole program.
+ */
+public class ParallelCopy {
+    private int[] locations = new int[0];     // Where the old value of a register is now, or -1
+    private int[] predecessors = new int[0];  // The source of a target, or -1
+    private final IntStack ready = new IntStack();
+    private final IntStack todo = new IntStack();
+
+    /**
+     * Appends copies to the program that do what the parallel copy does,
+     * and pushes their positions. The targets must be distinct registers.
+     * The sources may be registers or constants of the same program.
+     * The temporary is used to break cycles.
+     */
+    public void sequentialize(int[] targets, int[] sources, int count, int temporary, PackedIr out, IntStack positions) {
+        int maxRegister = temporary;
+        for (int i = 0; i < count; ++i) {
+            maxRegister = Math.max(maxRegister, Math.max(targets[i], sources[i]));
+        }
+        if (maxRegister >= locations.length) {
+            int oldLength = locations.length;
+            locations = Arrays.copyOf(locations, Math.max(maxRegister + 1, oldLength * 2));
+            predecessors = Arrays.copyOf(predecessors, locations.length);
+            Arrays.fill(locations, oldLength, locations.length, -1);
+            Arrays.fill(predecessors, oldLength, predecessors.length, -1);
+        }
+
+        for (int i = 0; i < count; ++i) {
+            if (isRegisterCopy(targets[i], sources[i])) {
+                locations[sources[i]] = sources[i];
+                predecessors[targets[i]] = sources[i];
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            int a = targets[i];
+            if (isRegisterCopy(a, sources[i])) {
+                todo.push(a);
+                if (locations[a] == -1) {
+                    // Nothing reads the old value
+                    ready.push(a);
+                }
+            }
+        }
+
+        while (!todo.isEmpty()) {
+            while (!ready.isEmpty()) {
+                int b = ready.pop();
+                int a = predecessors[b];
+                int c = locations[a];
+                emit(out, positions, b, c);
+                locations[a] = b;
+                if (a == c && predecessors[a] != -1) {
+                    // a's old value is safe in b, so a can be written now
+                    ready.push(a);
+                }
+            }
+            int b = todo.pop();
+            if (locations[b] == b) {
+                // b hasn't been written and its old value is still needed, so it's in a cycle
+                emit(out, positions, temporary, b);
+                locations[b] = temporary;
+                ready.push(b);
+            }
+        }
+
+        // Constants can't be overwritten, so they go last
+        for (int i = 0; i < count; ++i) {
+            if (PackedIr.isConstant(sources[i])) {
+                emit(out, positions, targets[i], sources[i]);
+            }
+        }
+
+        for (int i = 0; i < count; ++i) {
+            predecessors[targets[i]] = -1;
+            locations[targets[i]] = -1;
+            if (!PackedIr.isConstant(sources[i])) {
+                locations[sources[i]] = -1;
+            }
+        }
+        locations[temporary] = -1;
+    }
+
+    private static boolean isRegisterCopy(int target, int source) {
+        return !PackedIr.isConstant(source) && source != target;
+    }
+
+    private static void emit(PackedIr out, IntStack positions, int target, int source) {
+        positions.push(out.codeSize());
+        out.copy(target, source);
+    }
+}
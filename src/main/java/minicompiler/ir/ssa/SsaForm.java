@@ -0,0 +1,573 @@
+package minicompiler.ir.ssa;
+
+import java.util.Arrays;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.cfg.DominanceFrontiers;
+import minicompiler.ir.cfg.Dominators;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+import minicompiler.misc.WorkCounter;
+
+/**
+ * A {@link Cfg} in static single assignment form: every register is assigned
+ * by exactly one instruction or phi.
+ *
+ * <p>
+ * {@link #build} renames the instructions of the CFG in place, so that
+ * each assignment to 'x' gets its own version like 'x.1', 'x.2', ...
+ * Where different versions meet, a phi picks the one from the predecessor
+ * control came from. Phis are kept here rather than in the code, as a
+ * target and one argument per predecessor block.
+ *
+ * <p>
+ * Phis are placed with dominance frontiers as in Cytron et al., but only for
+ * variables that are read in some block before being assigned in it
+ * (Briggs' semi-pruned form), which leaves out nearly all temporaries.
+ * Renaming walks the dominator tree. A variable read where it has no value yet
+ * reads 0; the type checker doesn't let that happen in source programs.
+ *
+ * <p>
+ * There can be a phi for every variable in every block, so building
+ * charges a {@link WorkCounter} for each phi and frontier step before
+ * taking it, and for each instruction and phi argument as it renames them.
+ *
+ * <p>
+ * Versions are registers numbered from where the symbol table ended,
+ * but they aren't put into it: {@link #name} gives their names.
+ * {@link #destruct} enters only the versions still used into the table,
+ * so nothing may be added to it while the program is in SSA form.
+ *
+ * <p>
+ * {@link #destruct} turns phis back into copies at the ends of the predecessors.
+ * Edges from blocks with several successors are split so the copies run only
+ * on that edge, and each predecessor's copies are made as one parallel copy,
+ * so passes may move and merge SSA values freely before that.
+ */
+public class SsaForm {
+    private static final String SWAP_PREFIX = "$swap_";
+
+    private final Cfg cfg;
+    private final PackedIr ir;
+    private final Symbols symbols;
+    private final Dominators dominators;
+
+    private IntStack[] phisOf;  // By block, or null if the block has none
+    private int phiCount = 0;
+    private int[] phiBlocks = new int[16];
+    private int[] phiTargets = new int[16];
+    private int[] phiVariables = new int[16];
+    private int[] phiArgStarts = new int[16];
+    private boolean[] phiRemoved = new boolean[16];
+    private final IntStack phiArgs = new IntStack();  // Pairs of predecessor and operand
+
+    // The variable and number of each version, from register versionBase on
+    private final int versionBase;
+    private final IntStack versionVariables = new IntStack();
+    private final IntStack versionNumbers = new IntStack();
+
+    private int zero = 0;
+
+    private final WorkCounter counter;
+
+    private SsaForm(Cfg cfg, Dominators dominators, WorkCounter counter) {
+        this.cfg = cfg;
+        this.ir = cfg.getIr();
+        this.symbols = ir.getSymbols();
+        this.dominators = dominators;
+        this.counter = counter;
+        this.phisOf = new IntStack[cfg.blockCount()];
+        this.versionBase = symbols.size();
+    }
+
+    /**
+     * Puts the CFG into SSA form. Blocks that can't be reached are removed first.
+     * The CFG can't be linearized as it is after this, only through {@link #destruct}.
+     */
+    public static SsaForm build(Cfg cfg) {
+        return build(cfg, WorkCounter.NONE);
+    }
+
+    /** Builds the SSA form, charging the counter as it goes so that it can stop it partway. */
+    public static SsaForm build(Cfg cfg, WorkCounter counter) {
+        removeUnreachableBlocks(cfg, counter);
+        counter.charge(2 * cfg.blockCount());
+        Dominators dominators = Dominators.compute(cfg);
+        SsaForm ssa = new SsaForm(cfg, dominators, counter);
+        ssa.placePhis(DominanceFrontiers.compute(cfg, dominators, counter));
+        ssa.rename();
+        return ssa;
+    }
+
+    private static void removeUnreachableBlocks(Cfg cfg, WorkCounter counter) {
+        counter.charge(2 * cfg.blockCount());
+        Dominators dominators = Dominators.compute(cfg);
+        boolean removedAny = false;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (!dominators.isReachable(b) && !cfg.isRemoved(b) && b != cfg.exit()) {
+                cfg.remove(b);
+                removedAny = true;
+            }
+        }
+        if (removedAny) {
+            cfg.updateEdges();
+        }
+    }
+
+    private void placePhis(DominanceFrontiers frontiers) {
+        int symbolCount = symbols.size();
+        PackedIr.Cursor c = ir.cursor();
+
+        // Find the variables that live across blocks and the blocks that assign each variable
+        boolean[] global = new boolean[symbolCount];
+        int[] assignedIn = new int[symbolCount];
+        Arrays.fill(assignedIn, -1);
+        IntStack definitions = new IntStack();  // Pairs of variable and block
+        for (int b : dominators.reversePostOrder()) {
+            IntStack instructions = cfg.instructions(b);
+            counter.charge(instructions.size());
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                for (int j = 0; j < c.argCount(); ++j) {
+                    int arg = c.arg(j);
+                    if (!PackedIr.isConstant(arg) && assignedIn[arg] != b) {
+                        global[arg] = true;
+                    }
+                }
+                if (c.opcode().hasTarget() && assignedIn[c.target()] != b) {
+                    assignedIn[c.target()] = b;
+                    definitions.push(c.target());
+                    definitions.push(b);
+                }
+            }
+        }
+
+        int[] starts = new int[symbolCount + 1];
+        for (int i = 0; i < definitions.size(); i += 2) {
+            starts[definitions.get(i) + 1]++;
+        }
+        for (int v = 0; v < symbolCount; ++v) {
+            starts[v + 1] += starts[v];
+        }
+        int[] blocksAssigning = new int[definitions.size() / 2];
+        int[] filled = new int[symbolCount];
+        for (int i = 0; i < definitions.size(); i += 2) {
+            int v = definitions.get(i);
+            blocksAssigning[starts[v] + filled[v]++] = definitions.get(i + 1);
+        }
+
+        // Put a phi in the iterated dominance frontier of the blocks assigning each variable
+        int blockCount = cfg.blockCount();
+        int[] hasPhiFor = new int[blockCount];
+        int[] queuedFor = new int[blockCount];
+        Arrays.fill(hasPhiFor, -1);
+        Arrays.fill(queuedFor, -1);
+        IntStack worklist = new IntStack();
+        for (int v = 0; v < symbolCount; ++v) {
+            if (!global[v]) {
+                continue;
+            }
+            for (int i = starts[v]; i < starts[v + 1]; ++i) {
+                queuedFor[blocksAssigning[i]] = v;
+                worklist.push(blocksAssigning[i]);
+            }
+            while (!worklist.isEmpty()) {
+                int b = worklist.pop();
+                counter.charge(1 + frontiers.count(b));
+                for (int i = 0; i < frontiers.count(b); ++i) {
+                    int d = frontiers.get(b, i);
+                    if (hasPhiFor[d] != v) {
+                        hasPhiFor[d] = v;
+                        addPhi(d, v);
+                        if (queuedFor[d] != v) {
+                            queuedFor[d] = v;
+                            worklist.push(d);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addPhi(int block, int variable) {
+        counter.charge(1 + cfg.predecessorCount(block));
+        if (phiCount == phiBlocks.length) {
+            int newCapacity = phiCount * 2;
+            phiBlocks = Arrays.copyOf(phiBlocks, newCapacity);
+            phiTargets = Arrays.copyOf(phiTargets, newCapacity);
+            phiVariables = Arrays.copyOf(phiVariables, newCapacity);
+            phiArgStarts = Arrays.copyOf(phiArgStarts, newCapacity + 1);
+            phiRemoved = Arrays.copyOf(phiRemoved, newCapacity);
+        }
+        int phi = phiCount++;
+        phiBlocks[phi] = block;
+        phiTargets[phi] = variable;
+        phiVariables[phi] = variable;
+        phiRemoved[phi] = false;
+        phiArgStarts[phi] = phiArgs.size() / 2;
+        for (int i = 0; i < cfg.predecessorCount(block); ++i) {
+            phiArgs.push(cfg.predecessor(block, i));
+            phiArgs.push(variable);
+        }
+        if (phisOf[block] == null) {
+            phisOf[block] = new IntStack();
+        }
+        phisOf[block].push(phi);
+    }
+
+    /** Renames every assignment to a new version and every read to the version that reaches it. */
+    private void rename() {
+        int symbolCount = symbols.size();
+        int[] current = new int[symbolCount];
+        Arrays.fill(current, -1);
+        int[] versions = new int[symbolCount];
+        IntStack undo = new IntStack();  // Pairs of variable and its previous version
+        PackedIr.Cursor c = ir.cursor();
+
+        // Walk the dominator tree without recursion.
+        // The stack holds blocks, how many children are done, and where their undo entries start.
+        IntStack stack = new IntStack();
+        stack.push(cfg.entry());
+        stack.push(-1);
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int undoMark = stack.pop();
+            int child = stack.pop();
+            int b = stack.peek();
+            if (child == -1) {
+                undoMark = undo.size();
+                counter.charge(phiCountOf(b) + cfg.instructions(b).size() + cfg.successorCount(b));
+                if (phisOf[b] != null) {
+                    for (int i = 0; i < phisOf[b].size(); ++i) {
+                        int phi = phisOf[b].get(i);
+                        phiTargets[phi] = newVersion(phiVariables[phi], current, versions, undo);
+                    }
+                }
+                IntStack instructions = cfg.instructions(b);
+                for (int i = 0; i < instructions.size(); ++i) {
+                    c.seek(instructions.get(i));
+                    for (int j = 0; j < c.argCount(); ++j) {
+                        int arg = c.arg(j);
+                        if (!PackedIr.isConstant(arg)) {
+                            c.setArg(j, read(arg, current));
+                        }
+                    }
+                    if (c.opcode().hasTarget()) {
+                        c.setTarget(newVersion(c.target(), current, versions, undo));
+                    }
+                }
+                for (int i = 0; i < cfg.successorCount(b); ++i) {
+                    int s = cfg.successor(b, i);
+                    if (phisOf[s] == null) {
+                        continue;
+                    }
+                    int index = cfg.predecessorIndex(s, b);
+                    for (int j = 0; j < phisOf[s].size(); ++j) {
+                        int phi = phisOf[s].get(j);
+                        setPhiArg(phi, index, read(phiVariables[phi], current));
+                    }
+                }
+                child = 0;
+            }
+
+            if (child < dominators.childCount(b)) {
+                stack.push(child + 1);
+                stack.push(undoMark);
+                stack.push(dominators.child(b, child));
+                stack.push(-1);
+                stack.push(0);
+            } else {
+                stack.pop();
+                while (undo.size() > undoMark) {
+                    int previous = undo.pop();
+                    current[undo.pop()] = previous;
+                }
+            }
+        }
+    }
+
+    private int newVersion(int variable, int[] current, int[] versions, IntStack undo) {
+        int version = registerCount();
+        versionVariables.push(variable);
+        versionNumbers.push(++versions[variable]);
+        undo.push(variable);
+        undo.push(current[variable]);
+        current[variable] = version;
+        return version;
+    }
+
+    private int read(int variable, int[] current) {
+        if (current[variable] != -1) {
+            return current[variable];
+        }
+        if (zero == 0) {
+            zero = ir.constant(0);
+        }
+        return zero;
+    }
+
+    public Cfg getCfg() {
+        return cfg;
+    }
+
+    public Dominators getDominators() {
+        return dominators;
+    }
+
+    /** One more than the largest register, version or not. */
+    public int registerCount() {
+        return versionBase + versionVariables.size();
+    }
+
+    /** Whether the register is a version rather than a symbol. */
+    public boolean isVersion(int register) {
+        return register >= versionBase;
+    }
+
+    /** The variable a version is of. Other registers are their own variable. */
+    public int variableOf(int register) {
+        return isVersion(register) ? versionVariables.get(register - versionBase) : register;
+    }
+
+    /** The name of a register, like 'x.2' for versions. */
+    public String name(int register) {
+        if (!isVersion(register)) {
+            return symbols.name(register);
+        }
+        return symbols.name(variableOf(register)) + "." + versionNumbers.get(register - versionBase);
+    }
+
+    /** The number of phis ever added, including removed ones. */
+    public int phiCount() {
+        return phiCount;
+    }
+
+    /** The phis at the start of the block, which may include removed ones. */
+    public int phiCountOf(int block) {
+        return (block < phisOf.length && phisOf[block] != null) ? phisOf[block].size() : 0;
+    }
+
+    public int phiOf(int block, int i) {
+        return phisOf[block].get(i);
+    }
+
+    public int phiBlock(int phi) {
+        return phiBlocks[phi];
+    }
+
+    /** The version the phi assigns. */
+    public int phiTarget(int phi) {
+        return phiTargets[phi];
+    }
+
+    /** The variable the phi is for, as it was before renaming. */
+    public int phiVariable(int phi) {
+        return phiVariables[phi];
+    }
+
+    public int phiArgCount(int phi) {
+        int end = (phi + 1 < phiCount) ? phiArgStarts[phi + 1] : phiArgs.size() / 2;
+        return end - phiArgStarts[phi];
+    }
+
+    /** The value the phi takes when control comes from {@link #phiArgBlock}. */
+    public int phiArg(int phi, int i) {
+        return phiArgs.get(2 * (phiArgStarts[phi] + i) + 1);
+    }
+
+    public int phiArgBlock(int phi, int i) {
+        return phiArgs.get(2 * (phiArgStarts[phi] + i));
+    }
+
+    public void setPhiArg(int phi, int i, int operand) {
+        phiArgs.set(2 * (phiArgStarts[phi] + i) + 1, operand);
+    }
+
+    public void removePhi(int phi) {
+        phiRemoved[phi] = true;
+    }
+
+    public boolean isPhiRemoved(int phi) {
+        return phiRemoved[phi];
+    }
+
+    /**
+     * Replaces the phis with copies and puts the blocks back together into a program.
+     * Edges that no longer exist in the CFG are ignored. The SsaForm can't be used after this.
+     */
+    public PackedIr destruct() {
+        nameVersions();
+        int originalBlockCount = cfg.blockCount();
+        ParallelCopy parallelCopy = new ParallelCopy();
+        int swap = -1;
+        int[] targets = new int[16];
+        int[] sources = new int[16];
+        IntStack copies = new IntStack();
+        // The blocks made by splitting edges, after the block they come from
+        int[] splitAfter = new int[originalBlockCount];
+        Arrays.fill(splitAfter, -1);
+        IntStack otherSplits = new IntStack();
+
+        for (int s = 0; s < originalBlockCount; ++s) {
+            if (cfg.isRemoved(s) || phiCountOf(s) == 0) {
+                continue;
+            }
+            // Copy the predecessors first, since splitting edges changes them
+            int[] predecessors = new int[cfg.predecessorCount(s)];
+            for (int i = 0; i < predecessors.length; ++i) {
+                predecessors[i] = cfg.predecessor(s, i);
+            }
+            for (int p : predecessors) {
+                int count = 0;
+                for (int j = 0; j < phisOf[s].size(); ++j) {
+                    int phi = phisOf[s].get(j);
+                    if (phiRemoved[phi]) {
+                        continue;
+                    }
+                    if (count == targets.length) {
+                        targets = Arrays.copyOf(targets, count * 2);
+                        sources = Arrays.copyOf(sources, count * 2);
+                    }
+                    targets[count] = phiTargets[phi];
+                    sources[count] = argFrom(phi, p);
+                    count++;
+                }
+                if (count == 0) {
+                    continue;
+                }
+                if (swap == -1) {
+                    swap = symbols.generate(SWAP_PREFIX, symbols.size());
+                }
+                copies.truncate(0);
+                parallelCopy.sequentialize(targets, sources, count, swap, ir, copies);
+
+                if (cfg.successorCount(p) > 1) {
+                    int edge = splitEdge(p, s);
+                    IntStack instructions = cfg.instructions(edge);
+                    for (int i = 0; i < copies.size(); ++i) {
+                        instructions.push(copies.get(i));
+                    }
+                    if (cfg.fallthrough(p) == edge && splitAfter[p] == -1) {
+                        splitAfter[p] = edge;
+                    } else {
+                        otherSplits.push(edge);
+                    }
+                } else {
+                    insertBeforeTerminator(p, copies);
+                }
+            }
+        }
+        cfg.updateEdges();
+
+        int[] layout = cfg.layout();
+        int[] order = new int[cfg.blockCount()];
+        int count = 0;
+        for (int b : layout) {
+            if (b >= originalBlockCount || b == cfg.exit()) {
+                continue;
+            }
+            order[count++] = b;
+            if (splitAfter[b] != -1) {
+                order[count++] = splitAfter[b];
+            }
+        }
+        for (int i = 0; i < otherSplits.size(); ++i) {
+            order[count++] = otherSplits.get(i);
+        }
+        order[count++] = cfg.exit();
+        return cfg.linearize(Arrays.copyOf(order, count));
+    }
+
+    /** Gives the versions still read or assigned ids in the symbol table. */
+    private void nameVersions() {
+        if (symbols.size() != versionBase) {
+            throw new IllegalStateException("Symbols were added while the program was in SSA form");
+        }
+        int[] ids = new int[versionVariables.size()];
+        Arrays.fill(ids, -1);
+        String[] prefixes = new String[versionBase];
+        PackedIr.Cursor c = ir.cursor();
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                for (int j = 0; j < c.argCount(); ++j) {
+                    c.setArg(j, symbolFor(c.arg(j), ids, prefixes));
+                }
+                if (c.opcode().hasTarget()) {
+                    c.setTarget(symbolFor(c.target(), ids, prefixes));
+                }
+            }
+            for (int i = 0; i < phiCountOf(b); ++i) {
+                int phi = phisOf[b].get(i);
+                if (phiRemoved[phi]) {
+                    continue;
+                }
+                phiTargets[phi] = symbolFor(phiTargets[phi], ids, prefixes);
+                for (int j = 0; j < phiArgCount(phi); ++j) {
+                    setPhiArg(phi, j, symbolFor(phiArg(phi, j), ids, prefixes));
+                }
+            }
+        }
+    }
+
+    private int symbolFor(int register, int[] ids, String[] prefixes) {
+        if (PackedIr.isConstant(register) || !isVersion(register)) {
+            return register;
+        }
+        int version = register - versionBase;
+        if (ids[version] == -1) {
+            int variable = versionVariables.get(version);
+            if (prefixes[variable] == null) {
+                // No source name has a '.', so these can't clash with anything
+                prefixes[variable] = symbols.name(variable) + ".";
+            }
+            ids[version] = symbols.generate(prefixes[variable], versionNumbers.get(version));
+        }
+        return ids[version];
+    }
+
+    private int argFrom(int phi, int block) {
+        for (int i = 0; i < phiArgCount(phi); ++i) {
+            if (phiArgBlock(phi, i) == block) {
+                return phiArg(phi, i);
+            }
+        }
+        throw new IllegalStateException("Phi " + name(phiTargets[phi]) + " has no argument for a predecessor");
+    }
+
+    /** Puts a new block on the edge, which the caller fills in, and returns it. */
+    private int splitEdge(int from, int to) {
+        int edge = cfg.addBlock();
+        cfg.setFallthrough(edge, to);
+        if (cfg.fallthrough(from) == to) {
+            cfg.setFallthrough(from, edge);
+        }
+        int terminator = cfg.terminator(from);
+        if (terminator != -1) {
+            PackedIr.Cursor c = ir.cursor();
+            c.seek(terminator);
+            if (cfg.blockOfLabel(c.label()) == to) {
+                c.setLabel(cfg.ensureLabel(edge));
+            }
+        }
+        return edge;
+    }
+
+    private void insertBeforeTerminator(int block, IntStack copies) {
+        IntStack instructions = cfg.instructions(block);
+        int terminator = cfg.terminator(block);
+        if (terminator != -1) {
+            instructions.pop();
+        }
+        for (int i = 0; i < copies.size(); ++i) {
+            instructions.push(copies.get(i));
+        }
+        if (terminator != -1) {
+            instructions.push(terminator);
+        }
+    }
+}
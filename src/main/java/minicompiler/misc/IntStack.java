@@ -0,0 +1,48 @@
+package minicompiler.misc;
+
+import java.util.Arrays;
+
+/**
+ * A growable stack of ints that doesn't box them.
+ */
+public class IntStack {
+    private int[] items = new int[16];
+    private int size = 0;
+
+    public void push(int value) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = value;
+    }
+
+    public int pop() {
+        return items[--size];
+    }
+
+    public int peek() {
+        return items[size - 1];
+    }
+
+    /** The item at the given index, counting from the bottom. */
+    public int get(int index) {
+        return items[index];
+    }
+
+    public void set(int index, int value) {
+        items[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Pops items until only the given number are left. */
+    public void truncate(int newSize) {
+        size = newSize;
+    }
+}
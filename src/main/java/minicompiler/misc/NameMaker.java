@@ -1,17 +1,33 @@
 package minicompiler.misc;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 /** Makes distinct temporary variable names like x1, x2, y1, ... */
 public class NameMaker {
-    private HashMap<String, Integer> prefixToNextNumber = new HashMap<String, Integer>();
+    private final Symbols symbols;
+    private final Symbols prefixes = new Symbols();
+    private int[] prefixToNextNumber = new int[16];
+
+    public NameMaker() {
+        this(new Symbols());
+    }
+
+    /** Makes names as symbols in the given table. */
+    public NameMaker(Symbols symbols) {
+        this.symbols = symbols;
+    }
 
     public String makeName(String prefix) {
-        if (!prefixToNextNumber.containsKey(prefix)) {
-            prefixToNextNumber.put(prefix, 1);
+        return symbols.name(makeSymbol(prefix));
+    }
+
+    /** Like {@link #makeName(String)}, but only builds the name if someone asks the symbol table for it. */
+    public int makeSymbol(String prefix) {
+        int p = prefixes.intern(prefix);
+        if (p == prefixToNextNumber.length) {
+            prefixToNextNumber = Arrays.copyOf(prefixToNextNumber, p * 2);
         }
-        int n = prefixToNextNumber.get(prefix);
-        prefixToNextNumber.put(prefix, n + 1);
-        return prefix + n;
+        int n = ++prefixToNextNumber[p];
+        return symbols.generate(prefix, n);
     }
 }
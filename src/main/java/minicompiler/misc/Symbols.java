@@ -0,0 +1,201 @@
+package minicompiler.misc;
+
+import java.util.Arrays;
+
+/**
+ * Gives each distinct name a small integer id.
+ *
+ * <p>
+ * Ids are handed out in order starting from 0, so later stages can keep
+ * per-variable information in arrays indexed by id instead of maps keyed by name.
+ *
+ * <p>
+ * Interning a name that is already known returns its existing id.
+ * Names can also be interned straight from a char array, which doesn't
+ * make a String unless the name is new.
+ *
+ * <p>
+ * Generated names like '$resultOf_+_3' get ids without their string being built.
+ * The string is made only if someone asks for the name.
+ * Generated names are not entered into the table, so interning the same
+ * text later gives a different id. The compiler avoids this by
+ * giving temporaries names that can't appear in source code.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public class Symbols {
+    private String[] names;
+    private int[] hashes;
+    private String[] prefixes;
+    private int[] numbers;
+    private int size;
+
+    // Open addressing hash table of id + 1, or 0 for empty slots.
+    private int[] table;
+
+    public Symbols() {
+        names = new String[64];
+        hashes = new int[64];
+        prefixes = new String[64];
+        numbers = new int[64];
+        table = new int[128];
+        size = 0;
+    }
+
+    /** The number of ids given out so far. */
+    public int size() {
+        return size;
+    }
+
+    public int intern(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id == -1) {
+                return add(name, hash, slot);
+            } else if (hashes[id] == hash && name.equals(names[id])) {
+                return id;
+            }
+        }
+    }
+
+    public int intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; ++i) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id == -1) {
+                return add(new String(chars, start, length), hash, slot);
+            } else if (hashes[id] == hash && nameEquals(names[id], chars, start, length)) {
+                return id;
+            }
+        }
+    }
+
+    /** The id of a name that has been interned, or -1 if it hasn't. */
+    public int lookup(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id == -1) {
+                return -1;
+            } else if (hashes[id] == hash && name.equals(names[id])) {
+                return id;
+            }
+        }
+    }
+
+    /** Gives an id to the name made of the prefix followed by the number. */
+    public int generate(String prefix, int number) {
+        ensureCapacity();
+        int id = size++;
+        prefixes[id] = prefix;
+        numbers[id] = number;
+        return id;
+    }
+
+    /** Whether the id was given by {@link #generate} rather than by interning. */
+    public boolean isGenerated(int id) {
+        return prefixes[id] != null;
+    }
+
+    /** The prefix of a generated name. */
+    public String prefix(int id) {
+        return prefixes[id];
+    }
+
+    /** The number of a generated name. */
+    public int number(int id) {
+        return numbers[id];
+    }
+
+    /** The hash code of the name as a String, without building a generated name. */
+    public int nameHash(int id) {
+        if (names[id] != null || prefixes[id] == null) {
+            return name(id).hashCode();
+        }
+        int hash = prefixes[id].hashCode();
+        long n = numbers[id];
+        if (n < 0) {
+            hash = 31 * hash + '-';
+            n = -n;
+        }
+        long digit = 1;
+        while (digit * 10 <= n) {
+            digit *= 10;
+        }
+        for (; digit > 0; digit /= 10) {
+            hash = 31 * hash + (char)('0' + (n / digit) % 10);
+        }
+        return hash;
+    }
+
+    public String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Unknown symbol id: " + id);
+        }
+        String name = names[id];
+        if (name == null) {
+            name = prefixes[id] + numbers[id];
+            names[id] = name;
+        }
+        return name;
+    }
+
+    private int add(String name, int hash, int slot) {
+        ensureCapacity();
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void ensureCapacity() {
+        if (size == names.length) {
+            int newCapacity = size * 2;
+            names = Arrays.copyOf(names, newCapacity);
+            hashes = Arrays.copyOf(hashes, newCapacity);
+            prefixes = Arrays.copyOf(prefixes, newCapacity);
+            numbers = Arrays.copyOf(numbers, newCapacity);
+        }
+    }
+
+    private void rehash() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; ++id) {
+            if (prefixes[id] == null) {
+                int slot = hashes[id] & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = id + 1;
+            }
+        }
+        table = newTable;
+    }
+
+    private static boolean nameEquals(String name, char[] chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package minicompiler.misc;
+
+/**
+ * Where a long computation reports its work as it goes,
+ * so whoever gave it the counter can stop it by throwing from {@link #charge}.
+ *
+ * <p>
+ * The units are the same as in an optimization pass's budget:
+ * about one per instruction looked at or element added.
+ */
+public interface WorkCounter {
+    /** A counter that lets everything through. */
+    WorkCounter NONE = new WorkCounter() {
+        @Override
+        public void charge(long work) {
+        }
+    };
+
+    void charge(long work);
+}
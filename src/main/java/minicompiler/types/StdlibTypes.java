@@ -20,7 +20,8 @@ public class StdlibTypes {
             types.put(op, ty);
         }
         
-        types.put("!", new FunctionType(tyList(BoolType.instance), BoolType.instance));
+        types.put(unaryOperatorKey("-"), new FunctionType(tyList(IntType.instance), IntType.instance));
+        types.put(unaryOperatorKey("!"), new FunctionType(tyList(BoolType.instance), BoolType.instance));
         
         types.put("printInt", new FunctionType(tyList(IntType.instance), VoidType.instance));
         types.put("readInt", new FunctionType(tyList(), IntType.instance));
@@ -30,6 +31,11 @@ public class StdlibTypes {
         return Arrays.asList(types);
     }
 
+    /** The key of a unary operator's type. They have their own since '-' is also a binary operator. */
+    public static String unaryOperatorKey(String op) {
+        return "unary " + op;
+    }
+
     public static Map<String, Type> getTypes() {
         return Collections.unmodifiableMap(types);
     }
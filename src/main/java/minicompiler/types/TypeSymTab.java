@@ -1,50 +1,62 @@
 package minicompiler.types;
 
-import java.util.AbstractMap;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import minicompiler.misc.IntStack;
 
 /**
- * A map of variable names to types.
- * 
+ * A map of variable ids to types.
+ *
  * The map's state can be pushed on a stack.
  * When type checking enters a subscope, such as the body of a while-loop,
  * it pushes the current symbol table on the stack. This way any
  * new variables introduced inside the while loop are forgotten when
  * the previous symbol table is popped back at the end of the loop.
+ *
+ * Variable ids come from a {@link minicompiler.misc.Symbols} table,
+ * so the map is a single array indexed by id.
+ * Instead of copying it on every push, we keep an undo log:
+ * each put records the id and the type it replaced, and a push
+ * just remembers how long the log is. A pop undoes the puts made since,
+ * newest first. Pushing and lookups take constant time, and popping
+ * takes time proportional to the puts it undoes.
  */
-public class TypeSymTab extends AbstractMap<String, Type> {
+public class TypeSymTab {
+    private Type[] types = new Type[16];
+    private IntStack undoIds = new IntStack();
+    private ArrayList<Type> undoTypes = new ArrayList<Type>();
+    private IntStack marks = new IntStack(); // Undo log sizes at each push
 
-    private Deque<HashMap<String, Type>> stack = new ArrayDeque<HashMap<String, Type>>();
-    
-    public TypeSymTab() {
-        stack.push(new HashMap<String, Type>());
-    }
-    
-    // This is not the most efficient implementation, but it's simple.
-    
     public void pushState() {
-        HashMap<String, Type> newTable = new HashMap<String, Type>(stack.peek().size());
-        newTable.putAll(stack.peek());
-        stack.push(newTable);
+        marks.push(undoIds.size());
     }
-    
+
     public void popState() {
-        if (stack.size() == 1) {
+        if (marks.isEmpty()) {
             throw new IllegalStateException("TypeSymTab: cannot pop last symbol table");
         }
-        stack.pop();
+        int mark = marks.pop();
+        while (undoIds.size() > mark) {
+            types[undoIds.pop()] = undoTypes.remove(undoTypes.size() - 1);
+        }
+    }
+
+    public Type get(int id) {
+        return (id < types.length) ? types[id] : null;
     }
-    
-    @Override
-    public Set<Entry<String, Type>> entrySet() {
-        return stack.peek().entrySet();
+
+    public boolean containsKey(int id) {
+        return get(id) != null;
     }
 
-    @Override
-    public Type put(String key, Type value) {
-        return stack.peek().put(key, value);
+    public void put(int id, Type value) {
+        if (id >= types.length) {
+            types = Arrays.copyOf(types, Math.max(types.length * 2, id + 1));
+        }
+        if (!marks.isEmpty()) {
+            undoIds.push(id);
+            undoTypes.add(types[id]);
+        }
+        types[id] = value;
     }
 }
@@ -0,0 +1,102 @@
+package minicompiler;
+
+import java.util.Random;
+import minicompiler.ast.*;
+import minicompiler.errors.CompilerError;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class IncrementalParserTest {
+    private static final String program =
+            "{\n" +
+            "  a: int := 1;\n" +
+            "  if a < 2 then {\n" +
+            "    b: int := 2;\n" +
+            "    c: int := 3;\n" +
+            "  }\n" +
+            "  while a > 0 do a := a - 1;\n" +
+            "  printInt(a);\n" +
+            "}\n";
+
+    @Test
+    public void testUnchangedStatementsAreReused() {
+        IncrementalParser parser = new IncrementalParser(program);
+        Block before = (Block)parser.getTree();
+        Block after = (Block)parser.edit(new SourceEdit(program.indexOf("2;"), 1, "5"));
+
+        assertEquals(Parser.parseStatement(Tokenizer.tokenize(program.replace("2;", "5;"))), after);
+        assertSame(before.statements.get(0), after.statements.get(0));
+        assertSame(before.statements.get(2), after.statements.get(2));
+        assertSame(before.statements.get(3), after.statements.get(3));
+
+        Block thenBefore = (Block)((IfStatement)before.statements.get(1)).thenClause;
+        Block thenAfter = (Block)((IfStatement)after.statements.get(1)).thenClause;
+        assertNotSame(thenBefore.statements.get(0), thenAfter.statements.get(0));
+        assertSame(thenBefore.statements.get(1), thenAfter.statements.get(1));
+    }
+
+    @Test
+    public void testInsertingStatements() {
+        IncrementalParser parser = new IncrementalParser(program);
+        int offset = program.indexOf("  while");
+        Block after = (Block)parser.edit(new SourceEdit(offset, 0, "x: int := 4; x := 5;\n"));
+        assertEquals(6, after.statements.size());
+        assertEquals(new Assignment("x", new IntConst(5)), after.statements.get(3));
+    }
+
+    @Test
+    public void testAddingElseToIf() {
+        String source = "{ if a then b := 1; c := 2; }";
+        IncrementalParser parser = new IncrementalParser(source);
+        SourceEdit edit = new SourceEdit(source.indexOf("c"), 0, "else ");
+        Statement expected = Parser.parseStatement(Tokenizer.tokenize(edit.apply(source)));
+        assertEquals(expected, parser.edit(edit));
+    }
+
+    @Test
+    public void testStatementAt() {
+        IncrementalParser parser = new IncrementalParser(program);
+        parser.edit(new SourceEdit(program.indexOf("  while"), 0, "\n\n"));
+        Statement stmt = parser.statementAt(program.indexOf("a := a - 1") + 2);
+        assertEquals(new Assignment("a", new BinaryOp(new Var("a"), "-", new IntConst(1))), stmt);
+        assertTrue(parser.statementAt(program.indexOf("while") + 2) instanceof WhileLoop);
+        assertNull(parser.statementAt(program.length() + 2));
+    }
+
+    @Test
+    public void testRandomEditsGiveSameTreeAsFullParse() {
+        Random random = new Random(4321);
+        String[] pieces = { "x", "1", " ", ";", "{", "}", "if ", " then ", " else ", "while ", " do ", ":=", "+", "(", ")", "\n" };
+        String text = program;
+        IncrementalParser parser = new IncrementalParser(text);
+        for (int i = 0; i < 3000; ++i) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(3, text.length() - offset) + 1);
+            String inserted = (random.nextInt(3) == 0) ? "" : pieces[random.nextInt(pieces.length)];
+            SourceEdit edit = new SourceEdit(offset, removed, inserted);
+            text = edit.apply(text);
+
+            Statement expected = null;
+            String expectedError = null;
+            try {
+                expected = Parser.parseStatement(Tokenizer.tokenize(text));
+            } catch (CompilerError e) {
+                expectedError = e.getMessage();
+            }
+
+            try {
+                Statement actual = parser.edit(edit);
+                assertNull("Expected error " + expectedError, expectedError);
+                assertEquals(expected, actual);
+            } catch (CompilerError e) {
+                assertEquals(expectedError, e.getMessage());
+            }
+
+            if (expected == null && random.nextInt(4) != 0) {
+                // Mostly go back to a valid program so that we test more than errors
+                text = program;
+                parser = new IncrementalParser(text);
+            }
+        }
+    }
+}
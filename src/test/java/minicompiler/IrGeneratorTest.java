@@ -1,8 +1,10 @@
 package minicompiler;
 
 import java.util.ArrayList;
-import minicompiler.ast.Statement;
+import java.util.List;
+import minicompiler.ast.*;
 import minicompiler.ir.*;
+import minicompiler.types.IntType;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -70,6 +72,18 @@ public class IrGeneratorTest {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testDeeplyNestedExpression() {
+        int depth = 100000;
+        Expr expr = new IntConst(1);
+        for (int i = 0; i < depth; ++i) {
+            expr = new BinaryOp(new Var("x"), "+", expr);
+        }
+        List<IrCommand> ir = IrGenerator.generate(new Declaration("y", IntType.instance, expr));
+        assertEquals(depth + 1, ir.size());
+        assertEquals(new IrCall("$resultOf_+_" + depth, "+", new IrVar("x"), new IrVar("$resultOf_+_" + (depth - 1))), ir.get(depth - 1));
+    }
+
     private IrCommand[] generate(String sourceCode) {
         ArrayList<Token> tokens = Tokenizer.tokenize(sourceCode);
         Statement stmt = Parser.parseStatement(tokens);
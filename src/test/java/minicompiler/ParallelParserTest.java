@@ -0,0 +1,90 @@
+package minicompiler;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import minicompiler.ast.Statement;
+import minicompiler.errors.CompilerError;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParallelParserTest {
+    private static final String[] statements = {
+        "a: int := 1;",
+        "if a < 2 then { b: int := 2; } else { c := (3 + a) * 2; }",
+        "if a < 2 then b := 1; else c := 2;",
+        "if a then if b then c := 1; else { d := 2; }",
+        "while a > 0 do { a := a - 1; { } }",
+        "printInt(a, f(), g(1 2));",
+        "{ { x; } }",
+    };
+
+    @Test
+    public void testSameTreeAsSequential() {
+        String source = randomProgram(new Random(1), 20000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TokenBuffer tokens = Tokenizer.tokenizeToBuffer(source);
+        assertEquals(Parser.parseStatement(tokens.stream()), ParallelParser.parse(tokens, pool));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSlicesDontAddSymbols() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TokenBuffer tokens = Tokenizer.tokenizeToBuffer(randomProgram(new Random(4), 20000));
+        Parser.operatorSymbols(tokens.getSymbols());
+        int size = tokens.getSymbols().size();
+        ParallelParser.parse(tokens, pool);
+        assertEquals(size, tokens.getSymbols().size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSameErrorsAsSequential() {
+        Random random = new Random(2);
+        String source = randomProgram(random, 10000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        String[] damage = { "", "}", "{", "else", ";", "if" };
+        for (int i = 0; i < 60; ++i) {
+            int offset = random.nextInt(source.length());
+            while (source.charAt(offset) != ' ') {
+                offset--;
+            }
+            SourceEdit edit = new SourceEdit(offset, 1 + random.nextInt(6), " " + damage[random.nextInt(damage.length)] + " ");
+            TokenBuffer tokens = Tokenizer.tokenizeToBuffer(edit.apply(source));
+            assertEquals(edit.toString(), result(tokens, null), result(tokens, pool));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testProgramsThatAreNotOneBlock() {
+        String block = randomProgram(new Random(3), 10000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (String source : new String[] { block + block, "while true do " + block, block + " x;" }) {
+            TokenBuffer tokens = Tokenizer.tokenizeToBuffer(source);
+            assertEquals(result(tokens, null), result(tokens, pool));
+        }
+        pool.shutdown();
+    }
+
+    private String randomProgram(Random random, int statementCount) {
+        StringBuilder sb = new StringBuilder("{\n");
+        for (int i = 0; i < statementCount; ++i) {
+            sb.append("  ").append(statements[random.nextInt(statements.length)]).append("\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /** The parsed program, or the error message if parsing fails. */
+    private Object result(TokenBuffer tokens, ForkJoinPool pool) {
+        try {
+            if (pool == null) {
+                return Parser.parseStatement(tokens.stream());
+            } else {
+                return ParallelParser.parse(tokens, pool);
+            }
+        } catch (CompilerError e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -167,11 +167,78 @@ public class ParserTest {
         assertEquals(outer, actual);
     }
     
+    @Test
+    public void testParseFromTokenBuffer() {
+        String input = "{ x : int := 1; while x < 10 do x := x * 2; }";
+        Statement expected = tokenizeAndParseStatement(input);
+        Statement actual = Parser.parseStatement(Tokenizer.tokenizeToBuffer(input).stream());
+        assertEquals(expected, actual);
+    }
+    
+    @Test
+    public void testErrorAtEndOfTokenBuffer() {
+        try {
+            Parser.parseStatement(Tokenizer.tokenizeToBuffer("{ x := 3;\n  y := 4").stream());
+            fail("Expected parse error");
+        } catch (ParseError e) {
+            assertEquals("Parse error near line 2 col 9: SEMICOLON expected", e.getMessage());
+        }
+    }
+    
     @Test(expected=ParseError.class)
     public void testJunkAtEndOfInput() {
         tokenizeAndParseStatement("x := 3; foobar x y z");
     }
     
+    @Test
+    public void testSecondComparisonEndsExpression() {
+        try {
+            tokenizeAndParseStatement("x := 1 < 2 < 3;");
+            fail("Expected parse error");
+        } catch (ParseError e) {
+            assertEquals("Parse error near line 1 col 12: SEMICOLON expected", e.getMessage());
+        }
+        Expr expected = new BinaryOp(new IntConst(1), "<", new BinaryOp(new IntConst(2), "<", new IntConst(3)));
+        assertEquals(expected, tokenizeAndParseExpr("1 < (2 < 3)"));
+    }
+    
+    @Test
+    public void testFunctionCallArguments() {
+        Expr actual = tokenizeAndParseExpr("-f(1 < 2, g(), (x))");
+        Expr call = new FunctionCall("f",
+                new BinaryOp(new IntConst(1), "<", new IntConst(2)),
+                new FunctionCall("g"),
+                new Var("x"));
+        assertEquals(new UnaryOp("-", call), actual);
+    }
+    
+    @Test
+    public void testDeepNesting() {
+        int depth = 100000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            sb.append("if x then { ");
+        }
+        for (int i = 0; i < depth; ++i) {
+            sb.append("(");
+        }
+        sb.append("1");
+        for (int i = 0; i < depth; ++i) {
+            sb.append(")");
+        }
+        sb.append(";");
+        for (int i = 0; i < depth; ++i) {
+            sb.append(" }");
+        }
+        
+        Statement stmt = tokenizeAndParseStatement(sb.toString());
+        for (int i = 0; i < depth; ++i) {
+            Block block = (Block)((IfStatement)stmt).thenClause;
+            stmt = block.statements.get(0);
+        }
+        assertTrue(stmt instanceof IntConst);
+    }
+    
     private Statement tokenizeAndParseStatement(String input) {
         return Parser.parseStatement(Tokenizer.tokenize(input));
     }
@@ -0,0 +1,118 @@
+package minicompiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import minicompiler.ast.*;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.pass.OptimizationLevel;
+import minicompiler.misc.Symbols;
+import minicompiler.types.StdlibTypes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SimplifierTest {
+    @Test
+    public void testFoldingConstants() {
+        assertSimplifiesTo("2 * 3 + 4", "10");
+        assertSimplifiesTo("-(7 / 2)", new IntConst(-3));
+        assertSimplifiesTo("-7 / 2", new IntConst(-3));
+        assertSimplifiesTo("-7 % 2", new IntConst(-1));
+        assertSimplifiesTo("7 % -2", "1");
+        assertSimplifiesTo("2147483647 + 1", new IntConst(Integer.MIN_VALUE));
+        assertSimplifiesTo("65536 * 65536", "0");
+        assertSimplifiesTo("-(-2147483647 - 1)", new IntConst(Integer.MIN_VALUE));
+        assertSimplifiesTo("1 < 2", "true");
+        assertSimplifiesTo("3 <> 3", "false");
+        assertSimplifiesTo("!(2 >= 3)", "true");
+    }
+
+    @Test
+    public void testDivisionsThatTrapAreLeftAlone() {
+        assertSimplifiesTo("x / (3 - 3)", "x / 0");
+        assertSimplifiesTo("5 % 0", "5 % 0");
+        assertSimplifiesTo("(-2147483647 - 1) / -1", new BinaryOp(new IntConst(Integer.MIN_VALUE), "/", new IntConst(-1)));
+        assertSimplifiesTo("(-2147483647 - 1) % -1", new BinaryOp(new IntConst(Integer.MIN_VALUE), "%", new IntConst(-1)));
+        assertSimplifiesTo("x % -1", new BinaryOp(new Var("x"), "%", new IntConst(-1)));
+        assertSimplifiesTo("x / -1", new BinaryOp(new Var("x"), "/", new IntConst(-1)));
+    }
+
+    @Test
+    public void testIdentities() {
+        assertSimplifiesTo("x * 1", "x");
+        assertSimplifiesTo("1 * x", "x");
+        assertSimplifiesTo("x + 0", "x");
+        assertSimplifiesTo("0 + x", "x");
+        assertSimplifiesTo("x - 0", "x");
+        assertSimplifiesTo("x / 1", "x");
+        assertSimplifiesTo("x * 0", "0");
+        assertSimplifiesTo("x % 1", "0");
+        assertSimplifiesTo("(x + y) - (x + y)", "0");
+        assertSimplifiesTo("0 - x", "-x");
+        assertSimplifiesTo("-(-x)", "x");
+        assertSimplifiesTo("!!b", "b");
+        assertSimplifiesTo("!(!(!b))", "!b");
+        assertSimplifiesTo("(x / y) * 0", "(x / y) * 0");
+        assertSimplifiesTo("(x % y) % 1", "(x % y) % 1");
+        assertSimplifiesTo("(x / 2) * 0", "0");
+        assertSimplifiesTo("x <= x", "true");
+        assertSimplifiesTo("x < x", "false");
+    }
+
+    @Test
+    public void testConstantChains() {
+        assertSimplifiesTo("(x + 1) + 2", "x + 3");
+        assertSimplifiesTo("1 + (x + 2)", "x + 3");
+        assertSimplifiesTo("x - 1 - 2", "x - 3");
+        assertSimplifiesTo("x + 1 - 1", "x");
+        assertSimplifiesTo("x - 5 + 2", "x - 3");
+        assertSimplifiesTo("(x * 2) * 3", "x * 6");
+        assertSimplifiesTo("2 * (3 * x)", "x * 6");
+        assertSimplifiesTo("x + 2147483647 + 1", new BinaryOp(new Var("x"), "+", new IntConst(Integer.MIN_VALUE)));
+    }
+
+    @Test
+    public void testCallsAreKept() {
+        assertSimplifiesTo("readInt() * 0", "readInt() * 0");
+        assertSimplifiesTo("readInt() - readInt()", "readInt() - readInt()");
+        assertSimplifiesTo("readInt() % 1", "readInt() % 1");
+        assertSimplifiesTo("readInt() * 1 + 2 + 3", "readInt() + 5");
+    }
+
+    @Test
+    public void testRandomProgramsKeepTheirOutput() throws IOException {
+        Random random = new Random(22);
+        for (int i = 0; i < 300; ++i) {
+            String source = ProgramGenerator.randomProgram(random, 8);
+            PackedIr plain = Compiler.compileToIr(new StringReader(source), Compiler.FrontEnd.SEPARATE_PASSES);
+            PackedIr simplified = Compiler.compileToIr(new StringReader(source), Compiler.FrontEnd.SEPARATE_PASSES, OptimizationLevel.O1);
+            int[] inputs = { random.nextInt(10) - 3, Integer.MIN_VALUE, -1, 0 };
+            List<Integer> expected = IrInterpreter.run(plain, inputs);
+            assertEquals(source, expected, IrInterpreter.run(simplified, inputs));
+        }
+    }
+
+    private static void assertSimplifiesTo(String expr, String expected) {
+        boolean isBool = expected.equals("true") || expected.equals("false") || expected.contains("b");
+        assertSimplifiesTo(expr, isBool, Parser.parseExpr(Tokenizer.tokenize(expected)));
+    }
+
+    private static void assertSimplifiesTo(String expr, Expr expected) {
+        assertSimplifiesTo(expr, false, expected);
+    }
+
+    private static void assertSimplifiesTo(String expr, boolean isBool, Expr expected) {
+        String type = isBool ? "bool" : "int";
+        String source = "{ x : int := readInt(); y : int := readInt(); b : bool := x < y; r : " + type + " := " + expr + "; }";
+        Symbols symbols = new Symbols();
+        FlatAst ast = FlatAst.fromStatement(Parser.parseStatement(Tokenizer.tokenize(source)), symbols);
+        TypeChecker.checkTypes(ast, StdlibTypes.getTypes());
+        FlatAst simplified = Simplifier.simplify(ast);
+        Block block = (Block)simplified.toStatement(simplified.getRoot());
+        Declaration result = (Declaration)block.statements.get(3);
+        assertEquals(expr, expected, result.expr);
+    }
+}
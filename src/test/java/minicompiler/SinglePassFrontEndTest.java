@@ -0,0 +1,114 @@
+package minicompiler;
+
+import java.util.Random;
+import minicompiler.ast.FlatAst;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.errors.CompilerError;
+import minicompiler.misc.Symbols;
+import minicompiler.types.StdlibTypes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SinglePassFrontEndTest {
+    private static final String[] statements = {
+        "a : int := readInt();",
+        "b : bool := a < 2;",
+        "if a < 2 then { c : int := 2; a := c * a; } else { a := (3 + a) * 2; }",
+        "if b then a := 1;",
+        "if !b then if a == 1 then printInt(a); else { a := 0 - a; }",
+        "while a > 0 do { a := a - 1; { } }",
+        "while b do { d : int := a / 2; b := !(d == 1); }",
+        "printInt((a + 1) * (a + 1) - a % 3);",
+        "{ e : int := 1; { e := e + a; } }",
+    };
+
+    private static final String[] badStatements = {
+        "a : int := true;",
+        "a := 1;",
+        "x := 1;",
+        "printInt(y);",
+        "if 1 then a := 1;",
+        "while a do { }",
+        "printInt(1, 2);",
+        "printInt(b);",
+        "f(1);",
+        "a : bool := a;",
+        "b := -a;",
+    };
+
+    @Test
+    public void testSameIrAsSeparatePasses() {
+        String[] sources = {
+            "{ }",
+            "printInt(1);",
+            "if true then printInt(1); else printInt(2);",
+            ProgramGenerator.flatProgram(100),
+            ProgramGenerator.nestedIfs(100),
+            ProgramGenerator.manyScopes(100),
+            randomProgram(new Random(1), 2000, 0),
+        };
+        for (String source : sources) {
+            assertEquals(separatePasses(source), singlePass(source));
+        }
+    }
+
+    @Test
+    public void testSameErrorsAsSeparatePasses() {
+        Random random = new Random(2);
+        String[] damage = { "", "}", "{", "else", ";", "if", ":=" };
+        for (int i = 0; i < 100; ++i) {
+            String source = randomProgram(random, 50, 3);
+            if (random.nextBoolean()) {
+                int offset = random.nextInt(source.length());
+                while (source.charAt(offset) != ' ') {
+                    offset--;
+                }
+                source = new SourceEdit(offset, 1 + random.nextInt(6), " " + damage[random.nextInt(damage.length)] + " ").apply(source);
+            }
+            assertEquals(source, separatePasses(source), singlePass(source));
+        }
+    }
+
+    @Test
+    public void testDeepNesting() {
+        String source = ProgramGenerator.nestedIfs(50000);
+        assertEquals(separatePasses(source), singlePass(source));
+    }
+
+    /** A block of the given number of statements, some of which may not type check. */
+    private String randomProgram(Random random, int statementCount, int badCount) {
+        StringBuilder sb = new StringBuilder("{\n");
+        for (int i = 0; i < statementCount; ++i) {
+            sb.append("  { ").append(statements[0]).append(" ").append(statements[1]).append(" ");
+            if (badCount > 0 && random.nextInt(statementCount) < badCount) {
+                sb.append(badStatements[random.nextInt(badStatements.length)]);
+            } else {
+                sb.append(statements[2 + random.nextInt(statements.length - 2)]);
+            }
+            sb.append(" }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /** The IR as a string, or the error message if compilation fails. */
+    private String separatePasses(String source) {
+        Symbols symbols = new Symbols();
+        try {
+            TokenStream tokens = Tokenizer.tokenizeToBuffer(source).stream();
+            FlatAst ast = FlatAst.fromStatement(Parser.parseStatement(tokens), symbols);
+            TypeChecker.checkTypes(ast, StdlibTypes.getTypes());
+            return IrGenerator.generate(ast).toString();
+        } catch (CompilerError e) {
+            return e.getMessage();
+        }
+    }
+
+    private String singlePass(String source) {
+        try {
+            TokenStream tokens = Tokenizer.tokenizeToBuffer(source).stream();
+            return SinglePassFrontEnd.generate(tokens, StdlibTypes.getTypes()).toString();
+        } catch (CompilerError e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package minicompiler;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import static minicompiler.Token.Type.*;
+import minicompiler.errors.TokenizerError;
+import minicompiler.misc.Symbols;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -33,4 +40,235 @@ public class TokenizerTest {
         Token[] actual = result.toArray(new Token[result.size()]);
         assertArrayEquals(expected, actual);
    }
+    
+    @Test
+    public void testLongestMatch() {
+        List<Token> result = Tokenizer.tokenize(":=:<><=<>==>=>");
+        Token[] expected = {
+            new Token(ASSIGN, ":=", 1, 1),
+            new Token(COLON, ":", 1, 3),
+            new Token(NEQ, "<>", 1, 4),
+            new Token(LTE, "<=", 1, 6),
+            new Token(NEQ, "<>", 1, 8),
+            new Token(EQ, "==", 1, 10),
+            new Token(GTE, ">=", 1, 12),
+            new Token(GT, ">", 1, 14)
+        };
+        assertArrayEquals(expected, result.toArray(new Token[result.size()]));
+    }
+    
+    @Test
+    public void testLineEndings() {
+        List<Token> result = Tokenizer.tokenize("a\r\n\tb falsey");
+        Token[] expected = {
+            new Token(IDENTIFIER, "a", 1, 1),
+            new Token(IDENTIFIER, "b", 2, 2),
+            new Token(BOOLCONST, "false", 2, 4),
+            new Token(IDENTIFIER, "y", 2, 9)
+        };
+        assertArrayEquals(expected, result.toArray(new Token[result.size()]));
+    }
+    
+    @Test
+    public void testErrorPosition() {
+        try {
+            Tokenizer.tokenize("x := 1;\n  y = 2;");
+            fail("Expected tokenizer error");
+        } catch (TokenizerError e) {
+            assertEquals("Cannot tokenize at line 2 col 5", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testStreamGivesSameTokens() {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            longName.append('a');
+        }
+        String input =
+                "{\n" +
+                "  x : int := 1;\n" +
+                "  " + longName + " := x <> 2;\n" +
+                "}";
+        
+        TokenStream stream = Tokenizer.stream(new StringReader(input));
+        List<Token> streamed = new ArrayList<Token>();
+        while (stream.type(0) != EOF) {
+            streamed.add(new Token(stream.type(0), stream.text(0), stream.line(0), stream.col(0)));
+            stream.advance();
+        }
+        
+        assertEquals(Tokenizer.tokenize(input), streamed);
+        assertEquals(4, stream.line(0));
+        assertEquals(2, stream.col(0));
+    }
+    
+    @Test
+    public void testAsciiBytesGiveSameTokens() throws Exception {
+        String input = "while (x <= 123)\r\n{ iffy := !true; }";
+        ByteBuffer bytes = ByteBuffer.wrap(input.getBytes("US-ASCII"));
+        
+        TokenStream stream = Tokenizer.stream(SourceText.fromAsciiBytes(bytes), new Symbols());
+        List<Token> streamed = new ArrayList<Token>();
+        while (stream.type(0) != EOF) {
+            streamed.add(new Token(stream.type(0), stream.text(0), stream.line(0), stream.col(0)));
+            stream.advance();
+        }
+        
+        assertEquals(Tokenizer.tokenize(input), streamed);
+    }
+    
+    @Test
+    public void testBufferGivesSameTokens() {
+        String input = "x: int := 35;\nwhile (x <= 123)\n{ iffy }\n";
+        List<Token> expected = Tokenizer.tokenize(input);
+        TokenBuffer buffer = Tokenizer.tokenizeToBuffer(input);
+        
+        assertEquals(expected.size(), buffer.size());
+        for (int i = 0; i < buffer.size(); ++i) {
+            assertEquals(expected.get(i), buffer.token(i));
+        }
+        assertEquals(input.indexOf("123"), buffer.start(10));
+        assertEquals(3, buffer.length(10));
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() {
+        Symbols symbols = new Symbols();
+        int existing = symbols.intern("y");
+        TokenBuffer buffer = Tokenizer.tokenizeToBuffer(SourceText.fromString("x := y + x; if"), symbols);
+
+        assertEquals(symbols.lookup("x"), buffer.symbol(0));
+        assertEquals(-1, buffer.symbol(1));
+        assertEquals(existing, buffer.symbol(2));
+        assertEquals(buffer.symbol(0), buffer.symbol(4));
+        assertEquals(-1, buffer.symbol(6));
+        assertEquals(2, symbols.size());
+    }
+
+    @Test
+    public void testRetokenize() {
+        String input = "x: int := 35;\nwhile (x <= 123)\n{ iffy }\n";
+        assertRetokenizes(input, new SourceEdit(input.indexOf("35"), 2, "4"));
+        assertRetokenizes(input, new SourceEdit(input.indexOf(":="), 0, "\n\n  "));
+        assertRetokenizes(input, new SourceEdit(input.indexOf(" int"), 1, ""));
+        assertRetokenizes(input, new SourceEdit(input.indexOf("<=") + 1, 1, ""));
+        assertRetokenizes(input, new SourceEdit(input.indexOf("iffy"), 2, "true"));
+        assertRetokenizes(input, new SourceEdit(input.indexOf("\n"), 1, ""));
+        assertRetokenizes(input, new SourceEdit(0, input.length(), ""));
+        assertRetokenizes(input, new SourceEdit(input.length(), 0, "x"));
+        assertRetokenizes("", new SourceEdit(0, 0, "a := 1"));
+    }
+
+    @Test
+    public void testRetokenizeRandomEdits() {
+        Random random = new Random(1234);
+        String pieces = "ab1 \n:=<>(){}truefalse;if+*x";
+        String text = "x: int := 35;\nwhile (x <= 123)\n{ iffy }\n";
+        TokenBuffer buffer = Tokenizer.tokenizeToBuffer(text);
+        for (int i = 0; i < 2000; ++i) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(4, text.length() - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(4); j > 0; --j) {
+                inserted.append(pieces.charAt(random.nextInt(pieces.length())));
+            }
+            SourceEdit edit = new SourceEdit(offset, removed, inserted.toString());
+            TokenBuffer expected;
+            try {
+                expected = Tokenizer.tokenizeToBuffer(edit.apply(text));
+            } catch (TokenizerError e) {
+                continue; // Tested separately
+            }
+            text = edit.apply(text);
+            buffer = Tokenizer.retokenize(buffer, edit);
+            assertSameTokens(expected, buffer);
+        }
+    }
+
+    @Test
+    public void testRetokenizeAsciiBytes() throws Exception {
+        String input = "x := 1;\nwhile x < 10 do x := x + 1;";
+        ByteBuffer bytes = ByteBuffer.wrap(input.getBytes("US-ASCII")).asReadOnlyBuffer();
+        TokenBuffer buffer = Tokenizer.tokenizeToBuffer(SourceText.fromAsciiBytes(bytes), new Symbols());
+        SourceEdit edit = new SourceEdit(input.indexOf("10"), 2, "100");
+        assertSameTokens(Tokenizer.tokenizeToBuffer(edit.apply(input)), Tokenizer.retokenize(buffer, edit));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetokenizeNeedsAnEditableSource() {
+        TokenBuffer buffer = Tokenizer.tokenizeToBuffer(SourceText.fromReader(new StringReader("x := 1")), new Symbols());
+        Tokenizer.retokenize(buffer, new SourceEdit(0, 1, "y"));
+    }
+
+    @Test(expected = TokenizerError.class)
+    public void testRetokenizeError() {
+        Tokenizer.retokenize(Tokenizer.tokenizeToBuffer("x := 1"), new SourceEdit(2, 0, "#"));
+    }
+
+    @Test
+    public void testParallelGivesSameTokens() {
+        String input = randomTokens(new Random(4321), 400000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Symbols sequentialSymbols = new Symbols();
+        Symbols parallelSymbols = new Symbols();
+        TokenBuffer expected = Tokenizer.tokenizeToBuffer(SourceText.fromString(input), sequentialSymbols);
+        TokenBuffer actual = Tokenizer.tokenizeInParallel(SourceText.fromString(input), parallelSymbols, pool);
+        pool.shutdown();
+        
+        assertSameTokens(expected, actual);
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.symbol(i), actual.symbol(i));
+        }
+        assertEquals(sequentialSymbols.size(), parallelSymbols.size());
+    }
+    
+    @Test
+    public void testParallelErrorPosition() {
+        String input = randomTokens(new Random(99), 400000);
+        input = input.substring(0, 1500000) + " # " + input.substring(1500000);
+        String expected = null;
+        try {
+            Tokenizer.tokenizeToBuffer(input);
+        } catch (TokenizerError e) {
+            expected = e.getMessage();
+        }
+        try {
+            Tokenizer.tokenizeInParallel(SourceText.fromString(input), new Symbols(), new ForkJoinPool(4));
+            fail();
+        } catch (TokenizerError e) {
+            assertEquals(expected, e.getMessage());
+        }
+    }
+    
+    /** Tokens separated by all kinds of whitespace, with long stretches without newlines. */
+    private String randomTokens(Random random, int count) {
+        String[] tokens = { "x", "y1", "iffy", "trueish", "false", "while", "123", ":=", "<", "<=", "<>", "(", ")", ";" };
+        String[] spaces = { " ", " ", "  ", "\t", "\n", "\r\n", "\n\n  ", "" };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+            boolean longLine = (i / 20000) % 2 == 0;
+            String space = spaces[random.nextInt(spaces.length)];
+            if (longLine && space.contains("\n")) {
+                space = " ";
+            }
+            sb.append(space);
+        }
+        return sb.toString();
+    }
+    
+    private void assertRetokenizes(String input, SourceEdit edit) {
+        TokenBuffer buffer = Tokenizer.retokenize(Tokenizer.tokenizeToBuffer(input), edit);
+        assertSameTokens(Tokenizer.tokenizeToBuffer(edit.apply(input)), buffer);
+    }
+
+    private void assertSameTokens(TokenBuffer expected, TokenBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.token(i), actual.token(i));
+            assertEquals(expected.start(i), actual.start(i));
+            assertEquals(expected.length(i), actual.length(i));
+        }
+    }
 }
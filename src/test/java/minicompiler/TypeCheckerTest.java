@@ -15,6 +15,10 @@ public class TypeCheckerTest {
         shouldCheck("(1 - 3) / 2;");
         shouldFail("1 + true;");
         shouldFail("(1 - true) / 2;");
+        shouldCheck("-1 * -(2 - 3);");
+        shouldFail("-true;");
+        shouldCheck("printInt(-1);");
+        shouldFail("!1;");
     }
     
     @Test
@@ -51,6 +55,37 @@ public class TypeCheckerTest {
         shouldCheck("{ x : int := 3; while x > 0 do { y : int := 1; x := x - y; } x := x + 5; }");
     }
     
+    @Test
+    public void testRepeatedExpressions() {
+        shouldCheck("{ x : int := 1; printInt(x + 1); { y : int := 2; printInt(x + 1); } printInt(x + 1); }");
+        shouldFail("{ { x : int := 1; printInt(x + 1); } { x : bool := true; printInt(x + 1); } }");
+        shouldFail("{ { x : int := 1; printInt(x + 1); } printInt(x + 1); }");
+        shouldFail("{ printInt(1 + 2); x : bool := 1 + 2; }");
+    }
+    
+    @Test
+    public void testDeepNesting() {
+        StringBuilder sb = new StringBuilder("{ x : int := 1; ");
+        for (int i = 0; i < 50000; ++i) {
+            sb.append("while x > 0 do { ");
+        }
+        sb.append("x := ");
+        for (int i = 0; i < 50000; ++i) {
+            sb.append("1 + (x * (");
+        }
+        sb.append("2");
+        for (int i = 0; i < 50000; ++i) {
+            sb.append("))");
+        }
+        sb.append(";");
+        for (int i = 0; i < 50000; ++i) {
+            sb.append(" }");
+        }
+        String code = sb.append(" }").toString();
+        shouldCheck(code);
+        shouldFail(code.replace("(2))", "(true))"));
+    }
+    
     private void shouldCheck(String code) {
         Statement stmt = Parser.parseStatement(Tokenizer.tokenize(code));
         TypeChecker.checkTypes(stmt, StdlibTypes.getTypes());
@@ -0,0 +1,125 @@
+package minicompiler.ast;
+
+import java.util.ArrayList;
+import minicompiler.Parser;
+import minicompiler.Tokenizer;
+import minicompiler.misc.Symbols;
+import minicompiler.types.BoolType;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static minicompiler.ast.FlatAst.Kind.*;
+
+public class FlatAstTest {
+    
+    @Test
+    public void testRoundTrip() {
+        String code =
+                "{\n" +
+                "  x : int := 1 + 2 * 3;\n" +
+                "  b : bool := !true;\n" +
+                "  while x < 10 do { x := x + 1; print(x); }\n" +
+                "  if b then f(x, 2); else { g(); }\n" +
+                "  if b then print(1);\n" +
+                "  -x;\n" +
+                "}";
+        Statement stmt = parse(code);
+        FlatAst ast = FlatAst.fromStatement(stmt, new Symbols());
+        assertEquals(stmt, ast.toStatement(ast.getRoot()));
+        
+        Statement empty = new Block(new EmptyStatement(), new Var("x"));
+        ast = FlatAst.fromStatement(empty, new Symbols());
+        assertEquals(empty, ast.toStatement(ast.getRoot()));
+    }
+    
+    @Test
+    public void testLayout() {
+        Symbols symbols = new Symbols();
+        FlatAst ast = FlatAst.fromStatement(parse("{ b : bool := f(x, 3) < y; }"), symbols);
+        
+        int block = ast.getRoot();
+        assertEquals(BLOCK, ast.kind(block));
+        assertEquals(1, ast.childCount(block));
+        
+        int decl = ast.child(block, 0);
+        assertEquals(DECLARATION, ast.kind(decl));
+        assertEquals("b", ast.name(decl));
+        assertEquals(BoolType.instance, ast.declaredType(decl));
+        
+        int comparison = ast.expr(decl);
+        assertEquals(BINARY_OP, ast.kind(comparison));
+        assertEquals(symbols.intern("<"), ast.symbol(comparison));
+        assertEquals("y", ast.name(ast.right(comparison)));
+        
+        int call = ast.left(comparison);
+        assertEquals(CALL, ast.kind(call));
+        assertEquals("f", ast.name(call));
+        assertEquals(2, ast.childCount(call));
+        assertEquals(VAR, ast.kind(ast.child(call, 0)));
+        assertEquals(3, ast.intValue(ast.child(call, 1)));
+        
+        assertTrue(ast.isExpr(call));
+        assertFalse(ast.isExpr(decl));
+        assertTrue(comparison < decl && decl < block);
+    }
+    
+    @Test
+    public void testIdenticalExpressionsAreShared() {
+        FlatAst ast = FlatAst.fromStatement(parse("{ x := f(y * 2, 1) + 1; z := f(y * 2, 1); f(y * 2); }"), new Symbols());
+        int block = ast.getRoot();
+        int first = ast.expr(ast.child(block, 0));
+        int second = ast.expr(ast.child(block, 1));
+        int third = ast.child(block, 2);
+        assertEquals(ast.left(first), second);
+        assertEquals(ast.child(second, 1), ast.right(first));
+        assertEquals(ast.child(second, 0), ast.child(third, 0));
+        assertTrue(second != third);
+        
+        assertTrue(ast.hasVariables(first));
+        assertFalse(ast.isConstant(first));
+        assertTrue(ast.isConstant(ast.right(first)));
+        
+        Block shared = (Block)ast.toStatement(block);
+        Expr call = ((Assignment)shared.statements.get(1)).expr;
+        assertSame(((BinaryOp)((Assignment)shared.statements.get(0)).expr).left, call);
+    }
+    
+    @Test
+    public void testCursorVisitsInSourceOrder() {
+        FlatAst ast = FlatAst.fromStatement(parse("if a then { x := 1; } else y := f(2, z);"), new Symbols());
+        ArrayList<FlatAst.Kind> kinds = new ArrayList<FlatAst.Kind>();
+        FlatAst.Cursor cursor = new FlatAst.Cursor();
+        cursor.push(ast.getRoot());
+        while (cursor.next()) {
+            kinds.add(ast.kind(cursor.node()));
+            ast.pushChildren(cursor, cursor.node());
+        }
+        FlatAst.Kind[] expected = {
+            IF, VAR, BLOCK, ASSIGNMENT, INT_CONST, ASSIGNMENT, CALL, INT_CONST, VAR
+        };
+        assertArrayEquals(expected, kinds.toArray());
+    }
+    
+    @Test
+    public void testDeepNesting() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            sb.append("if x then ");
+        }
+        sb.append("x := 1;");
+        Symbols symbols = new Symbols();
+        FlatAst ast = FlatAst.fromStatement(parse(sb.toString()), symbols);
+        FlatAst again = FlatAst.fromStatement(ast.toStatement(ast.getRoot()), symbols);
+        
+        assertEquals(ast.size(), again.size());
+        int node = again.getRoot();
+        for (int i = 0; i < 100000; ++i) {
+            assertEquals(IF, again.kind(node));
+            node = again.thenClause(node);
+        }
+        assertEquals(ASSIGNMENT, again.kind(node));
+    }
+    
+    private Statement parse(String code) {
+        return Parser.parseStatement(Tokenizer.tokenize(code));
+    }
+}
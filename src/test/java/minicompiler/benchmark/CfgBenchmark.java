@@ -0,0 +1,56 @@
+package minicompiler.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import minicompiler.Compiler;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.cfg.Dominators;
+import minicompiler.ir.cfg.LoopForest;
+
+/**
+ * Times building the CFG, its dominators and loops, and linearizing it again,
+ * on programs with more and more labels. The time per label should stay flat.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.CfgBenchmark
+ * </pre>
+ */
+public class CfgBenchmark {
+    public static void main(String[] args) throws IOException {
+        System.out.println("    groups     labels  build ms  analyze ms  linearize ms  ns/label");
+        for (int groups = 1000; groups <= 64000; groups *= 4) {
+            PackedIr ir = Compiler.compileToIr(new StringReader(ProgramGenerator.flatProgram(groups)),
+                    Compiler.FrontEnd.SINGLE_PASS);
+
+            long bestBuild = Long.MAX_VALUE;
+            long bestAnalyze = Long.MAX_VALUE;
+            long bestLinearize = Long.MAX_VALUE;
+            int labels = 0;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                Cfg cfg = Cfg.build(ir);
+                bestBuild = Math.min(bestBuild, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                LoopForest.compute(cfg, Dominators.compute(cfg));
+                bestAnalyze = Math.min(bestAnalyze, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                cfg.linearize();
+                bestLinearize = Math.min(bestLinearize, System.nanoTime() - start);
+
+                labels = 0;
+                for (int b = 0; b < cfg.blockCount(); ++b) {
+                    if (cfg.label(b) != -1) {
+                        labels++;
+                    }
+                }
+            }
+
+            long total = bestBuild + bestAnalyze + bestLinearize;
+            System.out.println(String.format("%10d %10d %9.1f %11.1f %13.1f %9.1f",
+                    groups, labels, bestBuild / 1e6, bestAnalyze / 1e6, bestLinearize / 1e6, (double)total / labels));
+        }
+    }
+}
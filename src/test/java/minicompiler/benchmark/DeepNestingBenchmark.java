@@ -0,0 +1,53 @@
+package minicompiler.benchmark;
+
+import java.util.List;
+import minicompiler.IrGenerator;
+import minicompiler.Parser;
+import minicompiler.TypeChecker;
+import minicompiler.Tokenizer;
+import minicompiler.ast.Statement;
+import minicompiler.ir.IrCommand;
+import minicompiler.types.StdlibTypes;
+
+/**
+ * Parses, type checks and generates IR for programs with deeply nested 'if's
+ * and parentheses.
+ *
+ * <p>
+ * None of these stages recurse, so the time should grow linearly with the depth
+ * and even a nesting depth of a million shouldn't overflow the stack.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.DeepNestingBenchmark
+ * </pre>
+ */
+public class DeepNestingBenchmark {
+    public static void main(String[] args) {
+        System.out.println("     depth   parse ms   check ms      ir ms  ir commands");
+        for (int depth = 1000; depth <= 1000000; depth *= 10) {
+            String source = ProgramGenerator.nestedIfs(depth);
+
+            long bestParse = Long.MAX_VALUE;
+            long bestCheck = Long.MAX_VALUE;
+            long bestIr = Long.MAX_VALUE;
+            int irSize = 0;
+            for (int round = 0; round < 3; ++round) {
+                long start = System.nanoTime();
+                Statement stmt = Parser.parseStatement(Tokenizer.tokenizeToBuffer(source).stream());
+                bestParse = Math.min(bestParse, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                TypeChecker.checkTypes(stmt, StdlibTypes.getTypes());
+                bestCheck = Math.min(bestCheck, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                List<IrCommand> ir = IrGenerator.generate(stmt);
+                bestIr = Math.min(bestIr, System.nanoTime() - start);
+                irSize = ir.size();
+            }
+
+            System.out.println(String.format("%10d %10.1f %10.1f %10.1f %12d",
+                    depth, bestParse / 1e6, bestCheck / 1e6, bestIr / 1e6, irSize));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package minicompiler.benchmark;
+
+import minicompiler.IrGenerator;
+import minicompiler.Parser;
+import minicompiler.SinglePassFrontEnd;
+import minicompiler.TokenBuffer;
+import minicompiler.Tokenizer;
+import minicompiler.TypeChecker;
+import minicompiler.ast.FlatAst;
+import minicompiler.misc.Symbols;
+import minicompiler.types.StdlibTypes;
+
+/**
+ * Compares turning tokens into IR by parsing, type checking and generating IR
+ * as separate passes with doing it all in a single pass.
+ * Tokenizing isn't timed.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.FrontEndBenchmark
+ * </pre>
+ */
+public class FrontEndBenchmark {
+    public static void main(String[] args) {
+        System.out.println("    groups  separate ms  single ms");
+        for (int groups = 1000; groups <= 256000; groups *= 4) {
+            TokenBuffer tokens = Tokenizer.tokenizeToBuffer(ProgramGenerator.flatProgram(groups));
+
+            long bestSeparate = Long.MAX_VALUE;
+            long bestSingle = Long.MAX_VALUE;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                Symbols symbols = new Symbols();
+                FlatAst ast = FlatAst.fromStatement(Parser.parseStatement(tokens.stream()), symbols);
+                TypeChecker.checkTypes(ast, StdlibTypes.getTypes());
+                IrGenerator.generate(ast);
+                bestSeparate = Math.min(bestSeparate, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                SinglePassFrontEnd.generate(tokens.stream(), StdlibTypes.getTypes());
+                bestSingle = Math.min(bestSingle, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%10d %12.1f %10.1f",
+                    groups, bestSeparate / 1e6, bestSingle / 1e6));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package minicompiler.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates large, valid programs resembling machine-generated code.
+ */
+public class ProgramGenerator {
+    /**
+     * A top-level block of declarations, assignments, ifs and whiles.
+     * Each group of statements declares its own variable so all of them type check.
+     */
+    public static String flatProgram(int groups) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        for (int i = 0; i < groups; ++i) {
+            String v = "v" + i;
+            sb.append("  ").append(v).append(" : int := ").append(i % 97).append(" * 3 + 1;\n");
+            sb.append("  if ").append(v).append(" <> 7 then ").append(v).append(" := (").append(v).append(" - 2) / 5;\n");
+            sb.append("    else printInt(").append(v).append(");\n");
+            sb.append("  while ").append(v).append(" >= 1 do {\n");
+            sb.append("    ").append(v).append(" := ").append(v).append(" - 1;\n");
+            sb.append("  }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /** An expression nested in the given number of parentheses, like '(0 + (1 * (1)))'. */
+    public static String nestedExpression(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            sb.append("(").append(i % 10).append(i % 2 == 0 ? " + " : " * ");
+        }
+        sb.append("1");
+        for (int i = 0; i < depth; ++i) {
+            sb.append(")");
+        }
+        return sb.toString();
+    }
+
+    /** A program with the given number of 'if's nested inside each other. */
+    public static String nestedIfs(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  x : int := readInt();\n");
+        for (int i = 0; i < depth; ++i) {
+            sb.append("if x > ").append(i % 100).append(" then {\n");
+        }
+        sb.append("printInt(").append(nestedExpression(depth)).append(");\n");
+        for (int i = 0; i < depth; ++i) {
+            sb.append("} else x := x - 1;\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * A program with the given number of variables and as many 'while's nested
+     * inside each other, the innermost of which assigns every variable.
+     * In SSA form, each variable needs a phi at each loop.
+     */
+    public static String nestedLoops(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        for (int i = 0; i < depth; ++i) {
+            sb.append("  v").append(i).append(" : int := 1;\n");
+        }
+        for (int i = 0; i < depth; ++i) {
+            sb.append("while v").append(i).append(" > 0 do {\n");
+        }
+        for (int i = 0; i < depth; ++i) {
+            sb.append("  v").append(i).append(" := v").append(i).append(" - 1;\n");
+        }
+        for (int i = 0; i < depth; ++i) {
+            sb.append("}\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * A program that declares the given number of variables and then opens
+     * as many scopes, each declaring a variable of its own.
+     * The scopes are siblings, except that every tenth starts a nest
+     * of 'while's ten deep.
+     */
+    public static String manyScopes(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        for (int i = 0; i < count; ++i) {
+            sb.append("  v").append(i).append(" : int := ").append(i % 97).append(";\n");
+        }
+        for (int i = 0; i < count; i += 10) {
+            for (int j = i; j < i + 10; ++j) {
+                String v = "v" + j;
+                sb.append("while ").append(v).append(" > 0 do {\n");
+                sb.append("  s").append(j).append(" : int := ").append(v).append(" - 1;\n");
+                sb.append("  ").append(v).append(" := s").append(j).append(";\n");
+            }
+            for (int j = i; j < i + 10; ++j) {
+                sb.append("}\n");
+            }
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * A random program that type checks and terminates.
+     * Loops count a variable of their own up to a small bound,
+     * and nothing else assigns to it.
+     */
+    public static String randomProgram(Random random, int statements) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        for (String v : INT_VARS) {
+            sb.append("  ").append(v).append(" : int := ").append(random.nextInt(10)).append(";\n");
+        }
+        for (String v : BOOL_VARS) {
+            sb.append("  ").append(v).append(" : bool := ").append(random.nextBoolean()).append(";\n");
+        }
+        for (int i = 0; i < statements; ++i) {
+            randomStatement(random, sb, 0);
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static final String[] INT_VARS = { "a", "b", "c", "d" };
+    private static final String[] BOOL_VARS = { "p", "q" };
+    private static final String[] INT_OPS = { "+", "-", "*", "/", "%" };
+    private static final String[] COMPARISONS = { "<", ">", "<=", ">=", "==", "<>" };
+    private static final int[] INTERESTING_INTS = { 0, 1, 2, -1, 7, 1000000, Integer.MAX_VALUE };
+
+    private static void randomStatement(Random random, StringBuilder sb, int depth) {
+        switch (random.nextInt(depth < 3 ? 7 : 4)) {
+            case 0:
+            case 1:
+                sb.append(pick(random, INT_VARS)).append(" := ").append(randomIntExpr(random, 0)).append(";\n");
+                break;
+            case 2:
+                sb.append(pick(random, BOOL_VARS)).append(" := ").append(randomBoolExpr(random, 0)).append(";\n");
+                break;
+            case 3:
+                sb.append("printInt(").append(randomIntExpr(random, 0)).append(");\n");
+                break;
+            case 4:
+                sb.append("if ").append(randomBoolExpr(random, 0)).append(" then {\n");
+                randomStatements(random, sb, depth + 1);
+                if (random.nextBoolean()) {
+                    sb.append("} else {\n");
+                    randomStatements(random, sb, depth + 1);
+                }
+                sb.append("}\n");
+                break;
+            case 5:
+            case 6:
+                String counter = "i" + depth;
+                sb.append("{\n").append(counter).append(" : int := 0;\n");
+                sb.append("while ").append(counter).append(" < ").append(random.nextInt(5)).append(" do {\n");
+                randomStatements(random, sb, depth + 1);
+                sb.append(counter).append(" := ").append(counter).append(" + 1;\n");
+                sb.append("}\n}\n");
+                break;
+        }
+    }
+
+    private static void randomStatements(Random random, StringBuilder sb, int depth) {
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; ++i) {
+            randomStatement(random, sb, depth);
+        }
+    }
+
+    private static String randomIntExpr(Random random, int depth) {
+        switch (random.nextInt(depth < 3 ? 7 : 3)) {
+            case 0:
+                return Integer.toString(random.nextBoolean() ? random.nextInt(20) : pick(random, INTERESTING_INTS));
+            case 1:
+            case 2:
+                return pick(random, INT_VARS);
+            case 3:
+                return random.nextInt(3) == 0 ? "readInt()" : "-" + randomIntExpr(random, depth + 1);
+            default:
+                return "(" + randomIntExpr(random, depth + 1) + " " + pick(random, INT_OPS) + " "
+                        + randomIntExpr(random, depth + 1) + ")";
+        }
+    }
+
+    private static String randomBoolExpr(Random random, int depth) {
+        switch (random.nextInt(depth < 3 ? 4 : 2)) {
+            case 0:
+                return random.nextBoolean() ? pick(random, BOOL_VARS) : Boolean.toString(random.nextBoolean());
+            case 1:
+            case 2:
+                return "(" + randomIntExpr(random, depth + 1) + " " + pick(random, COMPARISONS) + " "
+                        + randomIntExpr(random, depth + 1) + ")";
+            default:
+                return "!" + randomBoolExpr(random, depth + 1);
+        }
+    }
+
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private static int pick(Random random, int[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+}
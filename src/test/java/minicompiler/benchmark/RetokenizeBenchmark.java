@@ -0,0 +1,44 @@
+package minicompiler.benchmark;
+
+import minicompiler.SourceEdit;
+import minicompiler.TokenBuffer;
+import minicompiler.Tokenizer;
+
+/**
+ * Compares tokenizing a whole file again after a one-character edit
+ * to retokenizing just the edited part.
+ *
+ * <p>
+ * Retokenizing still copies the token arrays, but it should be
+ * several times faster than scanning every character again.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.RetokenizeBenchmark
+ * </pre>
+ */
+public class RetokenizeBenchmark {
+    public static void main(String[] args) {
+        System.out.println("     chars   full ms  retokenize ms");
+        for (int groups = 1000; groups <= 256000; groups *= 2) {
+            String source = ProgramGenerator.flatProgram(groups);
+            TokenBuffer original = Tokenizer.tokenizeToBuffer(source);
+            SourceEdit edit = new SourceEdit(source.length() / 2, 0, " ");
+            String edited = edit.apply(source);
+
+            long bestFull = Long.MAX_VALUE;
+            long bestIncremental = Long.MAX_VALUE;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                Tokenizer.tokenizeToBuffer(edited);
+                bestFull = Math.min(bestFull, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                Tokenizer.retokenize(original, edit);
+                bestIncremental = Math.min(bestIncremental, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%10d %9.2f %14.2f",
+                    source.length(), bestFull / 1e6, bestIncremental / 1e6));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package minicompiler.benchmark;
+
+import minicompiler.Parser;
+import minicompiler.Tokenizer;
+import minicompiler.TypeChecker;
+import minicompiler.ast.FlatAst;
+import minicompiler.misc.Symbols;
+import minicompiler.types.StdlibTypes;
+
+/**
+ * Type checks programs with many variables and many nested scopes.
+ * Each program has as many variables declared at the top as it has scopes.
+ *
+ * <p>
+ * Entering and leaving a scope should take constant time no matter how many
+ * variables are visible, so the time per scope should stay flat
+ * as the programs grow.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.SymbolTableBenchmark
+ * </pre>
+ */
+public class SymbolTableBenchmark {
+    public static void main(String[] args) {
+        System.out.println("    scopes   check ms  ns/scope");
+        for (int count = 1000; count <= 512000; count *= 2) {
+            String source = ProgramGenerator.manyScopes(count);
+            Symbols symbols = new Symbols();
+            FlatAst ast = FlatAst.fromStatement(Parser.parseStatement(Tokenizer.tokenizeToBuffer(source).stream()), symbols);
+
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                TypeChecker.checkTypes(ast, StdlibTypes.getTypes());
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%10d %10.1f %9.1f",
+                    count, best / 1e6, (double)best / count));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package minicompiler.benchmark;
+
+import java.util.List;
+import minicompiler.SourceText;
+import minicompiler.Token;
+import minicompiler.TokenBuffer;
+import minicompiler.Tokenizer;
+import minicompiler.misc.Symbols;
+
+/**
+ * Shows how tokenizing time grows with the size of the input.
+ *
+ * <p>
+ * The time per character should stay roughly constant as the input grows.
+ * Tokenizing into a {@link TokenBuffer} should be faster than making a list
+ * of Token objects, since it allocates much less.
+ * Tokenizing in parallel should be faster still once the input is
+ * a few megabytes, by up to the number of cores.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=minicompiler.benchmark.TokenizerBenchmark
+ * </pre>
+ */
+public class TokenizerBenchmark {
+    public static void main(String[] args) {
+        System.out.println("     chars     tokens   list ms  ns/char  buffer ms  ns/char  parallel ms  ns/char");
+        for (int groups = 1000; groups <= 256000; groups *= 2) {
+            String source = ProgramGenerator.flatProgram(groups);
+
+            long bestList = Long.MAX_VALUE;
+            long bestBuffer = Long.MAX_VALUE;
+            long bestParallel = Long.MAX_VALUE;
+            int tokenCount = 0;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                List<Token> tokens = Tokenizer.tokenize(source);
+                bestList = Math.min(bestList, System.nanoTime() - start);
+                tokenCount = tokens.size();
+                tokens = null;
+
+                start = System.nanoTime();
+                TokenBuffer buffer = Tokenizer.tokenizeToBuffer(source);
+                bestBuffer = Math.min(bestBuffer, System.nanoTime() - start);
+                buffer = null;
+
+                start = System.nanoTime();
+                buffer = Tokenizer.tokenizeInParallel(SourceText.fromString(source), new Symbols());
+                bestParallel = Math.min(bestParallel, System.nanoTime() - start);
+                buffer = null;
+            }
+
+            System.out.println(String.format("%10d %10d %9.1f %8.2f %10.1f %8.2f %12.1f %8.2f",
+                    source.length(), tokenCount,
+                    bestList / 1e6, (double)bestList / source.length(),
+                    bestBuffer / 1e6, (double)bestBuffer / source.length(),
+                    bestParallel / 1e6, (double)bestParallel / source.length()));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package minicompiler.integration;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Scanner;
 import minicompiler.misc.FileUtils;
 import org.junit.AfterClass;
@@ -58,10 +59,36 @@ public class ExamplesIT {
         assertArrayEquals(new int[] { 11, 34, 17, 52, 26, 13, 40, 20, 10, 5, 16, 8, 4, 2, 1 }, runExample("collatz", 11));
     }
     
+    @Test
+    public void testIfStatement() throws Exception {
+        compileExample("if-statement");
+        assertArrayEquals(new int[] { 1, 0, 0 }, runExample("if-statement"));
+    }
+    
+    @Test
+    public void testOperators() throws Exception {
+        compileExample("operators");
+        assertArrayEquals(new int[] { -3, 3, -1, 0, 0, 1 }, runExample("operators", 3));
+        assertArrayEquals(new int[] { -7, 3, -3, 1, 1, 0 }, runExample("operators", 7));
+        assertArrayEquals(new int[] { 5, -1, 2, 1, 1, 0 }, runExample("operators", -5));
+    }
+    
+    /** Options for the compiler, like an optimization level. */
+    protected String compilerFlags() {
+        return "";
+    }
+    
     private void compileExample(String name) throws Exception {
         String command = "./compile.sh " + name + ".mini";
+        ArrayList<String> env = new ArrayList<String>();
+        for (Map.Entry<String, String> e : System.getenv().entrySet()) {
+            if (!e.getKey().equals("MINICOMPILER_FLAGS")) {
+                env.add(e.getKey() + "=" + e.getValue());
+            }
+        }
+        env.add("MINICOMPILER_FLAGS=" + compilerFlags());
         Runtime rt = Runtime.getRuntime();
-        Process proc = rt.exec(command, null, new File("./examples"));
+        Process proc = rt.exec(command, env.toArray(new String[env.size()]), new File("./examples"));
         if (proc.waitFor() != 0) {
             fail(command + " exited with " + proc.exitValue());
         }
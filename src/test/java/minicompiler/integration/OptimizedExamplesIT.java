@@ -0,0 +1,11 @@
+package minicompiler.integration;
+
+/**
+ * Runs the examples compiled with all optimizations.
+ */
+public class OptimizedExamplesIT extends ExamplesIT {
+    @Override
+    protected String compilerFlags() {
+        return "-O2";
+    }
+}
@@ -0,0 +1,145 @@
+package minicompiler.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import minicompiler.Compiler;
+import minicompiler.backend.ia32.IA32CodeGen;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.errors.CompilerError;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class IrFileTest {
+    private static final String source =
+            "{ x : int := -readInt(); if !(x <> 3) then printInt(x % 2); else x := x * (1 - 2) / 3; }";
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String[] sources = { source, ProgramGenerator.flatProgram(50), ProgramGenerator.nestedIfs(50) };
+        for (String s : sources) {
+            PackedIr ir = compile(s);
+            PackedIr read = IrFile.read(IrFile.toBytes(ir));
+            assertEquals(ir.instructionCount(), read.instructionCount());
+            assertEquals(ir.toCommands(), read.toCommands());
+            assertEquals(IA32CodeGen.generateAsmProgram(ir), IA32CodeGen.generateAsmProgram(read));
+        }
+    }
+
+    @Test
+    public void testSymbolsKeepTheirIds() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int temp = symbols.generate("$t", 7);
+        int sameText = symbols.intern("$t7");
+        int other = symbols.generate("$t", 8);
+        int unicode = symbols.intern("näme");
+
+        Symbols read = IrFile.read(IrFile.toBytes(new PackedIr(symbols))).getSymbols();
+        assertEquals(symbols.size(), read.size());
+        assertEquals(x, read.lookup("x"));
+        assertEquals("$t7", read.name(temp));
+        assertTrue(read.isGenerated(temp));
+        assertEquals(sameText, read.lookup("$t7"));
+        assertEquals("$t8", read.name(other));
+        assertEquals(unicode, read.lookup("näme"));
+    }
+
+    @Test
+    public void testCompilingAnIrFile() throws IOException {
+        File sourceFile = File.createTempFile("irfiletest", ".mini");
+        File irFile = File.createTempFile("irfiletest", ".mir");
+        try {
+            Files.write(sourceFile.toPath(), source.getBytes("US-ASCII"));
+            PackedIr ir = Compiler.compileToIr(sourceFile, Compiler.FrontEnd.SEPARATE_PASSES);
+            IrFile.write(ir, irFile);
+            PackedIr read = Compiler.compileToIr(irFile, Compiler.FrontEnd.SEPARATE_PASSES);
+            assertEquals(IA32CodeGen.generateAsmProgram(ir), IA32CodeGen.generateAsmProgram(read));
+        } finally {
+            sourceFile.delete();
+            irFile.delete();
+        }
+    }
+
+    @Test
+    public void testRewritingDoesntChangeTheFile() throws IOException {
+        File irFile = File.createTempFile("irfiletest", ".mir");
+        try {
+            PackedIr ir = compile(source);
+            IrFile.write(ir, irFile);
+            byte[] before = Files.readAllBytes(irFile.toPath());
+
+            PackedIr read = IrFile.read(irFile);
+            PackedIr.Cursor c = read.cursor();
+            while (c.next()) {
+                for (int i = 0; i < c.argCount(); ++i) {
+                    c.setArg(i, read.constant(42));
+                }
+            }
+            assertFalse(ir.toCommands().equals(read.toCommands()));
+            assertTrue(Arrays.equals(before, Files.readAllBytes(irFile.toPath())));
+        } finally {
+            irFile.delete();
+        }
+    }
+
+    @Test
+    public void testBadFiles() throws IOException {
+        ByteBuffer good = IrFile.toBytes(compile(source));
+
+        assertRejected(ByteBuffer.wrap("{ x : int := 1; }".getBytes("US-ASCII")), "Not an IR file");
+
+        ByteBuffer newer = copy(good);
+        newer.putInt(4, IrFile.VERSION + 1);
+        assertRejected(newer, "IR file version " + (IrFile.VERSION + 1) + " is not supported (expected " + IrFile.VERSION + ")");
+
+        ByteBuffer truncated = copy(good);
+        truncated.limit(truncated.limit() - 4);
+        assertRejected(truncated, "IR file is truncated");
+
+        ByteBuffer huge = copy(good);
+        huge.putInt(20, Integer.MAX_VALUE);
+        assertRejected(huge, "IR file is truncated");
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        File irFile = File.createTempFile("irfiletest", ".mir");
+        try {
+            IrFile.write(compile(source), irFile);
+            RandomAccessFile in = new RandomAccessFile(irFile, "r");
+            try {
+                byte[] magic = new byte[4];
+                in.readFully(magic);
+                assertArrayEquals(new byte[] { 'M', 'I', 'R', 0 }, magic);
+                assertEquals(0, in.length() % 4);
+            } finally {
+                in.close();
+            }
+        } finally {
+            irFile.delete();
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer bytes) {
+        ByteBuffer copy = ByteBuffer.allocate(bytes.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(bytes.duplicate());
+        copy.clear();
+        return copy;
+    }
+
+    private static void assertRejected(ByteBuffer bytes, String message) {
+        try {
+            IrFile.read(bytes);
+            fail("Read a bad IR file");
+        } catch (CompilerError e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package minicompiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import minicompiler.misc.Symbols;
+
+/**
+ * Runs a {@link PackedIr} program, so tests can check that a transformation
+ * doesn't change what a program prints.
+ *
+ * <p>
+ * Arithmetic wraps around like 32-bit machine arithmetic. Dividing by zero
+ * and dividing the smallest int by -1 trap like idivl does.
+ * readInt() returns the given inputs in turn and 0 after them.
+ */
+public class IrInterpreter {
+    /** Thrown when the program runs for too many steps. */
+    public static class TooManySteps extends RuntimeException {
+        public TooManySteps() {
+            super("Too many steps");
+        }
+    }
+
+    /** Thrown when the program divides by zero or overflows a division. */
+    public static class Trap extends RuntimeException {
+        public Trap() {
+            super("Division trap");
+        }
+    }
+
+    private final PackedIr ir;
+    private final int[] labelPositions;
+    private final int printInt;
+    private final int readInt;
+
+    private int steps;
+
+    public IrInterpreter(PackedIr ir) {
+        this.ir = ir;
+        Symbols symbols = ir.getSymbols();
+        this.labelPositions = new int[symbols.size()];
+        PackedIr.Cursor c = ir.cursor();
+        while (c.next()) {
+            if (c.opcode() == Opcode.LABEL) {
+                labelPositions[c.label()] = c.position();
+            }
+        }
+        this.printInt = symbols.lookup("printInt");
+        this.readInt = symbols.lookup("readInt");
+    }
+
+    /** Runs the program and returns what it printed, followed by null if it trapped. */
+    public static List<Integer> run(PackedIr ir, int[] inputs) {
+        return new IrInterpreter(ir).run(inputs, 1000000);
+    }
+
+    public List<Integer> run(int[] inputs, int maxSteps) {
+        int[] registers = new int[ir.getSymbols().size()];
+        ArrayList<Integer> output = new ArrayList<Integer>();
+        int nextInput = 0;
+        steps = 0;
+
+        PackedIr.Cursor c = ir.cursor();
+        try {
+            while (c.next()) {
+                if (++steps > maxSteps) {
+                    throw new TooManySteps();
+                }
+                Opcode op = c.opcode();
+                switch (op) {
+                    case LABEL:
+                        break;
+                    case GOTO:
+                        c.seek(labelPositions[c.label()]);
+                        break;
+                    case GOTO_IF:
+                        if (value(registers, c.arg(0)) != 0) {
+                            c.seek(labelPositions[c.label()]);
+                        }
+                        break;
+                    case GOTO_IF_NOT:
+                        if (value(registers, c.arg(0)) == 0) {
+                            c.seek(labelPositions[c.label()]);
+                        }
+                        break;
+                    case CALL:
+                        int result = 0;
+                        if (c.function() == printInt) {
+                            output.add(value(registers, c.arg(0)));
+                        } else if (c.function() == readInt) {
+                            result = (nextInput < inputs.length) ? inputs[nextInput++] : 0;
+                        } else {
+                            throw new IllegalStateException("Unknown function: " + ir.getSymbols().name(c.function()));
+                        }
+                        registers[c.target()] = result;
+                        break;
+                    default:
+                        int a = value(registers, c.arg(0));
+                        int b = (c.argCount() > 1) ? value(registers, c.arg(1)) : 0;
+                        registers[c.target()] = evaluate(op, a, b);
+                }
+            }
+        } catch (Trap e) {
+            output.add(null);
+        }
+        return output;
+    }
+
+    /** The number of instructions the last run executed. */
+    public int steps() {
+        return steps;
+    }
+
+    private int value(int[] registers, int operand) {
+        return PackedIr.isConstant(operand) ? ir.constantValue(operand) : registers[operand];
+    }
+
+    private static int evaluate(Opcode op, int a, int b) {
+        switch (op) {
+            case COPY: return a;
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV:
+                checkDivision(a, b);
+                return a / b;
+            case MOD:
+                checkDivision(a, b);
+                return a % b;
+            case NEG: return -a;
+            case CMP_LT: return (a < b) ? 1 : 0;
+            case CMP_GT: return (a > b) ? 1 : 0;
+            case CMP_LE: return (a <= b) ? 1 : 0;
+            case CMP_GE: return (a >= b) ? 1 : 0;
+            case CMP_EQ: return (a == b) ? 1 : 0;
+            case CMP_NE: return (a != b) ? 1 : 0;
+            case NOT: return a ^ 1;
+            default:
+                throw new IllegalStateException("Not an operator: " + op);
+        }
+    }
+
+    private static void checkDivision(int a, int b) {
+        if (b == 0 || (a == Integer.MIN_VALUE && b == -1)) {
+            throw new Trap();
+        }
+    }
+}
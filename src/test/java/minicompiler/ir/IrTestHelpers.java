@@ -0,0 +1,93 @@
+package minicompiler.ir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import minicompiler.Compiler;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.pass.Budget;
+import minicompiler.ir.pass.Pass;
+import minicompiler.ir.pass.PassManager;
+import static org.junit.Assert.*;
+
+/**
+ * What the IR tests share: compiling source to IR, running passes,
+ * and checking that a transformation doesn't change what random programs print.
+ */
+public class IrTestHelpers {
+    /** Changes a program, e.g. by running passes over it. */
+    public interface Transformation {
+        PackedIr apply(PackedIr ir);
+    }
+
+    /** Compiles a program with the separate passes front end and no optimization. */
+    public static PackedIr compile(String source) {
+        try {
+            return Compiler.compileToIr(new StringReader(source), Compiler.FrontEnd.SEPARATE_PASSES);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Runs the passes in order with no budget. */
+    public static PackedIr optimize(PackedIr ir, Pass... passes) {
+        PassManager pm = new PassManager().setBudget(Budget.UNLIMITED);
+        for (Pass pass : passes) {
+            pm.add(pass);
+        }
+        return pm.run(ir);
+    }
+
+    /** A transformation that does {@link #optimize}. */
+    public static Transformation optimizing(final Pass... passes) {
+        return new Transformation() {
+            @Override
+            public PackedIr apply(PackedIr ir) {
+                return optimize(ir, passes);
+            }
+        };
+    }
+
+    /** Like {@link #optimizing}, but also checks that the program doesn't grow. */
+    public static Transformation shrinking(final Pass... passes) {
+        return new Transformation() {
+            @Override
+            public PackedIr apply(PackedIr ir) {
+                PackedIr out = optimize(ir, passes);
+                assertTrue(out.instructionCount() <= ir.instructionCount());
+                return out;
+            }
+        };
+    }
+
+    /** The number of instructions with the opcode. */
+    public static int count(PackedIr ir, Opcode opcode) {
+        int count = 0;
+        PackedIr.Cursor c = ir.cursor();
+        while (c.next()) {
+            if (c.opcode() == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compiles random programs of the given size and checks that each prints
+     * the same before and after the transformation. The inputs include the
+     * smallest int, -1 and 0, so some of the programs' divisions trap.
+     */
+    public static void assertKeepsOutput(long seed, int programs, int size, Transformation transformation) {
+        Random random = new Random(seed);
+        for (int i = 0; i < programs; ++i) {
+            String source = ProgramGenerator.randomProgram(random, size);
+            PackedIr ir = compile(source);
+            PackedIr out = transformation.apply(ir);
+            int[] inputs = { random.nextInt(10) - 3, Integer.MIN_VALUE, -1, 0 };
+            assertEquals(source, IrInterpreter.run(ir, inputs), IrInterpreter.run(out, inputs));
+        }
+    }
+
+    private IrTestHelpers() {
+    }
+}
@@ -0,0 +1,121 @@
+package minicompiler.ir;
+
+import java.util.Arrays;
+import java.util.List;
+import minicompiler.IrGenerator;
+import minicompiler.Parser;
+import minicompiler.Tokenizer;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.misc.Symbols;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PackedIrTest {
+    @Test
+    public void testRoundTrip() {
+        String[] sources = {
+            "{ x : int := -readInt(); if !(x <> 3) then printInt(x % 2); else x := x * (1 - 2) / 3; }",
+            ProgramGenerator.flatProgram(50),
+            ProgramGenerator.nestedIfs(50),
+        };
+        for (String source : sources) {
+            Symbols symbols = new Symbols();
+            List<IrCommand> commands = IrGenerator.generate(Parser.parseStatement(Tokenizer.tokenize(source)), symbols);
+            PackedIr ir = PackedIr.fromCommands(commands, symbols);
+            assertEquals(commands.size(), ir.instructionCount());
+            assertEquals(commands, ir.toCommands());
+        }
+    }
+
+    @Test
+    public void testOpcodes() {
+        Symbols symbols = new Symbols();
+        PackedIr ir = PackedIr.fromCommands(IrGenerator.generate(Parser.parseStatement(Tokenizer.tokenize(
+                "while x <> -y do { x := !b; printInt(x - 1); }")), symbols), symbols);
+        Opcode[] expected = {
+            Opcode.LABEL, Opcode.NEG, Opcode.CMP_NE, Opcode.GOTO_IF_NOT,
+            Opcode.NOT, Opcode.COPY, Opcode.SUB, Opcode.CALL, Opcode.GOTO, Opcode.LABEL
+        };
+        PackedIr.Cursor c = ir.cursor();
+        for (Opcode op : expected) {
+            assertTrue(c.next());
+            assertEquals(op, c.opcode());
+        }
+        assertFalse(c.next());
+    }
+
+    @Test
+    public void testCursor() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int f = symbols.intern("f");
+        int end = symbols.intern("end");
+        PackedIr ir = new PackedIr(symbols);
+        ir.call(x, f, new int[] { x, ir.constant(-7), ir.constant(Integer.MAX_VALUE) }, 3);
+        ir.operation(Opcode.ADD, x, x, ir.constant(1));
+        ir.jump(Opcode.GOTO_IF, end, x);
+        ir.label(end);
+
+        PackedIr.Cursor c = ir.cursor();
+        assertTrue(c.next());
+        assertEquals(Opcode.CALL, c.opcode());
+        assertEquals(x, c.target());
+        assertEquals(f, c.function());
+        assertEquals(3, c.argCount());
+        assertEquals(x, c.arg(0));
+        assertTrue(PackedIr.isConstant(c.arg(1)));
+        assertEquals(-7, ir.constantValue(c.arg(1)));
+        assertEquals(Integer.MAX_VALUE, ir.constantValue(c.arg(2)));
+
+        assertTrue(c.next());
+        assertEquals(Opcode.ADD, c.opcode());
+        c.setArg(0, ir.constant(5));
+        assertEquals(5, ir.constantValue(c.arg(0)));
+        assertEquals(1, ir.constantValue(c.arg(1)));
+
+        assertTrue(c.next());
+        assertEquals(Opcode.GOTO_IF, c.opcode());
+        assertEquals(end, c.label());
+        assertEquals(1, c.argCount());
+        assertEquals(x, c.arg(0));
+
+        assertTrue(c.next());
+        assertEquals(Opcode.LABEL, c.opcode());
+        assertEquals(0, c.argCount());
+        assertFalse(c.next());
+
+        c.reset();
+        assertTrue(c.next());
+        assertEquals(Opcode.CALL, c.opcode());
+        assertEquals("x := +(5, 1)", ir.toCommands().get(1).toString());
+    }
+
+    @Test
+    public void testVariablesFromAnotherTable() {
+        Symbols symbols = new Symbols();
+        symbols.intern("unrelated");
+        IrCommand[] commands = {
+            new IrCopy("x", new IrIntConst(1)),
+            new IrCall("y", "+", new IrVar("x"), new IrVar("x")),
+        };
+        PackedIr ir = PackedIr.fromCommands(Arrays.asList(commands), symbols);
+        assertEquals(Arrays.asList(commands), ir.toCommands());
+    }
+
+    @Test
+    public void testVariableEquality() {
+        Symbols symbols = new Symbols();
+        int t = symbols.generate("$resultOf_+_", 12);
+        int u = symbols.generate("$resultOf_+_", 13);
+        int negative = symbols.generate("v", -305);
+        IrVar var = new IrVar(symbols, t);
+        assertEquals(new IrVar(symbols, t), var);
+        assertFalse(var.equals(new IrVar(symbols, u)));
+
+        // Across tables the names are compared, and hash the same either way
+        assertEquals(new IrVar("$resultOf_+_12"), var);
+        assertEquals("$resultOf_+_12".hashCode(), var.hashCode());
+        assertEquals("v-305".hashCode(), new IrVar(symbols, negative).hashCode());
+        assertEquals("x".hashCode(), new IrVar(symbols, symbols.intern("x")).hashCode());
+    }
+}
@@ -0,0 +1,190 @@
+package minicompiler.ir.cfg;
+
+import java.util.Arrays;
+import java.util.Random;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CfgTest {
+    @Test
+    public void testIfElse() {
+        Cfg cfg = Cfg.build(compile(
+                "{ x : int := readInt(); if x > 0 then printInt(1); else printInt(2); printInt(3); }"));
+        // entry, then, else, end, exit
+        assertEquals(5, cfg.blockCount());
+        assertEquals(4, cfg.exit());
+        assertSuccessors(cfg, 0, 1, 2);
+        assertSuccessors(cfg, 1, 3);
+        assertSuccessors(cfg, 2, 3);
+        assertSuccessors(cfg, 3, 4);
+        assertSuccessors(cfg, 4);
+        assertEquals(2, cfg.predecessorCount(3));
+        assertEquals(-1, cfg.label(0));
+        assertEquals(2, cfg.blockOfLabel(cfg.label(2)));
+
+        Dominators dom = Dominators.compute(cfg);
+        assertEquals(-1, dom.idom(0));
+        assertEquals(0, dom.idom(1));
+        assertEquals(0, dom.idom(2));
+        assertEquals(0, dom.idom(3));
+        assertEquals(3, dom.idom(4));
+        assertTrue(dom.dominates(0, 4));
+        assertTrue(dom.dominates(3, 3));
+        assertFalse(dom.dominates(1, 3));
+        assertFalse(dom.dominates(2, 1));
+    }
+
+    @Test
+    public void testNestedLoops() {
+        Cfg cfg = Cfg.build(compile(
+                "{ i : int := 0; while i < 3 do { j : int := 0; while j < i do j := j + 1; i := i + 1; } printInt(i); }"));
+        Dominators dom = Dominators.compute(cfg);
+        LoopForest loops = LoopForest.compute(cfg, dom);
+
+        int outer = -1;
+        int inner = -1;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (loops.isHeader(b)) {
+                if (outer == -1) {
+                    outer = b;
+                } else {
+                    inner = b;
+                }
+            }
+        }
+        assertTrue(inner != -1);
+        assertEquals(-1, loops.parent(outer));
+        assertEquals(outer, loops.parent(inner));
+        assertEquals(1, loops.depth(outer));
+        assertEquals(2, loops.depth(inner));
+        assertTrue(loops.contains(outer, inner));
+        assertFalse(loops.contains(inner, outer));
+        assertEquals(0, loops.depth(0));
+        assertEquals(0, loops.depth(cfg.exit()));
+        assertTrue(dom.dominates(outer, inner));
+    }
+
+    @Test
+    public void testCodeAfterGotoIsUnreachable() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int end = symbols.intern("end");
+        PackedIr ir = new PackedIr(symbols);
+        ir.jump(end);
+        ir.copy(x, ir.constant(1));
+        ir.label(end);
+
+        Cfg cfg = Cfg.build(ir);
+        assertEquals(4, cfg.blockCount());
+        assertEquals(0, cfg.predecessorCount(1));
+        assertSuccessors(cfg, 0, 2);
+        Dominators dom = Dominators.compute(cfg);
+        assertFalse(dom.isReachable(1));
+        assertEquals(0, dom.idom(2));
+        assertEquals(ir.toCommands(), cfg.linearize().toCommands());
+    }
+
+    @Test
+    public void testLinearizingInTheOriginalOrderGivesTheSameCode() {
+        String[] sources = {
+            "{ x : int := 1; }",
+            "while true do printInt(1);",
+            ProgramGenerator.flatProgram(50),
+            ProgramGenerator.nestedIfs(50),
+            ProgramGenerator.manyScopes(50),
+        };
+        for (String source : sources) {
+            PackedIr ir = compile(source);
+            assertEquals(ir.toCommands(), Cfg.build(ir).linearize().toCommands());
+        }
+    }
+
+    @Test
+    public void testLinearizingInAnotherOrder() {
+        final Random random = new Random(17);
+        assertKeepsOutput(17, 200, 6, new Transformation() {
+            @Override
+            public PackedIr apply(PackedIr ir) {
+                Cfg cfg = Cfg.build(ir);
+
+                // Reachable blocks in reverse post-order, with the non-entry ones sometimes shuffled
+                int[] rpo = Dominators.compute(cfg).reversePostOrder();
+                int[] order = new int[rpo.length];
+                int count = 0;
+                order[count++] = cfg.entry();
+                for (int b : rpo) {
+                    if (b != cfg.entry() && b != cfg.exit()) {
+                        order[count++] = b;
+                    }
+                }
+                if (random.nextBoolean()) {
+                    for (int j = count - 1; j > 1; --j) {
+                        int k = 1 + random.nextInt(j);
+                        int tmp = order[j];
+                        order[j] = order[k];
+                        order[k] = tmp;
+                    }
+                }
+                order[count++] = cfg.exit();
+                return cfg.linearize(Arrays.copyOf(order, count));
+            }
+        });
+    }
+
+    @Test
+    public void testDeeplyNestedPrograms() {
+        Cfg cfg = Cfg.build(compile(ProgramGenerator.nestedIfs(5000)));
+        Dominators dom = Dominators.compute(cfg);
+        assertTrue(dom.dominates(0, cfg.exit()));
+
+        cfg = Cfg.build(compile(ProgramGenerator.manyScopes(5000)));
+        dom = Dominators.compute(cfg);
+        LoopForest loops = LoopForest.compute(cfg, dom);
+        int maxDepth = 0;
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            maxDepth = Math.max(maxDepth, loops.depth(b));
+        }
+        assertEquals(10, maxDepth);
+    }
+
+    @Test
+    public void testAddedInstructionsAndBlocks() {
+        PackedIr ir = compile("{ x : int := readInt(); if x > 0 then x := 1; printInt(x); }");
+        Cfg cfg = Cfg.build(ir);
+        PackedIr code = cfg.getIr();
+
+        // Put 'x := 2' on the edge from the entry to the block after the if
+        int edgeBlock = cfg.addBlock();
+        int copy = code.codeSize();
+        code.copy(code.getSymbols().lookup("x"), code.constant(2));
+        cfg.instructions(edgeBlock).push(copy);
+        int join = cfg.successor(0, 1);
+        cfg.setFallthrough(edgeBlock, join);
+        PackedIr.Cursor c = code.cursor();
+        c.seek(cfg.terminator(0));
+        assertEquals(Opcode.GOTO_IF_NOT, c.opcode());
+        c.setLabel(cfg.ensureLabel(edgeBlock));
+        cfg.updateEdges();
+        assertSuccessors(cfg, 0, 1, edgeBlock);
+        assertSuccessors(cfg, edgeBlock, join);
+
+        PackedIr changed = cfg.linearize();
+        assertEquals(Arrays.asList(1), IrInterpreter.run(changed, new int[] { 5 }));
+        assertEquals(Arrays.asList(2), IrInterpreter.run(changed, new int[] { -5 }));
+        assertEquals(Arrays.asList(-5), IrInterpreter.run(ir, new int[] { -5 }));
+    }
+
+    private static void assertSuccessors(Cfg cfg, int block, int... expected) {
+        int[] actual = new int[cfg.successorCount(block)];
+        for (int i = 0; i < actual.length; ++i) {
+            actual[i] = cfg.successor(block, i);
+        }
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,164 @@
+package minicompiler.ir.dataflow;
+
+import java.util.Random;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DataflowTest {
+    @Test
+    public void testLivenessInALoop() {
+        Cfg cfg = Cfg.build(compile(
+                "{ i : int := 0; n : int := readInt(); u : int := 5; while i < n do i := i + 1; printInt(u); }"));
+        Symbols symbols = cfg.getIr().getSymbols();
+        int i = symbols.lookup("i");
+        int n = symbols.lookup("n");
+        int u = symbols.lookup("u");
+        Liveness liveness = Liveness.compute(cfg);
+
+        int header = cfg.fallthrough(0);
+        assertTrue(liveness.isLiveIn(header, i));
+        assertTrue(liveness.isLiveIn(header, n));
+        assertTrue(liveness.isLiveIn(header, u));
+        assertTrue(liveness.isLiveOut(0, i));
+        assertFalse(liveness.isLiveIn(0, i));
+        assertFalse(liveness.isLiveIn(0, u));
+        assertFalse(liveness.isLiveIn(cfg.exit(), u));
+        // The loop body reads i, and nothing after the loop does
+        int body = cfg.fallthrough(header);
+        int after = cfg.successor(header, 1);
+        assertTrue(liveness.isLiveIn(body, i));
+        assertFalse(liveness.isLiveIn(after, i));
+        assertTrue(liveness.isLiveIn(after, u));
+    }
+
+    @Test
+    public void testReachingDefinitions() {
+        Cfg cfg = Cfg.build(compile(
+                "{ x : int := 1; if readInt() > 0 then x := 2; else { x := 3; x := 4; } printInt(x); }"));
+        int x = cfg.getIr().getSymbols().lookup("x");
+        ReachingDefinitions rd = ReachingDefinitions.compute(cfg);
+        assertEquals(4, rd.definitionCountOf(x));
+
+        int then = cfg.successor(0, 0);
+        int otherwise = cfg.successor(0, 1);
+        int join = cfg.successor(then, 0);
+        int[] reaching = new int[4];
+        for (int i = 0; i < 4; ++i) {
+            int d = rd.definitionOf(x, i);
+            assertEquals(x, rd.variable(d));
+            assertEquals(d, rd.definitionAt(rd.position(d)));
+            reaching[i] = rd.reachesIn(join, d) ? 1 : 0;
+        }
+        // 'x := 1' and 'x := 3' are overwritten before the join
+        assertArrayEquals(new int[] { 0, 1, 0, 1 }, reaching);
+        assertTrue(rd.reachesIn(then, rd.definitionOf(x, 0)));
+        assertTrue(rd.reachesOut(otherwise, rd.definitionOf(x, 3)));
+        assertFalse(rd.reachesOut(otherwise, rd.definitionOf(x, 2)));
+    }
+
+    @Test
+    public void testAvailableExpressions() {
+        Symbols symbols = new Symbols();
+        int a = symbols.intern("a");
+        int b = symbols.intern("b");
+        int t = symbols.intern("t");
+        int p = symbols.intern("p");
+        int otherwise = symbols.intern("otherwise");
+        int join = symbols.intern("join");
+        PackedIr ir = new PackedIr(symbols);
+        ir.operation(Opcode.ADD, t, a, ir.constant(1));
+        ir.operation(Opcode.MUL, t, b, b);
+        ir.jump(Opcode.GOTO_IF_NOT, otherwise, p);
+        ir.copy(b, ir.constant(0));
+        ir.jump(join);
+        ir.label(otherwise);
+        ir.operation(Opcode.ADD, t, a, ir.constant(1));
+        ir.label(join);
+
+        Cfg cfg = Cfg.build(ir);
+        AvailableExpressions ae = AvailableExpressions.compute(cfg);
+        assertEquals(2, ae.expressionCount());
+        int plus = ae.expressionAt(cfg.instructions(0).get(0));
+        int times = ae.expressionAt(cfg.instructions(0).get(1));
+        assertEquals(plus, ae.expressionAt(cfg.instructions(cfg.blockOfLabel(otherwise)).get(0)));
+        assertEquals(Opcode.MUL, ae.operator(times));
+
+        int joinBlock = cfg.blockOfLabel(join);
+        assertFalse(ae.isAvailableIn(0, plus));
+        assertTrue(ae.isAvailableOut(0, plus));
+        assertTrue(ae.isAvailableIn(joinBlock, plus));
+        // b is assigned on one of the paths
+        assertFalse(ae.isAvailableIn(joinBlock, times));
+        assertTrue(ae.isAvailableIn(cfg.blockOfLabel(otherwise), times));
+    }
+
+    @Test
+    public void testLivenessIsAFixedPoint() {
+        Random random = new Random(4);
+        for (int n = 0; n < 100; ++n) {
+            Cfg cfg = Cfg.build(compile(ProgramGenerator.randomProgram(random, 8)));
+            Liveness liveness = Liveness.compute(cfg);
+            int bits = cfg.getIr().getSymbols().size();
+            BitMatrix live = new BitMatrix(1, bits);
+            PackedIr.Cursor c = cfg.getIr().cursor();
+            for (int b : cfg.reversePostOrder()) {
+                // OUT is the union of the successors' INs
+                for (int v = 0; v < bits; ++v) {
+                    boolean expected = false;
+                    for (int i = 0; i < cfg.successorCount(b); ++i) {
+                        expected |= liveness.isLiveIn(cfg.successor(b, i), v);
+                    }
+                    assertEquals(expected, liveness.isLiveOut(b, v));
+                }
+                // IN is OUT stepped back over the block's instructions
+                liveness.liveOut(b, live, 0);
+                IntStack instructions = cfg.instructions(b);
+                for (int i = instructions.size() - 1; i >= 0; --i) {
+                    c.seek(instructions.get(i));
+                    Liveness.stepBackward(c, live, 0);
+                }
+                for (int v = 0; v < bits; ++v) {
+                    assertEquals(live.get(0, v), liveness.isLiveIn(b, v));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBitMatrix() {
+        BitMatrix m = new BitMatrix(3, 130);
+        m.set(1, 0);
+        m.set(1, 64);
+        m.set(1, 129);
+        assertEquals(0, m.nextSetBit(1, 0));
+        assertEquals(64, m.nextSetBit(1, 1));
+        assertEquals(129, m.nextSetBit(1, 65));
+        assertEquals(-1, m.nextSetBit(1, 130));
+        assertEquals(-1, m.nextSetBit(0, 0));
+        m.fill(2);
+        assertEquals(130, m.count(2));
+        m.andNot(2, m, 1);
+        assertEquals(127, m.count(2));
+        m.clear(2, 5);
+        assertFalse(m.get(2, 5));
+        m.or(0, m, 1);
+        assertEquals(3, m.count(0));
+        m.and(0, m, 2);
+        assertEquals(0, m.count(0));
+    }
+
+    @Test
+    public void testVisitsOnStraightLineCode() {
+        Cfg cfg = Cfg.build(compile(ProgramGenerator.nestedIfs(200)));
+        Liveness liveness = Liveness.compute(cfg);
+        // Without loops, each block's successors are done before it
+        assertEquals(cfg.reversePostOrder().length, liveness.visits());
+    }
+}
@@ -0,0 +1,131 @@
+package minicompiler.ir.pass;
+
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.ir.dataflow.Liveness;
+import minicompiler.ir.ssa.SsaForm;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BudgetTest {
+    @Test
+    public void testPassOverBudgetIsSkipped() {
+        PackedIr ir = compile("{ x : int := readInt(); if x > 0 then printInt(x); }");
+        GreedyPass first = new GreedyPass(1000000);
+        GreedyPass second = new GreedyPass(10);
+        PassManager pm = new PassManager()
+                .add(first)
+                .add(second)
+                .setBudget(new Budget(10, 1000, 0, 0));
+        PackedIr out = pm.run(ir);
+
+        // The first pass replaced the program before going over, but that was undone
+        assertSame(ir, second.given);
+        assertNotSame(ir, out);
+        PassStatistics skipped = pm.getStatistics().get(0);
+        assertTrue(skipped.isSkipped());
+        assertFalse(skipped.isChanged());
+        assertTrue(skipped.getNotes().get(0).startsWith("skipped: over the budget of "));
+        assertEquals(1, pm.budgetDecisions().size());
+        assertTrue(pm.budgetDecisions().get(0).startsWith("greedy: skipped"));
+
+        PassStatistics next = pm.getStatistics().get(1);
+        assertFalse(next.isSkipped());
+        assertTrue(next.isChanged());
+        // It had to compute the CFG again, since the skipped pass may have messed with it
+        assertEquals(1, next.getAnalysesComputed());
+    }
+
+    @Test
+    public void testTimeLimit() {
+        PackedIr ir = compile("printInt(1);");
+        PassManager pm = new PassManager()
+                .add(new SlowPass())
+                .setBudget(Budget.UNLIMITED.withTimeLimit(1, 1000000));
+        assertSame(ir, pm.run(ir));
+        assertTrue(pm.getStatistics().get(0).isSkipped());
+        assertTrue(pm.getStatistics().get(0).getNotes().get(0).startsWith("skipped: out of time"));
+    }
+
+    @Test
+    public void testLivenessFallsBackWhenTooBig() {
+        PackedIr ir = compile(ProgramGenerator.nestedIfs(300));
+        Budget small = new Budget(5, 0, 0, 0);
+        assertTrue(Liveness.estimateCost(Cfg.build(ir)) > small.workLimit(ir.instructionCount()));
+
+        PassContext context = new PassContext(ir);
+        context.startPass(Budget.DEFAULT);
+        assertFalse(context.get(Analyses.LIVENESS).isConservative());
+
+        context = new PassContext(ir);
+        context.startPass(small);
+        Liveness liveness = context.get(Analyses.LIVENESS);
+        assertTrue(liveness.isConservative());
+        assertTrue(liveness.isLiveOut(0, 0));
+        assertTrue(context.notes().get(0).startsWith("liveness would cost about "));
+    }
+
+    @Test
+    public void testSsaStopsAsSoonAsItGoesOver() {
+        // 3000 phis at each of 3000 loops would take gigabytes
+        PackedIr ir = compile(ProgramGenerator.nestedLoops(3000));
+        long limit = Budget.DEFAULT.workLimit(ir.instructionCount());
+        PassContext context = new PassContext(ir);
+        context.startPass(Budget.DEFAULT);
+        try {
+            SsaForm.build(Cfg.build(ir), context);
+            fail();
+        } catch (BudgetExceededException e) {
+        }
+        assertTrue(context.workDone() <= limit + ir.codeSize());
+    }
+
+    @Test
+    public void testUnlimitedBudget() {
+        assertEquals(Long.MAX_VALUE, Budget.UNLIMITED.workLimit(Integer.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Budget.UNLIMITED.timeLimit(100));
+        assertEquals(Long.MAX_VALUE, new Budget(Long.MAX_VALUE / 2, 5, 0, 0).workLimit(3));
+        assertEquals(1000000 + 10 * 1000, Budget.DEFAULT.workLimit(10));
+    }
+
+    /** Replaces the program with a copy and then charges the given work. */
+    private static class GreedyPass implements Pass {
+        private final long work;
+        PackedIr given;
+
+        GreedyPass(long work) {
+            this.work = work;
+        }
+
+        @Override
+        public String getName() {
+            return "greedy";
+        }
+
+        @Override
+        public boolean run(PassContext context) {
+            given = context.getIr();
+            context.setIr(context.get(Analyses.CFG).linearize());
+            context.charge(work);
+            return true;
+        }
+    }
+
+    private static class SlowPass implements Pass {
+        @Override
+        public String getName() {
+            return "slow";
+        }
+
+        @Override
+        public boolean run(PassContext context) {
+            context.setIr(context.getIr().copy());
+            while (true) {
+                context.charge(1);
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package minicompiler.ir.pass;
+
+import java.util.Arrays;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class EliminateDeadCodeTest {
+    private static final Pass[] PASSES = { new EliminateDeadCode() };
+
+    @Test
+    public void testUnusedTemporariesAndDeadStores() {
+        PackedIr ir = compile("{ x : int := readInt(); y : int := x * 2; y := 3; printInt(y); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(0, count(out, Opcode.MUL));
+        assertEquals(2, count(out, Opcode.CALL));
+        assertEquals(Arrays.asList(3), IrInterpreter.run(out, new int[] { 4 }));
+    }
+
+    @Test
+    public void testDeadChainAcrossBlocks() {
+        // 'c := b' goes first, and then 'b := a + 1' in another block
+        PackedIr ir = compile("{ a : int := readInt(); b : int := a + 1; if a > 0 then printInt(a); c : int := b; }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(0, count(out, Opcode.ADD));
+        assertEquals(Arrays.asList(4), IrInterpreter.run(out, new int[] { 4 }));
+    }
+
+    @Test
+    public void testCallsAndTrapsAreKept() {
+        PackedIr ir = compile("{ x : int := readInt(); z : int := x / 2; y : int := 5 / (x - x); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(1, count(out, Opcode.CALL));
+        assertEquals(1, count(out, Opcode.DIV));
+        assertEquals(Arrays.asList((Integer)null), IrInterpreter.run(out, new int[] { 4 }));
+    }
+
+    @Test
+    public void testCodeAfterGotoIsRemoved() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int y = symbols.intern("y");
+        int next = symbols.intern("next");
+        int printInt = symbols.intern("printInt");
+        PackedIr ir = new PackedIr(symbols);
+        ir.copy(x, ir.constant(1));
+        ir.jump(next);
+        ir.copy(y, ir.constant(2));  // Unreachable
+        ir.copy(x, y);
+        ir.label(next);
+        ir.call(y, printInt, new int[] { x }, 1);
+
+        PackedIr out = new PassManager().add(new EliminateDeadCode()).run(ir);
+        assertEquals(4, out.instructionCount());
+        assertEquals(1, count(out, Opcode.COPY));
+        assertEquals(Arrays.asList(1), IrInterpreter.run(out, new int[0]));
+    }
+
+    @Test
+    public void testRandomProgramsKeepTheirOutput() {
+        assertKeepsOutput(24, 300, 8, shrinking(PASSES));
+    }
+}
@@ -0,0 +1,117 @@
+package minicompiler.ir.pass;
+
+import java.util.List;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PassManagerTest {
+    @Test
+    public void testAnalysesAreKeptUntilSomethingChanges() {
+        CountingPass first = new CountingPass(false);
+        CountingPass second = new CountingPass(false);
+        CountingPass changing = new CountingPass(true);
+        CountingPass last = new CountingPass(false);
+        PassManager pm = new PassManager().add(first).add(second).add(changing).add(last);
+        pm.run(compile("{ x : int := readInt(); if x > 0 then printInt(x); }"));
+
+        assertSame(first.cfg, second.cfg);
+        assertSame(second.cfg, changing.cfg);
+        assertNotSame(changing.cfg, last.cfg);
+
+        List<PassStatistics> stats = pm.getStatistics();
+        assertEquals(4, stats.size());
+        // The CFG and dominators
+        assertEquals(2, stats.get(0).getAnalysesComputed());
+        assertEquals(0, stats.get(1).getAnalysesComputed());
+        assertEquals(0, stats.get(2).getAnalysesComputed());
+        assertEquals(2, stats.get(3).getAnalysesComputed());
+        assertFalse(stats.get(1).isChanged());
+        assertTrue(stats.get(2).isChanged());
+        assertEquals("counting", stats.get(0).getPassName());
+        assertTrue(stats.get(0).getNanos() > 0);
+        assertEquals(stats.get(2).getInstructionsBefore(), stats.get(2).getInstructionsAfter());
+        assertEquals(6, pm.report().size());
+    }
+
+    @Test
+    public void testSimplifyCfg() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int next = symbols.intern("next");
+        int unused = symbols.intern("unused");
+        int printInt = symbols.intern("printInt");
+        PackedIr ir = new PackedIr(symbols);
+        ir.copy(x, ir.constant(1));
+        ir.jump(next);
+        ir.call(x, printInt, new int[] { x }, 1);  // Unreachable
+        ir.label(next);
+        ir.label(unused);
+        ir.call(x, printInt, new int[] { x }, 1);
+
+        PassManager pm = new PassManager().add(new SimplifyCfg());
+        PackedIr out = pm.run(ir);
+        assertEquals(2, out.instructionCount());
+        PackedIr.Cursor c = out.cursor();
+        while (c.next()) {
+            assertTrue(c.opcode() == Opcode.COPY || c.opcode() == Opcode.CALL);
+        }
+        assertEquals(IrInterpreter.run(ir, new int[0]), IrInterpreter.run(out, new int[0]));
+        assertTrue(pm.getStatistics().get(0).isChanged());
+        assertEquals(6, pm.getStatistics().get(0).getInstructionsBefore());
+        assertEquals(2, pm.getStatistics().get(0).getInstructionsAfter());
+
+        // Running it again changes nothing
+        PassManager again = new PassManager().add(new SimplifyCfg());
+        assertSame(out, again.run(out));
+        assertFalse(again.getStatistics().get(0).isChanged());
+    }
+
+    @Test
+    public void testLevelsKeepTheOutputOfRandomPrograms() {
+        for (final OptimizationLevel level : OptimizationLevel.values()) {
+            assertKeepsOutput(20, 200, 8, new Transformation() {
+                @Override
+                public PackedIr apply(PackedIr ir) {
+                    return PassManager.forLevel(level).run(ir);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testLevelFlags() {
+        assertSame(OptimizationLevel.O2, OptimizationLevel.fromFlag("-O2"));
+        assertNull(OptimizationLevel.fromFlag("-O3"));
+        assertNull(OptimizationLevel.fromFlag("O1"));
+        assertTrue(PassManager.forLevel(OptimizationLevel.O0).getPasses().isEmpty());
+    }
+
+    /** Gets the CFG and dominators, and pretends to change the program if told to. */
+    private static class CountingPass implements Pass {
+        private final boolean change;
+        Cfg cfg;
+
+        CountingPass(boolean change) {
+            this.change = change;
+        }
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public boolean run(PassContext context) {
+            cfg = context.get(Analyses.CFG);
+            context.get(Analyses.DOMINATORS);
+            assertTrue(context.isComputed(Analyses.CFG));
+            return change;
+        }
+    }
+}
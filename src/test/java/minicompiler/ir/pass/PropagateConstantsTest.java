@@ -0,0 +1,78 @@
+package minicompiler.ir.pass;
+
+import java.util.Arrays;
+import minicompiler.benchmark.ProgramGenerator;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PropagateConstantsTest {
+    private static final Pass[] PASSES = { new PropagateConstants(), new SimplifyCfg() };
+
+    @Test
+    public void testConstantConditionRemovesTheOtherBranch() {
+        PackedIr ir = compile("{ x : int := 3; y : int := x * 2; if y > 5 then printInt(1); else printInt(2); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(0, count(out, Opcode.GOTO_IF) + count(out, Opcode.GOTO_IF_NOT));
+        assertEquals(1, count(out, Opcode.CALL));
+        assertEquals(Arrays.asList(1), IrInterpreter.run(out, new int[0]));
+    }
+
+    @Test
+    public void testConstantThroughLoop() {
+        // k is the same on every path into the loop, but i isn't
+        PackedIr ir = compile("{ k : int := 5; i : int := 0; while i < 3 do { printInt(k * 2); i := i + 1; k := 5; } }");
+        PackedIr out = optimize(ir, PASSES);
+        PackedIr.Cursor c = out.cursor();
+        while (c.next()) {
+            if (c.opcode() == Opcode.CALL) {
+                assertTrue(PackedIr.isConstant(c.arg(0)));
+                assertEquals(10, out.constantValue(c.arg(0)));
+            }
+        }
+        assertEquals(1, count(out, Opcode.GOTO_IF_NOT));
+        assertEquals(Arrays.asList(10, 10, 10), IrInterpreter.run(out, new int[0]));
+    }
+
+    @Test
+    public void testBranchNotTakenDoesNotMakeValuesVary() {
+        PackedIr ir = compile("{ x : int := 1; if x == 2 then x := readInt(); printInt(x); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(1, count(out, Opcode.CALL));
+        assertEquals(Arrays.asList(1), IrInterpreter.run(out, new int[] { 7 }));
+    }
+
+    @Test
+    public void testTrappingDivisionIsKept() {
+        PackedIr ir = compile("{ x : int := 0; printInt(1); printInt(5 / x); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(1, count(out, Opcode.DIV));
+        assertEquals(Arrays.asList(1, null), IrInterpreter.run(out, new int[0]));
+    }
+
+    @Test
+    public void testNothingToDo() {
+        PackedIr ir = compile("{ x : int := readInt(); if x > 0 then printInt(x); }");
+        PassManager pm = new PassManager().add(new PropagateConstants());
+        assertSame(ir, pm.run(ir));
+        assertFalse(pm.getStatistics().get(0).isChanged());
+    }
+
+    @Test
+    public void testTooManyPhisIsSkippedEarly() {
+        PackedIr ir = compile(ProgramGenerator.nestedLoops(3000));
+        PassManager pm = new PassManager().add(new PropagateConstants());
+        assertSame(ir, pm.run(ir));
+        PassStatistics stats = pm.getStatistics().get(0);
+        assertTrue(stats.isSkipped());
+        assertTrue(stats.getWork() <= Budget.DEFAULT.workLimit(ir.instructionCount()) + ir.codeSize());
+    }
+
+    @Test
+    public void testRandomProgramsKeepTheirOutput() {
+        assertKeepsOutput(23, 300, 8, optimizing(PASSES));
+    }
+}
@@ -0,0 +1,82 @@
+package minicompiler.ir.pass;
+
+import java.util.Arrays;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PropagateCopiesTest {
+    private static final Pass[] PASSES = { new PropagateCopies() };
+
+    @Test
+    public void testResultsGoStraightIntoVariables() {
+        PackedIr ir = compile("{ n : int := readInt(); n := n * 3 + 1; printInt(n); }");
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(0, count(out, Opcode.COPY));
+        assertEquals(4, out.instructionCount());
+        assertEquals(Arrays.asList(7), IrInterpreter.run(out, new int[] { 2 }));
+    }
+
+    @Test
+    public void testVariableReadInBetweenIsNotCoalesced() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int t = symbols.intern("t");
+        int printInt = symbols.intern("printInt");
+        int readInt = symbols.intern("readInt");
+        PackedIr ir = new PackedIr(symbols);
+        ir.call(x, readInt, new int[0], 0);
+        ir.operation(Opcode.ADD, t, x, ir.constant(1));
+        ir.call(symbols.intern("r1"), printInt, new int[] { x }, 1);
+        ir.copy(x, t);
+        ir.call(symbols.intern("r2"), printInt, new int[] { x }, 1);
+
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(Arrays.asList(5, 6), IrInterpreter.run(out, new int[] { 5 }));
+        PackedIr.Cursor c = out.cursor();
+        while (c.next()) {
+            if (c.opcode() == Opcode.ADD) {
+                assertEquals(t, c.target());
+            }
+        }
+    }
+
+    @Test
+    public void testCopiesStopWhenTheSourceChanges() {
+        Symbols symbols = new Symbols();
+        int x = symbols.intern("x");
+        int y = symbols.intern("y");
+        int printInt = symbols.intern("printInt");
+        int readInt = symbols.intern("readInt");
+        PackedIr ir = new PackedIr(symbols);
+        ir.call(x, readInt, new int[0], 0);
+        ir.copy(y, x);
+        ir.call(symbols.intern("r1"), printInt, new int[] { y }, 1);
+        ir.copy(x, ir.constant(5));
+        ir.call(symbols.intern("r2"), printInt, new int[] { y }, 1);
+        ir.call(symbols.intern("r3"), printInt, new int[] { x }, 1);
+
+        PackedIr out = optimize(ir, PASSES);
+        assertEquals(Arrays.asList(3, 3, 5), IrInterpreter.run(out, new int[] { 3 }));
+        int[] printed = new int[3];
+        int calls = 0;
+        PackedIr.Cursor c = out.cursor();
+        while (c.next()) {
+            if (c.opcode() == Opcode.CALL && c.function() == printInt) {
+                printed[calls++] = c.arg(0);
+            }
+        }
+        assertEquals(x, printed[0]);
+        assertEquals(y, printed[1]);  // x was assigned since
+        assertEquals(5, out.constantValue(printed[2]));
+    }
+
+    @Test
+    public void testRandomProgramsKeepTheirOutput() {
+        assertKeepsOutput(25, 300, 8, shrinking(PASSES));
+    }
+}
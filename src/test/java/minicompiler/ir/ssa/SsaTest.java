@@ -0,0 +1,195 @@
+package minicompiler.ir.ssa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import minicompiler.ir.IrInterpreter;
+import minicompiler.ir.Opcode;
+import minicompiler.ir.PackedIr;
+import minicompiler.ir.cfg.Cfg;
+import minicompiler.misc.IntStack;
+import minicompiler.misc.Symbols;
+import static minicompiler.ir.IrTestHelpers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SsaTest {
+    @Test
+    public void testPhiAtLoopHeader() {
+        SsaForm ssa = SsaForm.build(Cfg.build(compile(
+                "{ i : int := 0; while i < 3 do i := i + 1; printInt(i); }")));
+        int phi = onlyPhiOf(ssa, "i");
+        assertEquals(2, ssa.phiArgCount(phi));
+        assertEquals("i.2", ssa.name(ssa.phiTarget(phi)));
+        Set<String> args = new HashSet<String>();
+        for (int i = 0; i < 2; ++i) {
+            args.add(ssa.name(ssa.phiArg(phi, i)));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("i.1", "i.3")), args);
+    }
+
+    @Test
+    public void testPhiAtJoin() {
+        PackedIr ir = compile("{ x : int := readInt(); if x > 0 then x := 1; else x := 2; printInt(x); }");
+        SsaForm ssa = SsaForm.build(Cfg.build(ir));
+        int phi = onlyPhiOf(ssa, "x");
+        assertEquals(2, ssa.phiArgCount(phi));
+        assertSingleAssignment(ssa);
+
+        PackedIr out = ssa.destruct();
+        assertEquals(Arrays.asList(1), IrInterpreter.run(out, new int[] { 5 }));
+        assertEquals(Arrays.asList(2), IrInterpreter.run(out, new int[] { -5 }));
+    }
+
+    @Test
+    public void testVariablesUsedInOneBlockGetNoPhis() {
+        SsaForm ssa = SsaForm.build(Cfg.build(compile(
+                "{ i : int := 0; while i < 3 do { j : int := i * 2; printInt(j + 1); i := i + 1; } }")));
+        Symbols symbols = ssa.getCfg().getIr().getSymbols();
+        for (int phi = 0; phi < ssa.phiCount(); ++phi) {
+            assertEquals("i", symbols.name(ssa.phiVariable(phi)));
+        }
+    }
+
+    @Test
+    public void testOnlyVersionsStillUsedAreNamed() {
+        PackedIr ir = compile("{ x : int := readInt(); x := x + 1; x := x * 2; x := 5; printInt(x); }");
+        Symbols symbols = ir.getSymbols();
+        int before = symbols.size();
+        SsaForm ssa = SsaForm.build(Cfg.build(ir));
+        assertEquals(before, symbols.size());
+        assertTrue(ssa.registerCount() > before);
+
+        // Keep only 'x.4 := 5' and the print, as if the rest were dead
+        Cfg cfg = ssa.getCfg();
+        PackedIr.Cursor c = cfg.getIr().cursor();
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            IntStack instructions = cfg.instructions(b);
+            IntStack kept = new IntStack();
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                boolean print = c.opcode() == Opcode.CALL && c.argCount() == 1;
+                if (!c.opcode().hasTarget() || print || ssa.name(c.target()).equals("x.4")) {
+                    kept.push(instructions.get(i));
+                }
+            }
+            instructions.truncate(0);
+            for (int i = 0; i < kept.size(); ++i) {
+                instructions.push(kept.get(i));
+            }
+        }
+
+        PackedIr out = ssa.destruct();
+        int named = 0;
+        for (int id = before; id < symbols.size(); ++id) {
+            if (symbols.name(id).startsWith("x.")) {
+                assertEquals("x.4", symbols.name(id));
+                named++;
+            }
+        }
+        assertEquals(1, named);
+        assertEquals(Arrays.asList(5), IrInterpreter.run(out, new int[] { 3 }));
+    }
+
+    @Test
+    public void testRandomProgramsKeepTheirOutput() {
+        assertKeepsOutput(19, 300, 8, new Transformation() {
+            @Override
+            public PackedIr apply(PackedIr ir) {
+                SsaForm ssa = SsaForm.build(Cfg.build(ir));
+                assertSingleAssignment(ssa);
+                return ssa.destruct();
+            }
+        });
+    }
+
+    @Test
+    public void testParallelSwap() {
+        Symbols symbols = new Symbols();
+        int a = symbols.intern("a");
+        int b = symbols.intern("b");
+        int tmp = symbols.intern("tmp");
+        PackedIr ir = new PackedIr(symbols);
+        ir.copy(a, ir.constant(1));
+        ir.copy(b, ir.constant(2));
+        IntStack positions = new IntStack();
+        new ParallelCopy().sequentialize(new int[] { a, b }, new int[] { b, a }, 2, tmp, ir, positions);
+        assertEquals(3, positions.size());
+        printAll(ir, a, b);
+        assertEquals(Arrays.asList(2, 1), IrInterpreter.run(ir, new int[0]));
+    }
+
+    @Test
+    public void testParallelCycleWithTreeAndConstants() {
+        Symbols symbols = new Symbols();
+        int a = symbols.intern("a");
+        int b = symbols.intern("b");
+        int c = symbols.intern("c");
+        int d = symbols.intern("d");
+        int e = symbols.intern("e");
+        int tmp = symbols.intern("tmp");
+        PackedIr ir = new PackedIr(symbols);
+        ir.copy(a, ir.constant(1));
+        ir.copy(b, ir.constant(2));
+        ir.copy(c, ir.constant(3));
+        ParallelCopy parallelCopy = new ParallelCopy();
+        IntStack positions = new IntStack();
+        // a, b, c, d, e := b, c, a, a, 5
+        parallelCopy.sequentialize(
+                new int[] { a, b, c, d, e },
+                new int[] { b, c, a, a, ir.constant(5) },
+                5, tmp, ir, positions);
+        // Copying a to d first frees a, so the cycle needs no temporary
+        assertEquals(5, positions.size());
+        // The same instance again: a, b := a, a
+        parallelCopy.sequentialize(new int[] { a, b }, new int[] { a, a }, 2, tmp, ir, positions);
+        assertEquals(6, positions.size());
+        printAll(ir, a, b, c, d, e);
+        assertEquals(Arrays.asList(2, 2, 1, 1, 5), IrInterpreter.run(ir, new int[0]));
+    }
+
+    private static int onlyPhiOf(SsaForm ssa, String variable) {
+        Symbols symbols = ssa.getCfg().getIr().getSymbols();
+        int found = -1;
+        for (int phi = 0; phi < ssa.phiCount(); ++phi) {
+            if (symbols.name(ssa.phiVariable(phi)).equals(variable)) {
+                assertEquals(-1, found);
+                found = phi;
+            }
+        }
+        assertTrue(found != -1);
+        return found;
+    }
+
+    private static void assertSingleAssignment(SsaForm ssa) {
+        Cfg cfg = ssa.getCfg();
+        PackedIr.Cursor c = cfg.getIr().cursor();
+        Set<Integer> assigned = new HashSet<Integer>();
+        for (int b = 0; b < cfg.blockCount(); ++b) {
+            if (cfg.isRemoved(b)) {
+                continue;
+            }
+            for (int i = 0; i < ssa.phiCountOf(b); ++i) {
+                assertTrue(assigned.add(ssa.phiTarget(ssa.phiOf(b, i))));
+            }
+            IntStack instructions = cfg.instructions(b);
+            for (int i = 0; i < instructions.size(); ++i) {
+                c.seek(instructions.get(i));
+                if (c.opcode().hasTarget()) {
+                    assertTrue(assigned.add(c.target()));
+                }
+            }
+        }
+    }
+
+    private static void printAll(PackedIr ir, int... variables) {
+        int printInt = ir.getSymbols().intern("printInt");
+        int ignored = ir.getSymbols().intern("ignored");
+        for (int v : variables) {
+            ir.call(ignored, printInt, new int[] { v }, 1);
+        }
+    }
+}
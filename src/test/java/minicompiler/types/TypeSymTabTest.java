@@ -0,0 +1,58 @@
+package minicompiler.types;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TypeSymTabTest {
+    @Test
+    public void testPopForgetsInnerScope() {
+        TypeSymTab tab = new TypeSymTab();
+        tab.put(0, IntType.instance);
+        tab.pushState();
+        tab.put(1, BoolType.instance);
+        tab.pushState();
+        tab.put(100, IntType.instance);
+        assertEquals(IntType.instance, tab.get(0));
+        assertEquals(BoolType.instance, tab.get(1));
+        assertTrue(tab.containsKey(100));
+
+        tab.popState();
+        assertFalse(tab.containsKey(100));
+        assertEquals(BoolType.instance, tab.get(1));
+        tab.popState();
+        assertFalse(tab.containsKey(1));
+        assertEquals(IntType.instance, tab.get(0));
+    }
+
+    @Test
+    public void testPopRestoresReplacedType() {
+        TypeSymTab tab = new TypeSymTab();
+        tab.put(3, IntType.instance);
+        tab.pushState();
+        tab.put(3, BoolType.instance);
+        tab.put(3, IntType.instance);
+        tab.put(3, BoolType.instance);
+        tab.popState();
+        assertEquals(IntType.instance, tab.get(3));
+    }
+
+    @Test
+    public void testSiblingScopes() {
+        TypeSymTab tab = new TypeSymTab();
+        for (int i = 0; i < 1000; ++i) {
+            tab.pushState();
+            assertFalse(tab.containsKey(5));
+            tab.put(5, (i % 2 == 0) ? IntType.instance : BoolType.instance);
+            tab.popState();
+        }
+        assertNull(tab.get(5));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotPopOutermostState() {
+        TypeSymTab tab = new TypeSymTab();
+        tab.pushState();
+        tab.popState();
+        tab.popState();
+    }
+}